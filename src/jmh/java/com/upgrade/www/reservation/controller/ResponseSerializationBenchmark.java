@@ -0,0 +1,81 @@
+package com.upgrade.www.reservation.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.models.output.ReservationDetail;
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.InProcessBookingCacheProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the controller responses with the same object mapper defaults Spring Boot configures,
+ * through the bean serializers or the hand written ones of the {@link ResponseSerializationModule}.
+ * Run with -PjmhIncludes=ResponseSerialization, the `serializers` param gives the before and after of the module and
+ * the gc profiler its allocation rate. No results are recorded, numbers only hold for the Jackson version of the build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseSerializationBenchmark {
+
+    private static final int CAMPSITE_ID = 1;
+
+    // Available dates of a lookup window, 30 days is the whole purchase window. The reservation response does not depend on it
+    @Param({"3", "30"})
+    public int windowDays;
+
+    @Param({"bean", "module"})
+    public String serializers;
+
+    private ObjectMapper objectMapper;
+    private AvailabilityDetailsResponse availabilityResponse;
+    private ReservationResponse reservationResponse;
+
+    @Setup
+    public void setUp() {
+        objectMapper = "module".equals(serializers)
+                ? Jackson2ObjectMapperBuilder.json().modulesToInstall(new ResponseSerializationModule()).build()
+                : Jackson2ObjectMapperBuilder.json().build();
+
+        // Availability dates come from the cache so the list type matches what the controller returns
+        final LocalDate firstNight = LocalDate.now().plusDays(1);
+        final List<LocalDate> availableDates = new BookingCache(new InProcessBookingCacheProvider()).getAvailableDates(CAMPSITE_ID, new DateRange(firstNight, firstNight.plusDays(windowDays)));
+        availabilityResponse = new AvailabilityDetailsResponse(availableDates, new ArrayList<>());
+
+        // A modification responds with both the cancelled and the new reservation
+        final List<ReservationDetail> details = new ArrayList<>();
+        details.add(new ReservationDetail(UUID.randomUUID().toString(), CAMPSITE_ID, "guest@test.com",
+                BookingStatus.CANCELLED.name(), firstNight, firstNight.plusDays(3), 1L));
+        details.add(new ReservationDetail(UUID.randomUUID().toString(), CAMPSITE_ID, "guest@test.com",
+                BookingStatus.CONFIRMED.name(), firstNight.plusDays(1), firstNight.plusDays(4), 1L));
+        reservationResponse = new ReservationResponse(details, new ArrayList<>());
+    }
+
+    @Benchmark
+    public byte[] serializeAvailabilityDetailsResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(availabilityResponse);
+    }
+
+    @Benchmark
+    public byte[] serializeReservationResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(reservationResponse);
+    }
+}
@@ -0,0 +1,56 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.models.common.DateRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Availability lookups over windows of different sizes with a given fraction of their nights booked
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BookingCacheBenchmark {
+
+    private static final int CAMPSITE_ID = 1;
+
+    @Param({"3", "30", "365"})
+    public int windowDays;
+
+    @Param({"0.0", "0.5", "0.9"})
+    public double bookedDensity;
+
+    private BookingCache bookingCache;
+    private DateRange window;
+
+    @Setup
+    public void setUp() {
+        final LocalDate firstNight = LocalDate.now().plusDays(1);
+        bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+        window = new DateRange(firstNight, firstNight.plusDays(windowDays));
+
+        // Fixed seed so every run books the same nights
+        final Random random = new Random(42);
+        for (LocalDate night = firstNight; night.isBefore(window.getEndDate()); night = night.plusDays(1)) {
+            if (random.nextDouble() < bookedDensity) {
+                bookingCache.restoreBookedDates(CAMPSITE_ID, new DateRange(night, night.plusDays(1)));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<LocalDate> getAvailableDates() {
+        return bookingCache.getAvailableDates(CAMPSITE_ID, window);
+    }
+}
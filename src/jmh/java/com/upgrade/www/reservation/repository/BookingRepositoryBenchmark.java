@@ -0,0 +1,122 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingJournal;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingSnapshotStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write paths of the in memory repository, run with -PjmhThreads=<n> to measure them under n concurrent writers.
+ * In `contended` mode every thread books the same nights so all but one attempt are rejected, and as a rejection
+ * is cheaper than a commit its throughput is not comparable to `disjoint` mode's. In `disjoint` mode each thread books its own nights. Every thread owns a block of night lock stripes holding its
+ * target nights then its home nights, so no two threads share a stripe up to `NightLocks.STRIPES / 6` (10) threads.
+ * The repository is rebuilt every iteration as cancelled records are never deleted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BookingRepositoryBenchmark {
+
+    private static final int CAMPSITE_ID = 1;
+    private static final int STAY_LENGTH = 3;
+    // Consecutive nights are on consecutive stripes, the target nights of a thread are followed by its home nights
+    private static final int STRIPES_PER_THREAD = 2 * STAY_LENGTH;
+
+    @State(Scope.Benchmark)
+    public static class SharedState {
+
+        @Param({"contended", "disjoint"})
+        public String dateRanges;
+
+        // First night past tomorrow which maps to stripe 0
+        final LocalDate firstStripeNight = LocalDate.ofEpochDay(
+                Math.floorDiv(LocalDate.now().toEpochDay(), NightLocks.STRIPES) * NightLocks.STRIPES + NightLocks.STRIPES);
+        final AtomicInteger threadCount = new AtomicInteger();
+        BookingChangeApplier bookingChangeApplier;
+        HoldExpiryWheel holdExpiryWheel;
+        BookingRepository bookingRepository;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+            final ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+            bookingChangeApplier = new BookingChangeApplier(bookingCache, reservationMetrics);
+            holdExpiryWheel = new HoldExpiryWheel(100, 512);
+            bookingRepository = new InMemoryBookingRepository(bookingCache, bookingChangeApplier, holdExpiryWheel,
+                    new SnowflakeBookingIdGenerator(0), new NoOpBookingJournal(), new NoOpBookingSnapshotStore(), reservationMetrics);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            bookingChangeApplier.close();
+            holdExpiryWheel.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        DateRange targetRange;
+        DateRange homeRange;
+        BookingDetail modifiedBooking;
+
+        @Setup(Level.Trial)
+        public void setUpRanges(SharedState sharedState) {
+            final int threadIndex = sharedState.threadCount.getAndIncrement();
+            // Offsets are from the first night on a stripe boundary so the blocks never straddle the last stripe
+            final int blockOffset = threadIndex * STRIPES_PER_THREAD;
+            targetRange = stayRange(sharedState.firstStripeNight, "contended".equals(sharedState.dateRanges) ? 0 : blockOffset);
+            homeRange = stayRange(sharedState.firstStripeNight, blockOffset + STAY_LENGTH);
+        }
+
+        @Setup(Level.Iteration)
+        public void setUpBooking(SharedState sharedState) throws ReservationException {
+            modifiedBooking = sharedState.bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", homeRange);
+        }
+    }
+
+    @Benchmark
+    public Object completeAndCancelBooking(SharedState sharedState, ThreadState threadState) {
+        try {
+            final BookingDetail booking = sharedState.bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", threadState.targetRange);
+            return sharedState.bookingRepository.cancelBooking(booking);
+        } catch (ReservationException exception) {
+            return exception;
+        }
+    }
+
+    // Moves the thread's booking back and forth between its home nights and the target nights
+    @Benchmark
+    public Object modifyBooking(SharedState sharedState, ThreadState threadState) {
+        final BookingDetail booking = threadState.modifiedBooking;
+        final DateRange nextRange = booking.getStartDate().equals(threadState.homeRange.getStartDate())
+                ? threadState.targetRange : threadState.homeRange;
+        try {
+            threadState.modifiedBooking = sharedState.bookingRepository.modifyBooking(booking, nextRange);
+            return threadState.modifiedBooking;
+        } catch (ReservationException exception) {
+            return exception;
+        }
+    }
+
+    private static DateRange stayRange(LocalDate firstNight, int offset) {
+        return new DateRange(firstNight.plusDays(offset), firstNight.plusDays(offset + STAY_LENGTH));
+    }
+}
@@ -0,0 +1,121 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.HoldExpiryWheel;
+import com.upgrade.www.reservation.repository.InMemoryBookingRepository;
+import com.upgrade.www.reservation.repository.InProcessBookingCacheProvider;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to ready of the in memory repository as the record count grows, from the time it is created until its records,
+ * stays and cache are recovered. In `journal` mode every record is replayed from the journal, one entry per booking as
+ * commits log them, in `snapshot` mode they are loaded from the snapshot of a checkpoint which left no journal entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecoveryBenchmark {
+
+    private static final int CAMPSITES = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int records;
+
+    @Param({"journal", "snapshot"})
+    public String source;
+
+    private Path directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recovery-benchmark");
+        // Appended without waiting so the group commit logs them in large batches, each booking gets its own night
+        final FileBookingJournal bookingJournal = new FileBookingJournal(directory.toString());
+        final LocalDate firstNight = LocalDate.now().plusDays(1);
+        final List<CompletableFuture<Void>> appends = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            final LocalDate night = firstNight.plusDays(i / CAMPSITES);
+            final BookingDetail booking = new BookingDetail("booking-" + i, i % CAMPSITES, "guest" + i + "@test.com",
+                    new DateRange(night, night.plusDays(1)), BookingStatus.CONFIRMED);
+            booking.setVersion(i + 1);
+            appends.add(bookingJournal.append(List.of(booking)));
+        }
+        CompletableFuture.allOf(appends.toArray(new CompletableFuture[0])).join();
+        bookingJournal.close();
+
+        if ("snapshot".equals(source)) {
+            final Recovered recovered = recover();
+            recovered.repository.checkpoint();
+            recovered.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public InMemoryBookingRepository recoverRecords() throws IOException {
+        final Recovered recovered = recover();
+        recovered.close();
+        return recovered.repository;
+    }
+
+    private Recovered recover() throws IOException {
+        return new Recovered(new FileBookingJournal(directory.toString()), new FileBookingSnapshotStore(directory.toString()));
+    }
+
+    // Repository opened over the benchmark directory along with the threads it starts
+    private static class Recovered {
+        private final FileBookingJournal bookingJournal;
+        private final BookingChangeApplier bookingChangeApplier;
+        private final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(100, 512);
+        private final InMemoryBookingRepository repository;
+
+        Recovered(FileBookingJournal bookingJournal, FileBookingSnapshotStore bookingSnapshotStore) {
+            this.bookingJournal = bookingJournal;
+            final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+            final ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+            this.bookingChangeApplier = new BookingChangeApplier(bookingCache, reservationMetrics);
+            this.repository = new InMemoryBookingRepository(bookingCache, bookingChangeApplier, holdExpiryWheel,
+                    new SnowflakeBookingIdGenerator(0), bookingJournal, bookingSnapshotStore, reservationMetrics);
+        }
+
+        void close() throws IOException {
+            bookingJournal.close();
+            bookingChangeApplier.close();
+            holdExpiryWheel.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.upgrade.www.reservation.controller;
+
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.output.AvailabilityChangeResponse;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.service.AvailabilityFeed;
+import com.upgrade.www.reservation.service.AvailabilityService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Server-Sent Events streams of availability windows for the servlet api. A stream sends the window once as an
+ * `availability` event, then a `change` event with the nights booked or freed whenever commits touch the window.
+ * An idle stream holds no thread, sends run on a small pool and each stream sends whatever piled up since its last send.
+ * A send which does not finish within the send timeout, as when the client stops reading, closes its stream so a
+ * stalled client can not keep a sender thread from the other streams.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+class AvailabilityStreams {
+
+    static final String AVAILABILITY_EVENT = "availability";
+    static final String CHANGE_EVENT = "change";
+    static final String ERROR_EVENT = "error";
+
+    private final AvailabilityService availabilityService;
+    private final AvailabilityFeed availabilityFeed;
+    private final long timeoutMillis;
+    private final long sendTimeoutMillis;
+    private final ExecutorService sender;
+    private final ScheduledExecutorService sendWatchdog;
+
+    @Autowired
+    AvailabilityStreams(AvailabilityService availabilityService, AvailabilityFeed availabilityFeed,
+                        @Value("${reservation.availability-stream.timeout-ms:1800000}") long timeoutMillis,
+                        @Value("${reservation.availability-stream.sender-threads:4}") int senderThreads,
+                        @Value("${reservation.availability-stream.send-timeout-ms:5000}") long sendTimeoutMillis) {
+        this.availabilityService = availabilityService;
+        this.availabilityFeed = availabilityFeed;
+        this.timeoutMillis = timeoutMillis;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+        this.sender = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "availability-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sendWatchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "availability-stream-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    SseEmitter open(AvailabilityWindow window) {
+        return open(window, new SseEmitter(timeoutMillis));
+    }
+
+    SseEmitter open(AvailabilityWindow window, SseEmitter emitter) {
+        final AvailabilityFeed.Subscription subscription = availabilityFeed.subscribe(window);
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(exception -> subscription.cancel());
+
+        // Read after subscribing so every change the window misses is already waiting in the subscription
+        final List<LocalDate> availableDates = availabilityService.getAvailability(window);
+        if (send(emitter, subscription, SseEmitter.event().name(AVAILABILITY_EVENT).id(Long.toString(window.getVersion()))
+                .data(new AvailabilityDetailsResponse(availableDates, emptyList())))) {
+            subscription.start(() -> scheduleSend(emitter, subscription));
+        }
+        return emitter;
+    }
+
+    /**
+     * @return a stream which only carries the error, an EventSource can not read the body of an error response
+     */
+    SseEmitter error(String message) {
+        final SseEmitter emitter = new SseEmitter(timeoutMillis);
+        try {
+            emitter.send(SseEmitter.event().name(ERROR_EVENT).data(new AvailabilityDetailsResponse(emptyList(), List.of(message))));
+            emitter.complete();
+        } catch (IOException exception) {
+            emitter.completeWithError(exception);
+        }
+        return emitter;
+    }
+
+    @PreDestroy
+    public void close() {
+        sender.shutdownNow();
+        sendWatchdog.shutdownNow();
+    }
+
+    // Runs on the applier thread, which must not be failed by a pool shut down ahead of it
+    private void scheduleSend(SseEmitter emitter, AvailabilityFeed.Subscription subscription) {
+        try {
+            sender.execute(() -> sendChanges(emitter, subscription));
+        } catch (RejectedExecutionException exception) {
+            subscription.cancel();
+        }
+    }
+
+    // Sends are serialized per stream so a later state of a night never overtakes an earlier one,
+    // on the emitter rather than the subscription so a slow client never holds up the applier offering changes
+    private void sendChanges(SseEmitter emitter, AvailabilityFeed.Subscription subscription) {
+        synchronized (emitter) {
+            AvailabilityChangeResponse change;
+            while ((change = subscription.poll()) != null) {
+                if (!send(emitter, subscription, SseEmitter.event().name(CHANGE_EVENT).id(Long.toString(change.getVersion())).data(change))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the event, the sending thread is interrupted when the write outlives the send timeout. A client which stops
+     * reading fills its socket buffers and blocks the write, which the interrupt aborts or the container write timeout
+     * ends, either way the stream is closed.
+     * @return false when the stream is closed
+     */
+    private boolean send(SseEmitter emitter, AvailabilityFeed.Subscription subscription, SseEmitter.SseEventBuilder event) {
+        final SendDeadline deadline = new SendDeadline(Thread.currentThread(), subscription);
+        final ScheduledFuture<?> expiry;
+        try {
+            expiry = sendWatchdog.schedule(deadline::expire, sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException exception) {
+            subscription.cancel();
+            emitter.complete();
+            return false;
+        }
+
+        Exception failure = null;
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException exception) {
+            // The client went away or the stream timed out
+            failure = exception;
+        }
+        expiry.cancel(false);
+        if (deadline.finish() && failure == null) {
+            failure = new IOException("Timed out sending an availability event");
+        }
+        if (failure != null) {
+            subscription.cancel();
+            emitter.completeWithError(failure);
+            return false;
+        }
+        return true;
+    }
+
+    // Deadline of a single send, the interrupt is only delivered while the send is running
+    private static final class SendDeadline {
+
+        private final Thread sendingThread;
+        private final AvailabilityFeed.Subscription subscription;
+        private boolean finished;
+        private boolean expired;
+
+        SendDeadline(Thread sendingThread, AvailabilityFeed.Subscription subscription) {
+            this.sendingThread = sendingThread;
+            this.subscription = subscription;
+        }
+
+        synchronized void expire() {
+            if (!finished) {
+                expired = true;
+                subscription.cancel();
+                sendingThread.interrupt();
+            }
+        }
+
+        /**
+         * @return true when the send outlived its deadline, its interrupt is cleared so it never reaches the next task of the thread
+         */
+        synchronized boolean finish() {
+            finished = true;
+            if (expired) {
+                Thread.interrupted();
+            }
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.upgrade.www.reservation.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import com.upgrade.www.reservation.repository.BookingExport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import static com.upgrade.www.reservation.controller.ReservationRequests.toReservationDetail;
+import static java.util.Collections.emptyList;
+
+/**
+ * Booking exports as newline delimited JSON, one reservation per line in booking id order so a client which lost the
+ * stream resumes after the id of its last complete line. Lines are encoded straight to the response a chunk at a time,
+ * only a chunk is ever buffered whatever the size of the export.
+ */
+@Component
+class BookingExportWriter {
+
+    static final String NDJSON = "application/x-ndjson";
+    // Version the export reads as of, a later export given it as updatedSince reads only what changed in between
+    static final String EXPORT_VERSION_HEADER = "X-Export-Version";
+
+    // Lines encoded before the response is flushed, around 100 bytes each
+    private static final int CHUNK_LINES = 256;
+    private static final int CHUNK_BYTES = 32 * 1024;
+
+    private final ObjectMapper objectMapper;
+    // The generator is flushed once per chunk rather than after every line
+    private final ObjectWriter lineWriter;
+
+    @Autowired
+    BookingExportWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.lineWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Writes the whole export to the servlet response and closes it, flushing after every chunk
+     */
+    void write(BookingExport export, OutputStream outputStream) throws IOException {
+        try (export) {
+            while (writeChunk(export, outputStream) > 0) {
+                outputStream.flush();
+            }
+        }
+    }
+
+    /**
+     * @return a buffer per chunk of the export, encoded as they are requested so a slow client holds back the export
+     */
+    Flux<DataBuffer> write(BookingExport export, DataBufferFactory bufferFactory) {
+        return Flux.generate(sink -> {
+            final DataBuffer buffer = bufferFactory.allocateBuffer(CHUNK_BYTES);
+            final int lines;
+            try {
+                lines = writeChunk(export, buffer.asOutputStream());
+            } catch (IOException | RuntimeException exception) {
+                DataBufferUtils.release(buffer);
+                sink.error(exception);
+                return;
+            }
+            if (lines > 0) {
+                sink.next(buffer);
+            } else {
+                DataBufferUtils.release(buffer);
+                sink.complete();
+            }
+        });
+    }
+
+    /**
+     * @return the error as the single line of the response
+     */
+    byte[] error(String message) {
+        try {
+            final byte[] json = objectMapper.writeValueAsBytes(new ReservationResponse(emptyList(), List.of(message)));
+            final byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            return line;
+        } catch (IOException exception) {
+            throw new IllegalStateException("Unable to encode the export error", exception);
+        }
+    }
+
+    // The generator is flushed but never closed, which would close the response
+    private int writeChunk(BookingExport export, OutputStream outputStream) throws IOException {
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.setRootValueSeparator(null);
+        int lines = 0;
+        while (lines < CHUNK_LINES && export.hasNext()) {
+            lineWriter.writeValue(generator, toReservationDetail(export.next()));
+            generator.writeRaw('\n');
+            lines++;
+        }
+        generator.flush();
+        return lines;
+    }
+}
@@ -0,0 +1,127 @@
+package com.upgrade.www.reservation.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.service.AvailabilityService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Availability responses of a campsite window as JSON bytes, tagged with the version of the campsite calendar they were read at.
+ * The ETag of a response is the campsite, that version and the window, so a client revalidating with `If-None-Match` gets a 304 until a
+ * booking change lands on the campsite. A full response reuses the encoded bytes of the window until the version moves,
+ * so the hot default window is neither scanned nor serialized again between bookings.
+ */
+@Component
+class EncodedAvailabilityCache {
+
+    // Bounds the windows held, windows shift every day so old ones are dropped all at once when the cache fills up
+    private static final int MAX_WINDOWS = 4096;
+
+    private final AvailabilityService availabilityService;
+    private final ObjectMapper objectMapper;
+    private final Map<WindowKey, EncodedAvailability> encodedWindows = new ConcurrentHashMap<>();
+
+    @Autowired
+    EncodedAvailabilityCache(AvailabilityService availabilityService, ObjectMapper objectMapper) {
+        this.availabilityService = availabilityService;
+        this.objectMapper = objectMapper;
+    }
+
+    ResponseEntity<byte[]> toResponse(AvailabilityWindow window, String ifNoneMatch) {
+        final String eTag = "\"" + window.getCampsiteId() + "-" + window.getVersion() + "-" + window.getDateRange().getStartDate().toEpochDay()
+                + "-" + window.getDateRange().getEndDate().toEpochDay() + "\"";
+        if (matches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache()).build();
+        }
+        return ResponseEntity.ok().eTag(eTag).cacheControl(CacheControl.noCache()).contentType(MediaType.APPLICATION_JSON)
+                .body(getEncodedAvailability(window));
+    }
+
+    private byte[] getEncodedAvailability(AvailabilityWindow window) {
+        final WindowKey windowKey = new WindowKey(window);
+        final EncodedAvailability cached = encodedWindows.get(windowKey);
+        if (cached != null && cached.version == window.getVersion()) {
+            return cached.json;
+        }
+
+        final byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(new AvailabilityDetailsResponse(availabilityService.getAvailability(window), emptyList()));
+        } catch (JsonProcessingException exception) {
+            throw new IllegalStateException("Unable to encode the availability response", exception);
+        }
+        if (cached == null && encodedWindows.size() >= MAX_WINDOWS) {
+            encodedWindows.clear();
+        }
+        // A request which read an older version must not replace the bytes of a newer one
+        encodedWindows.merge(windowKey, new EncodedAvailability(window.getVersion(), json),
+                (current, encoded) -> current.version > encoded.version ? current : encoded);
+        return json;
+    }
+
+    // If-None-Match holds a comma separated list of tags, possibly weak, or * for any
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            final String trimmedTag = tag.trim();
+            if (trimmedTag.equals("*") || trimmedTag.equals(eTag) || trimmedTag.equals("W/" + eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class EncodedAvailability {
+        private final long version;
+        private final byte[] json;
+
+        EncodedAvailability(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+
+    private static class WindowKey {
+        private final int campsiteId;
+        private final long startDay;
+        private final long endDay;
+
+        WindowKey(AvailabilityWindow window) {
+            this.campsiteId = window.getCampsiteId();
+            this.startDay = window.getDateRange().getStartDate().toEpochDay();
+            this.endDay = window.getDateRange().getEndDate().toEpochDay();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof WindowKey)) {
+                return false;
+            }
+            final WindowKey windowKey = (WindowKey) other;
+            return campsiteId == windowKey.campsiteId && startDay == windowKey.startDay && endDay == windowKey.endDay;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(campsiteId, startDay, endDay);
+        }
+    }
+}
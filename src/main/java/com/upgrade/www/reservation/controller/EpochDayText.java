@@ -0,0 +1,38 @@
+package com.upgrade.www.reservation.controller;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.time.LocalDate;
+
+/**
+ * ISO text of the days around today as JSON strings, encoded once per day and kept by epoch day. The responses mostly
+ * carry the nights of the purchase window, which then cost an array read instead of formatting a date each time.
+ */
+final class EpochDayText {
+
+    // Days kept before the day the cache is created at, so the stays of recent reservations are covered too
+    private static final int DAYS_BEFORE = 1024;
+    private static final int DAYS = 4096;
+
+    private final long firstDay;
+    // Filled as the days are first written, a racy fill only encodes the same day twice
+    private final SerializedString[] texts = new SerializedString[DAYS];
+
+    EpochDayText() {
+        this.firstDay = LocalDate.now().toEpochDay() - DAYS_BEFORE;
+    }
+
+    SerializableString get(LocalDate date) {
+        final long index = date.toEpochDay() - firstDay;
+        if (index < 0 || index >= DAYS) {
+            return new SerializedString(date.toString());
+        }
+        SerializedString text = texts[(int) index];
+        if (text == null) {
+            text = new SerializedString(date.toString());
+            texts[(int) index] = text;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,223 @@
+package com.upgrade.www.reservation.controller;
+
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Responses of reservation writes keyed by the `Idempotency-Key` header of the request, so a client retrying a write
+ * gets the response of its first attempt instead of booking or cancelling again.
+ * The first request with a key runs the write, duplicates arriving while it is in flight wait for its response.
+ * Responses are kept for a fixed time and at most a fixed number of keys, the oldest keys being dropped first.
+ * Server errors and writes turned away as too many requests are not kept so a retry after one runs the write again.
+ */
+@Component
+class IdempotentResponses {
+
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final String DUPLICATE_FAILED = "Unable to finish the request with the idempotency key please try again";
+
+    private final int maxKeys;
+    private final long ttlNanos;
+    private final Map<String, IdempotentResponse> responses = new ConcurrentHashMap<>();
+    // Keys in the order they were first used, which is also the order they expire in
+    private final ConcurrentLinkedQueue<IdempotentResponse> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    @Autowired
+    IdempotentResponses(@Value("${reservation.idempotency.max-keys:100000}") int maxKeys,
+                        @Value("${reservation.idempotency.ttl-seconds:86400}") long ttlSeconds) {
+        this.maxKeys = maxKeys;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Runs a blocking write once per key, the write sets its status on the servlet response
+     * @param operation endpoint of the write, keys are only shared within an endpoint
+     * @param key idempotency key of the request, the write always runs when null
+     * @param fingerprint fields of the request, a key reused for a different request is rejected
+     */
+    ReservationResponse execute(String operation, String key, String fingerprint, HttpServletResponse response,
+                                Supplier<ReservationResponse> write) {
+        if (key == null) {
+            return write.get();
+        }
+        final String error = validateKey(key);
+        if (error != null) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new ReservationResponse(emptyList(), List.of(error));
+        }
+
+        final IdempotentResponse candidate = new IdempotentResponse(operation + ":" + key, fingerprint, System.nanoTime() + ttlNanos);
+        final IdempotentResponse idempotentResponse = claim(candidate);
+        if (!idempotentResponse.fingerprint.equals(fingerprint)) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new ReservationResponse(emptyList(), List.of("Idempotency key was already used for a different request"));
+        }
+        if (idempotentResponse != candidate) {
+            try {
+                final StoredResponse storedResponse = idempotentResponse.response.join();
+                response.setStatus(storedResponse.status);
+                return storedResponse.body;
+            } catch (CompletionException exception) {
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+                return new ReservationResponse(emptyList(), List.of(DUPLICATE_FAILED));
+            }
+        }
+
+        try {
+            final ReservationResponse body = write.get();
+            complete(candidate, response.getStatus(), body);
+            return body;
+        } catch (RuntimeException exception) {
+            fail(candidate, exception);
+            throw exception;
+        }
+    }
+
+    /**
+     * Runs a non blocking write once per key, see {@link #execute(String, String, String, HttpServletResponse, Supplier)}.
+     * The write is subscribed on its own rather than through the request, so a client going away mid write does not
+     * cancel it and its retry gets the response of the write instead of running it again.
+     */
+    Mono<ResponseEntity<ReservationResponse>> execute(String operation, String key, String fingerprint,
+                                                      Supplier<Mono<ResponseEntity<ReservationResponse>>> write) {
+        if (key == null) {
+            return write.get();
+        }
+        final String error = validateKey(key);
+        if (error != null) {
+            return Mono.just(ResponseEntity.badRequest().body(new ReservationResponse(emptyList(), List.of(error))));
+        }
+
+        return Mono.defer(() -> {
+            final IdempotentResponse candidate = new IdempotentResponse(operation + ":" + key, fingerprint, System.nanoTime() + ttlNanos);
+            final IdempotentResponse idempotentResponse = claim(candidate);
+            if (!idempotentResponse.fingerprint.equals(fingerprint)) {
+                return Mono.just(ResponseEntity.badRequest()
+                        .body(new ReservationResponse(emptyList(), List.of("Idempotency key was already used for a different request"))));
+            }
+            if (idempotentResponse != candidate) {
+                // A copy, so a duplicate going away cancels only its own wait
+                return Mono.fromFuture(idempotentResponse.response.copy())
+                        .map(storedResponse -> ResponseEntity.status(storedResponse.status).body(storedResponse.body))
+                        .onErrorResume(exception -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                                .body(new ReservationResponse(emptyList(), List.of(DUPLICATE_FAILED)))));
+            }
+
+            final CompletableFuture<ResponseEntity<ReservationResponse>> written = write.get().toFuture();
+            written.whenComplete((responseEntity, exception) -> {
+                if (exception != null) {
+                    fail(candidate, exception);
+                } else if (responseEntity == null) {
+                    fail(candidate, new IllegalStateException("Write completed without a response"));
+                } else {
+                    complete(candidate, responseEntity.getStatusCodeValue(), responseEntity.getBody());
+                }
+            });
+            return Mono.fromFuture(written.copy());
+        });
+    }
+
+    // Stores the candidate unless a live response already holds its key, returns whichever is stored
+    private IdempotentResponse claim(IdempotentResponse candidate) {
+        while (true) {
+            final IdempotentResponse existing = responses.putIfAbsent(candidate.key, candidate);
+            if (existing == null) {
+                insertionOrder.add(candidate);
+                evict();
+                return candidate;
+            }
+            if (!existing.isExpired(System.nanoTime())) {
+                return existing;
+            }
+            if (responses.replace(candidate.key, existing, candidate)) {
+                insertionOrder.add(candidate);
+                evict();
+                return candidate;
+            }
+        }
+    }
+
+    private void complete(IdempotentResponse idempotentResponse, int status, ReservationResponse body) {
+        if (status >= HttpStatus.INTERNAL_SERVER_ERROR.value() || status == HttpStatus.TOO_MANY_REQUESTS.value()) {
+            responses.remove(idempotentResponse.key, idempotentResponse);
+        }
+        idempotentResponse.response.complete(new StoredResponse(status, body));
+    }
+
+    private void fail(IdempotentResponse idempotentResponse, Throwable exception) {
+        responses.remove(idempotentResponse.key, idempotentResponse);
+        idempotentResponse.response.completeExceptionally(exception);
+    }
+
+    // Drops expired keys, keys which were removed or replaced, and the oldest keys while there are too many
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            final long now = System.nanoTime();
+            IdempotentResponse oldest;
+            while ((oldest = insertionOrder.peek()) != null
+                    && (oldest.isExpired(now) || responses.size() > maxKeys || responses.get(oldest.key) != oldest)) {
+                insertionOrder.poll();
+                responses.remove(oldest.key, oldest);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static String validateKey(String key) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return "Idempotency key should have between 1 and " + MAX_KEY_LENGTH + " characters";
+        }
+        return null;
+    }
+
+    private static class IdempotentResponse {
+        private final String key;
+        private final String fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<StoredResponse> response = new CompletableFuture<>();
+
+        IdempotentResponse(String key, String fingerprint, long expiresAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    private static class StoredResponse {
+        private final int status;
+        private final ReservationResponse body;
+
+        StoredResponse(int status, ReservationResponse body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
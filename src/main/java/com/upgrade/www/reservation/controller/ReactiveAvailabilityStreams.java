@@ -0,0 +1,87 @@
+package com.upgrade.www.reservation.controller;
+
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.output.AvailabilityChangeResponse;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.service.AvailabilityFeed;
+import com.upgrade.www.reservation.service.AvailabilityService;
+import com.upgrade.www.reservation.service.ReactiveAvailabilityService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+import static com.upgrade.www.reservation.controller.AvailabilityStreams.AVAILABILITY_EVENT;
+import static com.upgrade.www.reservation.controller.AvailabilityStreams.CHANGE_EVENT;
+import static com.upgrade.www.reservation.controller.AvailabilityStreams.ERROR_EVENT;
+import static java.util.Collections.emptyList;
+
+/**
+ * Same Server-Sent Events streams as the {@link AvailabilityStreams} for the reactive api. A change event is only
+ * emitted against demand, so a client reading slowly holds back its stream while its changes fold in the subscription.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+class ReactiveAvailabilityStreams {
+
+    private final AvailabilityService availabilityService;
+    private final ReactiveAvailabilityService reactiveAvailabilityService;
+    private final AvailabilityFeed availabilityFeed;
+
+    @Autowired
+    ReactiveAvailabilityStreams(AvailabilityService availabilityService, ReactiveAvailabilityService reactiveAvailabilityService,
+                                AvailabilityFeed availabilityFeed) {
+        this.availabilityService = availabilityService;
+        this.reactiveAvailabilityService = reactiveAvailabilityService;
+        this.availabilityFeed = availabilityFeed;
+    }
+
+    Flux<ServerSentEvent<Object>> open(AvailabilityWindow window) {
+        return Flux.defer(() -> {
+            final AvailabilityFeed.Subscription subscription = availabilityFeed.subscribe(window);
+            // Read after subscribing so every change the window misses is already waiting in the subscription
+            final Mono<ServerSentEvent<Object>> availability = reactiveAvailabilityService.readCache(() -> ServerSentEvent.<Object>builder()
+                    .event(AVAILABILITY_EVENT)
+                    .id(Long.toString(window.getVersion()))
+                    .data(new AvailabilityDetailsResponse(availabilityService.getAvailability(window), emptyList()))
+                    .build());
+            return availability
+                    .concatWith(Flux.<ServerSentEvent<Object>>create(sink -> {
+                        sink.onRequest(requested -> emitChanges(sink, subscription));
+                        // Signalled on the applier thread, the events are emitted from a parallel worker instead
+                        subscription.start(() -> Schedulers.parallel().schedule(() -> emitChanges(sink, subscription)));
+                    }))
+                    .doFinally(signal -> subscription.cancel());
+        });
+    }
+
+    Flux<ServerSentEvent<Object>> error(String message) {
+        return Flux.just(ServerSentEvent.<Object>builder()
+                .event(ERROR_EVENT)
+                .data(new AvailabilityDetailsResponse(emptyList(), List.of(message)))
+                .build());
+    }
+
+    // Serialized per stream so a later state of a night never overtakes an earlier one
+    private static void emitChanges(FluxSink<ServerSentEvent<Object>> sink, AvailabilityFeed.Subscription subscription) {
+        synchronized (sink) {
+            while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+                final AvailabilityChangeResponse change = subscription.poll();
+                if (change == null) {
+                    return;
+                }
+                sink.next(ServerSentEvent.<Object>builder()
+                        .event(CHANGE_EVENT)
+                        .id(Long.toString(change.getVersion()))
+                        .data(change)
+                        .build());
+            }
+        }
+    }
+}
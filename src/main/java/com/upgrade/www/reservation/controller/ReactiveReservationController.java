@@ -0,0 +1,381 @@
+package com.upgrade.www.reservation.controller;
+
+import com.upgrade.www.reservation.exceptions.InvalidInputException;
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.input.CancellationRequest;
+import com.upgrade.www.reservation.models.input.HoldRequest;
+import com.upgrade.www.reservation.models.input.ReservationRequest;
+import com.upgrade.www.reservation.models.input.ReservationUpdateRequest;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.models.output.BatchReservationResponse;
+import com.upgrade.www.reservation.models.output.CampsitesAvailabilityResponse;
+import com.upgrade.www.reservation.models.output.ReservationPageResponse;
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import com.upgrade.www.reservation.service.ReactiveAvailabilityService;
+import com.upgrade.www.reservation.service.ReactiveBookingService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static com.upgrade.www.reservation.controller.ReservationRequests.DEFAULT_PAGE_SIZE;
+import static com.upgrade.www.reservation.controller.ReservationRequests.fingerprint;
+import static com.upgrade.www.reservation.controller.ReservationRequests.parseBookingStatus;
+import static com.upgrade.www.reservation.controller.ReservationRequests.parseDateRange;
+import static com.upgrade.www.reservation.controller.ReservationRequests.resolveCampsiteId;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toBatch;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toBatchResponse;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toReleaseTicketResponse;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toReservationDetail;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toReservationPage;
+import static com.upgrade.www.reservation.controller.ReservationRequests.validateBookingInformation;
+import static com.upgrade.www.reservation.controller.ReservationRequests.validatePage;
+import static com.upgrade.www.reservation.controller.ReservationRequests.validateReservationParameters;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+
+/**
+ * Same api as the {@link ReservationController} served from the WebFlux event loops,
+ * enabled with `spring.main.web-application-type=reactive`. No request holds a thread while it waits on a booking commit.
+ */
+@RestController
+@RequestMapping(value = "/", produces = "application/json")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveReservationController {
+
+    private final ReactiveAvailabilityService availabilityService;
+    private final ReactiveBookingService bookingService;
+    private final EncodedAvailabilityCache encodedAvailabilityCache;
+    private final IdempotentResponses idempotentResponses;
+    private final ReactiveAvailabilityStreams availabilityStreams;
+    private final BookingExportWriter bookingExportWriter;
+
+    @Autowired
+    public ReactiveReservationController(ReactiveAvailabilityService availabilityService, ReactiveBookingService bookingService,
+                                         EncodedAvailabilityCache encodedAvailabilityCache, IdempotentResponses idempotentResponses,
+                                         ReactiveAvailabilityStreams availabilityStreams, BookingExportWriter bookingExportWriter) {
+        this.availabilityService = availabilityService;
+        this.bookingService = bookingService;
+        this.encodedAvailabilityCache = encodedAvailabilityCache;
+        this.idempotentResponses = idempotentResponses;
+        this.availabilityStreams = availabilityStreams;
+        this.bookingExportWriter = bookingExportWriter;
+    }
+
+    @RequestMapping(value = "/getAvailability", method = RequestMethod.GET)
+    public Mono<ResponseEntity<?>> getAvailability(
+            @RequestParam(value = "campsiteId", required = false) Integer campsiteId,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "minVersion", defaultValue = "0") long minVersion,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        final DateRange dateRange;
+        try {
+            dateRange = parseDateRange(startDate, endDate);
+        } catch (InvalidInputException exception) {
+            return Mono.just(ResponseEntity.badRequest().body(new AvailabilityDetailsResponse(emptyList(), List.of(exception.getMessage()))));
+        }
+
+        return availabilityService.getAvailabilityWindow(resolveCampsiteId(campsiteId), dateRange, minVersion)
+                .<ResponseEntity<?>>flatMap(window -> availabilityService.readCache(() -> encodedAvailabilityCache.toResponse(window, ifNoneMatch)))
+                .onErrorResume(exception -> availabilityErrorStatus(exception).map(status ->
+                        ResponseEntity.status(status).body(new AvailabilityDetailsResponse(emptyList(), List.of(exception.getMessage())))));
+    }
+
+    @RequestMapping(value = "/availability/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamAvailability(
+            @RequestParam(value = "campsiteId", required = false) Integer campsiteId,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            ServerHttpResponse response
+    ) {
+        final DateRange dateRange;
+        try {
+            dateRange = parseDateRange(startDate, endDate);
+        } catch (InvalidInputException exception) {
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return availabilityStreams.error(exception.getMessage());
+        }
+
+        return availabilityService.getAvailabilityWindow(resolveCampsiteId(campsiteId), dateRange, 0)
+                .flatMapMany(availabilityStreams::open)
+                .onErrorResume(exception -> availabilityErrorStatus(exception).flatMapMany(status -> {
+                    response.setStatusCode(status);
+                    return availabilityStreams.error(exception.getMessage());
+                }));
+    }
+
+    @RequestMapping(value = "/getCampsitesAvailability", method = RequestMethod.GET)
+    public Mono<ResponseEntity<CampsitesAvailabilityResponse>> getCampsitesAvailability(
+            @RequestParam(value = "campsiteIds") List<Integer> campsiteIds,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "minVersion", defaultValue = "0") long minVersion
+    ) {
+        final DateRange dateRange;
+        try {
+            dateRange = parseDateRange(startDate, endDate);
+        } catch (InvalidInputException exception) {
+            return Mono.just(ResponseEntity.badRequest().body(new CampsitesAvailabilityResponse(emptyMap(), List.of(exception.getMessage()))));
+        }
+
+        return availabilityService.getAvailability(campsiteIds, dateRange, minVersion)
+                .map(availability -> ResponseEntity.ok(new CampsitesAvailabilityResponse(availability, emptyList())))
+                .onErrorResume(exception -> availabilityErrorStatus(exception).map(status ->
+                        ResponseEntity.status(status).body(new CampsitesAvailabilityResponse(emptyMap(), List.of(exception.getMessage())))));
+    }
+
+    @RequestMapping(value = "/getReservation", method = RequestMethod.GET)
+    public Mono<ResponseEntity<ReservationResponse>> getReservation(
+            @RequestParam(value = "bookingId") String bookingId,
+            @RequestParam(value = "email") String email
+    ) {
+        try {
+            validateBookingInformation(bookingId, email);
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        return bookingService.getBooking(bookingId, email)
+                .map(bookingDetail -> ResponseEntity.ok(new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList())))
+                .defaultIfEmpty(errorResponse(HttpStatus.NOT_FOUND, "No reservation details found"));
+    }
+
+    @RequestMapping(value = "/getReservations", method = RequestMethod.GET)
+    public Mono<ResponseEntity<ReservationPageResponse>> getReservations(
+            @RequestParam(value = "email") String email,
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "" + DEFAULT_PAGE_SIZE) int size
+    ) {
+        final BookingStatus bookingStatus;
+        final DateRange dateRange;
+        try {
+            validatePage(email, page, size);
+            bookingStatus = parseBookingStatus(status);
+            dateRange = parseDateRange(startDate, endDate);
+        } catch (InvalidInputException exception) {
+            return Mono.just(ResponseEntity.badRequest().body(new ReservationPageResponse(emptyList(), page, size, 0, List.of(exception.getMessage()))));
+        }
+
+        return bookingService.getGuestBookings(email, bookingStatus, dateRange)
+                .map(bookings -> ResponseEntity.ok(toReservationPage(bookings, page, size)));
+    }
+
+    @RequestMapping(value = "/exportReservations", method = RequestMethod.GET, produces = BookingExportWriter.NDJSON)
+    public Flux<DataBuffer> exportReservations(
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "updatedSince", defaultValue = "0") long updatedSince,
+            @RequestParam(value = "after", required = false) String after,
+            ServerHttpResponse response
+    ) {
+        final BookingStatus bookingStatus;
+        final DateRange dateRange;
+        try {
+            bookingStatus = parseBookingStatus(status);
+            dateRange = parseDateRange(startDate, endDate);
+        } catch (InvalidInputException exception) {
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return Flux.just(response.bufferFactory().wrap(bookingExportWriter.error(exception.getMessage())));
+        }
+
+        // The header is set once the export is open, before its first line commits the response
+        return bookingService.exportBookings(after, bookingStatus, dateRange, updatedSince, export -> {
+            response.getHeaders().set(BookingExportWriter.EXPORT_VERSION_HEADER, Long.toString(export.getVersion()));
+            return bookingExportWriter.write(export, response.bufferFactory());
+        });
+    }
+
+    @RequestMapping(value = "/getReleaseTicket", method = RequestMethod.GET)
+    public Mono<ResponseEntity<ReservationResponse>> getReleaseTicket(
+            @RequestParam(value = "ticket") String ticket,
+            @RequestParam(value = "email") String email
+    ) {
+        try {
+            validateBookingInformation(ticket, email);
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        return bookingService.getReleaseTicket(ticket, email)
+                .map(releaseTicket -> ResponseEntity.status(releaseTicket.isAllocated() ? HttpStatus.OK : HttpStatus.ACCEPTED)
+                        .<ReservationResponse>body(toReleaseTicketResponse(releaseTicket)))
+                .onErrorResume(this::commitErrorResponse);
+    }
+
+    @RequestMapping(value = "/makeReservation", method = RequestMethod.POST)
+    public Mono<ResponseEntity<ReservationResponse>> makeReservation(
+            @RequestBody final ReservationRequest reservationRequest,
+            @RequestHeader(value = IdempotentResponses.IDEMPOTENCY_KEY, required = false) String idempotencyKey
+    ) {
+        return idempotentResponses.execute("makeReservation", idempotencyKey, fingerprint(reservationRequest),
+                () -> completeBooking(reservationRequest));
+    }
+
+    @RequestMapping(value = "/makeReservations", method = RequestMethod.POST)
+    public Mono<ResponseEntity<BatchReservationResponse>> makeReservations(@RequestBody final List<ReservationRequest> reservationRequests) {
+        return bookingService.completeBookings(toBatch(reservationRequests))
+                .map(batch -> ResponseEntity.ok(toBatchResponse(batch)))
+                .onErrorResume(TooManyRequestsException.class, exception -> Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()))
+                        .body(new BatchReservationResponse(emptyList(), List.of(exception.getMessage())))))
+                .onErrorResume(InvalidInputException.class, exception ->
+                        Mono.just(ResponseEntity.badRequest().body(new BatchReservationResponse(emptyList(), List.of(exception.getMessage())))));
+    }
+
+    @RequestMapping(value = "/cancelReservation", method = RequestMethod.PUT)
+    public Mono<ResponseEntity<ReservationResponse>> cancelReservation(
+            @RequestBody final CancellationRequest cancellationRequest,
+            @RequestHeader(value = IdempotentResponses.IDEMPOTENCY_KEY, required = false) String idempotencyKey
+    ) {
+        return idempotentResponses.execute("cancelReservation", idempotencyKey, fingerprint(cancellationRequest),
+                () -> cancelBooking(cancellationRequest));
+    }
+
+    @RequestMapping(value = "/modifyReservation", method = RequestMethod.POST)
+    public Mono<ResponseEntity<ReservationResponse>> modifyReservation(
+            @RequestBody final ReservationUpdateRequest reservationUpdateRequest,
+            @RequestHeader(value = IdempotentResponses.IDEMPOTENCY_KEY, required = false) String idempotencyKey
+    ) {
+        return idempotentResponses.execute("modifyReservation", idempotencyKey, fingerprint(reservationUpdateRequest),
+                () -> modifyBooking(reservationUpdateRequest));
+    }
+
+    @RequestMapping(value = "/holdReservation", method = RequestMethod.POST)
+    public Mono<ResponseEntity<ReservationResponse>> holdReservation(@RequestBody final ReservationRequest reservationRequest) {
+        final DateRange dateRange;
+        try {
+            validateReservationParameters(reservationRequest.getEmail(), reservationRequest.getFirstName(), reservationRequest.getLastName());
+            dateRange = parseDateRange(reservationRequest.getStartDate(), reservationRequest.getEndDate());
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        return bookingService.holdBooking(resolveCampsiteId(reservationRequest.getCampsiteId()), reservationRequest.getEmail(), dateRange)
+                .map(bookingDetail -> ResponseEntity.ok(new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList())))
+                .onErrorResume(this::commitErrorResponse);
+    }
+
+    @RequestMapping(value = "/confirmHold", method = RequestMethod.PUT)
+    public Mono<ResponseEntity<ReservationResponse>> confirmHold(@RequestBody final HoldRequest holdRequest) {
+        try {
+            validateBookingInformation(holdRequest.getBookingId(), holdRequest.getEmail());
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        return bookingService.confirmHold(holdRequest.getBookingId(), holdRequest.getEmail())
+                .map(bookingDetail -> ResponseEntity.ok(new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList())))
+                .onErrorResume(this::commitErrorResponse);
+    }
+
+    @RequestMapping(value = "/releaseHold", method = RequestMethod.PUT)
+    public Mono<ResponseEntity<ReservationResponse>> releaseHold(@RequestBody final HoldRequest holdRequest) {
+        try {
+            validateBookingInformation(holdRequest.getBookingId(), holdRequest.getEmail());
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        return bookingService.releaseHold(holdRequest.getBookingId(), holdRequest.getEmail())
+                .map(bookingDetail -> ResponseEntity.ok(new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList())))
+                .onErrorResume(this::commitErrorResponse);
+    }
+
+    private Mono<ResponseEntity<ReservationResponse>> completeBooking(ReservationRequest reservationRequest) {
+        final DateRange dateRange;
+        try {
+            validateReservationParameters(reservationRequest.getEmail(), reservationRequest.getFirstName(), reservationRequest.getLastName());
+            dateRange = parseDateRange(reservationRequest.getStartDate(), reservationRequest.getEndDate());
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        final int campsiteId = resolveCampsiteId(reservationRequest.getCampsiteId());
+        return bookingService.collectForRelease(campsiteId, reservationRequest.getEmail(), dateRange)
+                .map(ticket -> ResponseEntity.status(HttpStatus.ACCEPTED).<ReservationResponse>body(toReleaseTicketResponse(ticket)))
+                .switchIfEmpty(Mono.defer(() -> bookingService.completeBooking(campsiteId, reservationRequest.getEmail(), dateRange)
+                        .map(bookingDetail -> ResponseEntity.ok(new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList())))))
+                .onErrorResume(this::commitErrorResponse);
+    }
+
+    private Mono<ResponseEntity<ReservationResponse>> cancelBooking(CancellationRequest cancellationRequest) {
+        try {
+            validateBookingInformation(cancellationRequest.getBookingId(), cancellationRequest.getEmail());
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        return bookingService.cancelBooking(cancellationRequest.getBookingId(), cancellationRequest.getEmail())
+                .map(bookingDetail -> ResponseEntity.ok(new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList())))
+                .onErrorResume(this::commitErrorResponse);
+    }
+
+    private Mono<ResponseEntity<ReservationResponse>> modifyBooking(ReservationUpdateRequest reservationUpdateRequest) {
+        final DateRange dateRange;
+        try {
+            dateRange = parseDateRange(reservationUpdateRequest.getUpdatedStartDate(), reservationUpdateRequest.getUpdatedEndDate());
+            validateBookingInformation(reservationUpdateRequest.getBookingId(), reservationUpdateRequest.getEmail());
+        } catch (InvalidInputException exception) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        }
+
+        return bookingService.modifyBooking(reservationUpdateRequest.getBookingId(), reservationUpdateRequest.getEmail(), dateRange)
+                .map(ReservationRequests::toReservationDetail)
+                .collectList()
+                .map(details -> ResponseEntity.ok(new ReservationResponse(details, emptyList())))
+                .onErrorResume(this::commitErrorResponse);
+    }
+
+    // Same status codes as the servlet controller, invalid input is a bad request, a write turned away by the admission limit
+    // is too many requests and a failed commit a server error
+    private Mono<ResponseEntity<ReservationResponse>> commitErrorResponse(Throwable exception) {
+        if (exception instanceof InvalidInputException) {
+            return Mono.just(errorResponse(HttpStatus.BAD_REQUEST, exception.getMessage()));
+        } else if (exception instanceof TooManyRequestsException) {
+            return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(((TooManyRequestsException) exception).getRetryAfterSeconds()))
+                    .body(new ReservationResponse(emptyList(), List.of(exception.getMessage()))));
+        } else if (exception instanceof ReservationException) {
+            return Mono.just(errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, exception.getMessage()));
+        }
+        return Mono.error(exception);
+    }
+
+    // Invalid input is a bad request and a cache which has not caught up with the requested version is unavailable for now
+    private static Mono<HttpStatus> availabilityErrorStatus(Throwable exception) {
+        if (exception instanceof InvalidInputException) {
+            return Mono.just(HttpStatus.BAD_REQUEST);
+        } else if (exception instanceof ReservationException) {
+            return Mono.just(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return Mono.error(exception);
+    }
+
+    private static ResponseEntity<ReservationResponse> errorResponse(HttpStatus status, String error) {
+        return ResponseEntity.status(status).body(new ReservationResponse(emptyList(), List.of(error)));
+    }
+}
@@ -2,68 +2,169 @@ package com.upgrade.www.reservation.controller;
 
 import com.upgrade.www.reservation.exceptions.InvalidInputException;
 import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
 import com.upgrade.www.reservation.models.common.DateRange;
 import com.upgrade.www.reservation.models.dbo.BookingDetail;
 import com.upgrade.www.reservation.models.input.CancellationRequest;
+import com.upgrade.www.reservation.models.input.HoldRequest;
 import com.upgrade.www.reservation.models.input.ReservationRequest;
 import com.upgrade.www.reservation.models.input.ReservationUpdateRequest;
 import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.models.output.BatchReservationResponse;
+import com.upgrade.www.reservation.models.output.CampsitesAvailabilityResponse;
 import com.upgrade.www.reservation.models.output.ReservationDetail;
+import com.upgrade.www.reservation.models.output.ReservationPageResponse;
 import com.upgrade.www.reservation.models.output.ReservationResponse;
+import com.upgrade.www.reservation.repository.BookingExport;
 import com.upgrade.www.reservation.service.AvailabilityService;
 import com.upgrade.www.reservation.service.BookingService;
+import com.upgrade.www.reservation.service.allocation.ReleaseTicket;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.util.StringUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletResponse;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.List;
 
+import static com.upgrade.www.reservation.controller.ReservationRequests.DEFAULT_PAGE_SIZE;
+import static com.upgrade.www.reservation.controller.ReservationRequests.fingerprint;
+import static com.upgrade.www.reservation.controller.ReservationRequests.parseBookingStatus;
+import static com.upgrade.www.reservation.controller.ReservationRequests.parseDateRange;
+import static com.upgrade.www.reservation.controller.ReservationRequests.resolveCampsiteId;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toBatch;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toBatchResponse;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toReleaseTicketResponse;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toReservationDetail;
+import static com.upgrade.www.reservation.controller.ReservationRequests.toReservationPage;
+import static com.upgrade.www.reservation.controller.ReservationRequests.validateBookingInformation;
+import static com.upgrade.www.reservation.controller.ReservationRequests.validatePage;
+import static com.upgrade.www.reservation.controller.ReservationRequests.validateReservationParameters;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.stream.Collectors.toList;
 
+/**
+ * Blocking api served from servlet threads, see {@link ReactiveReservationController} for the reactive variant
+ */
 @RestController
 @RequestMapping(value = "/", produces = "application/json")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ReservationController {
 
     private final AvailabilityService availabilityService;
     private final BookingService bookingService;
+    private final EncodedAvailabilityCache encodedAvailabilityCache;
+    private final IdempotentResponses idempotentResponses;
+    private final AvailabilityStreams availabilityStreams;
+    private final BookingExportWriter bookingExportWriter;
 
     @Autowired
-    public ReservationController(AvailabilityService availabilityService, BookingService bookingService) {
+    public ReservationController(AvailabilityService availabilityService, BookingService bookingService,
+                                 EncodedAvailabilityCache encodedAvailabilityCache, IdempotentResponses idempotentResponses,
+                                 AvailabilityStreams availabilityStreams, BookingExportWriter bookingExportWriter) {
         this.availabilityService = availabilityService;
         this.bookingService = bookingService;
+        this.encodedAvailabilityCache = encodedAvailabilityCache;
+        this.idempotentResponses = idempotentResponses;
+        this.availabilityStreams = availabilityStreams;
+        this.bookingExportWriter = bookingExportWriter;
     }
 
     /**
+     * @param campsiteId campsite for the availability info, defaults to the original campsite
      * @param startDate startDate for the availability info
      * @param endDate endDate for the availability info
+     * @param minVersion version of a reservation the availability must reflect, as returned with the reservation
+     * @param ifNoneMatch ETag of availability the client already holds
      * Defaults to a month from tomorrow for availability
-     * @return Returns available dates for the campsite
+     * @return Returns available dates for the campsite with an ETag, or 304 when they have not changed since the ETag
      */
     @RequestMapping(value = "/getAvailability", method = RequestMethod.GET)
+    public ResponseEntity<?> getAvailability(
+            @RequestParam(value = "campsiteId", required = false) Integer campsiteId,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "minVersion", defaultValue = "0") long minVersion,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        try {
+            DateRange dateRange = parseDateRange(startDate, endDate);
+            final AvailabilityWindow window = availabilityService.getAvailabilityWindow(resolveCampsiteId(campsiteId), dateRange, minVersion);
+            return encodedAvailabilityCache.toResponse(window, ifNoneMatch);
+        } catch (InvalidInputException exception) {
+            return ResponseEntity.badRequest().body(new AvailabilityDetailsResponse(emptyList(), List.of(exception.getMessage())));
+        } catch (ReservationException exception) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new AvailabilityDetailsResponse(emptyList(), List.of(exception.getMessage())));
+        }
+    }
+
+    /**
+     * @param campsiteId campsite for the availability info, defaults to the original campsite
+     * @param startDate startDate for the availability info
+     * @param endDate endDate for the availability info
+     * Defaults to a month from tomorrow for availability
+     * @return Server-Sent Events of the available dates of the window, then of the nights booked or freed in it as bookings commit
+     */
+    @RequestMapping(value = "/availability/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAvailability(
+            @RequestParam(value = "campsiteId", required = false) Integer campsiteId,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            HttpServletResponse response
+    ) {
+        try {
+            DateRange dateRange = parseDateRange(startDate, endDate);
+            return availabilityStreams.open(availabilityService.getAvailabilityWindow(resolveCampsiteId(campsiteId), dateRange, 0));
+        } catch (InvalidInputException exception) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return availabilityStreams.error(exception.getMessage());
+        } catch (ReservationException exception) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return availabilityStreams.error(exception.getMessage());
+        }
+    }
+
+    /**
+     * @param campsiteIds comma separated campsites for the availability info
+     * @param startDate startDate for the availability info
+     * @param endDate endDate for the availability info
+     * @param minVersion version of a reservation the availability must reflect, as returned with the reservation
+     * Defaults to a month from tomorrow for availability
+     * @return Returns available dates keyed by campsite id
+     */
+    @RequestMapping(value = "/getCampsitesAvailability", method = RequestMethod.GET)
     @ResponseBody
-    public AvailabilityDetailsResponse getAvailability(
+    public CampsitesAvailabilityResponse getCampsitesAvailability(
+            @RequestParam(value = "campsiteIds") List<Integer> campsiteIds,
             @RequestParam(value = "startDate", required = false) String startDate,
             @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "minVersion", defaultValue = "0") long minVersion,
             HttpServletResponse response
     ) {
         try {
             DateRange dateRange = parseDateRange(startDate, endDate);
-            final List<LocalDate> dates = availabilityService.getAvailability(dateRange);
-            return new AvailabilityDetailsResponse(dates, emptyList());
+            return new CampsitesAvailabilityResponse(availabilityService.getAvailability(campsiteIds, dateRange, minVersion), emptyList());
         } catch (InvalidInputException exception) {
             response.setStatus(HttpStatus.BAD_REQUEST.value());
-            return new AvailabilityDetailsResponse(emptyList(), List.of(exception.getMessage()));
+            return new CampsitesAvailabilityResponse(emptyMap(), List.of(exception.getMessage()));
+        } catch (ReservationException exception) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return new CampsitesAvailabilityResponse(emptyMap(), List.of(exception.getMessage()));
         }
     }
 
@@ -87,7 +188,7 @@ public class ReservationController {
                 return new ReservationResponse(emptyList(), List.of("No reservation details found"));
             } else {
                 final List<ReservationDetail> details = List.of(
-                    new ReservationDetail(bookingDetail.getId(), bookingDetail.getEmail(), bookingDetail.getStatus().name(), bookingDetail.getStartDate(), bookingDetail.getEndDate())
+                    toReservationDetail(bookingDetail)
                 );
                 return new ReservationResponse(details, emptyList());
             }
@@ -97,21 +198,245 @@ public class ReservationController {
         }
     }
 
+    /**
+     * @param ticket ticket returned by makeReservation for a request collected for a release
+     * @param email email id used for the request
+     * @return ReleaseTicketResponse accepted while the release is not allocated yet, then with the booking or the reason it was rejected
+     */
+    @RequestMapping(value = "/getReleaseTicket", method = RequestMethod.GET)
+    @ResponseBody
+    public ReservationResponse getReleaseTicket(
+            @RequestParam(value = "ticket") String ticket,
+            @RequestParam(value = "email") String email,
+            HttpServletResponse response
+    ) {
+        try {
+            validateBookingInformation(ticket, email);
+            final ReleaseTicket releaseTicket = bookingService.getReleaseTicket(ticket, email);
+            if (!releaseTicket.isAllocated()) {
+                response.setStatus(HttpStatus.ACCEPTED.value());
+            }
+            return toReleaseTicketResponse(releaseTicket);
+        } catch (InvalidInputException exception) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        }
+    }
+
+    /**
+     * @param email email id used for the reservations
+     * @param status only reservations with the status, CONFIRMED or CANCELLED, when given
+     * @param startDate with endDate only reservations with a night in the range, when given
+     * @param endDate end of the date range filter
+     * @param page zero based page of reservations ordered by start date
+     * @param size reservations per page
+     * @return ReservationPageResponse with the page of reservations and the total number of matching reservations
+     */
+    @RequestMapping(value = "/getReservations", method = RequestMethod.GET)
+    @ResponseBody
+    public ReservationPageResponse getReservations(
+            @RequestParam(value = "email") String email,
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+            HttpServletResponse response
+    ) {
+        try {
+            validatePage(email, page, size);
+            final BookingStatus bookingStatus = parseBookingStatus(status);
+            final DateRange dateRange = parseDateRange(startDate, endDate);
+            return toReservationPage(bookingService.getGuestBookings(email, bookingStatus, dateRange), page, size);
+        } catch (InvalidInputException exception) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new ReservationPageResponse(emptyList(), page, size, 0, List.of(exception.getMessage()));
+        }
+    }
+
+    /**
+     * @param status only reservations with the status, when given
+     * @param startDate with endDate only reservations with a night in the range, when given
+     * @param endDate end of the date range filter
+     * @param updatedSince only reservations changed after the X-Export-Version of an earlier export, all reservations when 0
+     * @param after id of the last reservation read by an interrupted export to resume after it
+     * @return every matching reservation as a line of JSON in id order, read as of the version in the X-Export-Version header
+     */
+    @RequestMapping(value = "/exportReservations", method = RequestMethod.GET, produces = BookingExportWriter.NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportReservations(
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate,
+            @RequestParam(value = "updatedSince", defaultValue = "0") long updatedSince,
+            @RequestParam(value = "after", required = false) String after
+    ) {
+        final BookingExport export;
+        try {
+            export = bookingService.exportBookings(after, parseBookingStatus(status), parseDateRange(startDate, endDate), updatedSince);
+        } catch (InvalidInputException exception) {
+            final byte[] error = bookingExportWriter.error(exception.getMessage());
+            return ResponseEntity.badRequest().body(outputStream -> outputStream.write(error));
+        }
+        return ResponseEntity.ok()
+                .header(BookingExportWriter.EXPORT_VERSION_HEADER, Long.toString(export.getVersion()))
+                .body(outputStream -> bookingExportWriter.write(export, outputStream));
+    }
+
     /**
      *
      * @param reservationRequest with email id, name and stay range
-     * @return ReservationResponse successful booking details or error incase of no availability
+     * @param idempotencyKey retries with the same key get the response of the first attempt instead of booking again
+     * @return ReservationResponse successful booking details or error incase of no availability, or an accepted
+     * ReleaseTicketResponse when the request is collected for the release of its start date
      */
     @RequestMapping(value = "/makeReservation", method = RequestMethod.POST)
     @ResponseBody
     public ReservationResponse makeReservation(
             @RequestBody final ReservationRequest reservationRequest,
+            @RequestHeader(value = IdempotentResponses.IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletResponse response
+    ) {
+        return idempotentResponses.execute("makeReservation", idempotencyKey, fingerprint(reservationRequest), response,
+                () -> completeBooking(reservationRequest, response));
+    }
+
+    /**
+     * @param reservationRequests reservations to book together, conflicts within the batch are won by the earlier reservation
+     * @return BatchReservationResponse with the booking details or the error of each reservation in the order of the request
+     */
+    @RequestMapping(value = "/makeReservations", method = RequestMethod.POST)
+    @ResponseBody
+    public BatchReservationResponse makeReservations(
+            @RequestBody final List<ReservationRequest> reservationRequests,
             HttpServletResponse response
     ) {
+        try {
+            final List<BatchBooking> batch = bookingService.completeBookings(toBatch(reservationRequests));
+            return toBatchResponse(batch);
+        } catch (InvalidInputException exception) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new BatchReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (TooManyRequestsException exception) {
+            rejectTooManyRequests(exception, response);
+            return new BatchReservationResponse(emptyList(), List.of(exception.getMessage()));
+        }
+    }
+
+    /**
+     * @param cancellationRequest with booking id and corresponding email id
+     * @param idempotencyKey retries with the same key get the response of the first attempt
+     * @return ReservationResponse with cancellation details if successful or error in case no booking is found.
+     */
+    @RequestMapping(value = "/cancelReservation", method = RequestMethod.PUT)
+    @ResponseBody
+    public ReservationResponse cancelReservation(
+            @RequestBody final CancellationRequest cancellationRequest,
+            @RequestHeader(value = IdempotentResponses.IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletResponse response
+    ) {
+        return idempotentResponses.execute("cancelReservation", idempotencyKey, fingerprint(cancellationRequest), response,
+                () -> cancelBooking(cancellationRequest, response));
+    }
+
+    /**
+     * reservationUpdateRequest: Assuming we can only modify booking dates but not email or names
+     * idempotencyKey: retries with the same key get the response of the first attempt instead of modifying again
+     * @return Reservation response with old and new booking information
+     */
+    @RequestMapping(value = "/modifyReservation", method = RequestMethod.POST)
+    @ResponseBody
+    public ReservationResponse modifyReservation(
+            @RequestBody final ReservationUpdateRequest reservationUpdateRequest,
+            @RequestHeader(value = IdempotentResponses.IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletResponse response
+    ) {
+        return idempotentResponses.execute("modifyReservation", idempotencyKey, fingerprint(reservationUpdateRequest), response,
+                () -> modifyBooking(reservationUpdateRequest, response));
+    }
+
+    /**
+     * @param reservationRequest with email id, name and stay range
+     * @return ReservationResponse with the held booking, its nights are released unless it is confirmed within the hold ttl
+     */
+    @RequestMapping(value = "/holdReservation", method = RequestMethod.POST)
+    @ResponseBody
+    public ReservationResponse holdReservation(
+            @RequestBody final ReservationRequest reservationRequest,
+            HttpServletResponse response
+    ) {
+        try {
+            validateReservationParameters(reservationRequest.getEmail(), reservationRequest.getFirstName(), reservationRequest.getLastName());
+            final DateRange dateRange = parseDateRange(reservationRequest.getStartDate(), reservationRequest.getEndDate());
+            final BookingDetail bookingDetail = bookingService.holdBooking(resolveCampsiteId(reservationRequest.getCampsiteId()), reservationRequest.getEmail(), dateRange);
+            return new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList());
+        } catch (InvalidInputException exception) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (TooManyRequestsException exception) {
+            rejectTooManyRequests(exception, response);
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (ReservationException exception) {
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        }
+    }
+
+    /**
+     * @param holdRequest with the booking id of the hold and corresponding email id
+     * @return ReservationResponse with the confirmed booking or error in case the hold expired or was released
+     */
+    @RequestMapping(value = "/confirmHold", method = RequestMethod.PUT)
+    @ResponseBody
+    public ReservationResponse confirmHold(
+            @RequestBody final HoldRequest holdRequest,
+            HttpServletResponse response
+    ) {
+        try {
+            validateBookingInformation(holdRequest.getBookingId(), holdRequest.getEmail());
+            final BookingDetail bookingDetail = bookingService.confirmHold(holdRequest.getBookingId(), holdRequest.getEmail());
+            return new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList());
+        } catch (InvalidInputException exception) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (TooManyRequestsException exception) {
+            rejectTooManyRequests(exception, response);
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (ReservationException exception) {
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        }
+    }
+
+    /**
+     * @param holdRequest with the booking id of the hold and corresponding email id
+     * @return ReservationResponse with the released hold or error in case the hold was already confirmed
+     */
+    @RequestMapping(value = "/releaseHold", method = RequestMethod.PUT)
+    @ResponseBody
+    public ReservationResponse releaseHold(
+            @RequestBody final HoldRequest holdRequest,
+            HttpServletResponse response
+    ) {
+        try {
+            validateBookingInformation(holdRequest.getBookingId(), holdRequest.getEmail());
+            final BookingDetail bookingDetail = bookingService.releaseHold(holdRequest.getBookingId(), holdRequest.getEmail());
+            return new ReservationResponse(List.of(toReservationDetail(bookingDetail)), emptyList());
+        } catch (InvalidInputException exception) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        }
+    }
+
+    private ReservationResponse completeBooking(ReservationRequest reservationRequest, HttpServletResponse response) {
         try {
             validateReservationParameters(reservationRequest.getEmail(), reservationRequest.getFirstName(), reservationRequest.getLastName());
             final DateRange dateRange = parseDateRange(reservationRequest.getStartDate(), reservationRequest.getEndDate());
-            final BookingDetail bookingDetail = bookingService.completeBooking(reservationRequest.getEmail(), dateRange);
+            final ReleaseTicket ticket = bookingService.collectForRelease(resolveCampsiteId(reservationRequest.getCampsiteId()), reservationRequest.getEmail(), dateRange);
+            if (ticket != null) {
+                response.setStatus(HttpStatus.ACCEPTED.value());
+                return toReleaseTicketResponse(ticket);
+            }
+            final BookingDetail bookingDetail = bookingService.completeBooking(resolveCampsiteId(reservationRequest.getCampsiteId()), reservationRequest.getEmail(), dateRange);
 
             ReservationResponse reservationResponse;
             if (bookingDetail == null) {
@@ -120,7 +445,7 @@ public class ReservationController {
                 reservationResponse = new ReservationResponse(emptyList(), List.of("Unable to finish the booking please try again"));
             } else {
                 final List<ReservationDetail> details = List.of(
-                        new ReservationDetail(bookingDetail.getId(), bookingDetail.getEmail(), bookingDetail.getStatus().name(), bookingDetail.getStartDate(), bookingDetail.getEndDate())
+                        toReservationDetail(bookingDetail)
                 );
 
                 reservationResponse = new ReservationResponse(details, emptyList());
@@ -130,22 +455,16 @@ public class ReservationController {
         } catch (InvalidInputException exception) {
             response.setStatus(HttpStatus.BAD_REQUEST.value());
             return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (TooManyRequestsException exception) {
+            rejectTooManyRequests(exception, response);
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
         } catch (ReservationException exception) {
             response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
             return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
         }
     }
 
-    /**
-     * @param cancellationRequest with booking id and corresponding email id
-     * @return ReservationResponse with cancellation details if successful or error in case no booking is found.
-     */
-    @RequestMapping(value = "/cancelReservation", method = RequestMethod.PUT)
-    @ResponseBody
-    public ReservationResponse cancelReservation(
-            @RequestBody final CancellationRequest cancellationRequest,
-            HttpServletResponse response
-    ) {
+    private ReservationResponse cancelBooking(CancellationRequest cancellationRequest, HttpServletResponse response) {
         try {
             validateBookingInformation(cancellationRequest.getBookingId(), cancellationRequest.getEmail());
             final BookingDetail bookingDetail = bookingService.cancelBooking(cancellationRequest.getBookingId(), cancellationRequest.getEmail());
@@ -156,7 +475,7 @@ public class ReservationController {
                 reservationResponse = new ReservationResponse(emptyList(), List.of("Unable to cancel the booking please try again"));
             } else {
                 final List<ReservationDetail> details = List.of(
-                        new ReservationDetail(bookingDetail.getId(), bookingDetail.getEmail(), bookingDetail.getStatus().name(), bookingDetail.getStartDate(), bookingDetail.getEndDate())
+                        toReservationDetail(bookingDetail)
                 );
                 reservationResponse = new ReservationResponse(details, emptyList());
             }
@@ -165,19 +484,16 @@ public class ReservationController {
         } catch (InvalidInputException exception) {
             response.setStatus(HttpStatus.BAD_REQUEST.value());
             return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (TooManyRequestsException exception) {
+            rejectTooManyRequests(exception, response);
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (ReservationException exception) {
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
         }
     }
 
-    /**
-     * reservationUpdateRequest: Assuming we can only modify booking dates but not email or names
-     * @return Reservation response with old and new booking information
-     */
-    @RequestMapping(value = "/modifyReservation", method = RequestMethod.POST)
-    @ResponseBody
-    public ReservationResponse modifyReservation(
-            @RequestBody final ReservationUpdateRequest reservationUpdateRequest,
-            HttpServletResponse response
-    ) {
+    private ReservationResponse modifyBooking(ReservationUpdateRequest reservationUpdateRequest, HttpServletResponse response) {
         try {
             final DateRange dateRange = parseDateRange(reservationUpdateRequest.getUpdatedStartDate(), reservationUpdateRequest.getUpdatedEndDate());
             validateBookingInformation(reservationUpdateRequest.getBookingId(), reservationUpdateRequest.getEmail());
@@ -190,7 +506,7 @@ public class ReservationController {
                 reservationResponse = new ReservationResponse(emptyList(), List.of("Unable to modify the booking please try again"));
             } else {
                 final List<ReservationDetail> details = bookingDetails.stream()
-                        .map( bookingDetail -> new ReservationDetail(bookingDetail.getId(), bookingDetail.getEmail(), bookingDetail.getStatus().name(), bookingDetail.getStartDate(), bookingDetail.getEndDate()))
+                        .map(ReservationRequests::toReservationDetail)
                         .collect(toList());
                 reservationResponse = new ReservationResponse(details, emptyList());
             }
@@ -199,6 +515,9 @@ public class ReservationController {
         } catch (InvalidInputException exception) {
             response.setStatus(HttpStatus.BAD_REQUEST.value());
 
+            return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
+        } catch (TooManyRequestsException exception) {
+            rejectTooManyRequests(exception, response);
             return new ReservationResponse(emptyList(), List.of(exception.getMessage()));
         } catch (ReservationException exception) {
             response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
@@ -207,34 +526,9 @@ public class ReservationController {
         }
     }
 
-    private DateRange parseDateRange(String startDateParam, String endDateParam) throws InvalidInputException {
-        if (!StringUtils.isEmpty(startDateParam) && !StringUtils.isEmpty(endDateParam)) {
-            try {
-                LocalDate startDate = LocalDate.parse(startDateParam, DateTimeFormatter.ISO_DATE);
-                LocalDate endDate = LocalDate.parse(endDateParam, DateTimeFormatter.ISO_DATE);
-
-                if (!startDate.isBefore(endDate)) {
-                    throw new InvalidInputException("Start date should be before end date");
-                }
-                return new DateRange(startDate, endDate);
-            } catch (DateTimeParseException exception) {
-                throw new InvalidInputException("Invalid date parameters. Please provide YYYY-MM-DD format");
-            }
-        }
-
-        return null;
-    }
-
-    private void validateBookingInformation(String bookingId, String email) throws InvalidInputException {
-        if (StringUtils.isEmpty(bookingId) || StringUtils.isEmpty(email)) {
-            throw new InvalidInputException("Need a valid booking id and email");
-        }
-    }
-
-    private void validateReservationParameters(String email, String firstName, String lastName) throws InvalidInputException {
-        // Assuming valid email pattern
-        if (StringUtils.isEmpty(email) || StringUtils.isEmpty(firstName) || StringUtils.isEmpty(lastName)) {
-            throw new InvalidInputException("Need a valid email, firstName and lastName for a booking");
-        }
+    // Writes turned away by the admission limit can be retried once the burst has passed
+    private static void rejectTooManyRequests(TooManyRequestsException exception, HttpServletResponse response) {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()));
     }
 }
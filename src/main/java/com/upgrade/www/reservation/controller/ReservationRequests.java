@@ -0,0 +1,164 @@
+package com.upgrade.www.reservation.controller;
+
+import com.upgrade.www.reservation.exceptions.InvalidInputException;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.models.input.CancellationRequest;
+import com.upgrade.www.reservation.models.input.ReservationRequest;
+import com.upgrade.www.reservation.models.input.ReservationUpdateRequest;
+import com.upgrade.www.reservation.models.output.BatchReservationResponse;
+import com.upgrade.www.reservation.models.output.ReleaseTicketResponse;
+import com.upgrade.www.reservation.models.output.ReservationDetail;
+import com.upgrade.www.reservation.models.output.ReservationPageResponse;
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import com.upgrade.www.reservation.service.allocation.ReleaseTicket;
+import com.upgrade.www.reservation.validators.CampsiteValidator;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Request parsing and validation shared by the servlet and the reactive controllers
+ */
+final class ReservationRequests {
+
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int MAX_PAGE_SIZE = 100;
+
+    private ReservationRequests() {
+    }
+
+    static DateRange parseDateRange(String startDateParam, String endDateParam) throws InvalidInputException {
+        if (!StringUtils.isEmpty(startDateParam) && !StringUtils.isEmpty(endDateParam)) {
+            try {
+                LocalDate startDate = LocalDate.parse(startDateParam, DateTimeFormatter.ISO_DATE);
+                LocalDate endDate = LocalDate.parse(endDateParam, DateTimeFormatter.ISO_DATE);
+
+                if (!startDate.isBefore(endDate)) {
+                    throw new InvalidInputException("Start date should be before end date");
+                }
+                return new DateRange(startDate, endDate);
+            } catch (DateTimeParseException exception) {
+                throw new InvalidInputException("Invalid date parameters. Please provide YYYY-MM-DD format");
+            }
+        }
+
+        return null;
+    }
+
+    static BookingStatus parseBookingStatus(String statusParam) throws InvalidInputException {
+        if (StringUtils.isEmpty(statusParam)) {
+            return null;
+        }
+        try {
+            return BookingStatus.valueOf(statusParam.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exception) {
+            throw new InvalidInputException("Invalid status, should be one of " + Arrays.toString(BookingStatus.values()));
+        }
+    }
+
+    static void validatePage(String email, int page, int size) throws InvalidInputException {
+        if (StringUtils.isEmpty(email)) {
+            throw new InvalidInputException("Need a valid email");
+        }
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+            throw new InvalidInputException("Page should be at least 0 and size between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+
+    static int resolveCampsiteId(Integer campsiteId) {
+        return campsiteId == null ? CampsiteValidator.DEFAULT_CAMPSITE_ID : campsiteId;
+    }
+
+    static void validateBookingInformation(String bookingId, String email) throws InvalidInputException {
+        if (StringUtils.isEmpty(bookingId) || StringUtils.isEmpty(email)) {
+            throw new InvalidInputException("Need a valid booking id and email");
+        }
+    }
+
+    static void validateReservationParameters(String email, String firstName, String lastName) throws InvalidInputException {
+        // Assuming valid email pattern
+        if (StringUtils.isEmpty(email) || StringUtils.isEmpty(firstName) || StringUtils.isEmpty(lastName)) {
+            throw new InvalidInputException("Need a valid email, firstName and lastName for a booking");
+        }
+    }
+
+    /**
+     * Parses each reservation of a batch on its own so an invalid reservation is rejected without failing the others
+     */
+    static List<BatchBooking> toBatch(List<ReservationRequest> reservationRequests) {
+        final List<BatchBooking> batch = new ArrayList<>(reservationRequests.size());
+        for (ReservationRequest reservationRequest : reservationRequests) {
+            try {
+                validateReservationParameters(reservationRequest.getEmail(), reservationRequest.getFirstName(), reservationRequest.getLastName());
+                final DateRange dateRange = parseDateRange(reservationRequest.getStartDate(), reservationRequest.getEndDate());
+                batch.add(new BatchBooking(resolveCampsiteId(reservationRequest.getCampsiteId()), reservationRequest.getEmail(), dateRange));
+            } catch (InvalidInputException exception) {
+                batch.add(BatchBooking.rejected(exception.getMessage()));
+            }
+        }
+        return batch;
+    }
+
+    static BatchReservationResponse toBatchResponse(List<BatchBooking> batch) {
+        final List<ReservationResponse> reservations = new ArrayList<>(batch.size());
+        for (BatchBooking item : batch) {
+            if (item.getBooking() != null) {
+                reservations.add(new ReservationResponse(List.of(toReservationDetail(item.getBooking())), emptyList()));
+            } else {
+                reservations.add(new ReservationResponse(emptyList(), List.of(item.getError())));
+            }
+        }
+        return new BatchReservationResponse(reservations, emptyList());
+    }
+
+    // Bookings past the last page give an empty page with the total so clients can tell where the pages end
+    static ReservationPageResponse toReservationPage(List<BookingDetail> bookings, int page, int size) {
+        final int from = (int) Math.min((long) page * size, bookings.size());
+        final int to = Math.min(from + size, bookings.size());
+        final List<ReservationDetail> details = new ArrayList<>(to - from);
+        for (BookingDetail booking : bookings.subList(from, to)) {
+            details.add(toReservationDetail(booking));
+        }
+        return new ReservationPageResponse(details, page, size, bookings.size(), emptyList());
+    }
+
+    // Fields of a write compared when an idempotency key is reused, so a key cannot replay the response of another request
+    static String fingerprint(ReservationRequest reservationRequest) {
+        return String.join("|", reservationRequest.getEmail(), reservationRequest.getFirstName(), reservationRequest.getLastName(),
+                reservationRequest.getStartDate(), reservationRequest.getEndDate(), String.valueOf(reservationRequest.getCampsiteId()));
+    }
+
+    static String fingerprint(ReservationUpdateRequest reservationUpdateRequest) {
+        return String.join("|", reservationUpdateRequest.getBookingId(), reservationUpdateRequest.getEmail(),
+                reservationUpdateRequest.getUpdatedStartDate(), reservationUpdateRequest.getUpdatedEndDate());
+    }
+
+    static String fingerprint(CancellationRequest cancellationRequest) {
+        return String.join("|", cancellationRequest.getBookingId(), cancellationRequest.getEmail());
+    }
+
+    static ReleaseTicketResponse toReleaseTicketResponse(ReleaseTicket ticket) {
+        if (!ticket.isAllocated()) {
+            return new ReleaseTicketResponse(ticket.getId(), ReleaseTicketResponse.PENDING, emptyList(), emptyList());
+        } else if (ticket.getBooking() == null) {
+            return new ReleaseTicketResponse(ticket.getId(), ReleaseTicketResponse.REJECTED, emptyList(), List.of(ticket.getError()));
+        }
+        return new ReleaseTicketResponse(ticket.getId(), ReleaseTicketResponse.ALLOCATED, List.of(toReservationDetail(ticket.getBooking())), emptyList());
+    }
+
+    static ReservationDetail toReservationDetail(BookingDetail bookingDetail) {
+        return new ReservationDetail(bookingDetail.getId(), bookingDetail.getCampsiteId(), bookingDetail.getEmail(),
+                bookingDetail.getStatus().name(), bookingDetail.getStartDate(), bookingDetail.getEndDate(), bookingDetail.getVersion());
+    }
+}
@@ -0,0 +1,153 @@
+package com.upgrade.www.reservation.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.models.output.ReservationDetail;
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Hand written serializers of the responses returned the most, registered with the object mapper Spring Boot builds.
+ * They write the same JSON as the bean serializers, fields in declaration order and nulls included, with the field
+ * names pre-encoded and the dates read from an {@link EpochDayText} rather than formatted by the java time module.
+ */
+@Component
+class ResponseSerializationModule extends SimpleModule {
+
+    private static final SerializableString AVAILABLE_DATES = new SerializedString("availableDates");
+    private static final SerializableString ERRORS = new SerializedString("errors");
+    private static final SerializableString RESERVATION_DETAILS = new SerializedString("reservationDetails");
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString CAMPSITE_ID = new SerializedString("campsiteId");
+    private static final SerializableString EMAIL = new SerializedString("email");
+    private static final SerializableString STATUS = new SerializedString("status");
+    private static final SerializableString START_DATE = new SerializedString("startDate");
+    private static final SerializableString END_DATE = new SerializedString("endDate");
+    private static final SerializableString VERSION = new SerializedString("version");
+
+    private final EpochDayText epochDayText = new EpochDayText();
+
+    ResponseSerializationModule() {
+        super("reservation-responses");
+        addSerializer(AvailabilityDetailsResponse.class, new AvailabilityDetailsResponseSerializer());
+        addSerializer(ReservationResponse.class, new ReservationResponseSerializer());
+        addSerializer(ReservationDetail.class, new ReservationDetailSerializer());
+    }
+
+    private void writeDate(JsonGenerator generator, LocalDate date) throws IOException {
+        if (date == null) {
+            generator.writeNull();
+        } else {
+            generator.writeString(epochDayText.get(date));
+        }
+    }
+
+    private static void writeStrings(JsonGenerator generator, List<String> strings) throws IOException {
+        if (strings == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray();
+        for (String string : strings) {
+            generator.writeString(string);
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeReservation(JsonGenerator generator, ReservationDetail reservation) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(ID);
+        generator.writeString(reservation.getId());
+        generator.writeFieldName(CAMPSITE_ID);
+        generator.writeNumber(reservation.getCampsiteId());
+        generator.writeFieldName(EMAIL);
+        generator.writeString(reservation.getEmail());
+        generator.writeFieldName(STATUS);
+        generator.writeString(reservation.getStatus());
+        generator.writeFieldName(START_DATE);
+        writeDate(generator, reservation.getStartDate());
+        generator.writeFieldName(END_DATE);
+        writeDate(generator, reservation.getEndDate());
+        generator.writeFieldName(VERSION);
+        generator.writeNumber(reservation.getVersion());
+        generator.writeEndObject();
+    }
+
+    private class AvailabilityDetailsResponseSerializer extends StdSerializer<AvailabilityDetailsResponse> {
+
+        AvailabilityDetailsResponseSerializer() {
+            super(AvailabilityDetailsResponse.class);
+        }
+
+        @Override
+        public void serialize(AvailabilityDetailsResponse response, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeFieldName(AVAILABLE_DATES);
+            final List<LocalDate> availableDates = response.getAvailableDates();
+            if (availableDates == null) {
+                generator.writeNull();
+            } else {
+                generator.writeStartArray();
+                for (LocalDate date : availableDates) {
+                    writeDate(generator, date);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeFieldName(ERRORS);
+            writeStrings(generator, response.getErrors());
+            generator.writeEndObject();
+        }
+    }
+
+    private class ReservationResponseSerializer extends StdSerializer<ReservationResponse> {
+
+        ReservationResponseSerializer() {
+            super(ReservationResponse.class);
+        }
+
+        @Override
+        public void serialize(ReservationResponse response, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeFieldName(RESERVATION_DETAILS);
+            final List<ReservationDetail> reservations = response.getReservationDetails();
+            if (reservations == null) {
+                generator.writeNull();
+            } else {
+                generator.writeStartArray();
+                for (ReservationDetail reservation : reservations) {
+                    if (reservation == null) {
+                        generator.writeNull();
+                    } else {
+                        writeReservation(generator, reservation);
+                    }
+                }
+                generator.writeEndArray();
+            }
+            generator.writeFieldName(ERRORS);
+            writeStrings(generator, response.getErrors());
+            generator.writeEndObject();
+        }
+    }
+
+    // Also picked by the responses still serialized as beans which hold reservations, like the pages and the export lines
+    private class ReservationDetailSerializer extends StdSerializer<ReservationDetail> {
+
+        ReservationDetailSerializer() {
+            super(ReservationDetail.class);
+        }
+
+        @Override
+        public void serialize(ReservationDetail reservation, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            writeReservation(generator, reservation);
+        }
+    }
+}
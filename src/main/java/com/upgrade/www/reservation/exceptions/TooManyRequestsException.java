@@ -0,0 +1,18 @@
+package com.upgrade.www.reservation.exceptions;
+
+/**
+ * A write turned away because too many writes are already running or waiting, it can be retried after a short delay
+ */
+public class TooManyRequestsException extends ReservationException {
+
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,103 @@
+package com.upgrade.www.reservation.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Booking hot path meters, exposed on /actuator/metrics next to the `http.server.requests` endpoint latencies.
+ * Histogram buckets and percentiles of the timers are configured with the `management.metrics.distribution` properties.
+ */
+@Component
+public class ReservationMetrics {
+
+    // Reasons a booking, modification or cancellation was rejected
+    public static final String REJECTED_UNAVAILABLE = "unavailable";
+    public static final String REJECTED_ALREADY_CANCELLED = "already_cancelled";
+    public static final String REJECTED_NOT_DURABLE = "not_durable";
+    public static final String REJECTED_INVALID_CAMPSITE = "invalid_campsite";
+    public static final String REJECTED_INVALID_DATES = "invalid_dates";
+    public static final String REJECTED_NOT_FOUND = "not_found";
+    public static final String REJECTED_OVERLOADED = "overloaded";
+    public static final String REJECTED_HOLD_EXPIRED = "hold_expired";
+
+    private final MeterRegistry meterRegistry;
+    private final Timer lockWaitTimer;
+    private final Timer lockHoldTimer;
+    private final Timer cacheLagTimer;
+    private final AtomicInteger pendingCacheUpdates = new AtomicInteger();
+    private final AtomicInteger admissionLimit = new AtomicInteger();
+    private final AtomicInteger queuedWrites = new AtomicInteger();
+    private final AtomicLong replicationLag = new AtomicLong();
+    private final AtomicLong replicationBehind = new AtomicLong();
+
+    @Autowired
+    public ReservationMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.lockWaitTimer = Timer.builder("reservation.commit.lock.wait")
+                .description("Time a booking commit waits for the night locks")
+                .register(meterRegistry);
+        this.lockHoldTimer = Timer.builder("reservation.commit.lock.hold")
+                .description("Time a booking commit holds the night locks")
+                .register(meterRegistry);
+        this.cacheLagTimer = Timer.builder("reservation.cache.lag")
+                .description("Delay between a booking commit and its availability cache update landing")
+                .register(meterRegistry);
+        Gauge.builder("reservation.cache.pending.updates", pendingCacheUpdates, AtomicInteger::get)
+                .description("Committed bookings not yet reflected in the availability cache")
+                .register(meterRegistry);
+        Gauge.builder("reservation.admission.limit", admissionLimit, AtomicInteger::get)
+                .description("Writes allowed to run at once by the adaptive admission limit")
+                .register(meterRegistry);
+        Gauge.builder("reservation.admission.queued", queuedWrites, AtomicInteger::get)
+                .description("Writes waiting to be admitted")
+                .register(meterRegistry);
+        Gauge.builder("reservation.replication.lag", replicationLag, AtomicLong::get)
+                .description("Milliseconds between the leader committing a change and this follower applying it")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("reservation.replication.behind", replicationBehind, AtomicLong::get)
+                .description("Changes committed by the leader not yet applied by this follower")
+                .register(meterRegistry);
+    }
+
+    public void recordLockWait(long waitNanos) {
+        lockWaitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLockHold(long holdNanos) {
+        lockHoldTimer.record(holdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRejectedBooking(String reason) {
+        meterRegistry.counter("reservation.bookings.rejected", "reason", reason).increment();
+    }
+
+    public void cacheUpdateQueued() {
+        pendingCacheUpdates.incrementAndGet();
+    }
+
+    /**
+     * @param committedAt {@link System#nanoTime()} when the booking was committed
+     */
+    public void cacheUpdateApplied(long committedAt) {
+        pendingCacheUpdates.decrementAndGet();
+        cacheLagTimer.record(System.nanoTime() - committedAt, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordAdmission(int limit, int queued) {
+        admissionLimit.set(limit);
+        queuedWrites.set(queued);
+    }
+
+    public void recordReplication(long lagMillis, long changesBehind) {
+        replicationLag.set(lagMillis);
+        replicationBehind.set(changesBehind);
+    }
+}
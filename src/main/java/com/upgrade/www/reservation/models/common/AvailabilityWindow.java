@@ -0,0 +1,29 @@
+package com.upgrade.www.reservation.models.common;
+
+/**
+ * Validated availability lookup of a campsite together with the version of the campsite calendar it is read at
+ */
+public class AvailabilityWindow {
+
+    private final int campsiteId;
+    private final DateRange dateRange;
+    private final long version;
+
+    public AvailabilityWindow(int campsiteId, DateRange dateRange, long version) {
+        this.campsiteId = campsiteId;
+        this.dateRange = dateRange;
+        this.version = version;
+    }
+
+    public int getCampsiteId() {
+        return campsiteId;
+    }
+
+    public DateRange getDateRange() {
+        return dateRange;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,61 @@
+package com.upgrade.www.reservation.models.common;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+/**
+ * A single booking of a batch, rejected items carry the reason and are skipped by the later stages of the batch
+ */
+public class BatchBooking {
+
+    private final int campsiteId;
+    private final String email;
+    private final DateRange dateRange;
+    private BookingDetail booking;
+    private String error;
+
+    public BatchBooking(int campsiteId, String email, DateRange dateRange) {
+        this.campsiteId = campsiteId;
+        this.email = email;
+        this.dateRange = dateRange;
+    }
+
+    public static BatchBooking rejected(String error) {
+        final BatchBooking batchBooking = new BatchBooking(0, null, null);
+        batchBooking.reject(error);
+        return batchBooking;
+    }
+
+    public int getCampsiteId() {
+        return campsiteId;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public DateRange getDateRange() {
+        return dateRange;
+    }
+
+    public BookingDetail getBooking() {
+        return booking;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // Neither booked nor rejected yet
+    public boolean isPending() {
+        return booking == null && error == null;
+    }
+
+    public void complete(BookingDetail booking) {
+        this.booking = booking;
+    }
+
+    public void reject(String error) {
+        this.booking = null;
+        this.error = error;
+    }
+}
@@ -2,5 +2,7 @@ package com.upgrade.www.reservation.models.common;
 
 public enum BookingStatus {
     CONFIRMED,
-    CANCELLED
+    CANCELLED,
+    // Nights kept for the guest for a short time until the booking is confirmed, released or the hold expires
+    HELD
 }
@@ -0,0 +1,31 @@
+package com.upgrade.www.reservation.models.common;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read only list of dates backed by their epoch days, dates are only materialized when read
+ */
+public class EpochDayList extends AbstractList<LocalDate> implements RandomAccess {
+
+    private final int[] epochDays;
+
+    public EpochDayList(int[] epochDays) {
+        this.epochDays = epochDays;
+    }
+
+    @Override
+    public LocalDate get(int index) {
+        return LocalDate.ofEpochDay(epochDays[index]);
+    }
+
+    public int getEpochDay(int index) {
+        return epochDays[index];
+    }
+
+    @Override
+    public int size() {
+        return epochDays.length;
+    }
+}
@@ -4,18 +4,21 @@ import com.upgrade.www.reservation.models.common.BookingStatus;
 import com.upgrade.www.reservation.models.common.DateRange;
 
 import java.time.LocalDate;
-import java.util.UUID;
 
 public class BookingDetail {
 
     private final String id;
+    private final int campsiteId;
     private final String email;
     private final LocalDate startDate;
     private final LocalDate endDate;
     private BookingStatus status;
+    // Version of the cache change which last changed the booking, stored with the booking so it survives restarts
+    private long version;
 
-    public BookingDetail(String email, DateRange dateRange, BookingStatus status) {
-        this.id = UUID.randomUUID().toString();
+    public BookingDetail(String id, int campsiteId, String email, DateRange dateRange, BookingStatus status) {
+        this.id = id;
+        this.campsiteId = campsiteId;
         this.email = email;
         this.startDate = dateRange.getStartDate();
         this.endDate = dateRange.getEndDate();
@@ -26,6 +29,10 @@ public class BookingDetail {
         return id;
     }
 
+    public int getCampsiteId() {
+        return campsiteId;
+    }
+
     public String getEmail() {
         return email;
     }
@@ -45,4 +52,12 @@ public class BookingDetail {
     public void setStatus(BookingStatus status) {
         this.status = status;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -6,6 +6,8 @@ public class ReservationRequest {
     private String email;
     private String startDate;
     private String endDate;
+    // Optional, defaults to the original campsite when not provided
+    private Integer campsiteId;
 
     public ReservationRequest(String firstName, String lastName, String email, String startDate, String endDate) {
         this.firstName = firstName;
@@ -54,4 +56,12 @@ public class ReservationRequest {
     public void setEndDate(String endDate) {
         this.endDate = endDate;
     }
+
+    public Integer getCampsiteId() {
+        return campsiteId;
+    }
+
+    public void setCampsiteId(Integer campsiteId) {
+        this.campsiteId = campsiteId;
+    }
 }
@@ -0,0 +1,43 @@
+package com.upgrade.www.reservation.models.output;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Nights of a streamed availability window which changed since the last event, each listed once with its latest state
+ */
+public class AvailabilityChangeResponse {
+    private List<LocalDate> bookedDates;
+    private List<LocalDate> freedDates;
+    private long version;
+
+    public AvailabilityChangeResponse(List<LocalDate> bookedDates, List<LocalDate> freedDates, long version) {
+        this.bookedDates = bookedDates;
+        this.freedDates = freedDates;
+        this.version = version;
+    }
+
+    public List<LocalDate> getBookedDates() {
+        return bookedDates;
+    }
+
+    public void setBookedDates(List<LocalDate> bookedDates) {
+        this.bookedDates = bookedDates;
+    }
+
+    public List<LocalDate> getFreedDates() {
+        return freedDates;
+    }
+
+    public void setFreedDates(List<LocalDate> freedDates) {
+        this.freedDates = freedDates;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
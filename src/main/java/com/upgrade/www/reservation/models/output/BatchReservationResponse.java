@@ -0,0 +1,30 @@
+package com.upgrade.www.reservation.models.output;
+
+import java.util.List;
+
+public class BatchReservationResponse {
+    // One response per requested reservation in the order of the request, failed reservations only carry errors
+    private List<ReservationResponse> reservations;
+    private List<String> errors;
+
+    public BatchReservationResponse(List<ReservationResponse> reservations, List<String> errors) {
+        this.reservations = reservations;
+        this.errors = errors;
+    }
+
+    public List<ReservationResponse> getReservations() {
+        return reservations;
+    }
+
+    public void setReservations(List<ReservationResponse> reservations) {
+        this.reservations = reservations;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
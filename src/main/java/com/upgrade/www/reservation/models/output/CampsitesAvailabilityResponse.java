@@ -0,0 +1,31 @@
+package com.upgrade.www.reservation.models.output;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+public class CampsitesAvailabilityResponse {
+    private Map<Integer, List<LocalDate>> availableDates;
+    private List<String> errors;
+
+    public CampsitesAvailabilityResponse(Map<Integer, List<LocalDate>> availableDates, List<String> errors) {
+        this.availableDates = availableDates;
+        this.errors = errors;
+    }
+
+    public Map<Integer, List<LocalDate>> getAvailableDates() {
+        return availableDates;
+    }
+
+    public void setAvailableDates(Map<Integer, List<LocalDate>> availableDates) {
+        this.availableDates = availableDates;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -0,0 +1,38 @@
+package com.upgrade.www.reservation.models.output;
+
+import java.util.List;
+
+/**
+ * Reservation response of a request collected for a release, the reservation details are only filled once the
+ * release is allocated and the request was booked
+ */
+public class ReleaseTicketResponse extends ReservationResponse {
+    public static final String PENDING = "PENDING";
+    public static final String ALLOCATED = "ALLOCATED";
+    public static final String REJECTED = "REJECTED";
+
+    private String ticket;
+    private String allocationStatus;
+
+    public ReleaseTicketResponse(String ticket, String allocationStatus, List<ReservationDetail> details, List<String> errors) {
+        super(details, errors);
+        this.ticket = ticket;
+        this.allocationStatus = allocationStatus;
+    }
+
+    public String getTicket() {
+        return ticket;
+    }
+
+    public void setTicket(String ticket) {
+        this.ticket = ticket;
+    }
+
+    public String getAllocationStatus() {
+        return allocationStatus;
+    }
+
+    public void setAllocationStatus(String allocationStatus) {
+        this.allocationStatus = allocationStatus;
+    }
+}
@@ -4,23 +4,31 @@ import java.time.LocalDate;
 
 public class ReservationDetail {
     private String id;
+    private int campsiteId;
     private String email;
     private String status;
     private LocalDate startDate;
     private LocalDate endDate;
+    private long version;
 
-    public ReservationDetail(String id, String email, String status, LocalDate startDate, LocalDate endDate) {
+    public ReservationDetail(String id, int campsiteId, String email, String status, LocalDate startDate, LocalDate endDate, long version) {
         this.id = id;
+        this.campsiteId = campsiteId;
         this.email = email;
         this.status = status;
         this.startDate = startDate;
         this.endDate = endDate;
+        this.version = version;
     }
 
     public String getId() {
         return id;
     }
 
+    public int getCampsiteId() {
+        return campsiteId;
+    }
+
     public String getEmail() {
         return email;
     }
@@ -37,10 +45,18 @@ public class ReservationDetail {
         return endDate;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public void setId(String id) {
         this.id = id;
     }
 
+    public void setCampsiteId(int campsiteId) {
+        this.campsiteId = campsiteId;
+    }
+
     public void setEmail(String email) {
         this.email = email;
     }
@@ -56,4 +72,8 @@ public class ReservationDetail {
     public void setEndDate(LocalDate endDate) {
         this.endDate = endDate;
     }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
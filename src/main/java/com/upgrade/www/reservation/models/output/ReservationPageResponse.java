@@ -0,0 +1,59 @@
+package com.upgrade.www.reservation.models.output;
+
+import java.util.List;
+
+public class ReservationPageResponse {
+    private List<ReservationDetail> reservationDetails;
+    private int page;
+    private int size;
+    private int totalReservations;
+    private List<String> errors;
+
+    public ReservationPageResponse(List<ReservationDetail> details, int page, int size, int totalReservations, List<String> errors) {
+        this.reservationDetails = details;
+        this.page = page;
+        this.size = size;
+        this.totalReservations = totalReservations;
+        this.errors = errors;
+    }
+
+    public List<ReservationDetail> getReservationDetails() {
+        return reservationDetails;
+    }
+
+    public void setReservationDetails(List<ReservationDetail> reservationDetails) {
+        this.reservationDetails = reservationDetails;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getTotalReservations() {
+        return totalReservations;
+    }
+
+    public void setTotalReservations(int totalReservations) {
+        this.totalReservations = totalReservations;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -1,65 +1,112 @@
 package com.upgrade.www.reservation.repository;
 
 import com.upgrade.www.reservation.models.common.DateRange;
-import org.springframework.scheduling.annotation.Async;
+import com.upgrade.www.reservation.models.common.EpochDayList;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 
 /**
- * Cache which gets updated Async whenever bookings are done. Provides faster lookup of availability for users.
+ * Cache which gets updated by the {@link BookingChangeApplier} in commit order whenever bookings are done.
+ * Provides faster lookup of availability for users.
  * Cache can be slightly stale as it is only used to check availability
  * All booking confirmations read the database records to confirm availability
  */
 @Component
 public class BookingCache {
 
-    /* ConcurrentHashMap to keep the reads faster but the writes will block the threads
-     * Can be switched out to an external distributed caching system for faster availability checks
-     * Async thread can be used to remove dates in the past from the cache
-     * Similarly we can expand the cache key to be a campsite id and date to support multiple sites
+    // First day past the booking calendar, ranges must end on it at the latest
+    public static final LocalDate CALENDAR_END = LocalDate.ofEpochDay(EpochDayBitmap.CAPACITY);
+
+    /* Booked nights keyed by epoch day, in process or in an external cache selected with reservation.cache.provider
+     * Dates in the past are removed at every midnight of the campsite timezone by the {@link PastNightEvictionScheduler}
      */
-    private final ConcurrentHashMap<String, LocalDate> bookedDatesCache = new ConcurrentHashMap<>();
+    private final BookingCacheProvider bookingCacheProvider;
 
-    public List<LocalDate> getAvailableDates(DateRange dateRange) {
-        List<LocalDate> availableDates = new ArrayList<>();
-        LocalDate date = dateRange.getStartDate();
+    @Autowired
+    public BookingCache(BookingCacheProvider bookingCacheProvider) {
+        this.bookingCacheProvider = bookingCacheProvider;
+    }
 
-        while (date.isBefore(dateRange.getEndDate())) {
-            // Can be optimized to get all the keys at once if it is a distributed cache
-            if (!bookedDatesCache.containsKey(date.toString())) {
-                availableDates.add(date);
-            }
-            date = date.plusDays(1);
-        }
+    public List<LocalDate> getAvailableDates(int campsiteId, DateRange dateRange) {
+        // Every night of the range is fetched at once, from a single word for most stays
+        final int[] availableDays = bookingCacheProvider.getAvailableDays(campsiteId, dateRange.getStartDate().toEpochDay(),
+                dateRange.getEndDate().toEpochDay());
+        return new EpochDayList(availableDays);
+    }
+
+    // Lookups of a remote cache block on the network
+    public boolean isRemote() {
+        return bookingCacheProvider.isRemote();
+    }
 
-        return availableDates;
+    /**
+     * Applies a coalesced burst of committed changes, called only by the {@link BookingChangeApplier} thread
+     * @param campsiteWordMasks per campsite, per word index the nights to book and the nights to free, as {set mask, clear mask}
+     */
+    void applyWords(Map<Integer, Map<Integer, long[]>> campsiteWordMasks) {
+        bookingCacheProvider.applyWords(campsiteWordMasks);
     }
 
     /**
-     * Add booked dates to the cache asynchronously
-     * Async as the cache update need not be transactional update as part of booking
+     * Frees every night before the day. Past nights are never booked again so this clears bits the applier no longer sets,
+     * except for a commit racing the roll-over whose past night is cleared by the next eviction.
+     * @param day first night to keep
+     */
+    public void evictNightsBefore(LocalDate day) {
+        bookingCacheProvider.evictNightsBefore(day.toEpochDay());
+    }
+
+    /**
+     * Marks booked dates synchronously while the repository is recovering its records on startup
+     * @param campsiteId campsite of the booking
      * @param stayDates booked date range
      */
-    @Async
-    public void addBookedDates(List<LocalDate> stayDates) {
-        for (LocalDate date : stayDates) {
-            bookedDatesCache.put(date.toString(), date);
-        }
+    public void restoreBookedDates(int campsiteId, DateRange stayDates) {
+        bookingCacheProvider.applyWords(Map.of(campsiteId, rangeMasks(stayDates, true)));
     }
 
     /**
-     * Remove cancelled dates from the cache asynchronously
-     * Async due to the cache update need not be transactional update change booking
+     * Releases dates synchronously while the repository is recovering its records on startup
+     * @param campsiteId campsite of the booking
      * @param stayDates cancelled date range
      */
-    @Async
-    public void removeBookedDates(List<LocalDate> stayDates) {
-        for (LocalDate date : stayDates) {
-            bookedDatesCache.remove(date.toString());
+    public void restoreCancelledDates(int campsiteId, DateRange stayDates) {
+        bookingCacheProvider.applyWords(Map.of(campsiteId, rangeMasks(stayDates, false)));
+    }
+
+    /**
+     * Loads a snapshot calendar of booked nights synchronously while the repository is recovering on startup
+     * @param campsiteId campsite of the calendar
+     * @param firstWord index of the first word, bit i of words[k] is the night with epoch day (firstWord + k) * 64 + i
+     * @param words booked nights packed 64 to a word
+     */
+    public void restoreBookedNights(int campsiteId, int firstWord, long[] words) {
+        final Map<Integer, long[]> wordMasks = new HashMap<>();
+        for (int k = 0; k < words.length; k++) {
+            if (words[k] != 0L) {
+                wordMasks.put(firstWord + k, new long[]{words[k], 0L});
+            }
+        }
+        bookingCacheProvider.applyWords(Map.of(campsiteId, wordMasks));
+    }
+
+    private static Map<Integer, long[]> rangeMasks(DateRange stayDates, boolean booked) {
+        final Map<Integer, long[]> wordMasks = new HashMap<>();
+        final long startDay = stayDates.getStartDate().toEpochDay();
+        final long endDay = stayDates.getEndDate().toEpochDay();
+        if (startDay >= endDay) {
+            return wordMasks;
+        }
+        final int lastWord = (int) ((endDay - 1) >>> EpochDayBitmap.WORD_SHIFT);
+        for (int word = (int) (startDay >>> EpochDayBitmap.WORD_SHIFT); word <= lastWord; word++) {
+            final long mask = EpochDayBitmap.wordMask(word, startDay, endDay);
+            wordMasks.put(word, booked ? new long[]{mask, 0L} : new long[]{0L, mask});
         }
+        return wordMasks;
     }
 }
@@ -0,0 +1,37 @@
+package com.upgrade.www.reservation.repository;
+
+import java.util.Map;
+
+/**
+ * Storage of the booked nights behind the {@link BookingCache}, kept in process or in an external cache shared by instances.
+ * Nights are addressed by epoch day and packed 64 to a word, bit i of word w is the night with epoch day w * 64 + i,
+ * so a lookup or a change touches a handful of words rather than one key per night.
+ */
+public interface BookingCacheProvider {
+
+    /**
+     * Reads every word covering [startDay, endDay) at once
+     * @return epoch days in the range which are not booked, in ascending order
+     */
+    int[] getAvailableDays(int campsiteId, long startDay, long endDay);
+
+    /**
+     * Applies the changes of a burst of commits as a single batch, called only by the {@link BookingChangeApplier}
+     * thread and while the repository is recovering on startup
+     * @param campsiteWordMasks per campsite, per word index the nights to book and the nights to free, as {set mask, clear mask}
+     */
+    void applyWords(Map<Integer, Map<Integer, long[]>> campsiteWordMasks);
+
+    /**
+     * Frees every night before the day
+     * @param epochDay first night to keep
+     */
+    void evictNightsBefore(long epochDay);
+
+    /**
+     * @return true when a lookup waits on the network, which must then be kept off event loop and fork join threads
+     */
+    default boolean isRemote() {
+        return false;
+    }
+}
@@ -0,0 +1,256 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single writer of the {@link BookingCache}, applying the changes of booking commits in the order they were committed.
+ * A commit publishes its change while it holds its night locks, so changes to the same nights are published in commit order.
+ * Every change gets a version, a sequence number assigned under the publish lock so the queue is always in version order.
+ * The applier thread drains bursts of changes, waits for each to be durable, folds the burst into one set and clear mask
+ * per touched word of each campsite calendar and applies every word once.
+ * Readers can wait for a version to read availability at least as fresh as a commit they know of.
+ * Versions start from the startup time in microseconds so they keep increasing across restarts.
+ * A replication follower publishes the changes of its leader under the leader's versions instead.
+ */
+@Component
+public class BookingChangeApplier {
+
+    // Upper bound on the changes folded into a single cache update
+    private static final int MAX_BURST_SIZE = 1024;
+    private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+
+    private final BookingCache bookingCache;
+    private final ReservationMetrics reservationMetrics;
+    private final ConcurrentLinkedQueue<BookingChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock publishLock = new ReentrantLock();
+    // Readers waiting for a version to be applied, keyed by the version
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> versionWaiters = new ConcurrentSkipListMap<>();
+    // Version of the last applied change which touched each campsite
+    private final Map<Integer, Long> campsiteVersions = new ConcurrentHashMap<>();
+    private final List<BookingChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final Thread applier;
+    private final long initialVersion = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private volatile long publishedVersion = initialVersion;
+    private volatile long appliedVersion = initialVersion;
+    private volatile boolean running = true;
+
+    @Autowired
+    public BookingChangeApplier(BookingCache bookingCache, ReservationMetrics reservationMetrics) {
+        this.bookingCache = bookingCache;
+        this.reservationMetrics = reservationMetrics;
+        this.applier = new Thread(this::applyLoop, "booking-cache-applier");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    /**
+     * Queues the change of a commit, must be called while the commit holds the night locks of the changed nights
+     * @param releasedBookings bookings whose nights are freed
+     * @param bookedBookings bookings whose nights are booked, applied after the released nights
+     * @param durable completes once the commit is durable, the change is dropped if it fails
+     * @return version of the change
+     */
+    public long publish(List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings, CompletableFuture<Void> durable) {
+        final long version;
+        publishLock.lock();
+        try {
+            version = publishedVersion + 1;
+            pendingChanges.add(new BookingChange(version, releasedBookings, bookedBookings, durable));
+            publishedVersion = version;
+        } finally {
+            publishLock.unlock();
+        }
+        reservationMetrics.cacheUpdateQueued();
+        LockSupport.unpark(applier);
+        return version;
+    }
+
+    /**
+     * Queues a change replicated from the leader under the version the leader gave it. The replication thread is the only
+     * publisher of a follower and publishes in the leader's version order, the first change may go below the startup version.
+     */
+    public void publishReplicated(long version, List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings) {
+        publishLock.lock();
+        try {
+            pendingChanges.add(new BookingChange(version, releasedBookings, bookedBookings, DURABLE));
+            publishedVersion = version;
+        } finally {
+            publishLock.unlock();
+        }
+        reservationMetrics.cacheUpdateQueued();
+        LockSupport.unpark(applier);
+    }
+
+    /**
+     * Raises the version to the latest one recovered on startup, in case commits ran ahead of the clock the initial
+     * version is read from. Must be called before anything is published.
+     */
+    public void restoreVersion(long version) {
+        publishLock.lock();
+        try {
+            if (version > publishedVersion) {
+                publishedVersion = version;
+                appliedVersion = version;
+            }
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * @param changeListener called on the applier thread for every durable change, must not block
+     */
+    public void addChangeListener(BookingChangeListener changeListener) {
+        changeListeners.add(changeListener);
+    }
+
+    public long getPublishedVersion() {
+        return publishedVersion;
+    }
+
+    public long getAppliedVersion() {
+        return appliedVersion;
+    }
+
+    // Version of the last applied change of the campsite, the initial version when none has been applied since startup
+    public long getCampsiteVersion(int campsiteId) {
+        return campsiteVersions.getOrDefault(campsiteId, initialVersion);
+    }
+
+    /**
+     * @return completes once every change up to the version has been applied to the cache, a copy of the shared waiter
+     * so a caller timing it out does not fail the other readers of the version
+     */
+    public CompletableFuture<Void> awaitVersion(long version) {
+        if (appliedVersion >= version) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> waiter = versionWaiters.computeIfAbsent(version, key -> new CompletableFuture<>());
+        // The applier may have passed the version before the waiter was registered
+        if (appliedVersion >= version) {
+            versionWaiters.remove(version);
+            waiter.complete(null);
+        }
+        return waiter.copy();
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        LockSupport.unpark(applier);
+        try {
+            applier.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void applyLoop() {
+        final List<BookingChange> burst = new ArrayList<>();
+        while (running || !pendingChanges.isEmpty()) {
+            BookingChange change;
+            while (burst.size() < MAX_BURST_SIZE && (change = pendingChanges.poll()) != null) {
+                burst.add(change);
+            }
+            if (burst.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            apply(burst);
+            burst.clear();
+        }
+    }
+
+    private void apply(List<BookingChange> burst) {
+        // Per campsite, per word index {nights to book, nights to free} folded in version order so the latest change wins
+        final Map<Integer, Map<Integer, long[]>> campsiteWords = new HashMap<>();
+        final List<BookingChange> durableChanges = new ArrayList<>(burst.size());
+        for (BookingChange change : burst) {
+            try {
+                // Changes are durable in publish order so this only waits for the journal to catch up
+                change.durable.join();
+            } catch (CompletionException exception) {
+                continue;
+            }
+            durableChanges.add(change);
+            for (BookingDetail booking : change.releasedBookings) {
+                fold(campsiteWords, booking, false);
+            }
+            for (BookingDetail booking : change.bookedBookings) {
+                fold(campsiteWords, booking, true);
+            }
+        }
+
+        final long version = burst.get(burst.size() - 1).version;
+        // A single batch for the whole burst so an external cache is updated in one round trip
+        bookingCache.applyWords(campsiteWords);
+        campsiteWords.keySet().forEach(campsiteId -> campsiteVersions.put(campsiteId, version));
+        appliedVersion = version;
+        // Listeners hear of a change once the cache holds it, so a reader registered before reading the cache misses none
+        for (BookingChange change : durableChanges) {
+            for (BookingChangeListener changeListener : changeListeners) {
+                changeListener.changeApplied(change.version, change.releasedBookings, change.bookedBookings);
+            }
+        }
+        for (BookingChange change : burst) {
+            reservationMetrics.cacheUpdateApplied(change.committedAt);
+        }
+
+        final ConcurrentNavigableMap<Long, CompletableFuture<Void>> appliedWaiters = versionWaiters.headMap(version, true);
+        appliedWaiters.values().forEach(waiter -> waiter.complete(null));
+        appliedWaiters.clear();
+    }
+
+    private static void fold(Map<Integer, Map<Integer, long[]>> campsiteWords, BookingDetail booking, boolean booked) {
+        final Map<Integer, long[]> wordMasks = campsiteWords.computeIfAbsent(booking.getCampsiteId(), id -> new HashMap<>());
+        final long startDay = booking.getStartDate().toEpochDay();
+        final long endDay = booking.getEndDate().toEpochDay();
+        final int lastWord = (int) ((endDay - 1) >>> EpochDayBitmap.WORD_SHIFT);
+        for (int word = (int) (startDay >>> EpochDayBitmap.WORD_SHIFT); word <= lastWord; word++) {
+            final long mask = EpochDayBitmap.wordMask(word, startDay, endDay);
+            final long[] masks = wordMasks.computeIfAbsent(word, index -> new long[2]);
+            if (booked) {
+                masks[0] |= mask;
+                masks[1] &= ~mask;
+            } else {
+                masks[1] |= mask;
+                masks[0] &= ~mask;
+            }
+        }
+    }
+
+    private static class BookingChange {
+        private final long version;
+        private final List<BookingDetail> releasedBookings;
+        private final List<BookingDetail> bookedBookings;
+        private final CompletableFuture<Void> durable;
+        private final long committedAt = System.nanoTime();
+
+        BookingChange(long version, List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings, CompletableFuture<Void> durable) {
+            this.version = version;
+            this.releasedBookings = releasedBookings;
+            this.bookedBookings = bookedBookings;
+            this.durable = durable;
+        }
+    }
+}
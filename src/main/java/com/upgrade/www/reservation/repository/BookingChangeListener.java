@@ -0,0 +1,15 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+import java.util.List;
+
+/**
+ * Receives the changes of booking commits from the {@link BookingChangeApplier} thread, in version order and only once
+ * each change is durable and applied to the cache. The bookings are the live records so their status may already be
+ * that of a later change.
+ */
+public interface BookingChangeListener {
+
+    void changeApplied(long version, List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings);
+}
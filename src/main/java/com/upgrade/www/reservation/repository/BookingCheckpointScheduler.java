@@ -0,0 +1,37 @@
+package com.upgrade.www.reservation.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Periodically checkpoints the repository so the journal replayed on startup stays short
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.journal.enabled", havingValue = "true")
+public class BookingCheckpointScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingCheckpointScheduler.class);
+
+    private final BookingRepository bookingRepository;
+
+    @Autowired
+    public BookingCheckpointScheduler(BookingRepository bookingRepository) {
+        this.bookingRepository = bookingRepository;
+    }
+
+    @Scheduled(fixedDelayString = "${reservation.snapshot.interval-ms:300000}", initialDelayString = "${reservation.snapshot.interval-ms:300000}")
+    public void checkpoint() {
+        try {
+            bookingRepository.checkpoint();
+        } catch (IOException exception) {
+            // The journal still holds every booking, the next checkpoint will retry
+            logger.error("Unable to checkpoint the booking records", exception);
+        }
+    }
+}
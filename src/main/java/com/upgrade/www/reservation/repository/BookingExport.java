@@ -0,0 +1,22 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+import java.util.Iterator;
+
+/**
+ * Cursor over the booking records as of one point in time, read a record at a time in booking id order so the
+ * records are never all held at once. Must be closed once read, an open export holds back the state of the records
+ * changed under it.
+ */
+public interface BookingExport extends Iterator<BookingDetail>, AutoCloseable {
+
+    /**
+     * @return version the export reads as of, every change up to it is part of the export so a later export
+     * updated since this version picks up where this one leaves off
+     */
+    long getVersion();
+
+    @Override
+    void close();
+}
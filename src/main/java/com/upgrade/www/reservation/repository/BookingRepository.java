@@ -1,150 +1,104 @@
 package com.upgrade.www.reservation.repository;
 
 import com.upgrade.www.reservation.exceptions.ReservationException;
-import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.BatchBooking;
 import com.upgrade.www.reservation.models.common.DateRange;
 import com.upgrade.www.reservation.models.dbo.BookingDetail;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Mock api to represent a booking database api
- * Opted for mocked list to keep things simple, however this would loose the reservation information the server was restarted.
- * Conceptually the collections `bookingRecords` and `bookedDates` should be tables in the database.
+ * Storage of the booking records and of the booked nights of every campsite, selected with `reservation.storage`.
+ * A night of a campsite is booked by at most one confirmed or held booking at any time.
+ * Every write publishes its change to the {@link BookingChangeApplier} in commit order of the nights it touches,
+ * which stamps the changed bookings with the version of the change and keeps the {@link BookingCache} up to date.
+ * Writes update the status and version of the booking objects they are given so callers see the new state.
+ * Failed writes throw or complete the future with a {@link ReservationException}.
  */
-@Repository
-public class BookingRepository {
-
-    private final BookingCache bookingCache;
-
-    // Mock list to represent database table for booking records
-    private final Map<String, BookingDetail> bookingRecords;
-    // Mock Set to represent database table for booked dates
-    // Can be expanded to Map to keep track of booking dates multiple campsites in future
-    private final Set<LocalDate> bookedDates;
-
-    @Autowired
-    public BookingRepository(BookingCache bookingCache) {
-        this.bookingRecords = new ConcurrentHashMap<>();
-        this.bookedDates = new HashSet<>();
-        this.bookingCache = bookingCache;
-    }
-
-    public BookingDetail completeBooking(String email, DateRange dateRange) throws ReservationException {
-
-        List<LocalDate> stayDates = getStayDates(dateRange.getStartDate(), dateRange.getEndDate());
-        BookingDetail booking;
-
-        // Synchronize to mimic atomic transaction for a database
-        synchronized (this) {
-            final boolean isAvailable = isDateRangeAvailable(dateRange);
-            if (!isAvailable) {
-                throw new ReservationException("Camp site not available for the selected dates");
-            }
-            booking = new BookingDetail(email, dateRange, BookingStatus.CONFIRMED);
-            bookingRecords.put(booking.getId(), booking); // Creating new booking database record
-            addBookedDates(stayDates); // Update database records with booked dates
-        }
-
-        // Cache update need not be atomic and synchronized, thereby releasing the thread lock faster
-        bookingCache.addBookedDates(stayDates);
-        return booking;
-    }
-
-    public BookingDetail modifyBooking(BookingDetail existingBooking, DateRange newDateRange) throws ReservationException {
-
-        List<LocalDate> newStayDates = getStayDates(newDateRange.getStartDate(), newDateRange.getEndDate());
-        List<LocalDate> oldStayDates = getStayDates(existingBooking.getStartDate(), existingBooking.getEndDate());
-        BookingDetail newBooking;
-
-        // Synchronize to mimic atomic transaction for a database
-        synchronized (this) {
-            final boolean isAvailable = isDateRangeAvailable(newDateRange);
-            if (!isAvailable) {
-                throw new ReservationException("Camp site not available for the selected dates");
-            }
-            newBooking = new BookingDetail(existingBooking.getEmail(), newDateRange, BookingStatus.CONFIRMED);
-            existingBooking.setStatus(BookingStatus.CANCELLED);
-            bookingRecords.put(existingBooking.getId(), existingBooking); //Updating existing booking database record
-            bookingRecords.put(newBooking.getId(), newBooking); // Creating new booking database record
-            removeBookedDates(oldStayDates); // Update database records with cancelled dates
-            addBookedDates(newStayDates); // Update database records with booked dates
-        }
-
-        // Cache update need not be atomic and synchronized, thereby releasing the thread lock faster
-        bookingCache.addBookedDates(newStayDates);
-        bookingCache.removeBookedDates(oldStayDates);
-        return newBooking;
-    }
-
-    public BookingDetail cancelBooking(BookingDetail existingBooking) {
-        List<LocalDate> stayDates = getStayDates(existingBooking.getStartDate(), existingBooking.getEndDate());
-
-        // Synchronize to mimic atomic transaction for a database
-        synchronized (this) {
-            existingBooking.setStatus(BookingStatus.CANCELLED);
-            bookingRecords.put(existingBooking.getId(), existingBooking); //Updating existing booking database record
-            removeBookedDates(stayDates); // Update database records with cancelled dates
-        }
-
-        // Cache update need not be atomic and synchronized, thereby releasing the thread lock faster
-        bookingCache.removeBookedDates(stayDates);
-        return existingBooking;
-    }
-
-    public BookingDetail getBookingDetails(String bookingId, String email) {
-        return retrieveBookingDetails(bookingId, email);
-    }
-
-    // Mock method to retrieve booking details from database
-    private BookingDetail retrieveBookingDetails(String bookingId, String email) {
-        final BookingDetail booking = bookingRecords.get(bookingId);
-        if (booking != null && booking.getEmail().equals(email)) {
-            return booking;
-        } else {
-            return null;
-        }
-    }
-
-    private void addBookedDates(List<LocalDate> stayDates) {
-        bookedDates.addAll(stayDates);
-    }
-
-    private void removeBookedDates(List<LocalDate> stayDates) {
-        bookedDates.removeAll(stayDates);
-    }
-
-    // Method to check if dates are available in the database instead of cache before booking
-    private boolean isDateRangeAvailable(DateRange dateRange) {
-        LocalDate date = dateRange.getStartDate();
-
-        while (date.isBefore(dateRange.getEndDate())) {
-            if (bookedDates.contains(date)) {
-                return false;
-            }
-            date = date.plusDays(1);
-        }
-
-        return true;
-    }
-
-    private List<LocalDate> getStayDates(LocalDate startDate, LocalDate endDate) {
-        List<LocalDate> dates = new ArrayList<>();
-        LocalDate date = startDate;
-
-        while (date.isBefore(endDate)) {
-            dates.add(date);
-            date = date.plusDays(1);
-        }
-
-        return dates;
-    }
+public interface BookingRepository {
+
+    BookingDetail completeBooking(int campsiteId, String email, DateRange dateRange) throws ReservationException;
+
+    /**
+     * @return completes once the booking is durable, a caller may only be blocked by writes to the same nights
+     */
+    CompletableFuture<BookingDetail> completeBookingAsync(int campsiteId, String email, DateRange dateRange);
+
+    /**
+     * Cancels the booking and books the new dates under a new booking id, nights shared by both stay booked
+     * @return the new booking
+     */
+    BookingDetail modifyBooking(BookingDetail existingBooking, DateRange newDateRange) throws ReservationException;
+
+    CompletableFuture<BookingDetail> modifyBookingAsync(BookingDetail existingBooking, DateRange newDateRange);
+
+    /**
+     * @return the cancelled booking, a booking already cancelled is returned as it is
+     */
+    BookingDetail cancelBooking(BookingDetail existingBooking) throws ReservationException;
+
+    CompletableFuture<BookingDetail> cancelBookingAsync(BookingDetail existingBooking);
+
+    /**
+     * Holds the nights for the guest, they count as booked until the hold is confirmed, released or expires.
+     * Holds do not survive a restart.
+     * @param ttlMillis time after which the hold is released unless it was confirmed
+     * @return the booking with the {@link com.upgrade.www.reservation.models.common.BookingStatus#HELD} status
+     */
+    BookingDetail holdBooking(int campsiteId, String email, DateRange dateRange, long ttlMillis) throws ReservationException;
+
+    /**
+     * Confirms a hold into a booking of the same nights
+     * @throws ReservationException when the hold expired or was released in the meantime
+     */
+    BookingDetail confirmHold(BookingDetail heldBooking) throws ReservationException;
+
+    CompletableFuture<BookingDetail> confirmHoldAsync(BookingDetail heldBooking);
+
+    /**
+     * Frees the nights of a hold, a hold which was already confirmed, released or expired is returned as it is
+     */
+    BookingDetail releaseHold(BookingDetail heldBooking);
+
+    /**
+     * Books every pending item of the batch in the order of the batch, an item conflicting with an earlier item
+     * of the same batch is rejected and a failure of one item never aborts the others
+     * @return the batch with every pending item either booked or rejected
+     */
+    List<BatchBooking> completeBookings(List<BatchBooking> batch);
+
+    /**
+     * @return completes with the batch once its bookings are durable, never completes exceptionally
+     */
+    CompletableFuture<List<BatchBooking>> completeBookingsAsync(List<BatchBooking> batch);
+
+    /**
+     * Makes the records quick to recover on the next start, a storage which is durable by itself has nothing to do
+     */
+    void checkpoint() throws IOException;
+
+    /**
+     * Drops the booked nights before the day so the storage only holds the bookable window, the booking records are kept
+     */
+    void evictNightsBefore(LocalDate day);
+
+    /**
+     * @return the booking when the id exists and was made with the email, otherwise null
+     */
+    BookingDetail getBookingDetails(String bookingId, String email);
+
+    /**
+     * @return every booking made with the email whatever its status, ordered by start date then id
+     */
+    List<BookingDetail> getGuestBookings(String email);
+
+    /**
+     * Opens a point in time export of the booking records without holding any lock for its duration
+     * @param afterBookingId id of the last record of an earlier export to resume after, null to start from the first record
+     * @param updatedSince only the records changed by a later version, 0 for every record
+     */
+    BookingExport exportBookings(String afterBookingId, long updatedSince);
 }
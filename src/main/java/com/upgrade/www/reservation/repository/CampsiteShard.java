@@ -0,0 +1,102 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.models.common.DateRange;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Booked stays of a single campsite along with its own night locks
+ * so writes for different campsites never contend with each other.
+ * Callers must hold the night locks of the dates they read or change.
+ */
+class CampsiteShard {
+
+    private final int campsiteId;
+    // Mock table to represent database table for booked stays of the campsite, the checkout epoch day of each stay keyed by
+    // the epoch day of its first night. Stays never overlap so each is its own entry whatever its length
+    private final ConcurrentNavigableMap<Long, Long> bookedStays;
+    private final NightLocks nightLocks;
+
+    CampsiteShard(int campsiteId) {
+        this.campsiteId = campsiteId;
+        this.bookedStays = new ConcurrentSkipListMap<>();
+        this.nightLocks = new NightLocks();
+    }
+
+    int getCampsiteId() {
+        return campsiteId;
+    }
+
+    NightLocks getNightLocks() {
+        return nightLocks;
+    }
+
+    void addBookedStay(DateRange stay) {
+        bookedStays.put(stay.getStartDate().toEpochDay(), stay.getEndDate().toEpochDay());
+    }
+
+    /**
+     * Removes the stay booked for these nights, or what is left of it once its past nights were evicted
+     * @return the removed stay as its first night and checkout epoch days, null when none was booked for these nights
+     */
+    Map.Entry<Long, Long> removeBookedStay(DateRange stay) {
+        final long startDay = stay.getStartDate().toEpochDay();
+        final long endDay = stay.getEndDate().toEpochDay();
+        if (bookedStays.remove(startDay, endDay)) {
+            return Map.entry(startDay, endDay);
+        }
+        final Map.Entry<Long, Long> evictedStay = bookedStays.ceilingEntry(startDay);
+        if (evictedStay != null && evictedStay.getKey() < endDay && evictedStay.getValue() == endDay
+                && bookedStays.remove(evictedStay.getKey(), endDay)) {
+            return evictedStay;
+        }
+        return null;
+    }
+
+    /**
+     * Books again a stay returned by {@link #removeBookedStay}, as it was when removed so evicted nights stay evicted
+     */
+    void restoreBookedStay(Map.Entry<Long, Long> removedStay) {
+        if (removedStay != null) {
+            bookedStays.put(removedStay.getKey(), removedStay.getValue());
+        }
+    }
+
+    /**
+     * Drops the nights before the day, which can no longer be booked, without taking the night locks
+     * as commits only ever check and book nights after today. The one stay over the day is cut to its nights from the
+     * day under its night locks, so a commit releasing it finds it either whole or cut.
+     */
+    void removeBookedStaysBefore(LocalDate day) {
+        final long epochDay = day.toEpochDay();
+        for (Map.Entry<Long, Long> stay : bookedStays.headMap(epochDay).entrySet()) {
+            if (stay.getValue() <= epochDay) {
+                bookedStays.remove(stay.getKey(), stay.getValue());
+            } else {
+                cutStay(stay.getKey(), stay.getValue(), epochDay);
+            }
+        }
+    }
+
+    // Method to check if dates are available in the database instead of cache before booking, only the last stay
+    // starting before the checkout can overlap the range as the earlier ones end before that one starts
+    boolean isDateRangeAvailable(DateRange dateRange) {
+        final Map.Entry<Long, Long> lastStay = bookedStays.lowerEntry(dateRange.getEndDate().toEpochDay());
+        return lastStay == null || lastStay.getValue() <= dateRange.getStartDate().toEpochDay();
+    }
+
+    private void cutStay(long startDay, long endDay, long epochDay) {
+        final long stripes = nightLocks.stripesFor(new DateRange(LocalDate.ofEpochDay(startDay), LocalDate.ofEpochDay(endDay)));
+        nightLocks.lock(stripes);
+        try {
+            if (bookedStays.remove(startDay, endDay)) {
+                bookedStays.put(epochDay, endDay);
+            }
+        } finally {
+            nightLocks.unlock(stripes);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.upgrade.www.reservation.repository;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free calendar of booked nights with one bit per epoch day packed into 64 bit words.
+ * Range updates and scans work a word at a time, each word being updated with a CAS so concurrent
+ * updates to different nights of the same word never lose each other's bits.
+ * Covers epoch days [0, 2^16) which is 1970-01-01 to 2149-06-06 in 8KB.
+ */
+class EpochDayBitmap {
+
+    static final int CAPACITY = 1 << 16;
+
+    static final int WORD_SHIFT = 6;
+    private static final long ALL_BITS = -1L;
+
+    private final AtomicLongArray words = new AtomicLongArray(CAPACITY >>> WORD_SHIFT);
+
+    boolean isSet(long epochDay) {
+        checkBounds(epochDay, epochDay + 1);
+        return (words.get((int) (epochDay >>> WORD_SHIFT)) & (1L << epochDay)) != 0L;
+    }
+
+    /**
+     * Marks every day in [startDay, endDay) as booked
+     */
+    void setRange(long startDay, long endDay) {
+        checkBounds(startDay, endDay);
+        if (startDay == endDay) {
+            return;
+        }
+        final int lastWord = (int) ((endDay - 1) >>> WORD_SHIFT);
+        for (int word = (int) (startDay >>> WORD_SHIFT); word <= lastWord; word++) {
+            final long mask = wordMask(word, startDay, endDay);
+            long current;
+            do {
+                current = words.get(word);
+            } while ((current & mask) != mask && !words.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * Marks every day in [startDay, endDay) as available
+     */
+    void clearRange(long startDay, long endDay) {
+        checkBounds(startDay, endDay);
+        if (startDay == endDay) {
+            return;
+        }
+        final int lastWord = (int) ((endDay - 1) >>> WORD_SHIFT);
+        for (int word = (int) (startDay >>> WORD_SHIFT); word <= lastWord; word++) {
+            final long mask = wordMask(word, startDay, endDay);
+            long current;
+            do {
+                current = words.get(word);
+            } while ((current & mask) != 0L && !words.compareAndSet(word, current, current & ~mask));
+        }
+    }
+
+    /**
+     * Marks the days set in the words as booked, bit i of words[k] is the day (firstWord + k) * 64 + i
+     */
+    void orWords(int firstWord, long[] words) {
+        checkBounds((long) firstWord << WORD_SHIFT, (long) (firstWord + words.length) << WORD_SHIFT);
+        for (int k = 0; k < words.length; k++) {
+            final long mask = words[k];
+            long current;
+            do {
+                current = this.words.get(firstWord + k);
+            } while ((current & mask) != mask && !this.words.compareAndSet(firstWord + k, current, current | mask));
+        }
+    }
+
+    /**
+     * Books the days set in setMask and frees the days set in clearMask of a single word with one CAS
+     */
+    void applyWord(int word, long setMask, long clearMask) {
+        checkBounds((long) word << WORD_SHIFT, (long) (word + 1) << WORD_SHIFT);
+        long current;
+        long updated;
+        do {
+            current = words.get(word);
+            updated = (current & ~clearMask) | setMask;
+        } while (updated != current && !words.compareAndSet(word, current, updated));
+    }
+
+    /**
+     * Scans [startDay, endDay) a word at a time
+     * @return epoch days in the range which are not booked, in ascending order
+     */
+    int[] clearDays(long startDay, long endDay) {
+        if (startDay >= endDay) {
+            return new int[0];
+        }
+        checkBounds(startDay, endDay);
+        final int firstWord = (int) (startDay >>> WORD_SHIFT);
+        final int lastWord = (int) ((endDay - 1) >>> WORD_SHIFT);
+
+        // Read each word once so the count and the result come from the same view
+        final long[] bookedWords = new long[lastWord - firstWord + 1];
+        for (int word = firstWord; word <= lastWord; word++) {
+            bookedWords[word - firstWord] = words.get(word);
+        }
+        return clearDays(bookedWords, firstWord, startDay, endDay);
+    }
+
+    /**
+     * Scans [startDay, endDay) of a copy of the words, bit i of bookedWords[k] is the day (firstWord + k) * 64 + i
+     * @return epoch days in the range which are not booked, in ascending order
+     */
+    static int[] clearDays(long[] bookedWords, int firstWord, long startDay, long endDay) {
+        if (startDay >= endDay) {
+            return new int[0];
+        }
+        checkBounds(startDay, endDay);
+        final long[] freeBits = new long[bookedWords.length];
+        int count = 0;
+        for (int i = 0; i < bookedWords.length; i++) {
+            final long free = ~bookedWords[i] & wordMask(firstWord + i, startDay, endDay);
+            freeBits[i] = free;
+            count += Long.bitCount(free);
+        }
+
+        final int[] days = new int[count];
+        int index = 0;
+        for (int i = 0; i < freeBits.length; i++) {
+            long free = freeBits[i];
+            final int base = (firstWord + i) << WORD_SHIFT;
+            while (free != 0L) {
+                days[index++] = base + Long.numberOfTrailingZeros(free);
+                free &= free - 1;
+            }
+        }
+        return days;
+    }
+
+    // Bits of the word covering the days in [startDay, endDay)
+    static long wordMask(int word, long startDay, long endDay) {
+        final long wordStart = (long) word << WORD_SHIFT;
+        long mask = ALL_BITS;
+        if (startDay > wordStart) {
+            mask &= ALL_BITS << (startDay - wordStart);
+        }
+        if (endDay < wordStart + Long.SIZE) {
+            mask &= ~(ALL_BITS << (endDay - wordStart));
+        }
+        return mask;
+    }
+
+    private static void checkBounds(long startDay, long endDay) {
+        if (startDay < 0 || endDay > CAPACITY || startDay > endDay) {
+            throw new IllegalArgumentException("Dates outside of the booking calendar");
+        }
+    }
+}
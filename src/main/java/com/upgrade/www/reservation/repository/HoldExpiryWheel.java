@@ -0,0 +1,149 @@
+package com.upgrade.www.reservation.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel running the expiry of booking holds.
+ * Time is cut into ticks and a timeout lands in the bucket of its deadline tick modulo the wheel size, along with the
+ * number of full turns of the wheel left before it is due. Every tick visits a single bucket, so a tick costs the
+ * timeouts of that bucket rather than every outstanding hold and scheduling or cancelling a timeout is O(1).
+ * Timeouts are handed to the wheel thread through a queue so the buckets are only ever touched by that thread,
+ * cancelled timeouts are dropped the next time their bucket comes round.
+ * Expiries run on the wheel thread and should be short, a timeout fires within one tick after its deadline.
+ */
+@Component
+public class HoldExpiryWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HoldExpiryWheel.class);
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<List<Timeout>> buckets;
+    private final ConcurrentLinkedQueue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+    // Ticks passed since the start, only read and written by the wheel thread
+    private long tick;
+
+    /**
+     * @param wheelSize buckets of the wheel, rounded up to a power of two
+     */
+    @Autowired
+    public HoldExpiryWheel(@Value("${reservation.hold.tick-ms:100}") long tickMillis, @Value("${reservation.hold.wheel-size:512}") int wheelSize) {
+        if (tickMillis < 1 || wheelSize < 1 || wheelSize > 1 << 20) {
+            throw new IllegalArgumentException("Hold expiry wheel needs a tick of at least 1 ms and between 1 and 2^20 buckets");
+        }
+        final int size = Integer.highestOneBit(wheelSize) == wheelSize ? wheelSize : Integer.highestOneBit(wheelSize) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.worker = new Thread(this::runWheel, "booking-hold-expiry");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * @param expiry runs on the wheel thread once the delay has passed unless the timeout is cancelled first
+     * @return timeout to cancel when the hold is confirmed or released
+     */
+    public Timeout schedule(Runnable expiry, long delay, TimeUnit unit) {
+        final Timeout timeout = new Timeout(expiry, System.nanoTime() - startTime + unit.toNanos(delay));
+        scheduledTimeouts.add(timeout);
+        return timeout;
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWheel() {
+        while (running) {
+            final long tickDeadline = startTime + tickNanos * (tick + 1);
+            long sleepNanos;
+            while (running && (sleepNanos = tickDeadline - System.nanoTime()) > 0L) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            if (!running) {
+                return;
+            }
+            transferScheduledTimeouts();
+            expire(buckets.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    // Places the newly scheduled timeouts in the bucket of their deadline tick, a deadline already passed lands in the current bucket
+    private void transferScheduledTimeouts() {
+        Timeout timeout;
+        while ((timeout = scheduledTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            final long deadlineTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (deadlineTick - tick) / buckets.size();
+            buckets.get((int) (deadlineTick & mask)).add(timeout);
+        }
+    }
+
+    // Runs the due timeouts of the bucket and compacts the ones due in a later turn to the front
+    private void expire(List<Timeout> bucket) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            final Timeout timeout = bucket.get(i);
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+                continue;
+            }
+            try {
+                timeout.expiry.run();
+            } catch (RuntimeException exception) {
+                logger.error("Unable to expire a booking hold", exception);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    public static class Timeout {
+        private final Runnable expiry;
+        // Nanos since the start of the wheel
+        private final long deadline;
+        private volatile boolean cancelled;
+        // Only read and written by the wheel thread
+        private long remainingRounds;
+
+        private Timeout(Runnable expiry, long deadline) {
+            this.expiry = expiry;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,966 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.id.BookingIdGenerator;
+import com.upgrade.www.reservation.repository.journal.BookingJournal;
+import com.upgrade.www.reservation.repository.journal.BookingSnapshotStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Mock api to represent a booking database api, the default `memory` storage
+ * Opted for mocked list to keep things simple, every commit is appended to the {@link BookingJournal} which is replayed
+ * on startup so reservations survive a restart when the file journal is enabled.
+ * Periodic checkpoints write the records to the {@link BookingSnapshotStore} so startup loads the latest snapshot
+ * and only replays the journal written after it.
+ * Conceptually the collections `bookingRecords` and the booked dates of each {@link CampsiteShard} should be tables in the database,
+ * with `guestBookingIds` an index on the email column of the booking table.
+ * Writes lock only the stripes of the nights they touch on their own campsite (see {@link NightLocks}) in place of row locks,
+ * so bookings for different nights or different campsites commit in parallel.
+ * Every commit publishes its change to the {@link BookingChangeApplier} before it releases its locks,
+ * which stamps the changed bookings with the version of the change.
+ * Holds book their nights like a booking but are kept in memory only until they are confirmed, released or expired
+ * by the {@link HoldExpiryWheel}, only the confirmation of a hold is logged.
+ */
+@Repository
+@ConditionalOnProperty(name = "reservation.storage", havingValue = "memory", matchIfMissing = true)
+public class InMemoryBookingRepository implements BookingRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryBookingRepository.class);
+
+    private final BookingCache bookingCache;
+    private final BookingChangeApplier bookingChangeApplier;
+    private final HoldExpiryWheel holdExpiryWheel;
+    private final BookingIdGenerator bookingIdGenerator;
+    private final BookingJournal bookingJournal;
+    private final BookingSnapshotStore bookingSnapshotStore;
+    private final ReservationMetrics reservationMetrics;
+
+    // Mock list to represent database table for booking records, ordered by id like a primary key index so exports can resume
+    private final ConcurrentNavigableMap<String, BookingDetail> bookingRecords;
+    // Mock secondary index of the booking ids of each guest email, only ever grows as booking records are never deleted
+    private final Map<String, Set<String>> guestBookingIds;
+    // Expiry of each outstanding hold keyed by booking id, removed once the hold is confirmed, released or expired
+    private final Map<String, HoldExpiryWheel.Timeout> holdTimeouts;
+    // Booked dates sharded by campsite id, each shard represents the booked dates table partition of a campsite
+    private final Map<Integer, CampsiteShard> campsiteShards;
+    // Held by checkpoints so no campsite shard is created while every shard is locked
+    private final ReentrantLock shardCreationLock = new ReentrantLock();
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    // Exports being read, each keeps the state as of its version of the records changed in place under it
+    private final List<RecordExport> openExports = new CopyOnWriteArrayList<>();
+    // Held while a replicated change is applied so an export opens either before or after the whole change
+    private final ReentrantLock replicatedChangeLock = new ReentrantLock();
+    // Commits applied to the records whose journal entry may not be durable yet, conflicting commits in the order they were logged
+    private final ConcurrentLinkedDeque<PendingCommit> pendingCommits = new ConcurrentLinkedDeque<>();
+    private final ReentrantLock rollbackLock = new ReentrantLock();
+
+    @Autowired
+    public InMemoryBookingRepository(BookingCache bookingCache, BookingChangeApplier bookingChangeApplier, HoldExpiryWheel holdExpiryWheel,
+                             BookingIdGenerator bookingIdGenerator, BookingJournal bookingJournal, BookingSnapshotStore bookingSnapshotStore,
+                             ReservationMetrics reservationMetrics) {
+        this.bookingRecords = new ConcurrentSkipListMap<>();
+        this.guestBookingIds = new ConcurrentHashMap<>();
+        this.holdTimeouts = new ConcurrentHashMap<>();
+        this.campsiteShards = new ConcurrentHashMap<>();
+        this.bookingCache = bookingCache;
+        this.bookingChangeApplier = bookingChangeApplier;
+        this.holdExpiryWheel = holdExpiryWheel;
+        this.bookingIdGenerator = bookingIdGenerator;
+        this.bookingJournal = bookingJournal;
+        this.bookingSnapshotStore = bookingSnapshotStore;
+        this.reservationMetrics = reservationMetrics;
+        recoverBookings();
+    }
+
+    @Override
+    public BookingDetail completeBooking(int campsiteId, String email, DateRange dateRange) throws ReservationException {
+        return awaitDurable(commitBooking(campsiteId, email, dateRange));
+    }
+
+    /**
+     * Books the campsite without waiting for the commit to be durable, the returned future completes once it is
+     * or fails with a {@link ReservationException}. Only the stripe locks of the booked nights can block the caller.
+     */
+    @Override
+    public CompletableFuture<BookingDetail> completeBookingAsync(int campsiteId, String email, DateRange dateRange) {
+        try {
+            return whenDurable(commitBooking(campsiteId, email, dateRange));
+        } catch (ReservationException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public BookingDetail modifyBooking(BookingDetail existingBooking, DateRange newDateRange) throws ReservationException {
+        return awaitDurable(commitModification(existingBooking, newDateRange));
+    }
+
+    /**
+     * Modifies the booking without waiting for the commit to be durable, see {@link #completeBookingAsync}
+     */
+    @Override
+    public CompletableFuture<BookingDetail> modifyBookingAsync(BookingDetail existingBooking, DateRange newDateRange) {
+        try {
+            return whenDurable(commitModification(existingBooking, newDateRange));
+        } catch (ReservationException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public BookingDetail cancelBooking(BookingDetail existingBooking) throws ReservationException {
+        return awaitDurable(commitCancellation(existingBooking));
+    }
+
+    /**
+     * Cancels the booking without waiting for the commit to be durable, see {@link #completeBookingAsync}
+     */
+    @Override
+    public CompletableFuture<BookingDetail> cancelBookingAsync(BookingDetail existingBooking) {
+        return whenDurable(commitCancellation(existingBooking));
+    }
+
+    /**
+     * Holds the nights for the guest, they count as booked until the hold is confirmed, released or expires.
+     * A hold is not logged so it is released by a restart.
+     * @param ttlMillis time after which the hold is released unless it was confirmed
+     * @return the booking with the {@link BookingStatus#HELD} status
+     */
+    @Override
+    public BookingDetail holdBooking(int campsiteId, String email, DateRange dateRange, long ttlMillis) throws ReservationException {
+        final CampsiteShard campsiteShard = getCampsiteShard(campsiteId);
+        final NightLocks nightLocks = campsiteShard.getNightLocks();
+        BookingDetail heldBooking;
+
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            if (!campsiteShard.isDateRangeAvailable(dateRange)) {
+                reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_UNAVAILABLE);
+                throw new ReservationException("Camp site not available for the selected dates");
+            }
+            heldBooking = new BookingDetail(bookingIdGenerator.nextId(), campsiteId, email, dateRange, BookingStatus.HELD);
+            insertBookingRecord(heldBooking);
+            campsiteShard.addBookedStay(dateRange);
+            publishChange(Collections.emptyList(), List.of(heldBooking), CompletableFuture.completedFuture(null));
+            // The expiry takes the night locks so it cannot run before the timeout is registered
+            final BookingDetail expiringBooking = heldBooking;
+            holdTimeouts.put(heldBooking.getId(), holdExpiryWheel.schedule(() -> releaseHold(expiringBooking), ttlMillis, TimeUnit.MILLISECONDS));
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+
+        return heldBooking;
+    }
+
+    /**
+     * Confirms a hold into a booking of the same nights, logged like any booking
+     * @throws ReservationException when the hold expired or was released in the meantime
+     */
+    @Override
+    public BookingDetail confirmHold(BookingDetail heldBooking) throws ReservationException {
+        return awaitDurable(commitHoldConfirmation(heldBooking));
+    }
+
+    /**
+     * Confirms the hold without waiting for the commit to be durable, see {@link #completeBookingAsync}
+     */
+    @Override
+    public CompletableFuture<BookingDetail> confirmHoldAsync(BookingDetail heldBooking) {
+        try {
+            return whenDurable(commitHoldConfirmation(heldBooking));
+        } catch (ReservationException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    /**
+     * Frees the nights of a hold, a hold which was already confirmed, released or expired is returned as it is
+     */
+    @Override
+    public BookingDetail releaseHold(BookingDetail heldBooking) {
+        final DateRange dateRange = new DateRange(heldBooking.getStartDate(), heldBooking.getEndDate());
+        final CampsiteShard campsiteShard = getCampsiteShard(heldBooking.getCampsiteId());
+        final NightLocks nightLocks = campsiteShard.getNightLocks();
+
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            if (heldBooking.getStatus() != BookingStatus.HELD) {
+                return heldBooking;
+            }
+            cancelHoldTimeout(heldBooking);
+            final long previousVersion = heldBooking.getVersion();
+            heldBooking.setStatus(BookingStatus.CANCELLED);
+            campsiteShard.removeBookedStay(dateRange);
+            publishChange(List.of(heldBooking), Collections.emptyList(), CompletableFuture.completedFuture(null));
+            retainPreviousState(heldBooking, BookingStatus.HELD, previousVersion);
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+
+        return heldBooking;
+    }
+
+    /**
+     * Books every pending item of the batch in one critical section spanning all of their campsites, see {@link #completeBookingsAsync}
+     * @return the batch with every pending item either booked or rejected
+     */
+    @Override
+    public List<BatchBooking> completeBookings(List<BatchBooking> batch) {
+        return completeBookingsAsync(batch).join();
+    }
+
+    /**
+     * Items are booked in the order of the batch so an item conflicting with an earlier item of the same batch is rejected,
+     * a failure of one item never aborts the others. The bookings are logged as a single journal entry and published
+     * to the cache as a single change.
+     * @return completes with the batch once its bookings are durable, never completes exceptionally
+     */
+    @Override
+    public CompletableFuture<List<BatchBooking>> completeBookingsAsync(List<BatchBooking> batch) {
+        // Stripes of every campsite in the batch, sorted by campsite id which is the order the shards are locked in
+        final Map<Integer, Long> campsiteStripes = new TreeMap<>();
+        final Map<Integer, CampsiteShard> batchShards = new HashMap<>();
+        for (BatchBooking item : batch) {
+            if (item.isPending()) {
+                final CampsiteShard campsiteShard = batchShards.computeIfAbsent(item.getCampsiteId(), this::getCampsiteShard);
+                campsiteStripes.merge(item.getCampsiteId(), campsiteShard.getNightLocks().stripesFor(item.getDateRange()), (a, b) -> a | b);
+            }
+        }
+        if (campsiteStripes.isEmpty()) {
+            return CompletableFuture.completedFuture(batch);
+        }
+
+        final List<BookingDetail> bookings = new ArrayList<>();
+        final PendingCommit pendingCommit;
+
+        // Ascending campsite order is the order checkpoints lock the shards in, which keeps multi shard locking deadlock free
+        final long waitStart = System.nanoTime();
+        campsiteStripes.forEach((campsiteId, stripes) -> batchShards.get(campsiteId).getNightLocks().lock(stripes));
+        final long lockedAt = System.nanoTime();
+        reservationMetrics.recordLockWait(lockedAt - waitStart);
+        try {
+            for (BatchBooking item : batch) {
+                if (!item.isPending()) {
+                    continue;
+                }
+                final CampsiteShard campsiteShard = batchShards.get(item.getCampsiteId());
+                final DateRange dateRange = item.getDateRange();
+                // Nights booked by earlier items are already marked, so the first item of the batch wins a conflict
+                if (!campsiteShard.isDateRangeAvailable(dateRange)) {
+                    reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_UNAVAILABLE);
+                    item.reject("Camp site not available for the selected dates");
+                    continue;
+                }
+                final BookingDetail booking = new BookingDetail(bookingIdGenerator.nextId(), item.getCampsiteId(), item.getEmail(), dateRange, BookingStatus.CONFIRMED);
+                insertBookingRecord(booking); // Creating new booking database record
+                campsiteShard.addBookedStay(dateRange);
+                item.complete(booking);
+                bookings.add(booking);
+            }
+            if (bookings.isEmpty()) {
+                pendingCommit = null;
+            } else {
+                final CompletableFuture<Void> durable = publishAndLogChange(Collections.emptyList(), bookings);
+                pendingCommit = trackPendingCommit(null, durable, () -> bookings.forEach(booking -> {
+                    removeBookingRecord(booking);
+                    batchShards.get(booking.getCampsiteId()).removeBookedStay(new DateRange(booking.getStartDate(), booking.getEndDate()));
+                }));
+            }
+        } finally {
+            final long holdNanos = System.nanoTime() - lockedAt;
+            campsiteStripes.forEach((campsiteId, stripes) -> batchShards.get(campsiteId).getNightLocks().unlock(stripes));
+            reservationMetrics.recordLockHold(holdNanos);
+        }
+
+        if (pendingCommit == null) {
+            return CompletableFuture.completedFuture(batch);
+        }
+        return pendingCommit.durable.handle((ignored, failure) -> {
+            if (failure == null) {
+                pendingCommits.remove(pendingCommit);
+            } else {
+                rollBack(pendingCommit);
+                for (BatchBooking item : batch) {
+                    if (item.getBooking() != null) {
+                        reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_DURABLE);
+                        item.reject("Unable to save the booking please try again");
+                    }
+                }
+            }
+            return batch;
+        });
+    }
+
+    private PendingCommit commitBooking(int campsiteId, String email, DateRange dateRange) throws ReservationException {
+        final CampsiteShard campsiteShard = getCampsiteShard(campsiteId);
+        final NightLocks nightLocks = campsiteShard.getNightLocks();
+        PendingCommit pendingCommit;
+
+        // Lock the nights being booked to mimic an atomic transaction for a database
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            final boolean isAvailable = campsiteShard.isDateRangeAvailable(dateRange);
+            if (!isAvailable) {
+                reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_UNAVAILABLE);
+                throw new ReservationException("Camp site not available for the selected dates");
+            }
+            final BookingDetail booking = new BookingDetail(bookingIdGenerator.nextId(), campsiteId, email, dateRange, BookingStatus.CONFIRMED);
+            insertBookingRecord(booking); // Creating new booking database record
+            campsiteShard.addBookedStay(dateRange); // Update database records with booked dates
+            final CompletableFuture<Void> durable = publishAndLogChange(Collections.emptyList(), List.of(booking)); // Log while locked so conflicting commits are logged in order
+            pendingCommit = trackPendingCommit(booking, durable, () -> {
+                removeBookingRecord(booking);
+                campsiteShard.removeBookedStay(dateRange);
+            });
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+
+        return pendingCommit;
+    }
+
+    private PendingCommit commitModification(BookingDetail existingBooking, DateRange newDateRange) throws ReservationException {
+        final DateRange oldDateRange = new DateRange(existingBooking.getStartDate(), existingBooking.getEndDate());
+        final CampsiteShard campsiteShard = getCampsiteShard(existingBooking.getCampsiteId());
+        final NightLocks nightLocks = campsiteShard.getNightLocks();
+        PendingCommit pendingCommit;
+
+        // Lock both the old and the new nights so freeing and re-booking happens atomically
+        final long stripes = nightLocks.stripesFor(oldDateRange, newDateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            // Re-check under the lock as a concurrent modify or cancel may have already released the booking
+            if (existingBooking.getStatus() == BookingStatus.CANCELLED) {
+                reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_ALREADY_CANCELLED);
+                throw new ReservationException("Booking has already been cancelled or modified");
+            }
+            // Nights held by the booking itself are free to be re-booked
+            final Map.Entry<Long, Long> oldStay = campsiteShard.removeBookedStay(oldDateRange);
+            final boolean isAvailable = campsiteShard.isDateRangeAvailable(newDateRange);
+            if (!isAvailable) {
+                campsiteShard.restoreBookedStay(oldStay);
+                reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_UNAVAILABLE);
+                throw new ReservationException("Camp site not available for the selected dates");
+            }
+            final BookingDetail newBooking = new BookingDetail(bookingIdGenerator.nextId(), campsiteShard.getCampsiteId(), existingBooking.getEmail(), newDateRange, BookingStatus.CONFIRMED);
+            final BookingStatus previousStatus = existingBooking.getStatus();
+            final long previousVersion = existingBooking.getVersion();
+            existingBooking.setStatus(BookingStatus.CANCELLED);
+            bookingRecords.put(existingBooking.getId(), existingBooking); //Updating existing booking database record
+            insertBookingRecord(newBooking); // Creating new booking database record
+            campsiteShard.addBookedStay(newDateRange); // Update database records with booked dates
+            // A single change so the applier frees the old nights and books the new ones together, overlapping nights stay booked
+            final CompletableFuture<Void> durable = publishAndLogChange(List.of(existingBooking), List.of(newBooking));
+            retainPreviousState(existingBooking, previousStatus, previousVersion);
+            pendingCommit = trackPendingCommit(newBooking, durable, () -> {
+                removeBookingRecord(newBooking);
+                campsiteShard.removeBookedStay(newDateRange);
+                campsiteShard.restoreBookedStay(oldStay);
+                restorePreviousState(existingBooking, previousStatus, previousVersion);
+            });
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+
+        return pendingCommit;
+    }
+
+    private PendingCommit commitCancellation(BookingDetail existingBooking) {
+        final DateRange dateRange = new DateRange(existingBooking.getStartDate(), existingBooking.getEndDate());
+        final CampsiteShard campsiteShard = getCampsiteShard(existingBooking.getCampsiteId());
+        final NightLocks nightLocks = campsiteShard.getNightLocks();
+        PendingCommit pendingCommit;
+
+        // Lock the nights being released to mimic an atomic transaction for a database
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            // Re-check under the lock as a concurrent modify or cancel may have already released the nights
+            if (existingBooking.getStatus() == BookingStatus.CANCELLED) {
+                return new PendingCommit(existingBooking, CompletableFuture.completedFuture(null), () -> { });
+            }
+            final BookingStatus previousStatus = existingBooking.getStatus();
+            final long previousVersion = existingBooking.getVersion();
+            existingBooking.setStatus(BookingStatus.CANCELLED);
+            bookingRecords.put(existingBooking.getId(), existingBooking); //Updating existing booking database record
+            final Map.Entry<Long, Long> removedStay = campsiteShard.removeBookedStay(dateRange); // Update database records with cancelled dates
+            final CompletableFuture<Void> durable = publishAndLogChange(List.of(existingBooking), Collections.emptyList());
+            retainPreviousState(existingBooking, previousStatus, previousVersion);
+            pendingCommit = trackPendingCommit(existingBooking, durable, () -> {
+                campsiteShard.restoreBookedStay(removedStay);
+                restorePreviousState(existingBooking, previousStatus, previousVersion);
+            });
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+
+        return pendingCommit;
+    }
+
+    private PendingCommit commitHoldConfirmation(BookingDetail heldBooking) throws ReservationException {
+        final DateRange dateRange = new DateRange(heldBooking.getStartDate(), heldBooking.getEndDate());
+        final CampsiteShard campsiteShard = getCampsiteShard(heldBooking.getCampsiteId());
+        final NightLocks nightLocks = campsiteShard.getNightLocks();
+        PendingCommit pendingCommit;
+
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            // Re-check under the lock as the hold may have expired or been released since it was read
+            if (heldBooking.getStatus() != BookingStatus.HELD) {
+                reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_HOLD_EXPIRED);
+                throw new ReservationException("Hold has expired or was released");
+            }
+            cancelHoldTimeout(heldBooking);
+            final long previousVersion = heldBooking.getVersion();
+            heldBooking.setStatus(BookingStatus.CONFIRMED);
+            bookingRecords.put(heldBooking.getId(), heldBooking); //Updating existing booking database record
+            // The nights are already booked, the confirmation is the first time the booking is logged
+            final CompletableFuture<Void> durable = publishAndLogChange(Collections.emptyList(), List.of(heldBooking));
+            retainPreviousState(heldBooking, BookingStatus.HELD, previousVersion);
+            // The timeout of the hold is gone, so a confirmation which is not logged releases the hold rather than keeping it
+            pendingCommit = trackPendingCommit(heldBooking, durable, () -> {
+                heldBooking.setStatus(BookingStatus.CANCELLED);
+                campsiteShard.removeBookedStay(dateRange);
+                publishChange(List.of(heldBooking), Collections.emptyList(), CompletableFuture.completedFuture(null));
+            });
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+
+        return pendingCommit;
+    }
+
+    private void cancelHoldTimeout(BookingDetail heldBooking) {
+        final HoldExpiryWheel.Timeout timeout = holdTimeouts.remove(heldBooking.getId());
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Writes a snapshot of every booking record and drops the journal segments it covers.
+     * Commits are paused only while the journal rolls to a new segment and the records are copied,
+     * the snapshot itself is written after the locks are released.
+     */
+    @Override
+    public void checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            final CompletableFuture<Long> nextSegment;
+            final List<BookingDetail> records = new ArrayList<>(bookingRecords.size());
+
+            shardCreationLock.lock();
+            try {
+                final List<CampsiteShard> lockedShards = lockAllShards();
+                try {
+                    nextSegment = bookingJournal.rollSegment();
+                    for (BookingDetail booking : bookingRecords.values()) {
+                        // Holds are not logged either, their nights are only kept in memory
+                        if (booking.getStatus() == BookingStatus.HELD) {
+                            continue;
+                        }
+                        final BookingDetail record = new BookingDetail(booking.getId(), booking.getCampsiteId(), booking.getEmail(),
+                                new DateRange(booking.getStartDate(), booking.getEndDate()), booking.getStatus());
+                        record.setVersion(booking.getVersion());
+                        records.add(record);
+                    }
+                } finally {
+                    unlockShards(lockedShards);
+                }
+            } finally {
+                shardCreationLock.unlock();
+            }
+
+            // The old segments are only dropped once the snapshot covering them is durable
+            final long coveredSegment = nextSegment.join();
+            bookingSnapshotStore.write(coveredSegment, records);
+            bookingJournal.deleteSegmentsBefore(coveredSegment);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the booked nights before the day from the campsite calendars so they only hold the bookable window.
+     * The booking records themselves are kept.
+     */
+    @Override
+    public void evictNightsBefore(LocalDate day) {
+        campsiteShards.values().forEach(campsiteShard -> campsiteShard.removeBookedStaysBefore(day));
+    }
+
+    /**
+     * Copies every booking record, holds included, for a replication follower joining the leader
+     */
+    public List<BookingDetail> copyBookingRecords() {
+        final List<BookingDetail> records = new ArrayList<>(bookingRecords.size());
+        for (BookingDetail booking : bookingRecords.values()) {
+            final BookingDetail copy = new BookingDetail(booking.getId(), booking.getCampsiteId(), booking.getEmail(),
+                    new DateRange(booking.getStartDate(), booking.getEndDate()), booking.getStatus());
+            copy.setVersion(booking.getVersion());
+            records.add(copy);
+        }
+        return records;
+    }
+
+    /**
+     * Applies the state of bookings replicated from the leader and publishes the nights they free and book under the
+     * leader's version. A booking is only applied when the change is newer than the last one applied to it, so a snapshot
+     * and the changes streamed after it can overlap. Called by the replication thread only.
+     * @param version version of the change on the leader, increasing from one call to the next
+     */
+    public void applyReplicatedChange(long version, List<BookingDetail> bookings) {
+        replicatedChangeLock.lock();
+        try {
+            applyReplicatedBookings(version, bookings);
+        } finally {
+            replicatedChangeLock.unlock();
+        }
+    }
+
+    private void applyReplicatedBookings(long version, List<BookingDetail> bookings) {
+        final List<BookingDetail> releasedBookings = new ArrayList<>();
+        final List<BookingDetail> bookedBookings = new ArrayList<>();
+        for (BookingDetail booking : bookings) {
+            final DateRange dateRange = new DateRange(booking.getStartDate(), booking.getEndDate());
+            final CampsiteShard campsiteShard = getCampsiteShard(booking.getCampsiteId());
+            final NightLocks nightLocks = campsiteShard.getNightLocks();
+
+            final long stripes = nightLocks.stripesFor(dateRange);
+            final long lockedAt = lockNights(nightLocks, stripes);
+            try {
+                final BookingDetail previousBooking = bookingRecords.get(booking.getId());
+                if (previousBooking != null && previousBooking.getVersion() >= version) {
+                    continue;
+                }
+                booking.setVersion(version);
+                insertBookingRecord(booking);
+                if (previousBooking != null) {
+                    retainPreviousState(booking, previousBooking.getStatus(), previousBooking.getVersion());
+                }
+                if (previousBooking != null && holdsNights(previousBooking)) {
+                    campsiteShard.removeBookedStay(new DateRange(previousBooking.getStartDate(), previousBooking.getEndDate()));
+                    releasedBookings.add(previousBooking);
+                }
+                if (holdsNights(booking)) {
+                    campsiteShard.addBookedStay(dateRange);
+                    bookedBookings.add(booking);
+                }
+            } finally {
+                unlockNights(nightLocks, stripes, lockedAt);
+            }
+        }
+        bookingChangeApplier.publishReplicated(version, releasedBookings, bookedBookings);
+    }
+
+    @Override
+    public BookingDetail getBookingDetails(String bookingId, String email) {
+        return retrieveBookingDetails(bookingId, email);
+    }
+
+    /**
+     * Looks up the bookings of a guest through the email index, reading only the records of that guest
+     * @return every booking made with the email, confirmed and cancelled, ordered by start date
+     */
+    @Override
+    public List<BookingDetail> getGuestBookings(String email) {
+        final Set<String> bookingIds = guestBookingIds.get(email);
+        if (bookingIds == null) {
+            return Collections.emptyList();
+        }
+
+        final List<BookingDetail> bookings = new ArrayList<>(bookingIds.size());
+        for (String bookingId : bookingIds) {
+            final BookingDetail booking = bookingRecords.get(bookingId);
+            // The record of a commit rolled back since the id was read is gone
+            if (booking != null) {
+                bookings.add(booking);
+            }
+        }
+        bookings.sort(Comparator.comparing(BookingDetail::getStartDate).thenComparing(BookingDetail::getId));
+        return bookings;
+    }
+
+    /**
+     * Walks the records in id order reading each under its own night locks, so no commit waits for more than one record.
+     * The export reads as of the version published when it opens: records committed after it are skipped and records
+     * changed in place after it are read from the state the commit kept for the export, so the heap only grows with the
+     * records changed while the export runs.
+     */
+    @Override
+    public BookingExport exportBookings(String afterBookingId, long updatedSince) {
+        final RecordExport export = new RecordExport(afterBookingId, updatedSince);
+        replicatedChangeLock.lock();
+        try {
+            // Registered before the version is read, so every commit versioned after it finds the export to keep its state for,
+            // the commits in between keep theirs too and the ones newer than the version are dropped on read
+            openExports.add(export);
+            export.version = bookingChangeApplier.getPublishedVersion();
+        } finally {
+            replicatedChangeLock.unlock();
+        }
+        return export;
+    }
+
+    // Mock method to retrieve booking details from database
+    private BookingDetail retrieveBookingDetails(String bookingId, String email) {
+        final BookingDetail booking = bookingRecords.get(bookingId);
+        if (booking != null && booking.getEmail().equals(email)) {
+            return booking;
+        } else {
+            return null;
+        }
+    }
+
+    // Returns the time the locks were acquired at
+    private long lockNights(NightLocks nightLocks, long stripes) {
+        final long waitStart = System.nanoTime();
+        nightLocks.lock(stripes);
+        final long lockedAt = System.nanoTime();
+        reservationMetrics.recordLockWait(lockedAt - waitStart);
+        return lockedAt;
+    }
+
+    private void unlockNights(NightLocks nightLocks, long stripes, long lockedAt) {
+        final long holdNanos = System.nanoTime() - lockedAt;
+        nightLocks.unlock(stripes);
+        reservationMetrics.recordLockHold(holdNanos);
+    }
+
+    // Waits for the group commit after the locks are released so other commits can join the same disk flush
+    private BookingDetail awaitDurable(PendingCommit pendingCommit) throws ReservationException {
+        try {
+            pendingCommit.durable.join();
+        } catch (CompletionException exception) {
+            rollBack(pendingCommit);
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_DURABLE);
+            throw new ReservationException("Unable to save the booking please try again");
+        }
+        pendingCommits.remove(pendingCommit);
+        return pendingCommit.booking;
+    }
+
+    private CompletableFuture<BookingDetail> whenDurable(PendingCommit pendingCommit) {
+        return pendingCommit.durable.handle((ignored, failure) -> {
+            if (failure != null) {
+                rollBack(pendingCommit);
+                reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_DURABLE);
+                throw new CompletionException(new ReservationException("Unable to save the booking please try again"));
+            }
+            pendingCommits.remove(pendingCommit);
+            return pendingCommit.booking;
+        });
+    }
+
+    // Must be called under the night locks of the commit once its entry is appended, so conflicting commits are tracked in log order
+    private PendingCommit trackPendingCommit(BookingDetail booking, CompletableFuture<Void> durable, Runnable rollback) {
+        final PendingCommit pendingCommit = new PendingCommit(booking, durable, rollback);
+        pendingCommits.add(pendingCommit);
+        return pendingCommit;
+    }
+
+    /**
+     * Undoes a commit whose journal entry failed along with the commits logged after it, latest first so each finds the
+     * records and stays as it left them. A journal fails every append after a failed one, so those commits fail as well
+     * and find themselves already rolled back. Every night lock is taken so no commit is half applied meanwhile.
+     * The cache needs no undo as the applier drops the changes which are not durable.
+     */
+    private void rollBack(PendingCommit failedCommit) {
+        rollbackLock.lock();
+        try {
+            if (failedCommit.rolledBack) {
+                return;
+            }
+            shardCreationLock.lock();
+            try {
+                final List<CampsiteShard> lockedShards = lockAllShards();
+                try {
+                    PendingCommit pendingCommit;
+                    while ((pendingCommit = pendingCommits.pollLast()) != null) {
+                        // A commit logged before the failed one is durable, it is only waiting to be dropped from the deque
+                        final CompletableFuture<Void> durable = pendingCommit.durable;
+                        if (!durable.isDone() || durable.isCompletedExceptionally()) {
+                            pendingCommit.rollback.run();
+                            pendingCommit.rolledBack = true;
+                        }
+                        if (pendingCommit == failedCommit) {
+                            break;
+                        }
+                    }
+                } finally {
+                    unlockShards(lockedShards);
+                }
+            } finally {
+                shardCreationLock.unlock();
+            }
+        } finally {
+            rollbackLock.unlock();
+        }
+    }
+
+    // Locks every night of every shard in campsite order, the caller must hold the shard creation lock
+    private List<CampsiteShard> lockAllShards() {
+        final List<CampsiteShard> lockedShards = new ArrayList<>(campsiteShards.values());
+        lockedShards.sort(Comparator.comparingInt(CampsiteShard::getCampsiteId));
+        lockedShards.forEach(campsiteShard -> campsiteShard.getNightLocks().lock(NightLocks.ALL_STRIPES));
+        return lockedShards;
+    }
+
+    private static void unlockShards(List<CampsiteShard> lockedShards) {
+        lockedShards.forEach(campsiteShard -> campsiteShard.getNightLocks().unlock(NightLocks.ALL_STRIPES));
+    }
+
+    /**
+     * Versions the change before logging it so the journal entry carries the version of every booking in it, the entry
+     * holds the released bookings then the booked ones. Must be called while holding the night locks of the changed
+     * bookings so changes to the same nights are versioned and logged in commit order.
+     * @return completes once the entry is durable
+     */
+    private CompletableFuture<Void> publishAndLogChange(List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings) {
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+        publishChange(releasedBookings, bookedBookings, durable);
+        final List<BookingDetail> changedBookings = new ArrayList<>(releasedBookings.size() + bookedBookings.size());
+        changedBookings.addAll(releasedBookings);
+        changedBookings.addAll(bookedBookings);
+        bookingJournal.append(changedBookings).whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                durable.complete(null);
+            } else {
+                durable.completeExceptionally(failure);
+            }
+        });
+        return durable;
+    }
+
+    // Must be called while holding the night locks of the changed bookings so changes to the same nights are versioned in commit order
+    private void publishChange(List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings, CompletableFuture<Void> durable) {
+        final long version = bookingChangeApplier.publish(releasedBookings, bookedBookings, durable);
+        releasedBookings.forEach(booking -> booking.setVersion(version));
+        bookedBookings.forEach(booking -> booking.setVersion(version));
+    }
+
+    // Loads the latest snapshot into the records, booked dates and cache then replays the journal written after it
+    private void recoverBookings() {
+        final long startTime = System.nanoTime();
+        try {
+            final long fromSegment = bookingSnapshotStore.load(
+                    this::restoreBookingRecord,
+                    bookingCache::restoreBookedNights
+            );
+            bookingJournal.replay(fromSegment, this::restoreBookings);
+        } catch (IOException exception) {
+            throw new IllegalStateException("Unable to recover the booking records", exception);
+        }
+        // Versions keep increasing across restarts, so an export cursor taken before the restart still finds later changes
+        long recoveredVersion = 0L;
+        for (BookingDetail booking : bookingRecords.values()) {
+            recoveredVersion = Math.max(recoveredVersion, booking.getVersion());
+        }
+        bookingChangeApplier.restoreVersion(recoveredVersion);
+        logger.info("Recovered {} booking records in {} ms", bookingRecords.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    // The calendar of the shard is rebuilt from the records as it keeps the stays, the cache is restored from the booked nights
+    private void restoreBookingRecord(BookingDetail booking) {
+        insertBookingRecord(booking);
+        if (booking.getStatus() == BookingStatus.CONFIRMED) {
+            getCampsiteShard(booking.getCampsiteId()).addBookedStay(new DateRange(booking.getStartDate(), booking.getEndDate()));
+        }
+    }
+
+    // Applies the new state of each booking in a journal entry, releasing the nights of its previous state
+    private void restoreBookings(List<BookingDetail> bookings) {
+        for (BookingDetail booking : bookings) {
+            final CampsiteShard campsiteShard = getCampsiteShard(booking.getCampsiteId());
+            final BookingDetail previousBooking = bookingRecords.put(booking.getId(), booking);
+            indexGuestBooking(booking);
+            if (previousBooking != null && previousBooking.getStatus() == BookingStatus.CONFIRMED) {
+                campsiteShard.removeBookedStay(new DateRange(previousBooking.getStartDate(), previousBooking.getEndDate()));
+                bookingCache.restoreCancelledDates(booking.getCampsiteId(), new DateRange(previousBooking.getStartDate(), previousBooking.getEndDate()));
+            }
+            if (booking.getStatus() == BookingStatus.CONFIRMED) {
+                campsiteShard.addBookedStay(new DateRange(booking.getStartDate(), booking.getEndDate()));
+                bookingCache.restoreBookedDates(booking.getCampsiteId(), new DateRange(booking.getStartDate(), booking.getEndDate()));
+            }
+        }
+    }
+
+    // Keeps the state a booking had before a change made in place for the exports reading as of an earlier version,
+    // called under the night locks once the change is versioned so an export reading the record finds it
+    private void retainPreviousState(BookingDetail booking, BookingStatus previousStatus, long previousVersion) {
+        for (RecordExport export : openExports) {
+            final long exportVersion = export.version;
+            // An export still reading its version keeps every state, the ones newer than its version are ignored
+            if (exportVersion == RecordExport.OPENING || (previousVersion <= exportVersion && booking.getVersion() > exportVersion)) {
+                final BookingDetail previousState = new BookingDetail(booking.getId(), booking.getCampsiteId(), booking.getEmail(),
+                        new DateRange(booking.getStartDate(), booking.getEndDate()), previousStatus);
+                previousState.setVersion(previousVersion);
+                export.previousStates.putIfAbsent(booking.getId(), previousState);
+            }
+        }
+    }
+
+    // Puts back the state a booking had before a rolled back commit changed it in place
+    private static void restorePreviousState(BookingDetail booking, BookingStatus previousStatus, long previousVersion) {
+        booking.setStatus(previousStatus);
+        booking.setVersion(previousVersion);
+    }
+
+    private static boolean holdsNights(BookingDetail booking) {
+        return booking.getStatus() == BookingStatus.CONFIRMED || booking.getStatus() == BookingStatus.HELD;
+    }
+
+    // The record is written before its index entry so every id read from the index has a record
+    private void insertBookingRecord(BookingDetail booking) {
+        bookingRecords.put(booking.getId(), booking);
+        indexGuestBooking(booking);
+    }
+
+    private void indexGuestBooking(BookingDetail booking) {
+        guestBookingIds.computeIfAbsent(booking.getEmail(), email -> ConcurrentHashMap.newKeySet()).add(booking.getId());
+    }
+
+    // The index entry is removed before the record, the reverse of an insert
+    private void removeBookingRecord(BookingDetail booking) {
+        final Set<String> bookingIds = guestBookingIds.get(booking.getEmail());
+        if (bookingIds != null) {
+            bookingIds.remove(booking.getId());
+        }
+        bookingRecords.remove(booking.getId());
+    }
+
+    private CampsiteShard getCampsiteShard(int campsiteId) {
+        final CampsiteShard campsiteShard = campsiteShards.get(campsiteId);
+        if (campsiteShard != null) {
+            return campsiteShard;
+        }
+
+        shardCreationLock.lock();
+        try {
+            return campsiteShards.computeIfAbsent(campsiteId, CampsiteShard::new);
+        } finally {
+            shardCreationLock.unlock();
+        }
+    }
+
+    private class RecordExport implements BookingExport {
+        private static final long OPENING = -1L;
+
+        private final Iterator<BookingDetail> records;
+        private final long updatedSince;
+        // State as of the export version of the records changed in place since, dropped as they are read
+        private final Map<String, BookingDetail> previousStates = new ConcurrentHashMap<>();
+        private volatile long version = OPENING;
+        private BookingDetail nextRecord;
+
+        RecordExport(String afterBookingId, long updatedSince) {
+            this.records = (afterBookingId == null ? bookingRecords : bookingRecords.tailMap(afterBookingId, false)).values().iterator();
+            this.updatedSince = updatedSince;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextRecord == null && records.hasNext()) {
+                final BookingDetail record = readAsOfVersion(records.next());
+                if (record != null && (updatedSince <= 0 || record.getVersion() > updatedSince)) {
+                    nextRecord = record;
+                }
+            }
+            return nextRecord != null;
+        }
+
+        @Override
+        public BookingDetail next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final BookingDetail record = nextRecord;
+            nextRecord = null;
+            return record;
+        }
+
+        @Override
+        public void close() {
+            openExports.remove(this);
+        }
+
+        // A copy of the record as of the export version, null for a record committed after it
+        private BookingDetail readAsOfVersion(BookingDetail record) {
+            final NightLocks nightLocks = getCampsiteShard(record.getCampsiteId()).getNightLocks();
+            final long stripes = nightLocks.stripesFor(new DateRange(record.getStartDate(), record.getEndDate()));
+            nightLocks.lock(stripes);
+            try {
+                if (record.getVersion() <= version) {
+                    final BookingDetail copy = new BookingDetail(record.getId(), record.getCampsiteId(), record.getEmail(),
+                            new DateRange(record.getStartDate(), record.getEndDate()), record.getStatus());
+                    copy.setVersion(record.getVersion());
+                    return copy;
+                }
+            } finally {
+                nightLocks.unlock(stripes);
+            }
+            final BookingDetail previousState = previousStates.remove(record.getId());
+            return previousState != null && previousState.getVersion() <= version ? previousState : null;
+        }
+    }
+
+    /**
+     * Commit applied to the records under the night locks which is waiting for the journal to make it durable.
+     * Its cache change is applied by the {@link BookingChangeApplier} only once it is durable so the cache never shows a booking that can be lost,
+     * its records and stays are rolled back if it fails to be.
+     */
+    private static class PendingCommit {
+        private final BookingDetail booking;
+        private final CompletableFuture<Void> durable;
+        // Restores the records and stays the commit changed, run while every night lock is held
+        private final Runnable rollback;
+        // Guarded by the rollback lock
+        private boolean rolledBack;
+
+        PendingCommit(BookingDetail booking, CompletableFuture<Void> durable, Runnable rollback) {
+            this.booking = booking;
+            this.durable = durable;
+            this.rollback = rollback;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.upgrade.www.reservation.repository;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Booked nights in a lock free bitmap per campsite, only seen by this instance
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.cache.provider", havingValue = "memory", matchIfMissing = true)
+public class InProcessBookingCacheProvider implements BookingCacheProvider {
+
+    private final Map<Integer, EpochDayBitmap> bookedDatesCache = new ConcurrentHashMap<>();
+
+    @Override
+    public int[] getAvailableDays(int campsiteId, long startDay, long endDay) {
+        return getBookedDates(campsiteId).clearDays(startDay, endDay);
+    }
+
+    @Override
+    public void applyWords(Map<Integer, Map<Integer, long[]>> campsiteWordMasks) {
+        campsiteWordMasks.forEach((campsiteId, wordMasks) -> {
+            final EpochDayBitmap bookedDates = getBookedDates(campsiteId);
+            wordMasks.forEach((word, masks) -> bookedDates.applyWord(word, masks[0], masks[1]));
+        });
+    }
+
+    @Override
+    public void evictNightsBefore(long epochDay) {
+        bookedDatesCache.values().forEach(bookedDates -> bookedDates.clearRange(0, epochDay));
+    }
+
+    private EpochDayBitmap getBookedDates(int campsiteId) {
+        return bookedDatesCache.computeIfAbsent(campsiteId, id -> new EpochDayBitmap());
+    }
+}
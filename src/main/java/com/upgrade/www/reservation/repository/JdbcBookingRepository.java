@@ -0,0 +1,693 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.id.BookingIdGenerator;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Booking records in an embedded database reached through JDBC, the `jdbc` storage.
+ * Each booked night is a row of `booked_nights` whose primary key is the unique (campsite, night) pair, so a booking
+ * inserts all of its nights in a single multi row statement which both checks and books them in one round trip,
+ * a taken night fails the statement as a whole on the constraint. Batches insert their booking rows as one JDBC batch.
+ * The database is the source of truth, the writes of this instance still take the {@link NightLocks} of their nights
+ * so the changes to the same nights are published to the {@link BookingChangeApplier} in commit order.
+ * A change is published before its transaction commits and the applier waits for the commit, as it does for the journal.
+ * Holds are rows with the {@link BookingStatus#HELD} status which are released on startup, like the in memory holds
+ * they do not survive a restart.
+ */
+@Repository
+@ConditionalOnProperty(name = "reservation.storage", havingValue = "jdbc")
+public class JdbcBookingRepository implements BookingRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcBookingRepository.class);
+
+    // SQL state of a unique constraint violation
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String NOT_AVAILABLE = "Camp site not available for the selected dates";
+    private static final String SAVE_FAILED = "Unable to save the booking please try again";
+
+    private static final String CREATE_BOOKINGS = "CREATE TABLE IF NOT EXISTS bookings (id VARCHAR(64) PRIMARY KEY, "
+            + "campsite_id INT NOT NULL, email VARCHAR(320) NOT NULL, start_date DATE NOT NULL, end_date DATE NOT NULL, "
+            + "status VARCHAR(16) NOT NULL, version BIGINT NOT NULL)";
+    private static final String CREATE_BOOKINGS_EMAIL_INDEX = "CREATE INDEX IF NOT EXISTS bookings_email ON bookings (email)";
+    private static final String CREATE_BOOKED_NIGHTS = "CREATE TABLE IF NOT EXISTS booked_nights (campsite_id INT NOT NULL, "
+            + "night DATE NOT NULL, booking_id VARCHAR(64) NOT NULL, PRIMARY KEY (campsite_id, night))";
+    private static final String CREATE_BOOKED_NIGHTS_BOOKING_INDEX = "CREATE INDEX IF NOT EXISTS booked_nights_booking ON booked_nights (booking_id)";
+    private static final String INSERT_BOOKING = "INSERT INTO bookings (id, campsite_id, email, start_date, end_date, status, version) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_NIGHTS = "INSERT INTO booked_nights (campsite_id, night, booking_id) VALUES ";
+    private static final String SELECT_BOOKING_COLUMNS = "SELECT id, campsite_id, email, start_date, end_date, status, version FROM bookings ";
+    private static final String SELECT_BOOKING = SELECT_BOOKING_COLUMNS + "WHERE id = ? AND email = ?";
+    private static final String SELECT_GUEST_BOOKINGS = SELECT_BOOKING_COLUMNS + "WHERE email = ? ORDER BY start_date, id";
+    private static final String SELECT_EXPORT_BOOKINGS = SELECT_BOOKING_COLUMNS + "WHERE id > ? AND version > ? ORDER BY id";
+    // Rows fetched per round trip by an export, bounds the rows the driver buffers whatever the size of the export
+    private static final int EXPORT_FETCH_SIZE = 500;
+    private static final String SELECT_STATUS = "SELECT status FROM bookings WHERE id = ?";
+    private static final String UPDATE_STATUS = "UPDATE bookings SET status = ?, version = ? WHERE id = ?";
+    private static final String DELETE_BOOKING_NIGHTS = "DELETE FROM booked_nights WHERE booking_id = ?";
+    private static final String DELETE_NIGHTS_BEFORE = "DELETE FROM booked_nights WHERE night < ?";
+    private static final String SELECT_BOOKED_NIGHTS = "SELECT campsite_id, night FROM booked_nights";
+    private static final String RELEASE_HELD_NIGHTS = "DELETE FROM booked_nights WHERE booking_id IN (SELECT id FROM bookings WHERE status = 'HELD')";
+    private static final String RELEASE_HELD_BOOKINGS = "UPDATE bookings SET status = 'CANCELLED' WHERE status = 'HELD'";
+
+    private final HikariDataSource dataSource;
+    private final BookingCache bookingCache;
+    private final BookingChangeApplier bookingChangeApplier;
+    private final HoldExpiryWheel holdExpiryWheel;
+    private final BookingIdGenerator bookingIdGenerator;
+    private final ReservationMetrics reservationMetrics;
+    private final Map<Integer, NightLocks> campsiteNightLocks = new ConcurrentHashMap<>();
+    // Expiry of each outstanding hold keyed by booking id, removed once the hold is confirmed, released or expired
+    private final Map<String, HoldExpiryWheel.Timeout> holdTimeouts = new ConcurrentHashMap<>();
+
+    @Autowired
+    public JdbcBookingRepository(@Value("${reservation.jdbc.url:jdbc:h2:mem:reservations;DB_CLOSE_DELAY=-1}") String url,
+                                 @Value("${reservation.jdbc.username:sa}") String username,
+                                 @Value("${reservation.jdbc.password:}") String password,
+                                 @Value("${reservation.jdbc.pool-size:16}") int poolSize,
+                                 BookingCache bookingCache, BookingChangeApplier bookingChangeApplier, HoldExpiryWheel holdExpiryWheel,
+                                 BookingIdGenerator bookingIdGenerator, ReservationMetrics reservationMetrics) {
+        final HikariConfig config = new HikariConfig();
+        config.setPoolName("booking-db");
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(poolSize);
+        config.setAutoCommit(false);
+        this.dataSource = new HikariDataSource(config);
+        this.bookingCache = bookingCache;
+        this.bookingChangeApplier = bookingChangeApplier;
+        this.holdExpiryWheel = holdExpiryWheel;
+        this.bookingIdGenerator = bookingIdGenerator;
+        this.reservationMetrics = reservationMetrics;
+        try {
+            recoverBookings();
+        } catch (SQLException exception) {
+            dataSource.close();
+            throw new IllegalStateException("Unable to open the booking database", exception);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        dataSource.close();
+    }
+
+    @Override
+    public BookingDetail completeBooking(int campsiteId, String email, DateRange dateRange) throws ReservationException {
+        return insertBooking(campsiteId, email, dateRange, BookingStatus.CONFIRMED, 0L);
+    }
+
+    // Commits are durable once the transaction returns so the futures are always complete
+    @Override
+    public CompletableFuture<BookingDetail> completeBookingAsync(int campsiteId, String email, DateRange dateRange) {
+        try {
+            return CompletableFuture.completedFuture(completeBooking(campsiteId, email, dateRange));
+        } catch (ReservationException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public BookingDetail modifyBooking(BookingDetail existingBooking, DateRange newDateRange) throws ReservationException {
+        final DateRange oldDateRange = new DateRange(existingBooking.getStartDate(), existingBooking.getEndDate());
+        final NightLocks nightLocks = getNightLocks(existingBooking.getCampsiteId());
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        final long stripes = nightLocks.stripesFor(oldDateRange, newDateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            final BookingDetail newBooking = inTransaction(durable, connection -> {
+                if (selectStatus(connection, existingBooking.getId()) != BookingStatus.CONFIRMED) {
+                    reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_ALREADY_CANCELLED);
+                    throw new ReservationException("Booking has already been cancelled or modified");
+                }
+                // Nights held by the booking itself are free to be re-booked, the rollback restores them when the new ones are taken
+                deleteNights(connection, existingBooking.getId());
+                final BookingDetail booking = new BookingDetail(bookingIdGenerator.nextId(), existingBooking.getCampsiteId(),
+                        existingBooking.getEmail(), newDateRange, BookingStatus.CONFIRMED);
+                if (!insertNights(connection, booking)) {
+                    reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_UNAVAILABLE);
+                    throw new ReservationException(NOT_AVAILABLE);
+                }
+                publishChange(List.of(existingBooking), List.of(booking), durable);
+                updateStatus(connection, existingBooking, BookingStatus.CANCELLED);
+                insertBookingRows(connection, List.of(booking));
+                return booking;
+            });
+            existingBooking.setStatus(BookingStatus.CANCELLED);
+            return newBooking;
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+    }
+
+    @Override
+    public CompletableFuture<BookingDetail> modifyBookingAsync(BookingDetail existingBooking, DateRange newDateRange) {
+        try {
+            return CompletableFuture.completedFuture(modifyBooking(existingBooking, newDateRange));
+        } catch (ReservationException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public BookingDetail cancelBooking(BookingDetail existingBooking) throws ReservationException {
+        releaseBooking(existingBooking, false);
+        return existingBooking;
+    }
+
+    @Override
+    public CompletableFuture<BookingDetail> cancelBookingAsync(BookingDetail existingBooking) {
+        try {
+            return CompletableFuture.completedFuture(cancelBooking(existingBooking));
+        } catch (ReservationException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public BookingDetail holdBooking(int campsiteId, String email, DateRange dateRange, long ttlMillis) throws ReservationException {
+        return insertBooking(campsiteId, email, dateRange, BookingStatus.HELD, ttlMillis);
+    }
+
+    @Override
+    public BookingDetail confirmHold(BookingDetail heldBooking) throws ReservationException {
+        final DateRange dateRange = new DateRange(heldBooking.getStartDate(), heldBooking.getEndDate());
+        final NightLocks nightLocks = getNightLocks(heldBooking.getCampsiteId());
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            inTransaction(durable, connection -> {
+                final BookingStatus status = selectStatus(connection, heldBooking.getId());
+                if (status != BookingStatus.HELD) {
+                    reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_HOLD_EXPIRED);
+                    throw new ReservationException("Hold has expired or was released");
+                }
+                publishChange(Collections.emptyList(), List.of(heldBooking), durable);
+                updateStatus(connection, heldBooking, BookingStatus.CONFIRMED);
+                return null;
+            });
+            cancelHoldTimeout(heldBooking);
+            heldBooking.setStatus(BookingStatus.CONFIRMED);
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+        return heldBooking;
+    }
+
+    @Override
+    public CompletableFuture<BookingDetail> confirmHoldAsync(BookingDetail heldBooking) {
+        try {
+            return CompletableFuture.completedFuture(confirmHold(heldBooking));
+        } catch (ReservationException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public BookingDetail releaseHold(BookingDetail heldBooking) {
+        try {
+            releaseBooking(heldBooking, true);
+        } catch (ReservationException exception) {
+            logger.error("Unable to release the hold {}", heldBooking.getId());
+        }
+        return heldBooking;
+    }
+
+    @Override
+    public List<BatchBooking> completeBookings(List<BatchBooking> batch) {
+        // Stripes of every campsite in the batch, sorted by campsite id which is the order the locks are taken in
+        final Map<Integer, Long> campsiteStripes = new TreeMap<>();
+        for (BatchBooking item : batch) {
+            if (item.isPending()) {
+                campsiteStripes.merge(item.getCampsiteId(), getNightLocks(item.getCampsiteId()).stripesFor(item.getDateRange()), (a, b) -> a | b);
+            }
+        }
+        if (campsiteStripes.isEmpty()) {
+            return batch;
+        }
+
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+        final long waitStart = System.nanoTime();
+        campsiteStripes.forEach((campsiteId, stripes) -> getNightLocks(campsiteId).lock(stripes));
+        final long lockedAt = System.nanoTime();
+        reservationMetrics.recordLockWait(lockedAt - waitStart);
+        try {
+            inTransaction(durable, connection -> {
+                final List<BookingDetail> bookings = new ArrayList<>();
+                for (BatchBooking item : batch) {
+                    if (!item.isPending()) {
+                        continue;
+                    }
+                    final BookingDetail booking = new BookingDetail(bookingIdGenerator.nextId(), item.getCampsiteId(), item.getEmail(),
+                            item.getDateRange(), BookingStatus.CONFIRMED);
+                    // Nights inserted by earlier items are already taken, so the first item of the batch wins a conflict.
+                    // Databases differ on what a failed statement leaves of the transaction, so a conflicting item is
+                    // rolled back to its savepoint and the items before it are kept.
+                    final Savepoint savepoint = connection.setSavepoint();
+                    if (!insertNights(connection, booking)) {
+                        connection.rollback(savepoint);
+                        reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_UNAVAILABLE);
+                        item.reject(NOT_AVAILABLE);
+                        continue;
+                    }
+                    connection.releaseSavepoint(savepoint);
+                    item.complete(booking);
+                    bookings.add(booking);
+                }
+                if (!bookings.isEmpty()) {
+                    publishChange(Collections.emptyList(), bookings, durable);
+                    insertBookingRows(connection, bookings);
+                }
+                return null;
+            });
+        } catch (ReservationException exception) {
+            // The whole batch was rolled back
+            for (BatchBooking item : batch) {
+                if (item.getBooking() != null) {
+                    item.reject(SAVE_FAILED);
+                }
+            }
+        } finally {
+            final long holdNanos = System.nanoTime() - lockedAt;
+            campsiteStripes.forEach((campsiteId, stripes) -> getNightLocks(campsiteId).unlock(stripes));
+            reservationMetrics.recordLockHold(holdNanos);
+        }
+        return batch;
+    }
+
+    @Override
+    public CompletableFuture<List<BatchBooking>> completeBookingsAsync(List<BatchBooking> batch) {
+        return CompletableFuture.completedFuture(completeBookings(batch));
+    }
+
+    // Every commit is durable in the database, there is no journal to shorten
+    @Override
+    public void checkpoint() {
+    }
+
+    @Override
+    public void evictNightsBefore(LocalDate day) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(DELETE_NIGHTS_BEFORE)) {
+            statement.setObject(1, day);
+            statement.executeUpdate();
+            connection.commit();
+        } catch (SQLException exception) {
+            logger.error("Unable to evict the booked nights before {}", day, exception);
+        }
+    }
+
+    @Override
+    public BookingDetail getBookingDetails(String bookingId, String email) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_BOOKING)) {
+            statement.setString(1, bookingId);
+            statement.setString(2, email);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? toBookingDetail(resultSet) : null;
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Unable to read the booking records", exception);
+        }
+    }
+
+    @Override
+    public List<BookingDetail> getGuestBookings(String email) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_GUEST_BOOKINGS)) {
+            statement.setString(1, email);
+            final List<BookingDetail> bookings = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    bookings.add(toBookingDetail(resultSet));
+                }
+            }
+            return bookings;
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Unable to read the booking records", exception);
+        }
+    }
+
+    /**
+     * Reads the rows in a repeatable read transaction of its own, the database keeps the rows as of its snapshot for it
+     * without blocking the writers. The version is the last one applied before the transaction started, every change
+     * up to it is committed so it is part of the snapshot.
+     */
+    @Override
+    public BookingExport exportBookings(String afterBookingId, long updatedSince) {
+        final long version = bookingChangeApplier.getAppliedVersion();
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            statement = connection.prepareStatement(SELECT_EXPORT_BOOKINGS);
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            statement.setString(1, afterBookingId == null ? "" : afterBookingId);
+            statement.setLong(2, Math.max(updatedSince, 0));
+            return new RowExport(connection, statement, statement.executeQuery(), version);
+        } catch (SQLException exception) {
+            closeExport(connection, statement, null);
+            throw new IllegalStateException("Unable to read the booking records", exception);
+        }
+    }
+
+    private BookingDetail insertBooking(int campsiteId, String email, DateRange dateRange, BookingStatus status, long ttlMillis) throws ReservationException {
+        final NightLocks nightLocks = getNightLocks(campsiteId);
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            final BookingDetail booking = inTransaction(durable, connection -> {
+                final BookingDetail newBooking = new BookingDetail(bookingIdGenerator.nextId(), campsiteId, email, dateRange, status);
+                if (!insertNights(connection, newBooking)) {
+                    reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_UNAVAILABLE);
+                    throw new ReservationException(NOT_AVAILABLE);
+                }
+                publishChange(Collections.emptyList(), List.of(newBooking), durable);
+                insertBookingRows(connection, List.of(newBooking));
+                return newBooking;
+            });
+            // The expiry takes the night locks so it cannot run before the timeout is registered
+            if (status == BookingStatus.HELD) {
+                holdTimeouts.put(booking.getId(), holdExpiryWheel.schedule(() -> releaseHold(booking), ttlMillis, TimeUnit.MILLISECONDS));
+            }
+            return booking;
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+    }
+
+    // Cancels the booking or only releases it while it is held, a booking already released is left as it is
+    private void releaseBooking(BookingDetail existingBooking, boolean heldOnly) throws ReservationException {
+        final DateRange dateRange = new DateRange(existingBooking.getStartDate(), existingBooking.getEndDate());
+        final NightLocks nightLocks = getNightLocks(existingBooking.getCampsiteId());
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        final long stripes = nightLocks.stripesFor(dateRange);
+        final long lockedAt = lockNights(nightLocks, stripes);
+        try {
+            final BookingStatus status = inTransaction(durable, connection -> {
+                final BookingStatus currentStatus = selectStatus(connection, existingBooking.getId());
+                if (currentStatus == null || currentStatus == BookingStatus.CANCELLED || (heldOnly && currentStatus != BookingStatus.HELD)) {
+                    return currentStatus;
+                }
+                publishChange(List.of(existingBooking), Collections.emptyList(), durable);
+                updateStatus(connection, existingBooking, BookingStatus.CANCELLED);
+                deleteNights(connection, existingBooking.getId());
+                return BookingStatus.CANCELLED;
+            });
+            if (status != null) {
+                existingBooking.setStatus(status);
+            }
+            if (status == BookingStatus.CANCELLED) {
+                cancelHoldTimeout(existingBooking);
+            }
+        } finally {
+            unlockNights(nightLocks, stripes, lockedAt);
+        }
+    }
+
+    /**
+     * Runs the statements in one transaction and completes the durable future of the published change with its outcome
+     * @throws ReservationException thrown by the statements, or when the transaction cannot be committed
+     */
+    private <T> T inTransaction(CompletableFuture<Void> durable, Transaction<T> transaction) throws ReservationException {
+        try (Connection connection = dataSource.getConnection()) {
+            try {
+                final T result = transaction.run(connection);
+                connection.commit();
+                durable.complete(null);
+                return result;
+            } catch (SQLException | ReservationException | RuntimeException exception) {
+                durable.completeExceptionally(exception);
+                connection.rollback();
+                throw exception;
+            }
+        } catch (SQLException exception) {
+            durable.completeExceptionally(exception);
+            logger.error("Unable to commit a booking transaction", exception);
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_DURABLE);
+            throw new ReservationException(SAVE_FAILED);
+        }
+    }
+
+    /**
+     * Checks and books every night of the stay in a single statement
+     * @return false when any of the nights is already taken, in which case none of them is inserted
+     */
+    private static boolean insertNights(Connection connection, BookingDetail booking) throws SQLException {
+        final List<LocalDate> nights = getStayDates(booking.getStartDate(), booking.getEndDate());
+        final StringBuilder sql = new StringBuilder(INSERT_NIGHTS);
+        for (int i = 0; i < nights.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int parameter = 1;
+            for (LocalDate night : nights) {
+                statement.setInt(parameter++, booking.getCampsiteId());
+                statement.setObject(parameter++, night);
+                statement.setString(parameter++, booking.getId());
+            }
+            statement.executeUpdate();
+            return true;
+        } catch (SQLException exception) {
+            if (exception instanceof SQLIntegrityConstraintViolationException || UNIQUE_VIOLATION.equals(exception.getSQLState())) {
+                return false;
+            }
+            throw exception;
+        }
+    }
+
+    private static void insertBookingRows(Connection connection, List<BookingDetail> bookings) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_BOOKING)) {
+            for (BookingDetail booking : bookings) {
+                statement.setString(1, booking.getId());
+                statement.setInt(2, booking.getCampsiteId());
+                statement.setString(3, booking.getEmail());
+                statement.setObject(4, booking.getStartDate());
+                statement.setObject(5, booking.getEndDate());
+                statement.setString(6, booking.getStatus().name());
+                statement.setLong(7, booking.getVersion());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static BookingStatus selectStatus(Connection connection, String bookingId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_STATUS)) {
+            statement.setString(1, bookingId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? BookingStatus.valueOf(resultSet.getString(1)) : null;
+            }
+        }
+    }
+
+    // Called after the change is published so the row carries the version of the change
+    private static void updateStatus(Connection connection, BookingDetail booking, BookingStatus status) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_STATUS)) {
+            statement.setString(1, status.name());
+            statement.setLong(2, booking.getVersion());
+            statement.setString(3, booking.getId());
+            statement.executeUpdate();
+        }
+    }
+
+    private static void deleteNights(Connection connection, String bookingId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(DELETE_BOOKING_NIGHTS)) {
+            statement.setString(1, bookingId);
+            statement.executeUpdate();
+        }
+    }
+
+    private static BookingDetail toBookingDetail(ResultSet resultSet) throws SQLException {
+        final BookingDetail booking = new BookingDetail(resultSet.getString(1), resultSet.getInt(2), resultSet.getString(3),
+                new DateRange(resultSet.getObject(4, LocalDate.class), resultSet.getObject(5, LocalDate.class)),
+                BookingStatus.valueOf(resultSet.getString(6)));
+        booking.setVersion(resultSet.getLong(7));
+        return booking;
+    }
+
+    // Creates the tables on first start, releases the holds left by the last run and loads the booked nights into the cache
+    private void recoverBookings() throws SQLException {
+        final long startTime = System.nanoTime();
+        int nights = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_BOOKINGS);
+                statement.execute(CREATE_BOOKINGS_EMAIL_INDEX);
+                statement.execute(CREATE_BOOKED_NIGHTS);
+                statement.execute(CREATE_BOOKED_NIGHTS_BOOKING_INDEX);
+                statement.executeUpdate(RELEASE_HELD_NIGHTS);
+                statement.executeUpdate(RELEASE_HELD_BOOKINGS);
+            }
+            connection.commit();
+
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(SELECT_BOOKED_NIGHTS)) {
+                while (resultSet.next()) {
+                    final LocalDate night = resultSet.getObject(2, LocalDate.class);
+                    bookingCache.restoreBookedDates(resultSet.getInt(1), new DateRange(night, night.plusDays(1)));
+                    nights++;
+                }
+            }
+            connection.commit();
+        }
+        logger.info("Loaded {} booked nights in {} ms", nights, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    private void cancelHoldTimeout(BookingDetail heldBooking) {
+        final HoldExpiryWheel.Timeout timeout = holdTimeouts.remove(heldBooking.getId());
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    // Must be called while holding the night locks of the changed bookings so changes to the same nights are versioned in commit order
+    private void publishChange(List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings, CompletableFuture<Void> durable) {
+        final long version = bookingChangeApplier.publish(releasedBookings, bookedBookings, durable);
+        releasedBookings.forEach(booking -> booking.setVersion(version));
+        bookedBookings.forEach(booking -> booking.setVersion(version));
+    }
+
+    private NightLocks getNightLocks(int campsiteId) {
+        return campsiteNightLocks.computeIfAbsent(campsiteId, id -> new NightLocks());
+    }
+
+    // Returns the time the locks were acquired at
+    private long lockNights(NightLocks nightLocks, long stripes) {
+        final long waitStart = System.nanoTime();
+        nightLocks.lock(stripes);
+        final long lockedAt = System.nanoTime();
+        reservationMetrics.recordLockWait(lockedAt - waitStart);
+        return lockedAt;
+    }
+
+    private void unlockNights(NightLocks nightLocks, long stripes, long lockedAt) {
+        final long holdNanos = System.nanoTime() - lockedAt;
+        nightLocks.unlock(stripes);
+        reservationMetrics.recordLockHold(holdNanos);
+    }
+
+    private static List<LocalDate> getStayDates(LocalDate startDate, LocalDate endDate) {
+        final List<LocalDate> dates = new ArrayList<>();
+        for (LocalDate date = startDate; date.isBefore(endDate); date = date.plusDays(1)) {
+            dates.add(date);
+        }
+        return dates;
+    }
+
+    // The pool restores the isolation of the connection, the read only transaction is rolled back to end its snapshot
+    private static void closeExport(Connection connection, Statement statement, ResultSet resultSet) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+            if (connection != null) {
+                connection.rollback();
+                connection.close();
+            }
+        } catch (SQLException exception) {
+            logger.error("Unable to close a booking export", exception);
+        }
+    }
+
+    private static class RowExport implements BookingExport {
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final long version;
+        private BookingDetail nextRow;
+        private boolean closed;
+
+        RowExport(Connection connection, PreparedStatement statement, ResultSet resultSet, long version) {
+            this.connection = connection;
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.version = version;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextRow == null && !closed) {
+                try {
+                    if (resultSet.next()) {
+                        nextRow = toBookingDetail(resultSet);
+                    }
+                } catch (SQLException exception) {
+                    throw new IllegalStateException("Unable to read the booking records", exception);
+                }
+            }
+            return nextRow != null;
+        }
+
+        @Override
+        public BookingDetail next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final BookingDetail row = nextRow;
+            nextRow = null;
+            return row;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                closeExport(connection, statement, resultSet);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Transaction<T> {
+        T run(Connection connection) throws SQLException, ReservationException;
+    }
+}
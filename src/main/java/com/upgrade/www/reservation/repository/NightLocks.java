@@ -0,0 +1,60 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.models.common.DateRange;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks over the booked nights so only writes touching the same nights contend with each other.
+ * A night maps to the stripe `epochDay % STRIPES`, so consecutive nights land on consecutive stripes and any
+ * range shorter than the stripe count (the whole purchase window) never shares a stripe with itself.
+ * A set of stripes is held as a 64 bit mask and always acquired in ascending order, which keeps multi-night
+ * and multi-range (modify) acquisitions deadlock free.
+ */
+class NightLocks {
+
+    static final int STRIPES = Long.SIZE;
+    static final long ALL_STRIPES = -1L;
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    NightLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param dateRanges stay ranges touched by the write, end date exclusive
+     * @return mask of the stripes covering every night in the ranges
+     */
+    long stripesFor(DateRange... dateRanges) {
+        long mask = 0L;
+        for (DateRange dateRange : dateRanges) {
+            final long startDay = dateRange.getStartDate().toEpochDay();
+            final long endDay = dateRange.getEndDate().toEpochDay();
+            for (long day = startDay; day < endDay && mask != ALL_STRIPES; day++) {
+                mask |= 1L << Math.floorMod(day, STRIPES);
+            }
+        }
+        return mask;
+    }
+
+    void lock(long mask) {
+        long remaining = mask;
+        while (remaining != 0L) {
+            final int stripe = Long.numberOfTrailingZeros(remaining);
+            stripes[stripe].lock();
+            remaining &= remaining - 1;
+        }
+    }
+
+    void unlock(long mask) {
+        long remaining = mask;
+        while (remaining != 0L) {
+            final int stripe = Long.numberOfTrailingZeros(remaining);
+            stripes[stripe].unlock();
+            remaining &= remaining - 1;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.validators.BookableWindow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+/**
+ * Advances the {@link BookableWindow} at midnight of the campsite timezone and drops the nights which just became
+ * past from the cache and the campsite calendars, so both only hold the nights which can still change
+ */
+@Component
+public class PastNightEvictionScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PastNightEvictionScheduler.class);
+
+    private final BookableWindow bookableWindow;
+    private final BookingRepository bookingRepository;
+    private final BookingCache bookingCache;
+
+    @Autowired
+    public PastNightEvictionScheduler(BookableWindow bookableWindow, BookingRepository bookingRepository, BookingCache bookingCache) {
+        this.bookableWindow = bookableWindow;
+        this.bookingRepository = bookingRepository;
+        this.bookingCache = bookingCache;
+    }
+
+    @Scheduled(cron = "0 0 0 * * *", zone = "Pacific/Honolulu")
+    public void rollOver() {
+        // A reader after midnight may already have advanced the window, the nights are evicted either way
+        bookableWindow.roll();
+        final LocalDate today = bookableWindow.getToday();
+        bookingRepository.evictNightsBefore(today);
+        bookingCache.evictNightsBefore(today);
+        logger.info("Evicted the booked nights before {}", today);
+    }
+}
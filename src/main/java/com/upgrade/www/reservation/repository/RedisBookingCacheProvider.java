@@ -0,0 +1,210 @@
+package com.upgrade.www.reservation.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Booked nights in a Redis compatible cache shared by every instance. Each word of a campsite calendar is a bitmap key
+ * of 8 bytes whose bit offset i is the night with epoch day word * 64 + i, so a lookup fetches the handful of words
+ * covering the range with a single MGET. A burst of changes is sent as one pipeline of SETBIT commands, which are
+ * atomic on the server so instances updating nights of the same word never lose each other's bits.
+ * Keys expire a couple of days after their last night instead of being evicted, past nights are never looked up.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.cache.provider", havingValue = "redis")
+public class RedisBookingCacheProvider implements BookingCacheProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisBookingCacheProvider.class);
+
+    private static final byte[] MGET = "MGET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SETBIT = "SETBIT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PEXPIREAT = "PEXPIREAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BOOKED = {'1'};
+    private static final byte[] FREE = {'0'};
+    // Keys outlive their last night by this much so a lagging clock or timezone never drops a night still looked up
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.DAYS.toMillis(2);
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+    private final String keyPrefix;
+    private final BlockingQueue<RespConnection> idleConnections;
+
+    @Autowired
+    public RedisBookingCacheProvider(@Value("${reservation.cache.redis.host:localhost}") String host,
+                                     @Value("${reservation.cache.redis.port:6379}") int port,
+                                     @Value("${reservation.cache.redis.pool-size:8}") int poolSize,
+                                     @Value("${reservation.cache.redis.timeout-ms:1000}") int timeoutMillis,
+                                     @Value("${reservation.cache.redis.key-prefix:reservation:booked}") String keyPrefix) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.keyPrefix = keyPrefix;
+        this.idleConnections = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    @Override
+    public int[] getAvailableDays(int campsiteId, long startDay, long endDay) {
+        if (startDay >= endDay) {
+            return new int[0];
+        }
+        final int firstWord = (int) (startDay >>> EpochDayBitmap.WORD_SHIFT);
+        final int lastWord = (int) ((endDay - 1) >>> EpochDayBitmap.WORD_SHIFT);
+        final byte[][] command = new byte[lastWord - firstWord + 2][];
+        command[0] = MGET;
+        for (int word = firstWord; word <= lastWord; word++) {
+            command[word - firstWord + 1] = key(campsiteId, word);
+        }
+
+        final List<?> values;
+        try {
+            values = (List<?>) execute(connection -> {
+                connection.write(command);
+                connection.flush();
+                return connection.read();
+            });
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Unable to read availability from the cache", exception);
+        }
+        final long[] bookedWords = new long[values.size()];
+        for (int i = 0; i < bookedWords.length; i++) {
+            bookedWords[i] = decodeWord((byte[]) values.get(i));
+        }
+        return EpochDayBitmap.clearDays(bookedWords, firstWord, startDay, endDay);
+    }
+
+    /**
+     * Sends every change of the burst in one pipeline, retried once on a new connection since setting bits is idempotent.
+     * A burst which still fails is dropped and logged, the cache may miss it until the nights change again.
+     */
+    @Override
+    public void applyWords(Map<Integer, Map<Integer, long[]>> campsiteWordMasks) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                execute(connection -> {
+                    int commands = 0;
+                    for (Map.Entry<Integer, Map<Integer, long[]>> campsite : campsiteWordMasks.entrySet()) {
+                        for (Map.Entry<Integer, long[]> wordMasks : campsite.getValue().entrySet()) {
+                            commands += writeWord(connection, key(campsite.getKey(), wordMasks.getKey()), wordMasks.getKey(), wordMasks.getValue());
+                        }
+                    }
+                    connection.flush();
+                    for (int i = 0; i < commands; i++) {
+                        connection.read();
+                    }
+                    return null;
+                });
+                return;
+            } catch (IOException exception) {
+                if (attempt == 2) {
+                    logger.error("Unable to apply booking changes of {} campsites to the cache", campsiteWordMasks.size(), exception);
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    // Keys expire on their own once their nights are past
+    @Override
+    public void evictNightsBefore(long epochDay) {
+    }
+
+    @PreDestroy
+    public void close() {
+        RespConnection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    // Runs the exchange on an idle connection, a connection which failed is closed rather than reused
+    private Object execute(Exchange exchange) throws IOException {
+        RespConnection connection = idleConnections.poll();
+        if (connection == null) {
+            connection = new RespConnection(host, port, timeoutMillis);
+        }
+        final Object reply;
+        try {
+            reply = exchange.run(connection);
+        } catch (IOException | RuntimeException exception) {
+            closeQuietly(connection);
+            throw exception;
+        }
+        if (!idleConnections.offer(connection)) {
+            closeQuietly(connection);
+        }
+        return reply;
+    }
+
+    // Buffers one SETBIT per changed night of the word followed by the expiry of its key, returns the number of commands
+    private static int writeWord(RespConnection connection, byte[] key, int word, long[] masks) throws IOException {
+        int commands = 0;
+        for (int mask = 0; mask < 2; mask++) {
+            long bits = masks[mask];
+            while (bits != 0L) {
+                final int offset = Long.numberOfTrailingZeros(bits);
+                connection.write(SETBIT, key, ascii(offset), mask == 0 ? BOOKED : FREE);
+                bits &= bits - 1;
+                commands++;
+            }
+        }
+        final long lastNight = ((long) word << EpochDayBitmap.WORD_SHIFT) + Long.SIZE;
+        connection.write(PEXPIREAT, key, ascii(TimeUnit.DAYS.toMillis(lastNight) + EXPIRY_MARGIN_MILLIS));
+        return commands + 1;
+    }
+
+    /**
+     * Redis numbers bits from the most significant bit of the first byte, bit offset i is bit i of the word.
+     * A missing key or a short value has no booked nights in the missing bytes.
+     */
+    static long decodeWord(byte[] value) {
+        if (value == null) {
+            return 0L;
+        }
+        long word = 0L;
+        for (int i = 0; i < Math.min(value.length, Long.BYTES); i++) {
+            word |= (long) (Integer.reverse(value[i] & 0xff) >>> 24) << (i * Byte.SIZE);
+        }
+        return word;
+    }
+
+    private byte[] key(int campsiteId, int word) {
+        return (keyPrefix + ':' + campsiteId + ':' + word).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] ascii(long number) {
+        return Long.toString(number).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void closeQuietly(RespConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException exception) {
+            logger.debug("Unable to close a cache connection", exception);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Exchange {
+        Object run(RespConnection connection) throws IOException;
+    }
+}
@@ -0,0 +1,128 @@
+package com.upgrade.www.reservation.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection speaking the Redis serialization protocol (RESP). Commands are buffered by {@link #write} and sent
+ * together by {@link #flush} so a batch of commands costs a single round trip, their replies are then read in order.
+ * Not thread safe, a connection is used by one thread at a time and dropped after any error.
+ */
+class RespConnection implements Closeable {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+
+    RespConnection(String host, int port, int timeoutMillis) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            this.input = new BufferedInputStream(socket.getInputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+        } catch (IOException exception) {
+            socket.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Buffers a command as an array of bulk strings
+     */
+    void write(byte[]... arguments) throws IOException {
+        output.write('*');
+        writeNumber(arguments.length);
+        for (byte[] argument : arguments) {
+            output.write('$');
+            writeNumber(argument.length);
+            output.write(argument);
+            output.write(CRLF);
+        }
+    }
+
+    void flush() throws IOException {
+        output.flush();
+    }
+
+    /**
+     * Reads the next reply
+     * @return String for a simple string, Long for an integer, byte[] for a bulk string, List for an array, null for a null reply
+     * @throws IOException on an error reply, the connection should not be used any further
+     */
+    Object read() throws IOException {
+        final int type = input.read();
+        switch (type) {
+            case '+':
+                return readLine();
+            case '-':
+                throw new IOException("Cache error reply " + readLine());
+            case ':':
+                return Long.parseLong(readLine());
+            case '$': {
+                final int length = Integer.parseInt(readLine());
+                if (length < 0) {
+                    return null;
+                }
+                final byte[] value = input.readNBytes(length);
+                if (value.length < length || input.read() != '\r' || input.read() != '\n') {
+                    throw new EOFException("Truncated cache reply");
+                }
+                return value;
+            }
+            case '*': {
+                final int length = Integer.parseInt(readLine());
+                if (length < 0) {
+                    return null;
+                }
+                final List<Object> values = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    values.add(read());
+                }
+                return values;
+            }
+            case -1:
+                throw new EOFException("Cache connection closed");
+            default:
+                throw new IOException("Unexpected cache reply type " + (char) type);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void writeNumber(int number) throws IOException {
+        output.write(Integer.toString(number).getBytes(StandardCharsets.US_ASCII));
+        output.write(CRLF);
+    }
+
+    private String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int current;
+        while ((current = input.read()) != '\r') {
+            if (current == -1) {
+                throw new EOFException("Cache connection closed");
+            }
+            line.append((char) current);
+        }
+        if (input.read() != '\n') {
+            throw new IOException("Malformed cache reply");
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,15 @@
+package com.upgrade.www.reservation.repository.id;
+
+/**
+ * Source of the ids of new booking records.
+ * A booking id together with the guest email is the credential to read, modify or cancel a reservation,
+ * so ids must be unique and must not be guessable from other ids.
+ */
+public interface BookingIdGenerator {
+
+    /**
+     * Called while the commit holds its night locks so it must never block
+     * @return id of a new booking record
+     */
+    String nextId();
+}
@@ -0,0 +1,109 @@
+package com.upgrade.www.reservation.repository.id;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time ordered booking ids made of a 64 bit snowflake followed by a 60 bit tag, as 25 Crockford base32 characters.
+ * The snowflake packs the milliseconds since 2020 (41 bits), the node id (10 bits) and a sequence (12 bits) so ids
+ * of one node sort in commit order and ids of different nodes never collide. It is taken with a single CAS, a burst
+ * of more than 4096 ids in a millisecond carries into the next millisecond instead of waiting for the clock.
+ * The tag is an HMAC of the snowflake under a key drawn once at startup, which makes the id unguessable
+ * without touching the shared {@link SecureRandom} for every booking.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.booking-id.generator", havingValue = "snowflake", matchIfMissing = true)
+public class SnowflakeBookingIdGenerator implements BookingIdGenerator {
+
+    // 2020-01-01T00:00:00Z, 41 bits of milliseconds last until 2089
+    static final long EPOCH_MILLIS = 1577836800000L;
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    static final int ID_LENGTH = 25;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TAG_BITS = 60;
+    private static final int BITS_PER_CHAR = 5;
+    private static final int SNOWFLAKE_CHARS = 13;
+    private static final char[] CROCKFORD_BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final String TAG_ALGORITHM = "HmacSHA256";
+
+    private final long nodeId;
+    private final Clock clock;
+    // Milliseconds since the epoch shifted over the sequence of the last snowflake
+    private final AtomicLong lastTimestamp = new AtomicLong();
+    private final ThreadLocal<Mac> tagMacs;
+
+    @Autowired
+    public SnowflakeBookingIdGenerator(@Value("${reservation.node-id:0}") long nodeId) {
+        this(nodeId, Clock.systemUTC());
+    }
+
+    SnowflakeBookingIdGenerator(long nodeId, Clock clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id should be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeId = nodeId;
+        this.clock = clock;
+
+        // A new key every start also keeps ids unique if the clock is behind the snowflakes issued before a restart
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        final SecretKeySpec tagKey = new SecretKeySpec(key, TAG_ALGORITHM);
+        this.tagMacs = ThreadLocal.withInitial(() -> {
+            try {
+                final Mac mac = Mac.getInstance(TAG_ALGORITHM);
+                mac.init(tagKey);
+                return mac;
+            } catch (GeneralSecurityException exception) {
+                throw new IllegalStateException("Unable to create the booking id tag", exception);
+            }
+        });
+    }
+
+    @Override
+    public String nextId() {
+        final long snowflake = nextSnowflake();
+        final char[] id = new char[ID_LENGTH];
+        encode(snowflake, Long.SIZE, id, 0);
+        encode(tag(snowflake), TAG_BITS, id, SNOWFLAKE_CHARS);
+        return new String(id);
+    }
+
+    long nextSnowflake() {
+        final long now = (clock.millis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            final long last = lastTimestamp.get();
+            // Same millisecond or a clock which stepped back takes the next sequence, which can carry into the next millisecond
+            final long next = now > last ? now : last + 1;
+            if (lastTimestamp.compareAndSet(last, next)) {
+                return (next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | nodeId << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    private long tag(long snowflake) {
+        final byte[] digest = tagMacs.get().doFinal(ByteBuffer.allocate(Long.BYTES).putLong(snowflake).array());
+        return ByteBuffer.wrap(digest).getLong() >>> (Long.SIZE - TAG_BITS);
+    }
+
+    // Writes the low `bits` bits of the value most significant first, so ids of the same length sort like their snowflakes
+    private static void encode(long value, int bits, char[] id, int offset) {
+        long remaining = value;
+        for (int i = (bits + BITS_PER_CHAR - 1) / BITS_PER_CHAR - 1; i >= 0; i--) {
+            id[offset + i] = CROCKFORD_BASE32[(int) (remaining & 31)];
+            remaining >>>= BITS_PER_CHAR;
+        }
+    }
+}
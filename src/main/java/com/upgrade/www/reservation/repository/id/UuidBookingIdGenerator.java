@@ -0,0 +1,19 @@
+package com.upgrade.www.reservation.repository.id;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Random UUID booking ids, every id draws from the shared {@link java.security.SecureRandom}
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.booking-id.generator", havingValue = "uuid")
+public class UuidBookingIdGenerator implements BookingIdGenerator {
+
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
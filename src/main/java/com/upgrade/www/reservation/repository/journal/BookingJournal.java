@@ -0,0 +1,44 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Write ahead log of booking changes, each entry holds the new state of every booking changed by one commit.
+ * Entries are appended while the commit still holds its night locks so conflicting commits are logged in commit order,
+ * callers then wait on the returned future after releasing the locks.
+ * The log is made of numbered segments so the part covered by a {@link BookingSnapshotStore} snapshot can be dropped.
+ */
+public interface BookingJournal {
+
+    /**
+     * Encodes the current state of the bookings and queues it to be written
+     * @param bookings bookings changed by the commit
+     * @return future completed once the entry is durable on disk. Once an entry fails every entry appended after it
+     * fails too, so the log never skips a commit the later ones may depend on
+     */
+    CompletableFuture<Void> append(List<BookingDetail> bookings);
+
+    /**
+     * Reads every durable entry from the given segment on in the order it was committed
+     * @param fromSegment first segment to replay, earlier segments are covered by a snapshot
+     * @param entryConsumer receives the bookings of each entry
+     */
+    void replay(long fromSegment, Consumer<List<BookingDetail>> entryConsumer) throws IOException;
+
+    /**
+     * Starts a new segment, every entry appended before the call stays in the earlier segments.
+     * Must be called while no commit is in progress.
+     * @return future of the new segment number, completed once the new segment is in use
+     */
+    CompletableFuture<Long> rollSegment();
+
+    /**
+     * Drops the segments before the given one once a snapshot covers them
+     */
+    void deleteSegmentsBefore(long segment) throws IOException;
+}
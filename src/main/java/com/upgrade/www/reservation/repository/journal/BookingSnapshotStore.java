@@ -0,0 +1,34 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Compact checkpoint of every booking record and the booked night calendar of each campsite,
+ * so a restart only replays the journal segments written after the latest snapshot.
+ */
+public interface BookingSnapshotStore {
+
+    /**
+     * Receives the booked nights of a campsite packed 64 nights to a word,
+     * bit i of words[k] is set when the night with epoch day (firstWord + k) * 64 + i is booked
+     */
+    interface BookedNightsConsumer {
+        void accept(int campsiteId, int firstWord, long[] words);
+    }
+
+    /**
+     * Loads the latest snapshot
+     * @return first journal segment not covered by the snapshot, 0 when there is no snapshot
+     */
+    long load(Consumer<BookingDetail> recordConsumer, BookedNightsConsumer bookedNightsConsumer) throws IOException;
+
+    /**
+     * Writes a snapshot of the records which covers every journal segment before the given one
+     * and removes older snapshots once it is durable
+     */
+    void write(long segment, List<BookingDetail> records) throws IOException;
+}
@@ -0,0 +1,283 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append only booking log written through a {@link FileChannel}.
+ * A single flusher thread drains every entry queued since its last flush, writes them with one gathering write
+ * and makes them durable with one fsync (group commit), so concurrent commits share the cost of a disk flush.
+ * The log is split in numbered segment files so the segments covered by a snapshot can be deleted.
+ * Each segment starts with a magic number and format version, see {@link JournalEntryCodec} for the entry layout.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.journal.enabled", havingValue = "true")
+public class FileBookingJournal implements BookingJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileBookingJournal.class);
+
+    static final String SEGMENT_PREFIX = "bookings-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final int MAGIC = 0x424B4C47; // "BKLG"
+    // Version 2 logs the version of every booking
+    static final short VERSION = 2;
+    static final int FILE_HEADER_BYTES = Integer.BYTES + Short.BYTES;
+
+    // Upper bound on entries written by a single group commit
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private final Path directory;
+    private final ConcurrentLinkedQueue<PendingEntry> pendingEntries = new ConcurrentLinkedQueue<>();
+    private final Thread flusher;
+    // Only used by the flusher thread once started
+    private FileChannel channel;
+    // Segment new entries are queued for, only changed while commits are quiesced
+    private volatile long currentSegment;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    @Autowired
+    public FileBookingJournal(@Value("${reservation.journal.directory:data}") String directory) throws IOException {
+        this.directory = Files.createDirectories(Paths.get(directory));
+        final List<Long> segments = listSegments();
+        this.currentSegment = segments.isEmpty() ? 0L : segments.get(segments.size() - 1);
+        this.channel = openSegment(currentSegment);
+        this.flusher = new Thread(this::flushLoop, "booking-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public CompletableFuture<Void> append(List<BookingDetail> bookings) {
+        final IOException currentFailure = failure;
+        if (currentFailure != null) {
+            return CompletableFuture.failedFuture(currentFailure);
+        }
+        return enqueue(new PendingEntry(JournalEntryCodec.encode(bookings), -1L));
+    }
+
+    /**
+     * Replays every valid entry of the segments from the given one, a torn entry at the tail of a segment left by a crash
+     * is truncated so appends continue after the last durable entry. Must be called before any append.
+     */
+    @Override
+    public void replay(long fromSegment, Consumer<List<BookingDetail>> entryConsumer) throws IOException {
+        int entries = 0;
+        for (long segment : listSegments()) {
+            if (segment < fromSegment) {
+                continue;
+            }
+            try (FileChannel segmentChannel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                entries += replaySegment(segmentChannel, entryConsumer);
+            }
+        }
+        channel.position(channel.size());
+        logger.info("Replayed {} booking journal entries from segment {}", entries, fromSegment);
+    }
+
+    @Override
+    public CompletableFuture<Long> rollSegment() {
+        final long nextSegment = currentSegment + 1;
+        currentSegment = nextSegment;
+        return enqueue(new PendingEntry(null, nextSegment)).thenApply(rolled -> nextSegment);
+    }
+
+    @Override
+    public void deleteSegmentsBefore(long segment) throws IOException {
+        for (long existingSegment : listSegments()) {
+            if (existingSegment < segment) {
+                Files.deleteIfExists(segmentPath(existingSegment));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private CompletableFuture<Void> enqueue(PendingEntry entry) {
+        pendingEntries.add(entry);
+        LockSupport.unpark(flusher);
+        return entry.durable;
+    }
+
+    private int replaySegment(FileChannel segmentChannel, Consumer<List<BookingDetail>> entryConsumer) throws IOException {
+        final long size = segmentChannel.size();
+        final MappedByteBuffer buffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < FILE_HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a booking journal file");
+        }
+        final short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported booking journal version " + version);
+        }
+
+        int entries = 0;
+        List<BookingDetail> bookings;
+        while ((bookings = JournalEntryCodec.decode(buffer)) != null) {
+            entryConsumer.accept(bookings);
+            entries++;
+        }
+
+        if (buffer.hasRemaining()) {
+            logger.warn("Truncating {} bytes of a torn booking journal entry", buffer.remaining());
+            segmentChannel.truncate(buffer.position());
+            segmentChannel.force(true);
+        }
+        return entries;
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        final FileChannel segmentChannel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // A crash while a segment is created leaves it empty or with a torn header, it holds no entry yet so it is started over
+        if (segmentChannel.size() < FILE_HEADER_BYTES) {
+            if (segmentChannel.size() > 0) {
+                logger.warn("Rewriting the torn header of booking journal segment {}", segment);
+                segmentChannel.truncate(0);
+            }
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putShort(VERSION).flip();
+            while (header.hasRemaining()) {
+                segmentChannel.write(header);
+            }
+            segmentChannel.force(true);
+        }
+        segmentChannel.position(segmentChannel.size());
+        return segmentChannel;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private void flushLoop() {
+        final List<PendingEntry> batch = new ArrayList<>();
+        while (running || !pendingEntries.isEmpty()) {
+            PendingEntry entry;
+            while (batch.size() < MAX_BATCH_SIZE && (entry = pendingEntries.poll()) != null) {
+                if (entry.isRoll()) {
+                    // Everything queued before the roll belongs to the old segment
+                    flush(batch);
+                    batch.clear();
+                    roll(entry);
+                } else {
+                    batch.add(entry);
+                }
+            }
+            if (batch.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void roll(PendingEntry rollEntry) {
+        if (failure == null) {
+            try {
+                final FileChannel nextChannel = openSegment(rollEntry.segment);
+                channel.close();
+                channel = nextChannel;
+            } catch (IOException exception) {
+                logger.error("Unable to roll the booking journal, rejecting further bookings", exception);
+                failure = exception;
+            }
+        }
+        complete(rollEntry);
+    }
+
+    private void flush(List<PendingEntry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (failure == null) {
+            try {
+                final ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                long remaining = 0;
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = batch.get(i).entry;
+                    remaining += buffers[i].remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                channel.force(false);
+            } catch (IOException exception) {
+                // The log can no longer be trusted to be in commit order, fail every write from here on
+                logger.error("Unable to write the booking journal, rejecting further bookings", exception);
+                failure = exception;
+            }
+        }
+
+        for (PendingEntry pendingEntry : batch) {
+            complete(pendingEntry);
+        }
+    }
+
+    private void complete(PendingEntry pendingEntry) {
+        if (failure == null) {
+            pendingEntry.durable.complete(null);
+        } else {
+            pendingEntry.durable.completeExceptionally(failure);
+        }
+    }
+
+    private static class PendingEntry {
+        private final ByteBuffer entry;
+        // Segment to roll over to, the entry carries no bookings when set
+        private final long segment;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        PendingEntry(ByteBuffer entry, long segment) {
+            this.entry = entry;
+            this.segment = segment;
+        }
+
+        boolean isRoll() {
+            return segment >= 0;
+        }
+    }
+}
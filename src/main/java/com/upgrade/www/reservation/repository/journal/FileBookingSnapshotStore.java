@@ -0,0 +1,245 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshots written to memory mapped files next to the journal segments, in the binary layout
+ * <pre>
+ * int    magic, short format version, long first journal segment not covered, int record count
+ * per record: short id length, id UTF-8, int campsite id, short email length, email UTF-8,
+ *             int start epoch day, int end epoch day, byte status ordinal, long version
+ * int    campsite count
+ * per campsite: int campsite id, int first word, int word count, long booked night words
+ * int    CRC32 of everything before it
+ * </pre>
+ * A snapshot is written to a temporary file and atomically renamed once durable, so a crash never leaves a partial snapshot.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.journal.enabled", havingValue = "true")
+public class FileBookingSnapshotStore implements BookingSnapshotStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileBookingSnapshotStore.class);
+
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+    static final String SNAPSHOT_SUFFIX = ".snap";
+    static final int MAGIC = 0x424B534E; // "BKSN"
+    // Version 2 stores the version of every record
+    static final short VERSION = 2;
+
+    private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int FIXED_RECORD_BYTES = 2 * Short.BYTES + 3 * Integer.BYTES + Byte.BYTES + Long.BYTES;
+    private static final int CAMPSITE_HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int WORD_SHIFT = 6;
+
+    private final Path directory;
+
+    @Autowired
+    public FileBookingSnapshotStore(@Value("${reservation.journal.directory:data}") String directory) throws IOException {
+        this.directory = Files.createDirectories(Paths.get(directory));
+    }
+
+    @Override
+    public long load(Consumer<BookingDetail> recordConsumer, BookedNightsConsumer bookedNightsConsumer) throws IOException {
+        final List<Long> snapshots = listSnapshots();
+        if (snapshots.isEmpty()) {
+            return 0L;
+        }
+
+        final long latestSnapshot = snapshots.get(snapshots.size() - 1);
+        try (FileChannel channel = FileChannel.open(snapshotPath(latestSnapshot), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            verifyChecksum(buffer);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a booking snapshot file");
+            }
+            final short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported booking snapshot version " + version);
+            }
+            final long segment = buffer.getLong();
+
+            final BookingStatus[] statuses = BookingStatus.values();
+            final int recordCount = buffer.getInt();
+            for (int i = 0; i < recordCount; i++) {
+                final String id = readString(buffer);
+                final int campsiteId = buffer.getInt();
+                final String email = readString(buffer);
+                final LocalDate startDate = LocalDate.ofEpochDay(buffer.getInt());
+                final LocalDate endDate = LocalDate.ofEpochDay(buffer.getInt());
+                final BookingStatus status = statuses[buffer.get()];
+                final BookingDetail record = new BookingDetail(id, campsiteId, email, new DateRange(startDate, endDate), status);
+                record.setVersion(buffer.getLong());
+                recordConsumer.accept(record);
+            }
+
+            final int campsiteCount = buffer.getInt();
+            for (int i = 0; i < campsiteCount; i++) {
+                final int campsiteId = buffer.getInt();
+                final int firstWord = buffer.getInt();
+                final long[] words = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(words);
+                buffer.position(buffer.position() + words.length * Long.BYTES);
+                bookedNightsConsumer.accept(campsiteId, firstWord, words);
+            }
+
+            logger.info("Loaded booking snapshot of {} records covering journal segments before {}", recordCount, segment);
+            return segment;
+        }
+    }
+
+    @Override
+    public void write(long segment, List<BookingDetail> records) throws IOException {
+        final byte[][] ids = new byte[records.size()][];
+        final byte[][] emails = new byte[records.size()][];
+        long size = HEADER_BYTES + Integer.BYTES + Integer.BYTES;
+        for (int i = 0; i < records.size(); i++) {
+            ids[i] = records.get(i).getId().getBytes(StandardCharsets.UTF_8);
+            emails[i] = records.get(i).getEmail().getBytes(StandardCharsets.UTF_8);
+            size += FIXED_RECORD_BYTES + ids[i].length + emails[i].length;
+        }
+        final Map<Integer, BookedNights> calendars = buildCalendars(records);
+        for (BookedNights bookedNights : calendars.values()) {
+            size += CAMPSITE_HEADER_BYTES + (long) bookedNights.words.length * Long.BYTES;
+        }
+
+        final Path temporaryPath = snapshotPath(segment).resolveSibling(snapshotPath(segment).getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putShort(VERSION).putLong(segment).putInt(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                final BookingDetail record = records.get(i);
+                buffer.putShort((short) ids[i].length).put(ids[i])
+                        .putInt(record.getCampsiteId())
+                        .putShort((short) emails[i].length).put(emails[i])
+                        .putInt((int) record.getStartDate().toEpochDay())
+                        .putInt((int) record.getEndDate().toEpochDay())
+                        .put((byte) record.getStatus().ordinal())
+                        .putLong(record.getVersion());
+            }
+
+            buffer.putInt(calendars.size());
+            for (Map.Entry<Integer, BookedNights> calendar : calendars.entrySet()) {
+                final BookedNights bookedNights = calendar.getValue();
+                buffer.putInt(calendar.getKey()).putInt(bookedNights.firstWord).putInt(bookedNights.words.length);
+                buffer.asLongBuffer().put(bookedNights.words);
+                buffer.position(buffer.position() + bookedNights.words.length * Long.BYTES);
+            }
+
+            final CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().flip());
+            buffer.putInt((int) crc.getValue());
+            buffer.force();
+        }
+
+        Files.move(temporaryPath, snapshotPath(segment), StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        }
+
+        for (long snapshot : listSnapshots()) {
+            if (snapshot < segment) {
+                Files.deleteIfExists(snapshotPath(snapshot));
+            }
+        }
+        logger.info("Wrote booking snapshot of {} records covering journal segments before {}", records.size(), segment);
+    }
+
+    // Packs the nights of the confirmed bookings of each campsite into words spanning its first to last booked night
+    private Map<Integer, BookedNights> buildCalendars(List<BookingDetail> records) {
+        final Map<Integer, long[]> dayBounds = new TreeMap<>();
+        for (BookingDetail record : records) {
+            if (record.getStatus() == BookingStatus.CONFIRMED) {
+                final long[] bounds = dayBounds.computeIfAbsent(record.getCampsiteId(), id -> new long[]{Long.MAX_VALUE, Long.MIN_VALUE});
+                bounds[0] = Math.min(bounds[0], record.getStartDate().toEpochDay());
+                bounds[1] = Math.max(bounds[1], record.getEndDate().toEpochDay());
+            }
+        }
+
+        final Map<Integer, BookedNights> calendars = new TreeMap<>();
+        dayBounds.forEach((campsiteId, bounds) -> {
+            final int firstWord = (int) (bounds[0] >>> WORD_SHIFT);
+            final int lastWord = (int) ((bounds[1] - 1) >>> WORD_SHIFT);
+            calendars.put(campsiteId, new BookedNights(firstWord, new long[lastWord - firstWord + 1]));
+        });
+        for (BookingDetail record : records) {
+            if (record.getStatus() == BookingStatus.CONFIRMED) {
+                final BookedNights bookedNights = calendars.get(record.getCampsiteId());
+                for (long day = record.getStartDate().toEpochDay(); day < record.getEndDate().toEpochDay(); day++) {
+                    bookedNights.words[(int) (day >>> WORD_SHIFT) - bookedNights.firstWord] |= 1L << day;
+                }
+            }
+        }
+        return calendars;
+    }
+
+    private static void verifyChecksum(MappedByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_BYTES + Integer.BYTES) {
+            throw new IOException("Booking snapshot is truncated");
+        }
+        final ByteBuffer body = buffer.duplicate().limit(buffer.limit() - Integer.BYTES);
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - Integer.BYTES)) {
+            throw new IOException("Booking snapshot checksum does not match");
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<Long> listSnapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path snapshotPath(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+    }
+
+    private static class BookedNights {
+        private final int firstWord;
+        private final long[] words;
+
+        BookedNights(int firstWord, long[] words) {
+            this.firstWord = firstWord;
+            this.words = words;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of a journal entry
+ * <pre>
+ * int    payload length
+ * int    CRC32 of the payload, detects entries torn by a crash
+ * int    number of bookings
+ * per booking: UTF id, int campsite id, UTF email, long start epoch day, long end epoch day, UTF status, long version
+ * </pre>
+ */
+public final class JournalEntryCodec {
+
+    public static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private JournalEntryCodec() {
+    }
+
+    /**
+     * @return framed entry ready to be written, positioned at its start
+     */
+    public static ByteBuffer encode(List<BookingDetail> bookings) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * bookings.size() + FRAME_HEADER_BYTES);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeLong(0L); // Frame header placeholder
+            output.writeInt(bookings.size());
+            for (BookingDetail booking : bookings) {
+                output.writeUTF(booking.getId());
+                output.writeInt(booking.getCampsiteId());
+                output.writeUTF(booking.getEmail());
+                output.writeLong(booking.getStartDate().toEpochDay());
+                output.writeLong(booking.getEndDate().toEpochDay());
+                output.writeUTF(booking.getStatus().name());
+                output.writeLong(booking.getVersion());
+            }
+        } catch (IOException exception) {
+            // Writes to an in memory stream can not fail
+            throw new UncheckedIOException(exception);
+        }
+
+        final byte[] entry = bytes.toByteArray();
+        final int payloadLength = entry.length - FRAME_HEADER_BYTES;
+        final CRC32 crc = new CRC32();
+        crc.update(entry, FRAME_HEADER_BYTES, payloadLength);
+        return ByteBuffer.wrap(entry)
+                .putInt(0, payloadLength)
+                .putInt(Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * Reads the next entry from the buffer
+     * @return bookings of the entry or null if the rest of the buffer is not a complete and valid entry,
+     * in which case the buffer position is left at the start of the torn entry
+     */
+    public static List<BookingDetail> decode(ByteBuffer buffer) throws IOException {
+        final int entryStart = buffer.position();
+        if (buffer.remaining() < FRAME_HEADER_BYTES) {
+            return null;
+        }
+        final int payloadLength = buffer.getInt();
+        final int expectedCrc = buffer.getInt();
+        if (payloadLength < 0 || payloadLength > buffer.remaining()) {
+            buffer.position(entryStart);
+            return null;
+        }
+
+        final byte[] payload = new byte[payloadLength];
+        buffer.get(payload);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            buffer.position(entryStart);
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final int count = input.readInt();
+            final List<BookingDetail> bookings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final String id = input.readUTF();
+                final int campsiteId = input.readInt();
+                final String email = input.readUTF();
+                final LocalDate startDate = LocalDate.ofEpochDay(input.readLong());
+                final LocalDate endDate = LocalDate.ofEpochDay(input.readLong());
+                final BookingStatus status = BookingStatus.valueOf(input.readUTF());
+                final BookingDetail booking = new BookingDetail(id, campsiteId, email, new DateRange(startDate, endDate), status);
+                booking.setVersion(input.readLong());
+                bookings.add(booking);
+            }
+            return bookings;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Journal used when durability is disabled, bookings only live in memory
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.journal.enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpBookingJournal implements BookingJournal {
+
+    private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+    private static final CompletableFuture<Long> FIRST_SEGMENT = CompletableFuture.completedFuture(0L);
+
+    @Override
+    public CompletableFuture<Void> append(List<BookingDetail> bookings) {
+        return DURABLE;
+    }
+
+    @Override
+    public void replay(long fromSegment, Consumer<List<BookingDetail>> entryConsumer) {
+        // Nothing is persisted so there is nothing to replay
+    }
+
+    @Override
+    public CompletableFuture<Long> rollSegment() {
+        return FIRST_SEGMENT;
+    }
+
+    @Override
+    public void deleteSegmentsBefore(long segment) {
+        // Nothing is persisted so there is nothing to delete
+    }
+}
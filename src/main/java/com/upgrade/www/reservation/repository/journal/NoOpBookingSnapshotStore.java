@@ -0,0 +1,26 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Snapshot store used when durability is disabled, bookings only live in memory
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.journal.enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpBookingSnapshotStore implements BookingSnapshotStore {
+
+    @Override
+    public long load(Consumer<BookingDetail> recordConsumer, BookedNightsConsumer bookedNightsConsumer) {
+        return 0L;
+    }
+
+    @Override
+    public void write(long segment, List<BookingDetail> records) {
+        // Nothing is persisted so there is nothing to write
+    }
+}
@@ -0,0 +1,240 @@
+package com.upgrade.www.reservation.repository.replication;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.BookingExport;
+import com.upgrade.www.reservation.repository.BookingRepository;
+import com.upgrade.www.reservation.repository.InMemoryBookingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository of a replication follower. Reads are served from the local replica kept up to date by the
+ * {@link ReplicationFollower}, writes are forwarded to the leader which commits them.
+ * A write returns once its change has been replicated back, so the guest reads their own write from this instance.
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(name = "reservation.replication.role", havingValue = "follower")
+public class FollowerBookingRepository implements BookingRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(FollowerBookingRepository.class);
+
+    private final long writeTimeoutMillis;
+    private final InMemoryBookingRepository replica;
+    private final BookingChangeApplier bookingChangeApplier;
+    private final LeaderClient leaderClient;
+
+    @Autowired
+    public FollowerBookingRepository(@Value("${reservation.replication.leader-host:localhost}") String leaderHost,
+                                     @Value("${reservation.replication.leader-port:7070}") int leaderPort,
+                                     @Value("${reservation.replication.write-timeout-ms:5000}") int writeTimeoutMillis,
+                                     @Value("${reservation.replication.secret:}") String secret,
+                                     InMemoryBookingRepository replica, BookingChangeApplier bookingChangeApplier) {
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.replica = replica;
+        this.bookingChangeApplier = bookingChangeApplier;
+        this.leaderClient = new LeaderClient(leaderHost, leaderPort, writeTimeoutMillis, ReplicationProtocol.requireSecret(secret));
+    }
+
+    @PreDestroy
+    public void close() {
+        leaderClient.close();
+    }
+
+    @Override
+    public BookingDetail completeBooking(int campsiteId, String email, DateRange dateRange) throws ReservationException {
+        return await(completeBookingAsync(campsiteId, email, dateRange));
+    }
+
+    @Override
+    public CompletableFuture<BookingDetail> completeBookingAsync(int campsiteId, String email, DateRange dateRange) {
+        return leaderClient.send(ReplicationProtocol.COMPLETE_BOOKING, output -> {
+            output.writeInt(campsiteId);
+            output.writeUTF(email);
+            ReplicationProtocol.writeDateRange(output, dateRange);
+        }, ReplicationProtocol::readBooking).thenCompose(this::whenReplicated);
+    }
+
+    @Override
+    public BookingDetail modifyBooking(BookingDetail existingBooking, DateRange newDateRange) throws ReservationException {
+        return await(modifyBookingAsync(existingBooking, newDateRange));
+    }
+
+    @Override
+    public CompletableFuture<BookingDetail> modifyBookingAsync(BookingDetail existingBooking, DateRange newDateRange) {
+        return leaderClient.send(ReplicationProtocol.MODIFY_BOOKING, output -> {
+            output.writeUTF(existingBooking.getId());
+            output.writeUTF(existingBooking.getEmail());
+            ReplicationProtocol.writeDateRange(output, newDateRange);
+        }, ReplicationProtocol::readBooking).thenCompose(this::whenReplicated);
+    }
+
+    @Override
+    public BookingDetail cancelBooking(BookingDetail existingBooking) throws ReservationException {
+        return await(cancelBookingAsync(existingBooking));
+    }
+
+    @Override
+    public CompletableFuture<BookingDetail> cancelBookingAsync(BookingDetail existingBooking) {
+        return forwardBooking(ReplicationProtocol.CANCEL_BOOKING, existingBooking);
+    }
+
+    @Override
+    public BookingDetail holdBooking(int campsiteId, String email, DateRange dateRange, long ttlMillis) throws ReservationException {
+        return await(leaderClient.send(ReplicationProtocol.HOLD_BOOKING, output -> {
+            output.writeInt(campsiteId);
+            output.writeUTF(email);
+            ReplicationProtocol.writeDateRange(output, dateRange);
+            output.writeLong(ttlMillis);
+        }, ReplicationProtocol::readBooking).thenCompose(this::whenReplicated));
+    }
+
+    @Override
+    public BookingDetail confirmHold(BookingDetail heldBooking) throws ReservationException {
+        return await(confirmHoldAsync(heldBooking));
+    }
+
+    @Override
+    public CompletableFuture<BookingDetail> confirmHoldAsync(BookingDetail heldBooking) {
+        return forwardBooking(ReplicationProtocol.CONFIRM_HOLD, heldBooking);
+    }
+
+    @Override
+    public BookingDetail releaseHold(BookingDetail heldBooking) {
+        try {
+            return await(forwardBooking(ReplicationProtocol.RELEASE_HOLD, heldBooking));
+        } catch (ReservationException exception) {
+            logger.warn("Unable to release the hold {} on the leader", heldBooking.getId());
+            return heldBooking;
+        }
+    }
+
+    @Override
+    public List<BatchBooking> completeBookings(List<BatchBooking> batch) {
+        return completeBookingsAsync(batch).join();
+    }
+
+    /**
+     * @return completes with the batch once replicated, items are rejected when the leader can not be reached
+     */
+    @Override
+    public CompletableFuture<List<BatchBooking>> completeBookingsAsync(List<BatchBooking> batch) {
+        final List<BatchBooking> pendingItems = new ArrayList<>();
+        batch.stream().filter(BatchBooking::isPending).forEach(pendingItems::add);
+        if (pendingItems.isEmpty()) {
+            return CompletableFuture.completedFuture(batch);
+        }
+
+        return leaderClient.send(ReplicationProtocol.COMPLETE_BOOKINGS, output -> {
+            output.writeInt(pendingItems.size());
+            for (BatchBooking item : pendingItems) {
+                output.writeInt(item.getCampsiteId());
+                output.writeUTF(item.getEmail());
+                ReplicationProtocol.writeDateRange(output, item.getDateRange());
+            }
+        }, input -> readBatchReply(input, pendingItems)).thenCompose(version -> awaitReplica(version)).handle((ignored, failure) -> {
+            if (failure != null) {
+                pendingItems.stream().filter(BatchBooking::isPending).forEach(item -> item.reject("Unable to save the booking please try again"));
+            }
+            return batch;
+        });
+    }
+
+    // Checkpoints of the replica only cover its own journal, the leader keeps the durable copy
+    @Override
+    public void checkpoint() throws IOException {
+        replica.checkpoint();
+    }
+
+    @Override
+    public void evictNightsBefore(LocalDate day) {
+        replica.evictNightsBefore(day);
+    }
+
+    @Override
+    public BookingDetail getBookingDetails(String bookingId, String email) {
+        return replica.getBookingDetails(bookingId, email);
+    }
+
+    @Override
+    public List<BookingDetail> getGuestBookings(String email) {
+        return replica.getGuestBookings(email);
+    }
+
+    // Versions are the leader's, so an export of one follower resumes on any other
+    @Override
+    public BookingExport exportBookings(String afterBookingId, long updatedSince) {
+        return replica.exportBookings(afterBookingId, updatedSince);
+    }
+
+    private CompletableFuture<BookingDetail> forwardBooking(byte operation, BookingDetail booking) {
+        return leaderClient.send(operation, output -> {
+            output.writeUTF(booking.getId());
+            output.writeUTF(booking.getEmail());
+        }, ReplicationProtocol::readBooking).thenCompose(this::whenReplicated);
+    }
+
+    // Completes the items with the bookings of the leader and returns the highest version among them
+    private static long readBatchReply(DataInputStream input, List<BatchBooking> pendingItems) throws IOException {
+        final int count = input.readInt();
+        long version = 0L;
+        for (int i = 0; i < count; i++) {
+            if (input.readByte() == ReplicationProtocol.OK) {
+                final BookingDetail booking = ReplicationProtocol.readBooking(input);
+                pendingItems.get(i).complete(booking);
+                version = Math.max(version, booking.getVersion());
+            } else {
+                pendingItems.get(i).reject(input.readUTF());
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Waits for the change of the write to reach the replica and returns the replicated record. Past the write timeout
+     * the booking of the leader is returned as it is, the write itself is committed.
+     */
+    private CompletableFuture<BookingDetail> whenReplicated(BookingDetail leaderBooking) {
+        return awaitReplica(leaderBooking.getVersion()).handle((ignored, failure) -> {
+            final BookingDetail replicatedBooking = replica.getBookingDetails(leaderBooking.getId(), leaderBooking.getEmail());
+            return replicatedBooking != null && replicatedBooking.getVersion() >= leaderBooking.getVersion() ? replicatedBooking : leaderBooking;
+        });
+    }
+
+    private CompletableFuture<Void> awaitReplica(long version) {
+        return bookingChangeApplier.awaitVersion(version).orTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS).exceptionally(failure -> {
+            logger.warn("Write at version {} was not replicated back within {} ms", version, writeTimeoutMillis);
+            return null;
+        });
+    }
+
+    private static BookingDetail await(CompletableFuture<BookingDetail> write) throws ReservationException {
+        try {
+            return write.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof ReservationException) {
+                throw (ReservationException) exception.getCause();
+            }
+            throw exception;
+        }
+    }
+}
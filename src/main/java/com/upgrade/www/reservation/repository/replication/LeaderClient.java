@@ -0,0 +1,171 @@
+package com.upgrade.www.reservation.repository.replication;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection of a follower forwarding its writes to the leader. Requests are tagged with an id and multiplexed over a
+ * single connection, a reader thread completes each request with its reply whatever order the leader answers in.
+ * A broken connection fails every outstanding request and is reopened by the next one.
+ */
+class LeaderClient implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaderClient.class);
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+    private final String secret;
+    private final AtomicLong requestIds = new AtomicLong();
+    private final Map<Long, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private Socket socket;
+    private DataOutputStream output;
+
+    LeaderClient(String host, int port, int timeoutMillis, String secret) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.secret = secret;
+    }
+
+    /**
+     * Sends a request to the leader
+     * @return completes with the decoded reply, or exceptionally with a {@link ReservationException} when the leader
+     * rejected the write or could not be reached
+     */
+    <T> CompletableFuture<T> send(byte operation, Arguments arguments, ReplyDecoder<T> replyDecoder) {
+        final long requestId = requestIds.incrementAndGet();
+        final PendingRequest<T> pendingRequest = new PendingRequest<>(replyDecoder);
+        pendingRequests.put(requestId, pendingRequest);
+        try {
+            synchronized (this) {
+                final DataOutputStream connection = connect();
+                connection.writeLong(requestId);
+                connection.writeByte(operation);
+                arguments.write(connection);
+                connection.flush();
+            }
+        } catch (IOException exception) {
+            logger.warn("Unable to forward a write to the leader {}:{}", host, port, exception);
+            disconnect();
+        }
+        return pendingRequest.reply;
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private synchronized DataOutputStream connect() throws IOException {
+        if (socket != null) {
+            return output;
+        }
+        final Socket connection = new Socket();
+        try {
+            connection.connect(new InetSocketAddress(host, port), timeoutMillis);
+            connection.setTcpNoDelay(true);
+            output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            output.writeByte(ReplicationProtocol.WRITES);
+            output.flush();
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            // The leader answers nothing to a wrong answer, it closes the connection which fails the requests sent on it
+            connection.setSoTimeout(timeoutMillis);
+            output.write(ReplicationProtocol.answer(secret, ReplicationProtocol.readChallenge(input)));
+            connection.setSoTimeout(0);
+            final Thread reader = new Thread(() -> readReplies(connection, input), "replication-leader-replies");
+            reader.setDaemon(true);
+            reader.start();
+        } catch (IOException exception) {
+            connection.close();
+            throw exception;
+        }
+        socket = connection;
+        return output;
+    }
+
+    private void readReplies(Socket connection, DataInputStream input) {
+        try {
+            while (true) {
+                final PendingRequest<?> pendingRequest = pendingRequests.remove(input.readLong());
+                if (pendingRequest == null) {
+                    throw new IOException("Reply to an unknown request");
+                }
+                final byte status = input.readByte();
+                if (status == ReplicationProtocol.FAILED) {
+                    pendingRequest.reply.completeExceptionally(new ReservationException(input.readUTF()));
+                } else if (status == ReplicationProtocol.OVERLOADED) {
+                    pendingRequest.reply.completeExceptionally(new TooManyRequestsException(input.readUTF(), input.readLong()));
+                } else {
+                    pendingRequest.complete(input);
+                }
+            }
+        } catch (IOException exception) {
+            synchronized (this) {
+                if (socket == connection) {
+                    disconnect();
+                }
+            }
+        }
+    }
+
+    // Fails every outstanding request, they may or may not have been committed by the leader
+    private synchronized void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException exception) {
+                logger.debug("Unable to close the leader connection", exception);
+            }
+            socket = null;
+            output = null;
+        }
+        pendingRequests.keySet().forEach(requestId -> {
+            final PendingRequest<?> pendingRequest = pendingRequests.remove(requestId);
+            if (pendingRequest != null) {
+                pendingRequest.reply.completeExceptionally(new ReservationException("Unable to save the booking please try again"));
+            }
+        });
+    }
+
+    @FunctionalInterface
+    interface Arguments {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface ReplyDecoder<T> {
+        T read(DataInputStream input) throws IOException;
+    }
+
+    private static class PendingRequest<T> {
+        private final ReplyDecoder<T> replyDecoder;
+        private final CompletableFuture<T> reply = new CompletableFuture<>();
+
+        PendingRequest(ReplyDecoder<T> replyDecoder) {
+            this.replyDecoder = replyDecoder;
+        }
+
+        // Decodes on the reader thread as the reply has to be consumed from the stream before the next one
+        void complete(DataInputStream input) throws IOException {
+            reply.complete(replyDecoder.read(input));
+        }
+    }
+}
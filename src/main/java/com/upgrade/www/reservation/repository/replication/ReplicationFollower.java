@@ -0,0 +1,159 @@
+package com.upgrade.www.reservation.repository.replication;
+
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.InMemoryBookingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Keeps the local repository of a follower in step with the leader. On connecting it takes a snapshot of every booking,
+ * then applies the change stream in the leader's version order. Heartbeats carry the leader's latest version so the
+ * follower reports how far behind it is even when no change is flowing.
+ * A lost connection is retried after a pause and starts over from a new snapshot.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.replication.role", havingValue = "follower")
+public class ReplicationFollower {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationFollower.class);
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final String leaderHost;
+    private final int leaderPort;
+    private final String secret;
+    private final InMemoryBookingRepository replica;
+    private final ReservationMetrics reservationMetrics;
+    private final Thread follower;
+    private volatile Socket socket;
+    private volatile boolean running = true;
+    // Version of the last change applied from the leader, only written by the follower thread
+    private volatile long lastVersion;
+
+    @Autowired
+    public ReplicationFollower(@Value("${reservation.replication.leader-host:localhost}") String leaderHost,
+                               @Value("${reservation.replication.leader-port:7070}") int leaderPort,
+                               @Value("${reservation.replication.secret:}") String secret,
+                               InMemoryBookingRepository replica, ReservationMetrics reservationMetrics) {
+        this.leaderHost = leaderHost;
+        this.leaderPort = leaderPort;
+        this.secret = ReplicationProtocol.requireSecret(secret);
+        this.replica = replica;
+        this.reservationMetrics = reservationMetrics;
+        this.follower = new Thread(this::followLoop, "replication-follower");
+        this.follower.setDaemon(true);
+        this.follower.start();
+    }
+
+    public long getLastVersion() {
+        return lastVersion;
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        closeSocket();
+        follower.interrupt();
+        try {
+            follower.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void followLoop() {
+        while (running) {
+            try {
+                follow();
+            } catch (IOException exception) {
+                if (running) {
+                    logger.warn("Lost the change stream of the leader {}:{}, reconnecting", leaderHost, leaderPort, exception);
+                }
+            } finally {
+                closeSocket();
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException exception) {
+                return;
+            }
+        }
+    }
+
+    private void follow() throws IOException {
+        final Socket connection = new Socket();
+        socket = connection;
+        // close() stops the loop before it closes the socket, so either it sees this socket or the loop sees it stopped
+        if (!running) {
+            connection.close();
+            return;
+        }
+        connection.connect(new InetSocketAddress(leaderHost, leaderPort));
+        connection.setTcpNoDelay(true);
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        final OutputStream output = connection.getOutputStream();
+        output.write(ReplicationProtocol.SUBSCRIBE);
+        output.flush();
+        output.write(ReplicationProtocol.answer(secret, ReplicationProtocol.readChallenge(input)));
+        output.flush();
+
+        long lagMillis = 0L;
+        while (running) {
+            final byte message = input.readByte();
+            if (message == ReplicationProtocol.SNAPSHOT) {
+                final long version = input.readLong();
+                final List<BookingDetail> bookings = ReplicationProtocol.readBookings(input);
+                replica.applyReplicatedChange(version, bookings);
+                lastVersion = version;
+                reservationMetrics.recordReplication(0L, 0L);
+                logger.info("Took a snapshot of {} bookings at version {} from the leader", bookings.size(), version);
+            } else if (message == ReplicationProtocol.CHANGE) {
+                final long version = input.readLong();
+                final long leaderTimeMillis = input.readLong();
+                final List<BookingDetail> bookings = ReplicationProtocol.readBookings(input);
+                // Changes committed before the snapshot are already part of it
+                if (version > lastVersion) {
+                    replica.applyReplicatedChange(version, bookings);
+                    lastVersion = version;
+                }
+                lagMillis = Math.max(0L, System.currentTimeMillis() - leaderTimeMillis);
+                reservationMetrics.recordReplication(lagMillis, 0L);
+            } else if (message == ReplicationProtocol.HEARTBEAT) {
+                final long leaderVersion = input.readLong();
+                input.readLong();
+                final long changesBehind = Math.max(0L, leaderVersion - lastVersion);
+                // Caught up means no lag, otherwise the last measured lag stands until the next change lands
+                if (changesBehind == 0L) {
+                    lagMillis = 0L;
+                }
+                reservationMetrics.recordReplication(lagMillis, changesBehind);
+            } else {
+                throw new IOException("Unknown replication message " + message);
+            }
+        }
+    }
+
+    private void closeSocket() {
+        final Socket connection = socket;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException exception) {
+                logger.debug("Unable to close the change stream", exception);
+            }
+        }
+    }
+}
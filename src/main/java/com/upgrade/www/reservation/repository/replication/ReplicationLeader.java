@@ -0,0 +1,450 @@
+package com.upgrade.www.reservation.repository.replication;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.BookingChangeListener;
+import com.upgrade.www.reservation.repository.InMemoryBookingRepository;
+import com.upgrade.www.reservation.service.WriteAdmission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leader of a replicated deployment, the one instance whose repository commits bookings.
+ * Every durable change is streamed to the subscribed followers in version order, a follower joining gets a snapshot
+ * of the booking records first. The changes carry the state of their bookings rather than the commands that made them,
+ * so a follower applies a booking only when the change is newer than the last one it applied to it.
+ * Writes forwarded by the followers pass the same admission control as the writes of the leader itself, then run on its
+ * repository and are answered with the resulting bookings.
+ * The leader only listens on the bind address, loopback unless configured, and serves only the followers which prove
+ * they know the shared secret. A follower which falls more than max queued changes behind is disconnected and resyncs from a new snapshot.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.replication.role", havingValue = "leader")
+public class ReplicationLeader implements BookingChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    // Interval of the heartbeats sent to an idle follower so it can tell its lag
+    private static final long HEARTBEAT_MILLIS = 1000;
+    // Time a connection has to answer the challenge, so connections which never do are not kept open
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final int maxQueuedChanges;
+    private final String secret;
+    private final InMemoryBookingRepository bookingRepository;
+    private final BookingChangeApplier bookingChangeApplier;
+    private final WriteAdmission writeAdmission;
+    private final ServerSocket serverSocket;
+    private final List<FollowerSession> followerSessions = new CopyOnWriteArrayList<>();
+    // Only runs writes holding an admission permit, so it never has more threads than the admission limit
+    private final ExecutorService writeExecutor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "replication-write");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Thread acceptor;
+
+    @Autowired
+    public ReplicationLeader(@Value("${reservation.replication.bind-address:127.0.0.1}") String bindAddress,
+                             @Value("${reservation.replication.port:7070}") int port,
+                             @Value("${reservation.replication.secret:}") String secret,
+                             @Value("${reservation.replication.max-queued-changes:100000}") int maxQueuedChanges,
+                             InMemoryBookingRepository bookingRepository, BookingChangeApplier bookingChangeApplier,
+                             WriteAdmission writeAdmission) throws IOException {
+        this.maxQueuedChanges = maxQueuedChanges;
+        this.secret = ReplicationProtocol.requireSecret(secret);
+        this.bookingRepository = bookingRepository;
+        this.bookingChangeApplier = bookingChangeApplier;
+        this.writeAdmission = writeAdmission;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port));
+        bookingChangeApplier.addChangeListener(this);
+        this.acceptor = new Thread(this::acceptFollowers, "replication-leader");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        logger.info("Replication leader listening on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Copies the bookings on the applier thread so every follower sends the same state
+    @Override
+    public void changeApplied(long version, List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings) {
+        if (followerSessions.isEmpty()) {
+            return;
+        }
+        final List<BookingDetail> bookings = new ArrayList<>(releasedBookings.size() + bookedBookings.size());
+        releasedBookings.forEach(booking -> bookings.add(copy(booking)));
+        bookedBookings.forEach(booking -> bookings.add(copy(booking)));
+        final ReplicatedChange change = new ReplicatedChange(version, System.currentTimeMillis(), bookings);
+        for (FollowerSession followerSession : followerSessions) {
+            followerSession.offer(change);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException exception) {
+            logger.debug("Unable to close the replication socket", exception);
+        }
+        followerSessions.forEach(FollowerSession::close);
+        writeExecutor.shutdownNow();
+        try {
+            acceptor.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptFollowers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                final Thread session = new Thread(() -> serve(socket), "replication-session-" + socket.getPort());
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException exception) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("Unable to accept a follower", exception);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            final byte channel = input.readByte();
+            final byte[] challenge = ReplicationProtocol.newChallenge();
+            output.write(challenge);
+            output.flush();
+            if (!ReplicationProtocol.isAnswer(secret, challenge, ReplicationProtocol.readAnswer(input))) {
+                logger.warn("Refused {} which does not know the replication secret", socket.getRemoteSocketAddress());
+                return;
+            }
+            socket.setSoTimeout(0);
+            if (channel == ReplicationProtocol.SUBSCRIBE) {
+                new FollowerSession(socket, output).stream();
+            } else if (channel == ReplicationProtocol.WRITES) {
+                serveWrites(input, output);
+            }
+        } catch (IOException exception) {
+            logger.info("Follower {} disconnected", socket.getRemoteSocketAddress());
+        }
+    }
+
+    /**
+     * Reads the requests of a follower and runs each on a worker so a slow commit never holds up the others.
+     * A request is read only once the previous one was admitted, so a follower sending more than the leader admits
+     * waits here and the one turned away is answered as overloaded.
+     */
+    private void serveWrites(DataInputStream input, DataOutputStream output) throws IOException {
+        while (true) {
+            final long requestId = input.readLong();
+            final byte operation = input.readByte();
+            final WriteRequest request = readRequest(operation, input);
+            final WriteAdmission.Permit permit;
+            try {
+                permit = writeAdmission.acquire();
+            } catch (TooManyRequestsException exception) {
+                reply(output, ReplyBuffer.overloaded(requestId, exception));
+                continue;
+            }
+            try {
+                writeExecutor.execute(() -> {
+                    final byte[] reply;
+                    try (permit) {
+                        reply = request.run(requestId);
+                    }
+                    reply(output, reply);
+                });
+            } catch (RejectedExecutionException exception) {
+                // The leader is closing
+                permit.close();
+                throw new IOException("Replication leader closed", exception);
+            }
+        }
+    }
+
+    private static void reply(DataOutputStream output, byte[] reply) {
+        try {
+            synchronized (output) {
+                output.write(reply);
+                output.flush();
+            }
+        } catch (IOException exception) {
+            logger.debug("Unable to reply to a follower", exception);
+        }
+    }
+
+    private WriteRequest readRequest(byte operation, DataInputStream input) throws IOException {
+        switch (operation) {
+            case ReplicationProtocol.COMPLETE_BOOKING: {
+                final int campsiteId = input.readInt();
+                final String email = input.readUTF();
+                final DateRange dateRange = ReplicationProtocol.readDateRange(input);
+                return requestId -> bookingReply(requestId, () -> bookingRepository.completeBooking(campsiteId, email, dateRange));
+            }
+            case ReplicationProtocol.MODIFY_BOOKING: {
+                final String bookingId = input.readUTF();
+                final String email = input.readUTF();
+                final DateRange dateRange = ReplicationProtocol.readDateRange(input);
+                return requestId -> bookingReply(requestId, () -> bookingRepository.modifyBooking(getBooking(bookingId, email), dateRange));
+            }
+            case ReplicationProtocol.CANCEL_BOOKING: {
+                final String bookingId = input.readUTF();
+                final String email = input.readUTF();
+                return requestId -> bookingReply(requestId, () -> bookingRepository.cancelBooking(getBooking(bookingId, email)));
+            }
+            case ReplicationProtocol.HOLD_BOOKING: {
+                final int campsiteId = input.readInt();
+                final String email = input.readUTF();
+                final DateRange dateRange = ReplicationProtocol.readDateRange(input);
+                final long ttlMillis = input.readLong();
+                return requestId -> bookingReply(requestId, () -> bookingRepository.holdBooking(campsiteId, email, dateRange, ttlMillis));
+            }
+            case ReplicationProtocol.CONFIRM_HOLD: {
+                final String bookingId = input.readUTF();
+                final String email = input.readUTF();
+                return requestId -> bookingReply(requestId, () -> bookingRepository.confirmHold(getBooking(bookingId, email)));
+            }
+            case ReplicationProtocol.RELEASE_HOLD: {
+                final String bookingId = input.readUTF();
+                final String email = input.readUTF();
+                return requestId -> bookingReply(requestId, () -> bookingRepository.releaseHold(getBooking(bookingId, email)));
+            }
+            case ReplicationProtocol.COMPLETE_BOOKINGS: {
+                final int count = input.readInt();
+                final List<BatchBooking> batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final int campsiteId = input.readInt();
+                    final String email = input.readUTF();
+                    batch.add(new BatchBooking(campsiteId, email, ReplicationProtocol.readDateRange(input)));
+                }
+                return requestId -> batchReply(requestId, bookingRepository.completeBookings(batch));
+            }
+            default:
+                throw new IOException("Unknown replication operation " + operation);
+        }
+    }
+
+    private BookingDetail getBooking(String bookingId, String email) throws ReservationException {
+        final BookingDetail booking = bookingRepository.getBookingDetails(bookingId, email);
+        if (booking == null) {
+            throw new ReservationException("No booking details for the booking id and email provided");
+        }
+        return booking;
+    }
+
+    private static byte[] bookingReply(long requestId, BookingWrite write) {
+        final ReplyBuffer reply = new ReplyBuffer(requestId);
+        try {
+            final BookingDetail booking = write.run();
+            reply.output.writeByte(ReplicationProtocol.OK);
+            ReplicationProtocol.writeBooking(reply.output, booking);
+        } catch (ReservationException exception) {
+            return ReplyBuffer.failed(requestId, exception.getMessage());
+        } catch (RuntimeException | IOException exception) {
+            logger.error("Unable to run a write forwarded by a follower", exception);
+            return ReplyBuffer.failed(requestId, "Unable to save the booking please try again");
+        }
+        return reply.toByteArray();
+    }
+
+    private static byte[] batchReply(long requestId, List<BatchBooking> batch) {
+        final ReplyBuffer reply = new ReplyBuffer(requestId);
+        try {
+            reply.output.writeByte(ReplicationProtocol.OK);
+            reply.output.writeInt(batch.size());
+            for (BatchBooking item : batch) {
+                if (item.getBooking() != null) {
+                    reply.output.writeByte(ReplicationProtocol.OK);
+                    ReplicationProtocol.writeBooking(reply.output, item.getBooking());
+                } else {
+                    reply.output.writeByte(ReplicationProtocol.FAILED);
+                    reply.output.writeUTF(item.getError() != null ? item.getError() : "Unable to save the booking please try again");
+                }
+            }
+        } catch (IOException exception) {
+            return ReplyBuffer.failed(requestId, "Unable to save the booking please try again");
+        }
+        return reply.toByteArray();
+    }
+
+    private static BookingDetail copy(BookingDetail booking) {
+        final BookingDetail copy = new BookingDetail(booking.getId(), booking.getCampsiteId(), booking.getEmail(),
+                new DateRange(booking.getStartDate(), booking.getEndDate()), booking.getStatus());
+        copy.setVersion(booking.getVersion());
+        return copy;
+    }
+
+    @FunctionalInterface
+    private interface WriteRequest {
+        byte[] run(long requestId);
+    }
+
+    @FunctionalInterface
+    private interface BookingWrite {
+        BookingDetail run() throws ReservationException;
+    }
+
+    private static class ReplicatedChange {
+        private final long version;
+        private final long leaderTimeMillis;
+        private final List<BookingDetail> bookings;
+
+        ReplicatedChange(long version, long leaderTimeMillis, List<BookingDetail> bookings) {
+            this.version = version;
+            this.leaderTimeMillis = leaderTimeMillis;
+            this.bookings = bookings;
+        }
+    }
+
+    // Stream of one follower, changes are queued by the applier thread and sent by the session thread
+    private class FollowerSession {
+        private final Socket socket;
+        private final DataOutputStream output;
+        private final BlockingQueue<ReplicatedChange> changes = new LinkedBlockingQueue<>(maxQueuedChanges);
+
+        FollowerSession(Socket socket, DataOutputStream output) {
+            this.socket = socket;
+            this.output = output;
+        }
+
+        void offer(ReplicatedChange change) {
+            if (!changes.offer(change)) {
+                logger.warn("Follower {} fell {} changes behind, disconnecting it to resync", socket.getRemoteSocketAddress(), maxQueuedChanges);
+                close();
+            }
+        }
+
+        /**
+         * Subscribes before copying the records so every change is either in the snapshot or queued after it.
+         * The snapshot takes the applied version read before the copy, changes after it that are already in the copy
+         * are applied again by the follower without effect.
+         */
+        void stream() throws IOException {
+            followerSessions.add(this);
+            try {
+                final long snapshotVersion = bookingChangeApplier.getAppliedVersion();
+                final List<BookingDetail> records = bookingRepository.copyBookingRecords();
+                output.writeByte(ReplicationProtocol.SNAPSHOT);
+                output.writeLong(snapshotVersion);
+                ReplicationProtocol.writeBookings(output, records);
+                output.flush();
+                logger.info("Follower {} subscribed from a snapshot of {} records at version {}", socket.getRemoteSocketAddress(),
+                        records.size(), snapshotVersion);
+
+                while (!socket.isClosed()) {
+                    ReplicatedChange change = changes.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (change == null) {
+                        output.writeByte(ReplicationProtocol.HEARTBEAT);
+                        output.writeLong(bookingChangeApplier.getAppliedVersion());
+                        output.writeLong(System.currentTimeMillis());
+                        output.flush();
+                        continue;
+                    }
+                    // Queued changes go out in one flush
+                    do {
+                        output.writeByte(ReplicationProtocol.CHANGE);
+                        output.writeLong(change.version);
+                        output.writeLong(change.leaderTimeMillis);
+                        ReplicationProtocol.writeBookings(output, change.bookings);
+                    } while ((change = changes.poll()) != null);
+                    output.flush();
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            } finally {
+                followerSessions.remove(this);
+            }
+        }
+
+        void close() {
+            followerSessions.remove(this);
+            try {
+                socket.close();
+            } catch (IOException exception) {
+                logger.debug("Unable to close a follower connection", exception);
+            }
+        }
+    }
+
+    private static class ReplyBuffer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream output = new DataOutputStream(bytes);
+
+        ReplyBuffer(long requestId) {
+            try {
+                output.writeLong(requestId);
+            } catch (IOException exception) {
+                // Writes to an in memory stream can not fail
+                throw new UncheckedIOException(exception);
+            }
+        }
+
+        static byte[] overloaded(long requestId, TooManyRequestsException rejection) {
+            final ReplyBuffer reply = new ReplyBuffer(requestId);
+            try {
+                reply.output.writeByte(ReplicationProtocol.OVERLOADED);
+                reply.output.writeUTF(rejection.getMessage());
+                reply.output.writeLong(rejection.getRetryAfterSeconds());
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            return reply.toByteArray();
+        }
+
+        static byte[] failed(long requestId, String error) {
+            final ReplyBuffer reply = new ReplyBuffer(requestId);
+            try {
+                reply.output.writeByte(ReplicationProtocol.FAILED);
+                reply.output.writeUTF(error);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            return reply.toByteArray();
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.upgrade.www.reservation.repository.replication;
+
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages exchanged between a follower and its leader over TCP. A follower opens two connections and starts each
+ * with one byte, {@link #SUBSCRIBE} for the change stream and {@link #WRITES} for the writes it forwards.
+ * The leader then sends a random challenge which the follower answers with its HMAC keyed by the secret they share,
+ * so only followers knowing the secret are served and the secret itself never crosses the wire.
+ * <pre>
+ * handshake byte SUBSCRIBE or WRITES, 32 bytes challenge from the leader, 32 bytes HMAC-SHA256 of the challenge
+ * stream    byte SNAPSHOT, long version, bookings
+ *           byte CHANGE, long version, long leader time in millis, bookings
+ *           byte HEARTBEAT, long applied version, long leader time in millis
+ * request   long request id, byte operation, arguments of the operation
+ * reply     long request id, byte OK then a booking, or a batch of int count and per item OK and a booking or FAILED and UTF error
+ *           long request id, byte FAILED, UTF error
+ *           long request id, byte OVERLOADED, UTF error, long seconds to retry after
+ * bookings  int count, per booking: UTF id, int campsite id, UTF email, long start epoch day, long end epoch day, UTF status, long version
+ * </pre>
+ */
+final class ReplicationProtocol {
+
+    static final byte SUBSCRIBE = 'S';
+    static final byte WRITES = 'W';
+
+    static final byte SNAPSHOT = 1;
+    static final byte CHANGE = 2;
+    static final byte HEARTBEAT = 3;
+
+    static final byte COMPLETE_BOOKING = 1;
+    static final byte MODIFY_BOOKING = 2;
+    static final byte CANCEL_BOOKING = 3;
+    static final byte HOLD_BOOKING = 4;
+    static final byte CONFIRM_HOLD = 5;
+    static final byte RELEASE_HOLD = 6;
+    static final byte COMPLETE_BOOKINGS = 7;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+    static final byte OVERLOADED = 2;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int CHALLENGE_BYTES = 32;
+    // Length of an HMAC-SHA256
+    private static final int ANSWER_BYTES = 32;
+    private static final SecureRandom random = new SecureRandom();
+
+    private ReplicationProtocol() {
+    }
+
+    static String requireSecret(String secret) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalArgumentException("reservation.replication.secret should be set to the secret shared by the leader and its followers");
+        }
+        return secret;
+    }
+
+    static byte[] newChallenge() {
+        final byte[] challenge = new byte[CHALLENGE_BYTES];
+        random.nextBytes(challenge);
+        return challenge;
+    }
+
+    static byte[] readChallenge(DataInput input) throws IOException {
+        final byte[] challenge = new byte[CHALLENGE_BYTES];
+        input.readFully(challenge);
+        return challenge;
+    }
+
+    static byte[] readAnswer(DataInput input) throws IOException {
+        final byte[] answer = new byte[ANSWER_BYTES];
+        input.readFully(answer);
+        return answer;
+    }
+
+    // Compared in constant time so the answer can not be guessed a byte at a time
+    static boolean isAnswer(String secret, byte[] challenge, byte[] answer) {
+        return MessageDigest.isEqual(answer(secret, challenge), answer);
+    }
+
+    static byte[] answer(String secret, byte[] challenge) {
+        try {
+            final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            return mac.doFinal(challenge);
+        } catch (NoSuchAlgorithmException | InvalidKeyException exception) {
+            throw new IllegalStateException("Unable to sign the replication challenge", exception);
+        }
+    }
+
+    static void writeDateRange(DataOutput output, DateRange dateRange) throws IOException {
+        output.writeLong(dateRange.getStartDate().toEpochDay());
+        output.writeLong(dateRange.getEndDate().toEpochDay());
+    }
+
+    static DateRange readDateRange(DataInput input) throws IOException {
+        final LocalDate startDate = LocalDate.ofEpochDay(input.readLong());
+        return new DateRange(startDate, LocalDate.ofEpochDay(input.readLong()));
+    }
+
+    static void writeBooking(DataOutput output, BookingDetail booking) throws IOException {
+        output.writeUTF(booking.getId());
+        output.writeInt(booking.getCampsiteId());
+        output.writeUTF(booking.getEmail());
+        writeDateRange(output, new DateRange(booking.getStartDate(), booking.getEndDate()));
+        output.writeUTF(booking.getStatus().name());
+        output.writeLong(booking.getVersion());
+    }
+
+    static BookingDetail readBooking(DataInput input) throws IOException {
+        final String id = input.readUTF();
+        final int campsiteId = input.readInt();
+        final String email = input.readUTF();
+        final DateRange dateRange = readDateRange(input);
+        final BookingDetail booking = new BookingDetail(id, campsiteId, email, dateRange, BookingStatus.valueOf(input.readUTF()));
+        booking.setVersion(input.readLong());
+        return booking;
+    }
+
+    static void writeBookings(DataOutput output, List<BookingDetail> bookings) throws IOException {
+        output.writeInt(bookings.size());
+        for (BookingDetail booking : bookings) {
+            writeBooking(output, booking);
+        }
+    }
+
+    static List<BookingDetail> readBookings(DataInput input) throws IOException {
+        final int count = input.readInt();
+        final List<BookingDetail> bookings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bookings.add(readBooking(input));
+        }
+        return bookings;
+    }
+}
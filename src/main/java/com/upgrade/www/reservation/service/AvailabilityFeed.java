@@ -0,0 +1,152 @@
+package com.upgrade.www.reservation.service;
+
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.models.output.AvailabilityChangeResponse;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.BookingChangeListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes the nights booked and freed by commits to the subscribers of availability windows, fed by the
+ * {@link BookingChangeApplier} once a change is in the cache. A subscriber costs an entry in the set of its campsite and
+ * nothing else while no booking touches its window. Changes wait in the subscription until its consumer polls them,
+ * folded per night so a slow consumer gets the latest state of each changed night rather than a growing backlog.
+ */
+@Service
+public class AvailabilityFeed implements BookingChangeListener {
+
+    private final Map<Integer, Set<Subscription>> campsiteSubscriptions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AvailabilityFeed(BookingChangeApplier bookingChangeApplier) {
+        bookingChangeApplier.addChangeListener(this);
+    }
+
+    /**
+     * Registers a subscription before the window is read from the cache, so the changes after that read are all kept.
+     * They are only signalled once the consumer calls {@link Subscription#start(Runnable)} after sending the window.
+     */
+    public Subscription subscribe(AvailabilityWindow window) {
+        final Subscription subscription = new Subscription(window);
+        campsiteSubscriptions.computeIfAbsent(window.getCampsiteId(), id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        return subscription;
+    }
+
+    @Override
+    public void changeApplied(long version, List<BookingDetail> releasedBookings, List<BookingDetail> bookedBookings) {
+        for (BookingDetail booking : releasedBookings) {
+            offer(booking, false, version);
+        }
+        for (BookingDetail booking : bookedBookings) {
+            offer(booking, true, version);
+        }
+    }
+
+    private void offer(BookingDetail booking, boolean booked, long version) {
+        final Set<Subscription> subscriptions = campsiteSubscriptions.get(booking.getCampsiteId());
+        if (subscriptions == null) {
+            return;
+        }
+        final long startDay = booking.getStartDate().toEpochDay();
+        final long endDay = booking.getEndDate().toEpochDay();
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(startDay, endDay, booked, version);
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        campsiteSubscriptions.computeIfPresent(subscription.campsiteId, (id, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    public class Subscription {
+
+        private final int campsiteId;
+        private final long startDay;
+        private final long endDay;
+        // Latest state of every night changed since the last poll, true for booked, guarded by this
+        private final TreeMap<Long, Boolean> changedNights = new TreeMap<>();
+        private long version;
+        private Runnable signal;
+        private boolean cancelled;
+
+        Subscription(AvailabilityWindow window) {
+            this.campsiteId = window.getCampsiteId();
+            this.startDay = window.getDateRange().getStartDate().toEpochDay();
+            this.endDay = window.getDateRange().getEndDate().toEpochDay();
+        }
+
+        /**
+         * @param signal called, on the applier thread so it must only hand off, whenever changes arrive while none are waiting
+         */
+        public void start(Runnable signal) {
+            final boolean pending;
+            synchronized (this) {
+                this.signal = signal;
+                pending = !changedNights.isEmpty();
+            }
+            if (pending) {
+                signal.run();
+            }
+        }
+
+        /**
+         * @return the changes since the last poll, null when there are none
+         */
+        public synchronized AvailabilityChangeResponse poll() {
+            if (changedNights.isEmpty()) {
+                return null;
+            }
+            final List<LocalDate> bookedDates = new ArrayList<>();
+            final List<LocalDate> freedDates = new ArrayList<>();
+            changedNights.forEach((epochDay, booked) -> (booked ? bookedDates : freedDates).add(LocalDate.ofEpochDay(epochDay)));
+            changedNights.clear();
+            return new AvailabilityChangeResponse(bookedDates, freedDates, version);
+        }
+
+        /**
+         * Drops the changes waiting to be polled, so a send already scheduled for a closed stream finds nothing to send
+         */
+        public void cancel() {
+            unsubscribe(this);
+            synchronized (this) {
+                cancelled = true;
+                changedNights.clear();
+            }
+        }
+
+        private void offer(long bookingStartDay, long bookingEndDay, boolean booked, long changeVersion) {
+            final long firstNight = Math.max(startDay, bookingStartDay);
+            final long lastNight = Math.min(endDay, bookingEndDay);
+            if (firstNight >= lastNight) {
+                return;
+            }
+            final Runnable pendingSignal;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                pendingSignal = changedNights.isEmpty() ? signal : null;
+                for (long night = firstNight; night < lastNight; night++) {
+                    changedNights.put(night, booked);
+                }
+                version = changeVersion;
+            }
+            if (pendingSignal != null) {
+                pendingSignal.run();
+            }
+        }
+    }
+}
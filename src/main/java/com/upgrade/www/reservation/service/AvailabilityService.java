@@ -1,47 +1,193 @@
 package com.upgrade.www.reservation.service;
 
 import com.upgrade.www.reservation.exceptions.InvalidInputException;
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
 import com.upgrade.www.reservation.models.common.DateRange;
 import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.validators.BookableWindow;
+import com.upgrade.www.reservation.validators.CampsiteValidator;
 import com.upgrade.www.reservation.validators.DateValidator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
-import java.time.ZoneId;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class AvailabilityService {
 
     private final BookingCache bookingCache;
+    private final BookingChangeApplier bookingChangeApplier;
     private final DateValidator dateValidator;
+    private final CampsiteValidator campsiteValidator;
+    private final BookableWindow bookableWindow;
 
-    // Assuming Pacific timezone for the campsite but can be made dynamic
-    private static final ZoneId CAMPSITE_TIMEZONE = ZoneId.of("Pacific/Honolulu");
-    private static final int MAX_PURCHASE_WINDOW = 30;
+    // Campsites looked up by a single fork join task before splitting the work further
+    private static final int CAMPSITES_PER_TASK = 16;
+    // Longest a read waits for the cache to catch up with the requested version
+    private static final long MAX_VERSION_WAIT_MILLIS = 1000;
 
     @Autowired
-    public AvailabilityService(BookingCache bookingCache, DateValidator dateValidator) {
+    public AvailabilityService(BookingCache bookingCache, BookingChangeApplier bookingChangeApplier, DateValidator dateValidator,
+                               CampsiteValidator campsiteValidator, BookableWindow bookableWindow) {
         this.bookingCache = bookingCache;
+        this.bookingChangeApplier = bookingChangeApplier;
         this.dateValidator = dateValidator;
+        this.campsiteValidator = campsiteValidator;
+        this.bookableWindow = bookableWindow;
     }
 
-    public List<LocalDate> getAvailability(DateRange dateRange) throws InvalidInputException {
+    /**
+     * Validates an availability lookup of a campsite without scanning its calendar, see {@link #getAvailability(AvailabilityWindow)}
+     * @param minVersion version of a booking change the availability must reflect, 0 for whatever the cache holds
+     * @return the window to look up, with the calendar version read before the scan so the scan is at least as fresh
+     * @throws ReservationException when the cache does not catch up with the version in time
+     */
+    public AvailabilityWindow getAvailabilityWindow(int campsiteId, DateRange dateRange, long minVersion) throws InvalidInputException, ReservationException {
+        if (!campsiteValidator.validateCampsite(campsiteId)) {
+            throw new InvalidInputException("Invalid campsite id");
+        }
+        final DateRange updatedDateRange = validateAvailabilityDateRange(dateRange);
+        waitForVersion(minVersion);
+        return new AvailabilityWindow(campsiteId, updatedDateRange, bookingChangeApplier.getCampsiteVersion(campsiteId));
+    }
+
+    public List<LocalDate> getAvailability(AvailabilityWindow window) {
+        return bookingCache.getAvailableDates(window.getCampsiteId(), window.getDateRange());
+    }
+
+    /**
+     * @return true when the availability lookups block on a remote cache
+     */
+    public boolean isCacheRemote() {
+        return bookingCache.isRemote();
+    }
+
+    /**
+     * Looks up the availability of many campsites in parallel on the fork join pool, a remote cache is read as a managed
+     * block so the pool adds workers instead of having all of its own wait on the network
+     * @param minVersion version of a booking change the availability must reflect, 0 for whatever the cache holds
+     * @return available dates keyed by campsite id in the order of the requested campsite ids
+     * @throws ReservationException when the cache does not catch up with the version in time
+     */
+    public Map<Integer, List<LocalDate>> getAvailability(List<Integer> campsiteIds, DateRange dateRange, long minVersion)
+            throws InvalidInputException, ReservationException {
+        if (!campsiteValidator.validateCampsites(campsiteIds)) {
+            throw new InvalidInputException("Invalid campsite ids");
+        }
+        final DateRange updatedDateRange = validateAvailabilityDateRange(dateRange);
+        waitForVersion(minVersion);
+        return ForkJoinPool.commonPool().invoke(new CampsiteAvailabilityTask(campsiteIds, 0, campsiteIds.size(), updatedDateRange));
+    }
+
+    /**
+     * @return completes once the cache reflects every booking change up to the version,
+     * fails with a {@link java.util.concurrent.TimeoutException} if it takes too long
+     */
+    public CompletableFuture<Void> awaitVersion(long minVersion) throws InvalidInputException {
+        // A version nobody has committed yet would never be applied
+        if (minVersion < 0 || minVersion > bookingChangeApplier.getPublishedVersion()) {
+            throw new InvalidInputException("Invalid availability version");
+        }
+        return bookingChangeApplier.awaitVersion(minVersion).orTimeout(MAX_VERSION_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void waitForVersion(long minVersion) throws InvalidInputException, ReservationException {
+        try {
+            awaitVersion(minVersion).join();
+        } catch (CompletionException exception) {
+            throw new ReservationException("Availability is not up to date yet please try again");
+        }
+    }
+
+    private DateRange validateAvailabilityDateRange(DateRange dateRange) throws InvalidInputException {
         DateRange updatedDateRange = dateRange;
         if (updatedDateRange == null) {
-            updatedDateRange = getDefaultAvailabilityDateRange();
+            updatedDateRange = bookableWindow.getDefaultAvailabilityRange();
         }
 
-        final boolean isValidDateRange = dateValidator.validateAvailabilityDataRange(updatedDateRange, CAMPSITE_TIMEZONE);
+        final boolean isValidDateRange = dateValidator.validateAvailabilityDataRange(updatedDateRange);
         if (!isValidDateRange) {
             throw new InvalidInputException("Invalid date range for availability");
         }
-        return bookingCache.getAvailableDates(updatedDateRange);
+        return updatedDateRange;
     }
 
-    private DateRange getDefaultAvailabilityDateRange() {
-        LocalDate now = LocalDate.now(CAMPSITE_TIMEZONE);
-        return new DateRange(now.plusDays(1), now.plusDays(MAX_PURCHASE_WINDOW));
+    /**
+     * Splits the campsite ids in halves until a slice is small enough to look up directly, then merges the halves in order
+     */
+    private class CampsiteAvailabilityTask extends RecursiveTask<Map<Integer, List<LocalDate>>> {
+
+        private final List<Integer> campsiteIds;
+        private final int from;
+        private final int to;
+        private final DateRange dateRange;
+
+        CampsiteAvailabilityTask(List<Integer> campsiteIds, int from, int to, DateRange dateRange) {
+            this.campsiteIds = campsiteIds;
+            this.from = from;
+            this.to = to;
+            this.dateRange = dateRange;
+        }
+
+        @Override
+        protected Map<Integer, List<LocalDate>> compute() {
+            if (to - from <= CAMPSITES_PER_TASK) {
+                if (!bookingCache.isRemote()) {
+                    return readSlice();
+                }
+                final SliceRead sliceRead = new SliceRead();
+                try {
+                    ForkJoinPool.managedBlock(sliceRead);
+                } catch (InterruptedException exception) {
+                    // Only thrown by the blocker, which never waits on anything interruptible
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(exception);
+                }
+                return sliceRead.availability;
+            }
+
+            final int middle = (from + to) >>> 1;
+            final CampsiteAvailabilityTask left = new CampsiteAvailabilityTask(campsiteIds, from, middle, dateRange);
+            final CampsiteAvailabilityTask right = new CampsiteAvailabilityTask(campsiteIds, middle, to, dateRange);
+            left.fork();
+            final Map<Integer, List<LocalDate>> rightAvailability = right.compute();
+            final Map<Integer, List<LocalDate>> availability = left.join();
+            availability.putAll(rightAvailability);
+            return availability;
+        }
+
+        private Map<Integer, List<LocalDate>> readSlice() {
+            final Map<Integer, List<LocalDate>> availability = new LinkedHashMap<>();
+            for (int i = from; i < to; i++) {
+                final int campsiteId = campsiteIds.get(i);
+                availability.put(campsiteId, bookingCache.getAvailableDates(campsiteId, dateRange));
+            }
+            return availability;
+        }
+
+        private class SliceRead implements ForkJoinPool.ManagedBlocker {
+            private Map<Integer, List<LocalDate>> availability;
+
+            @Override
+            public boolean block() {
+                availability = readSlice();
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return availability != null;
+            }
+        }
     }
 }
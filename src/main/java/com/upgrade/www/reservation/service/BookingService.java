@@ -2,36 +2,174 @@ package com.upgrade.www.reservation.service;
 
 import com.upgrade.www.reservation.exceptions.InvalidInputException;
 import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BatchBooking;
 import com.upgrade.www.reservation.models.common.BookingStatus;
 import com.upgrade.www.reservation.models.common.DateRange;
 import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingExport;
 import com.upgrade.www.reservation.repository.BookingRepository;
+import com.upgrade.www.reservation.service.allocation.ReleaseAllocator;
+import com.upgrade.www.reservation.service.allocation.ReleaseTicket;
+import com.upgrade.www.reservation.validators.CampsiteValidator;
 import com.upgrade.www.reservation.validators.DateValidator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
 public class BookingService {
 
     private final DateValidator dateValidator;
+    private final CampsiteValidator campsiteValidator;
     private final BookingRepository bookingRepository;
+    private final ReservationMetrics reservationMetrics;
+    private final WriteAdmission writeAdmission;
+    private final ReleaseAllocator releaseAllocator;
+    private final long holdTtlMillis;
 
-    // Assuming Pacific timezone for the campsite but can be made dynamic
-    private static final ZoneId CAMPSITE_TIMEZONE = ZoneId.of("Pacific/Honolulu");
+    // Upper bound on the reservations of a batch so one batch cannot hold the night locks for long
+    public static final int MAX_BATCH_SIZE = 1000;
 
     @Autowired
-    public BookingService(DateValidator dateValidator, BookingRepository bookingRepository) {
+    public BookingService(DateValidator dateValidator, CampsiteValidator campsiteValidator, BookingRepository bookingRepository,
+                          ReservationMetrics reservationMetrics, WriteAdmission writeAdmission, ReleaseAllocator releaseAllocator,
+                          @Value("${reservation.hold.ttl-seconds:600}") long holdTtlSeconds) {
         this.dateValidator = dateValidator;
+        this.campsiteValidator = campsiteValidator;
         this.bookingRepository = bookingRepository;
+        this.reservationMetrics = reservationMetrics;
+        this.writeAdmission = writeAdmission;
+        this.releaseAllocator = releaseAllocator;
+        this.holdTtlMillis = TimeUnit.SECONDS.toMillis(holdTtlSeconds);
     }
 
-    public BookingDetail completeBooking(String email, DateRange dateRange) throws InvalidInputException, ReservationException
+    public BookingDetail completeBooking(int campsiteId, String email, DateRange dateRange) throws InvalidInputException, ReservationException
     {
+        if (!campsiteValidator.validateCampsite(campsiteId)) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_INVALID_CAMPSITE);
+            throw new InvalidInputException("Invalid campsite id");
+        }
+        validateBookingDates(dateRange);
+        try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+            return bookingRepository.completeBooking(campsiteId, email, dateRange);
+        }
+    }
+
+    /**
+     * Validates the booking synchronously and returns a future of the commit which completes once it is durable,
+     * the write holds its admission slot until then
+     */
+    public CompletableFuture<BookingDetail> completeBookingAsync(int campsiteId, String email, DateRange dateRange) throws InvalidInputException
+    {
+        if (!campsiteValidator.validateCampsite(campsiteId)) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_INVALID_CAMPSITE);
+            throw new InvalidInputException("Invalid campsite id");
+        }
+        validateBookingDates(dateRange);
+        return admitAsync(() -> bookingRepository.completeBookingAsync(campsiteId, email, dateRange));
+    }
+
+    /**
+     * Collects a request for the start date being released instead of booking it, see {@link ReleaseAllocator}
+     * @return ticket to read the outcome with once the release is allocated, null when the request should be booked as usual
+     */
+    public ReleaseTicket collectForRelease(int campsiteId, String email, DateRange dateRange) throws InvalidInputException, TooManyRequestsException
+    {
+        if (!releaseAllocator.isEnabled()) {
+            return null;
+        }
+        if (!campsiteValidator.validateCampsite(campsiteId)) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_INVALID_CAMPSITE);
+            throw new InvalidInputException("Invalid campsite id");
+        }
+        return releaseAllocator.collect(campsiteId, email, dateRange);
+    }
+
+    public ReleaseTicket getReleaseTicket(String ticketId, String email) throws InvalidInputException {
+        final ReleaseTicket ticket = releaseAllocator.getTicket(ticketId, email);
+        if (ticket == null) {
+            throw new InvalidInputException("No release request for the ticket and email provided");
+        }
+        return ticket;
+    }
+
+    /**
+     * Holds the nights while the guest checks out, validated like a booking
+     * @return the held booking, released unless it is confirmed within the hold ttl
+     */
+    public BookingDetail holdBooking(int campsiteId, String email, DateRange dateRange) throws InvalidInputException, ReservationException
+    {
+        if (!campsiteValidator.validateCampsite(campsiteId)) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_INVALID_CAMPSITE);
+            throw new InvalidInputException("Invalid campsite id");
+        }
         validateBookingDates(dateRange);
-        return bookingRepository.completeBooking(email, dateRange);
+        try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+            return bookingRepository.holdBooking(campsiteId, email, dateRange, holdTtlMillis);
+        }
+    }
+
+    public BookingDetail confirmHold(String bookingId, String email) throws InvalidInputException, ReservationException
+    {
+        final BookingDetail heldBooking = getHeldBooking(bookingId, email);
+        if (heldBooking.getStatus() == BookingStatus.CONFIRMED) {
+            return heldBooking;
+        }
+
+        try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+            return bookingRepository.confirmHold(heldBooking);
+        }
+    }
+
+    public CompletableFuture<BookingDetail> confirmHoldAsync(String bookingId, String email) throws InvalidInputException
+    {
+        final BookingDetail heldBooking = getHeldBooking(bookingId, email);
+        if (heldBooking.getStatus() == BookingStatus.CONFIRMED) {
+            return CompletableFuture.completedFuture(heldBooking);
+        }
+
+        return admitAsync(() -> bookingRepository.confirmHoldAsync(heldBooking));
+    }
+
+    /**
+     * Frees the nights of a hold right away instead of waiting for it to expire, releasing it again has no effect
+     */
+    public BookingDetail releaseHold(String bookingId, String email) throws InvalidInputException
+    {
+        final BookingDetail heldBooking = getHeldBooking(bookingId, email);
+        if (heldBooking.getStatus() == BookingStatus.CONFIRMED) {
+            throw new InvalidInputException("The hold was already confirmed, cancel the reservation instead");
+        }
+        // Releasing takes no admission slot as it frees nights without logging anything
+        return bookingRepository.releaseHold(heldBooking);
+    }
+
+    /**
+     * Validates every item of the batch up front, invalid items are rejected without aborting the batch
+     * and the remaining items are committed together
+     * @return the batch with every item either booked or rejected, in the order of the request
+     */
+    public List<BatchBooking> completeBookings(List<BatchBooking> batch) throws InvalidInputException, TooManyRequestsException
+    {
+        validateBatch(batch);
+        try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+            return bookingRepository.completeBookings(batch);
+        }
+    }
+
+    public CompletableFuture<List<BatchBooking>> completeBookingsAsync(List<BatchBooking> batch) throws InvalidInputException
+    {
+        validateBatch(batch);
+        return admitAsync(() -> bookingRepository.completeBookingsAsync(batch));
     }
 
     public List<BookingDetail> modifyBooking(String bookingId, String email, DateRange newDateRange) throws InvalidInputException, ReservationException
@@ -40,35 +178,215 @@ public class BookingService {
         final BookingDetail existingBooking = bookingRepository.getBookingDetails(bookingId, email);
 
         if (existingBooking == null) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_FOUND);
+            throw new InvalidInputException("No booking details for the booking id and email provided");
+        } else if (existingBooking.getStatus() == BookingStatus.HELD) {
+            throw new InvalidInputException("A hold can only be confirmed or released");
+        }
+
+        try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+            final BookingDetail modifiedBooking = bookingRepository.modifyBooking(existingBooking, newDateRange);
+            return List.of(existingBooking, modifiedBooking);
+        }
+    }
+
+    public CompletableFuture<List<BookingDetail>> modifyBookingAsync(String bookingId, String email, DateRange newDateRange) throws InvalidInputException
+    {
+        validateBookingDates(newDateRange);
+        final BookingDetail existingBooking = bookingRepository.getBookingDetails(bookingId, email);
+
+        if (existingBooking == null) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_FOUND);
             throw new InvalidInputException("No booking details for the booking id and email provided");
+        } else if (existingBooking.getStatus() == BookingStatus.HELD) {
+            throw new InvalidInputException("A hold can only be confirmed or released");
         }
 
-        final BookingDetail modifiedBooking = bookingRepository.modifyBooking(existingBooking, newDateRange);
-        return List.of(existingBooking, modifiedBooking);
+        return admitAsync(() -> bookingRepository.modifyBookingAsync(existingBooking, newDateRange))
+                .thenApply(modifiedBooking -> List.of(existingBooking, modifiedBooking));
     }
 
-    public BookingDetail cancelBooking(String bookingId, String email) throws InvalidInputException {
+    public BookingDetail cancelBooking(String bookingId, String email) throws InvalidInputException, ReservationException {
         final BookingDetail existingBooking = bookingRepository.getBookingDetails(bookingId, email);
 
         if (existingBooking == null) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_FOUND);
             throw new InvalidInputException("No booking details for the booking id and email provided");
         } else if (existingBooking.getStatus() == BookingStatus.CANCELLED) {
             return existingBooking;
+        } else if (existingBooking.getStatus() == BookingStatus.HELD) {
+            return bookingRepository.releaseHold(existingBooking);
+        }
+
+        try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+            return bookingRepository.cancelBooking(existingBooking);
+        }
+    }
+
+    public CompletableFuture<BookingDetail> cancelBookingAsync(String bookingId, String email) throws InvalidInputException {
+        final BookingDetail existingBooking = bookingRepository.getBookingDetails(bookingId, email);
+
+        if (existingBooking == null) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_FOUND);
+            throw new InvalidInputException("No booking details for the booking id and email provided");
+        } else if (existingBooking.getStatus() == BookingStatus.CANCELLED) {
+            return CompletableFuture.completedFuture(existingBooking);
+        } else if (existingBooking.getStatus() == BookingStatus.HELD) {
+            return CompletableFuture.completedFuture(bookingRepository.releaseHold(existingBooking));
         }
 
-        return bookingRepository.cancelBooking(existingBooking);
+        return admitAsync(() -> bookingRepository.cancelBookingAsync(existingBooking));
     }
 
     public BookingDetail getBooking(String bookingId, String email) {
         return bookingRepository.getBookingDetails(bookingId, email);
     }
 
+    /**
+     * @param status keeps only the bookings with the status, all bookings when null
+     * @param dateRange keeps only the bookings with a night in the range, all bookings when null
+     * @return bookings of the guest ordered by start date, read through the email index so the cost depends only on that guest's bookings
+     */
+    public List<BookingDetail> getGuestBookings(String email, BookingStatus status, DateRange dateRange) {
+        final List<BookingDetail> bookings = bookingRepository.getGuestBookings(email);
+        if (status == null && dateRange == null) {
+            return bookings;
+        }
+
+        final List<BookingDetail> matchingBookings = new ArrayList<>(bookings.size());
+        for (BookingDetail booking : bookings) {
+            if (matches(booking, status, dateRange)) {
+                matchingBookings.add(booking);
+            }
+        }
+        return matchingBookings;
+    }
+
+    /**
+     * Opens a point in time export of every booking, read lazily in booking id order. The caller must close it.
+     * @param afterBookingId resumes after the last booking of an interrupted export, from the first booking when null
+     * @param status keeps only the bookings with the status, all bookings when null
+     * @param dateRange keeps only the bookings with a night in the range, all bookings when null
+     * @param updatedSince keeps only the bookings changed after the version of an earlier export, all bookings when 0
+     */
+    public BookingExport exportBookings(String afterBookingId, BookingStatus status, DateRange dateRange, long updatedSince) {
+        final BookingExport export = bookingRepository.exportBookings(afterBookingId, updatedSince);
+        if (status == null && dateRange == null) {
+            return export;
+        }
+        return new FilteredExport(export, status, dateRange);
+    }
+
+    private static boolean matches(BookingDetail booking, BookingStatus status, DateRange dateRange) {
+        if (status != null && booking.getStatus() != status) {
+            return false;
+        }
+        return dateRange == null || (booking.getStartDate().isBefore(dateRange.getEndDate()) && booking.getEndDate().isAfter(dateRange.getStartDate()));
+    }
+
+    // Runs the commit once admitted and releases the slot when it completes, a rejected write fails the future
+    private <T> CompletableFuture<T> admitAsync(Supplier<CompletableFuture<T>> commit) {
+        final WriteAdmission.Permit permit;
+        try {
+            permit = writeAdmission.acquire();
+        } catch (TooManyRequestsException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+
+        try {
+            return commit.get().whenComplete((result, exception) -> permit.close());
+        } catch (RuntimeException exception) {
+            permit.close();
+            throw exception;
+        }
+    }
+
+    // Looks up a booking which started out as a hold, it may since have been confirmed, released or expired
+    private BookingDetail getHeldBooking(String bookingId, String email) throws InvalidInputException {
+        final BookingDetail heldBooking = bookingRepository.getBookingDetails(bookingId, email);
+
+        if (heldBooking == null) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_NOT_FOUND);
+            throw new InvalidInputException("No booking details for the booking id and email provided");
+        } else if (heldBooking.getStatus() == BookingStatus.CANCELLED) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_HOLD_EXPIRED);
+            throw new InvalidInputException("The hold has expired or was released");
+        }
+        return heldBooking;
+    }
+
+    private void validateBatch(List<BatchBooking> batch) throws InvalidInputException {
+        if (batch == null || batch.isEmpty() || batch.size() > MAX_BATCH_SIZE) {
+            throw new InvalidInputException("A batch should have between 1 and " + MAX_BATCH_SIZE + " reservations");
+        }
+
+        for (BatchBooking item : batch) {
+            if (!item.isPending()) {
+                continue;
+            }
+            try {
+                if (!campsiteValidator.validateCampsite(item.getCampsiteId())) {
+                    reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_INVALID_CAMPSITE);
+                    throw new InvalidInputException("Invalid campsite id");
+                }
+                validateBookingDates(item.getDateRange());
+            } catch (InvalidInputException exception) {
+                item.reject(exception.getMessage());
+            }
+        }
+    }
+
     private void validateBookingDates(DateRange dateRange) throws InvalidInputException {
-        final boolean isValidDate = dateValidator.validateBookingDates(dateRange, CAMPSITE_TIMEZONE);
+        final boolean isValidDate = dateValidator.validateBookingDates(dateRange);
 
         if (!isValidDate) {
+            reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_INVALID_DATES);
             throw new InvalidInputException("Invalid date range for booking. Should be at least one day prior to today " +
                     "and within a month for a max stay of 3 nights");
         }
     }
+
+    private static class FilteredExport implements BookingExport {
+        private final BookingExport export;
+        private final BookingStatus status;
+        private final DateRange dateRange;
+        private BookingDetail nextBooking;
+
+        FilteredExport(BookingExport export, BookingStatus status, DateRange dateRange) {
+            this.export = export;
+            this.status = status;
+            this.dateRange = dateRange;
+        }
+
+        @Override
+        public long getVersion() {
+            return export.getVersion();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextBooking == null && export.hasNext()) {
+                final BookingDetail booking = export.next();
+                if (matches(booking, status, dateRange)) {
+                    nextBooking = booking;
+                }
+            }
+            return nextBooking != null;
+        }
+
+        @Override
+        public BookingDetail next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final BookingDetail booking = nextBooking;
+            nextBooking = null;
+            return booking;
+        }
+
+        @Override
+        public void close() {
+            export.close();
+        }
+    }
 }
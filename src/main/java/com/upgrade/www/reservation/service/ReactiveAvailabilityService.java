@@ -0,0 +1,66 @@
+package com.upgrade.www.reservation.service;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.common.DateRange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Non blocking view of the {@link AvailabilityService} for the reactive api. Reads of an in process cache are memory
+ * lookups and run on the calling event loop, reads of a remote cache block on the network and run on a bounded elastic worker.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAvailabilityService {
+
+    private final AvailabilityService availabilityService;
+    private final Scheduler cacheReadScheduler;
+
+    @Autowired
+    public ReactiveAvailabilityService(AvailabilityService availabilityService) {
+        this.availabilityService = availabilityService;
+        this.cacheReadScheduler = availabilityService.isCacheRemote() ? Schedulers.boundedElastic() : Schedulers.immediate();
+    }
+
+    // Validating a single campsite never blocks once the version is applied, so it runs on the calling event loop
+    public Mono<AvailabilityWindow> getAvailabilityWindow(int campsiteId, DateRange dateRange, long minVersion) {
+        return awaitVersion(minVersion)
+                .then(Mono.fromCallable(() -> availabilityService.getAvailabilityWindow(campsiteId, dateRange, 0)));
+    }
+
+    /**
+     * Runs a read of the booking cache, such as the scan of a window, off the event loop when the cache is remote
+     */
+    public <T> Mono<T> readCache(Callable<T> read) {
+        return Mono.fromCallable(read).subscribeOn(cacheReadScheduler);
+    }
+
+    // Many campsites wait on the fork join pool, which must not happen on an event loop thread
+    public Mono<Map<Integer, List<LocalDate>>> getAvailability(List<Integer> campsiteIds, DateRange dateRange, long minVersion) {
+        return awaitVersion(minVersion)
+                .then(Mono.fromCallable(() -> availabilityService.getAvailability(campsiteIds, dateRange, 0))
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    // Waits for the cache without holding a thread, the read then moves off the applier thread which completes the wait
+    private Mono<Void> awaitVersion(long minVersion) {
+        if (minVersion == 0) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> availabilityService.awaitVersion(minVersion))
+                .flatMap(Mono::fromFuture)
+                .onErrorMap(TimeoutException.class, exception -> new ReservationException("Availability is not up to date yet please try again"))
+                .publishOn(Schedulers.parallel());
+    }
+}
@@ -0,0 +1,111 @@
+package com.upgrade.www.reservation.service;
+
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingExport;
+import com.upgrade.www.reservation.service.allocation.ReleaseTicket;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Non blocking view of the {@link BookingService} for the reactive api.
+ * The commit of a write can wait on the night locks and a read of the jdbc storage on the database, so both are handed off
+ * to the bounded elastic scheduler, the wait for the journal to make a write durable holds no thread at all.
+ * Errors are signalled as {@link com.upgrade.www.reservation.exceptions.InvalidInputException} or
+ * {@link com.upgrade.www.reservation.exceptions.ReservationException}.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveBookingService {
+
+    private final BookingService bookingService;
+
+    @Autowired
+    public ReactiveBookingService(BookingService bookingService) {
+        this.bookingService = bookingService;
+    }
+
+    public Mono<BookingDetail> completeBooking(int campsiteId, String email, DateRange dateRange) {
+        return commit(() -> bookingService.completeBookingAsync(campsiteId, email, dateRange));
+    }
+
+    // Collecting only appends to the release queue so it runs on the calling event loop, empty when the request is booked as usual
+    public Mono<ReleaseTicket> collectForRelease(int campsiteId, String email, DateRange dateRange) {
+        return Mono.fromCallable(() -> bookingService.collectForRelease(campsiteId, email, dateRange));
+    }
+
+    public Mono<ReleaseTicket> getReleaseTicket(String ticketId, String email) {
+        return Mono.fromCallable(() -> bookingService.getReleaseTicket(ticketId, email));
+    }
+
+    public Mono<List<BatchBooking>> completeBookings(List<BatchBooking> batch) {
+        return commit(() -> bookingService.completeBookingsAsync(batch));
+    }
+
+    // Holding commits nothing to the journal, only the wait on the night locks is handed off
+    public Mono<BookingDetail> holdBooking(int campsiteId, String email, DateRange dateRange) {
+        return Mono.fromCallable(() -> bookingService.holdBooking(campsiteId, email, dateRange))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public Mono<BookingDetail> confirmHold(String bookingId, String email) {
+        return commit(() -> bookingService.confirmHoldAsync(bookingId, email));
+    }
+
+    public Mono<BookingDetail> releaseHold(String bookingId, String email) {
+        return Mono.fromCallable(() -> bookingService.releaseHold(bookingId, email))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Emits the cancelled booking followed by the new one
+    public Flux<BookingDetail> modifyBooking(String bookingId, String email, DateRange newDateRange) {
+        return commit(() -> bookingService.modifyBookingAsync(bookingId, email, newDateRange))
+                .flatMapIterable(bookings -> bookings);
+    }
+
+    public Mono<BookingDetail> cancelBooking(String bookingId, String email) {
+        return commit(() -> bookingService.cancelBookingAsync(bookingId, email));
+    }
+
+    // The jdbc storage reads the record over a blocking query, so the read is handed off too, empty when no booking matches
+    public Mono<BookingDetail> getBooking(String bookingId, String email) {
+        return Mono.fromCallable(() -> bookingService.getBooking(bookingId, email))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Handed off for the same reason, the query of the jdbc storage can also wait for a pooled connection
+    public Mono<List<BookingDetail>> getGuestBookings(String email, BookingStatus status, DateRange dateRange) {
+        return Mono.fromCallable(() -> bookingService.getGuestBookings(email, status, dateRange))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Opens the export once subscribed and closes it when the stream ends or is cancelled. Reading every record can take a
+     * while and the records of the jdbc storage are read over blocking calls, so it is read on the bounded elastic scheduler.
+     * @param reader encodes the export, the stream it returns must only read it from the thread it is signalled on
+     */
+    public <T> Flux<T> exportBookings(String afterBookingId, BookingStatus status, DateRange dateRange, long updatedSince,
+                                      Function<BookingExport, Flux<T>> reader) {
+        return Flux.using(() -> bookingService.exportBookings(afterBookingId, status, dateRange, updatedSince), reader, BookingExport::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private <T> Mono<T> commit(Callable<CompletableFuture<T>> commit) {
+        return Mono.fromCallable(commit)
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(Mono::fromFuture)
+                // Durable futures complete on the journal flusher thread which must go straight back to flushing
+                .publishOn(Schedulers.parallel());
+    }
+}
@@ -0,0 +1,173 @@
+package com.upgrade.www.reservation.service;
+
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the booking writes running at once so a burst queues here instead of piling up on the night locks.
+ * The limit adapts to the write latency: it grows by one every limit writes which complete within the target latency
+ * while the limit is what holds writes back, and shrinks by a tenth when a write admitted after the last shrink is slower.
+ * Writes beyond the limit wait in a bounded queue for at most the max wait, a write which finds the queue full
+ * or waits too long is rejected with a {@link TooManyRequestsException}.
+ * Reads never pass through here, and as the limit and the queue are bounded below the server threads,
+ * waiting writes can never take every thread away from the reads.
+ */
+@Component
+public class WriteAdmission {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final int MIN_LIMIT = 1;
+
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final long targetLatencyNanos;
+    private final long retryAfterSeconds;
+    private final ReservationMetrics reservationMetrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    // Guarded by the lock
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastBackoffAt = System.nanoTime();
+
+    @Autowired
+    public WriteAdmission(@Value("${reservation.admission.initial-limit:16}") int initialLimit,
+                          @Value("${reservation.admission.max-limit:64}") int maxLimit,
+                          @Value("${reservation.admission.max-queue:64}") int maxQueue,
+                          @Value("${reservation.admission.max-wait-ms:500}") long maxWaitMillis,
+                          @Value("${reservation.admission.target-latency-ms:50}") long targetLatencyMillis,
+                          @Value("${reservation.admission.retry-after-seconds:1}") long retryAfterSeconds,
+                          ReservationMetrics reservationMetrics) {
+        if (initialLimit < 1 || maxLimit < initialLimit || maxQueue < 0) {
+            throw new IllegalArgumentException("Admission limits should satisfy 1 <= initial-limit <= max-limit and max-queue >= 0");
+        }
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.reservationMetrics = reservationMetrics;
+        this.limit = initialLimit;
+        reservationMetrics.recordAdmission(initialLimit, 0);
+    }
+
+    /**
+     * Waits for a slot, writes are admitted in the order they queued
+     * @return permit to close once the write is complete, its latency adjusts the limit
+     * @throws TooManyRequestsException when the queue is full or the wait is longer than the max wait
+     */
+    public Permit acquire() throws TooManyRequestsException {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit || queued > 0) {
+                if (queued >= maxQueue) {
+                    throw reject();
+                }
+                await();
+            }
+            inFlight++;
+            signalIfAvailable();
+        } finally {
+            lock.unlock();
+        }
+        return new Permit(System.nanoTime());
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await() throws TooManyRequestsException {
+        queued++;
+        reservationMetrics.recordAdmission((int) limit, queued);
+        boolean admitted = false;
+        try {
+            long remainingNanos = maxWaitNanos;
+            while (inFlight >= (int) limit) {
+                if (remainingNanos <= 0L) {
+                    throw reject();
+                }
+                remainingNanos = available.awaitNanos(remainingNanos);
+            }
+            admitted = true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw reject();
+        } finally {
+            queued--;
+            if (!admitted) {
+                signalIfAvailable();
+            }
+            reservationMetrics.recordAdmission((int) limit, queued);
+        }
+    }
+
+    // A waiter which gave up may have taken the signal of a free slot, and a grown limit frees more than one slot
+    private void signalIfAvailable() {
+        if (queued > 0 && inFlight < (int) limit) {
+            available.signal();
+        }
+    }
+
+    private void release(long admittedAt) {
+        final long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (now - admittedAt > targetLatencyNanos) {
+                // Writes admitted before the last backoff saw the old limit, only later ones can back off again
+                if (admittedAt - lastBackoffAt > 0L) {
+                    limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                    lastBackoffAt = now;
+                }
+            } else if (inFlight >= (int) limit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            inFlight--;
+            reservationMetrics.recordAdmission((int) limit, queued);
+            signalIfAvailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TooManyRequestsException reject() {
+        reservationMetrics.recordRejectedBooking(ReservationMetrics.REJECTED_OVERLOADED);
+        return new TooManyRequestsException("Too many reservations are being made please try again shortly", retryAfterSeconds);
+    }
+
+    /**
+     * Slot of an admitted write, closing it more than once releases the slot only once
+     */
+    public class Permit implements AutoCloseable {
+
+        private final long admittedAt;
+        private boolean released;
+
+        private Permit(long admittedAt) {
+            this.admittedAt = admittedAt;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                release(admittedAt);
+            }
+        }
+    }
+}
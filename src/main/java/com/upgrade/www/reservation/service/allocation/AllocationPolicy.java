@@ -0,0 +1,16 @@
+package com.upgrade.www.reservation.service.allocation;
+
+import java.util.List;
+
+/**
+ * Fairness of a release, decides which of the requests collected for the newly released nights get them.
+ * The requests are booked in the order left by the policy and a request conflicting with an earlier one is rejected.
+ */
+public interface AllocationPolicy {
+
+    /**
+     * Runs once per release on the allocation thread
+     * @param tickets requests collected for the release in the order they arrived, reordered in place
+     */
+    void order(List<ReleaseTicket> tickets);
+}
@@ -0,0 +1,18 @@
+package com.upgrade.www.reservation.service.allocation;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * First come first served, the collected requests are already in the order they arrived
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.release.policy", havingValue = "fifo", matchIfMissing = true)
+public class FifoAllocationPolicy implements AllocationPolicy {
+
+    @Override
+    public void order(List<ReleaseTicket> tickets) {
+    }
+}
@@ -0,0 +1,24 @@
+package com.upgrade.www.reservation.service.allocation;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every request collected during the window has the same chance whatever the instant it arrived at,
+ * the draw uses a {@link SecureRandom} so it cannot be predicted from earlier draws
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.release.policy", havingValue = "lottery")
+public class LotteryAllocationPolicy implements AllocationPolicy {
+
+    private final SecureRandom random = new SecureRandom();
+
+    @Override
+    public void order(List<ReleaseTicket> tickets) {
+        Collections.shuffle(tickets, random);
+    }
+}
@@ -0,0 +1,175 @@
+package com.upgrade.www.reservation.service.allocation;
+
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.repository.BookingRepository;
+import com.upgrade.www.reservation.repository.id.BookingIdGenerator;
+import com.upgrade.www.reservation.service.BookingService;
+import com.upgrade.www.reservation.validators.BookableWindow;
+import com.upgrade.www.reservation.validators.DateValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Release mode for the start date which enters the bookable window at midnight of the campsite timezone.
+ * Instead of every guest racing for the night locks at midnight, requests for that start date are collected from
+ * the collect window before midnight until the release is allocated, each one answered with a {@link ReleaseTicket}.
+ * Right after midnight the collected requests are ordered by the {@link AllocationPolicy} and booked in a single
+ * sequential pass through the batch commit, a request conflicting with an earlier one in that order is rejected.
+ * Guests read the outcome of their ticket once the pass is done, tickets are dropped once their stay has started.
+ */
+@Component
+public class ReleaseAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReleaseAllocator.class);
+
+    private final boolean enabled;
+    private final long collectWindowMillis;
+    private final int maxRequests;
+    private final BookableWindow bookableWindow;
+    private final DateValidator dateValidator;
+    private final BookingRepository bookingRepository;
+    private final BookingIdGenerator bookingIdGenerator;
+    private final AllocationPolicy allocationPolicy;
+    private final Map<String, ReleaseTicket> tickets = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by the lock
+    private List<ReleaseTicket> collected = new ArrayList<>();
+    private LocalDate allocatedThrough;
+
+    @Autowired
+    public ReleaseAllocator(@Value("${reservation.release.enabled:false}") boolean enabled,
+                            @Value("${reservation.release.collect-window-seconds:300}") long collectWindowSeconds,
+                            @Value("${reservation.release.max-requests:100000}") int maxRequests,
+                            BookableWindow bookableWindow, DateValidator dateValidator, BookingRepository bookingRepository,
+                            BookingIdGenerator bookingIdGenerator, AllocationPolicy allocationPolicy) {
+        this.enabled = enabled;
+        this.collectWindowMillis = TimeUnit.SECONDS.toMillis(collectWindowSeconds);
+        this.maxRequests = maxRequests;
+        this.bookableWindow = bookableWindow;
+        this.dateValidator = dateValidator;
+        this.bookingRepository = bookingRepository;
+        this.bookingIdGenerator = bookingIdGenerator;
+        this.allocationPolicy = allocationPolicy;
+        // The start dates already in the window were released before this instance started
+        this.allocatedThrough = dateValidator.getLastReleasedStartDate();
+    }
+
+    /**
+     * Collects the request when it is for the start date being released, that is the start date released at the
+     * next midnight while its collect window is open, or the start date released at the last midnight until it is allocated
+     * @return ticket of the collected request, null when the request is not for the release and is booked as usual
+     * @throws TooManyRequestsException when max requests are already collected for the release
+     */
+    public ReleaseTicket collect(int campsiteId, String email, DateRange dateRange) throws TooManyRequestsException {
+        if (!enabled || !dateValidator.validateStayLength(dateRange)) {
+            return null;
+        }
+
+        final long millisUntilMidnight = bookableWindow.getMillisUntilMidnight();
+        final LocalDate lastReleased = dateValidator.getLastReleasedStartDate();
+        final LocalDate startDate = dateRange.getStartDate();
+        final boolean nextRelease = startDate.equals(lastReleased.plusDays(1)) && millisUntilMidnight <= collectWindowMillis;
+        if (!nextRelease && !startDate.equals(lastReleased)) {
+            return null;
+        }
+
+        lock.lock();
+        try {
+            if (!startDate.isAfter(allocatedThrough)) {
+                return null;
+            }
+            if (collected.size() >= maxRequests) {
+                throw new TooManyRequestsException("Too many requests are collected for the release please try again after it",
+                        Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(millisUntilMidnight) + 1));
+            }
+            final ReleaseTicket ticket = new ReleaseTicket(bookingIdGenerator.nextId(), campsiteId, email, dateRange);
+            collected.add(ticket);
+            tickets.put(ticket.getId(), ticket);
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the ticket with its outcome once allocated, null when no ticket matches the id and email
+     */
+    public ReleaseTicket getTicket(String ticketId, String email) {
+        final ReleaseTicket ticket = tickets.get(ticketId);
+        return ticket != null && ticket.getEmail().equals(email) ? ticket : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Allocates the requests collected for the start dates released so far, the window itself is advanced by
+     * whichever of this and the roll-over scheduler runs first
+     */
+    @Scheduled(cron = "0 0 0 * * *", zone = "Pacific/Honolulu")
+    public void allocate() {
+        if (!enabled) {
+            return;
+        }
+
+        final LocalDate lastReleased = dateValidator.getLastReleasedStartDate();
+        final List<ReleaseTicket> released = new ArrayList<>();
+        lock.lock();
+        try {
+            final List<ReleaseTicket> unreleased = new ArrayList<>();
+            for (ReleaseTicket ticket : collected) {
+                (ticket.getDateRange().getStartDate().isAfter(lastReleased) ? unreleased : released).add(ticket);
+            }
+            collected = unreleased;
+            if (lastReleased.isAfter(allocatedThrough)) {
+                allocatedThrough = lastReleased;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final LocalDate today = bookableWindow.getToday();
+        tickets.values().removeIf(ticket -> ticket.isAllocated() && !ticket.getDateRange().getStartDate().isAfter(today));
+        if (released.isEmpty()) {
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        allocationPolicy.order(released);
+        int booked = 0;
+        // Batches of the size the batch endpoint allows so a single commit never holds the night locks for long
+        for (int from = 0; from < released.size(); from += BookingService.MAX_BATCH_SIZE) {
+            final List<ReleaseTicket> chunk = released.subList(from, Math.min(released.size(), from + BookingService.MAX_BATCH_SIZE));
+            final List<BatchBooking> batch = new ArrayList<>(chunk.size());
+            chunk.forEach(ticket -> batch.add(ticket.getRequest()));
+            try {
+                bookingRepository.completeBookings(batch);
+            } catch (RuntimeException exception) {
+                logger.error("Unable to allocate requests for the release of {}", lastReleased, exception);
+                batch.stream().filter(BatchBooking::isPending).forEach(item -> item.reject("Unable to allocate the request please try again"));
+            }
+            for (BatchBooking item : batch) {
+                booked += item.getBooking() != null ? 1 : 0;
+            }
+            chunk.forEach(ReleaseTicket::markAllocated);
+        }
+        logger.info("Allocated {} of {} requests for the release of {} in {} ms", booked, released.size(), lastReleased,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+}
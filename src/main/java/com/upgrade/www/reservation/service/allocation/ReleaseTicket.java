@@ -0,0 +1,56 @@
+package com.upgrade.www.reservation.service.allocation;
+
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+
+/**
+ * A reservation request collected for a release, it is either booked or rejected once the release is allocated.
+ * The ticket id together with the guest email is the credential to read the outcome.
+ */
+public class ReleaseTicket {
+
+    private final String id;
+    private final BatchBooking request;
+    // Written once the allocation pass is done with the request, which publishes its outcome to the readers
+    private volatile boolean allocated;
+
+    ReleaseTicket(String id, int campsiteId, String email, DateRange dateRange) {
+        this.id = id;
+        this.request = new BatchBooking(campsiteId, email, dateRange);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEmail() {
+        return request.getEmail();
+    }
+
+    public DateRange getDateRange() {
+        return request.getDateRange();
+    }
+
+    public boolean isAllocated() {
+        return allocated;
+    }
+
+    // Booking made for the request, null while it is pending or when it was rejected
+    public BookingDetail getBooking() {
+        return allocated ? request.getBooking() : null;
+    }
+
+    // Reason the request was rejected, null while it is pending or when it was booked
+    public String getError() {
+        return allocated ? request.getError() : null;
+    }
+
+    BatchBooking getRequest() {
+        return request;
+    }
+
+    void markAllocated() {
+        allocated = true;
+    }
+}
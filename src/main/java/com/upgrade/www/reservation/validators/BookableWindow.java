@@ -0,0 +1,87 @@
+package com.upgrade.www.reservation.validators;
+
+import com.upgrade.www.reservation.models.common.DateRange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Today of the campsite timezone along with the default availability range, computed once per day instead of on every request.
+ * The window is an immutable snapshot swapped with a CAS so readers always see a today and a range from the same day.
+ * It advances at local midnight, either from the roll-over scheduler or from the first reader after midnight if it runs late.
+ */
+@Component
+public class BookableWindow {
+
+    // Assuming Pacific timezone for the campsite but can be made dynamic
+    public static final ZoneId CAMPSITE_TIMEZONE = ZoneId.of("Pacific/Honolulu");
+    // Nights after today shown by an availability lookup without dates
+    private static final int MAX_PURCHASE_WINDOW = 30;
+
+    private final Clock clock;
+    private final AtomicReference<Window> window;
+
+    @Autowired
+    public BookableWindow() {
+        this(Clock.system(CAMPSITE_TIMEZONE));
+    }
+
+    public BookableWindow(Clock clock) {
+        this.clock = clock;
+        this.window = new AtomicReference<>(new Window(LocalDate.now(clock), clock.getZone()));
+    }
+
+    public LocalDate getToday() {
+        return current().today;
+    }
+
+    public DateRange getDefaultAvailabilityRange() {
+        return current().defaultAvailabilityRange;
+    }
+
+    public long getMillisUntilMidnight() {
+        return current().nextMidnightMillis - clock.millis();
+    }
+
+    /**
+     * Advances the window to the current day of the clock
+     * @return true if this call advanced it, false if it already was on the current day
+     */
+    public boolean roll() {
+        while (true) {
+            final Window current = window.get();
+            final LocalDate today = LocalDate.now(clock);
+            if (!today.isAfter(current.today)) {
+                return false;
+            }
+            if (window.compareAndSet(current, new Window(today, clock.getZone()))) {
+                return true;
+            }
+        }
+    }
+
+    private Window current() {
+        final Window current = window.get();
+        if (clock.millis() < current.nextMidnightMillis) {
+            return current;
+        }
+        roll();
+        return window.get();
+    }
+
+    private static class Window {
+        private final LocalDate today;
+        private final DateRange defaultAvailabilityRange;
+        private final long nextMidnightMillis;
+
+        Window(LocalDate today, ZoneId zoneId) {
+            this.today = today;
+            this.defaultAvailabilityRange = new DateRange(today.plusDays(1), today.plusDays(MAX_PURCHASE_WINDOW));
+            this.nextMidnightMillis = today.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli();
+        }
+    }
+}
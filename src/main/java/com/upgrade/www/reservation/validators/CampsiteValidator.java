@@ -0,0 +1,30 @@
+package com.upgrade.www.reservation.validators;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+
+@Component
+public class CampsiteValidator {
+
+    // Campsite used by requests which do not specify one, this was the only campsite before multi site support
+    public static final int DEFAULT_CAMPSITE_ID = 1;
+
+    private final Set<Integer> campsiteIds;
+
+    @Autowired
+    public CampsiteValidator(@Value("${reservation.campsite-ids:1}") List<Integer> campsiteIds) {
+        this.campsiteIds = Set.copyOf(campsiteIds);
+    }
+
+    public boolean validateCampsite(Integer campsiteId) {
+        return campsiteId != null && campsiteIds.contains(campsiteId);
+    }
+
+    public boolean validateCampsites(List<Integer> campsiteIds) {
+        return campsiteIds != null && !campsiteIds.isEmpty() && campsiteIds.stream().allMatch(this::validateCampsite);
+    }
+}
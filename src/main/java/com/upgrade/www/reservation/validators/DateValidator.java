@@ -1,10 +1,11 @@
 package com.upgrade.www.reservation.validators;
 
 import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.repository.BookingCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
-import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 
 @Component
@@ -14,25 +15,54 @@ public class DateValidator {
     private static final int MAX_ADVANCE_PURCHASE = 31;
     private static final long MAX_STAY_LENGTH = 3;
 
-    public boolean validateAvailabilityDataRange(DateRange dateRange, ZoneId zoneId) {
-        return dateRange != null && validateStartDate(dateRange.getStartDate(), zoneId);
+    private final BookableWindow bookableWindow;
+
+    @Autowired
+    public DateValidator(BookableWindow bookableWindow) {
+        this.bookableWindow = bookableWindow;
+    }
+
+    public boolean validateAvailabilityDataRange(DateRange dateRange) {
+        return dateRange != null && validateStartDate(dateRange.getStartDate()) && validateEndDate(dateRange);
     }
 
-    public boolean validateBookingDates(DateRange bookingDates, ZoneId zoneId) {
+    public boolean validateBookingDates(DateRange bookingDates) {
         if (bookingDates == null) return false;
 
+        return validateStayLength(bookingDates) && validateStartDate(bookingDates.getStartDate());
+    }
+
+    public boolean validateStayLength(DateRange bookingDates) {
+        if (bookingDates == null || bookingDates.getStartDate() == null || bookingDates.getEndDate() == null) return false;
+
         final long lengthOfStay = ChronoUnit.DAYS.between(bookingDates.getStartDate(), bookingDates.getEndDate());
-        return lengthOfStay > 0 && lengthOfStay <= MAX_STAY_LENGTH && validateStartDate(bookingDates.getStartDate(), zoneId);
+        return lengthOfStay > 0 && lengthOfStay <= MAX_STAY_LENGTH;
+    }
+
+    /**
+     * @return latest start date which can be booked today, the day after it is released at midnight
+     */
+    public LocalDate getLastReleasedStartDate() {
+        return bookableWindow.getToday().plusDays(MAX_ADVANCE_PURCHASE - 1);
+    }
+
+    /**
+     * Validates if the end date is not before the start date and within the booking calendar, which ends in 2149
+     */
+    private boolean validateEndDate(DateRange dateRange) {
+        final LocalDate endDate = dateRange.getEndDate();
+        return endDate != null && !endDate.isBefore(dateRange.getStartDate()) && !endDate.isAfter(BookingCache.CALENDAR_END);
     }
 
     /**
      * Validates if the start date is after today and before 31 days (30 days as a month)
      * Assumption that startDate can be on day 30 which means a guest can stay upto day 33.
+     * Today is the cached day of the {@link BookableWindow} in the campsite timezone.
      * @param startDate booking sta
      * @return true if it is a valid booking range else false
      */
-    private boolean validateStartDate(LocalDate startDate, ZoneId zoneId) {
-        LocalDate now = LocalDate.now(zoneId);
+    private boolean validateStartDate(LocalDate startDate) {
+        LocalDate now = bookableWindow.getToday();
         LocalDate validEndDate = now.plusDays(MAX_ADVANCE_PURCHASE);
         return startDate != null && startDate.isAfter(now) && startDate.isBefore(validEndDate);
     }
@@ -0,0 +1,61 @@
+package com.upgrade.www.reservation;
+
+import com.upgrade.www.reservation.models.input.CancellationRequest;
+import com.upgrade.www.reservation.models.input.ReservationRequest;
+import com.upgrade.www.reservation.models.input.ReservationUpdateRequest;
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+class ReactiveReservationSystemApplicationTests {
+
+	@Autowired
+	private WebTestClient webTestClient;
+
+	@Test
+	void testReactiveBookingRequests() {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		ReservationRequest request1 = new ReservationRequest("f1", "l1", "f1@l1.com", tomorrow.plusDays(17).toString(), tomorrow.plusDays(19).toString());
+		ReservationRequest overlapReservation = new ReservationRequest("f2", "l2", "f2@l2.com", tomorrow.plusDays(18).toString(), tomorrow.plusDays(19).toString());
+		ReservationRequest exceedLengthOfStayRequest = new ReservationRequest("f3", "l3", "f3@l3.com", tomorrow.plusDays(1).toString(), tomorrow.plusDays(6).toString());
+
+		ReservationResponse reservationResponse = webTestClient.post().uri("/makeReservation").contentType(MediaType.APPLICATION_JSON).bodyValue(request1)
+				.exchange().expectStatus().isOk().expectBody(ReservationResponse.class).returnResult().getResponseBody();
+		assertNotNull(reservationResponse);
+		String bookingId = reservationResponse.getReservationDetails().get(0).getId();
+
+		webTestClient.post().uri("/makeReservation").contentType(MediaType.APPLICATION_JSON).bodyValue(overlapReservation).exchange().expectStatus().is5xxServerError();
+		webTestClient.post().uri("/makeReservation").contentType(MediaType.APPLICATION_JSON).bodyValue(exceedLengthOfStayRequest).exchange().expectStatus().is4xxClientError();
+		webTestClient.get().uri("/getReservation?bookingId={bookingId}&email={email}", bookingId, request1.getEmail()).exchange().expectStatus().isOk();
+		webTestClient.get().uri("/getReservation?bookingId={bookingId}&email={email}", "unknown", request1.getEmail()).exchange().expectStatus().isNotFound();
+
+		ReservationUpdateRequest updateRequest = new ReservationUpdateRequest(bookingId, request1.getEmail(), tomorrow.plusDays(18).toString(), tomorrow.plusDays(20).toString());
+		ReservationResponse modifyResponse = webTestClient.post().uri("/modifyReservation").contentType(MediaType.APPLICATION_JSON).bodyValue(updateRequest)
+				.exchange().expectStatus().isOk().expectBody(ReservationResponse.class).returnResult().getResponseBody();
+		assertNotNull(modifyResponse);
+		String modifiedBookingId = modifyResponse.getReservationDetails().get(1).getId();
+
+		CancellationRequest cancellationRequest = new CancellationRequest(modifiedBookingId, request1.getEmail());
+		ReservationResponse cancelResponse = webTestClient.put().uri("/cancelReservation").contentType(MediaType.APPLICATION_JSON).bodyValue(cancellationRequest)
+				.exchange().expectStatus().isOk().expectBody(ReservationResponse.class).returnResult().getResponseBody();
+		assertNotNull(cancelResponse);
+		long version = cancelResponse.getReservationDetails().get(0).getVersion();
+
+		// Availability read after the cancellation is applied stays unchanged until the next booking of the campsite
+		String eTag = webTestClient.get().uri("/getAvailability?minVersion={version}", version).exchange().expectStatus().isOk()
+				.returnResult(String.class).getResponseHeaders().getETag();
+		assertNotNull(eTag);
+		webTestClient.get().uri("/getAvailability").header(HttpHeaders.IF_NONE_MATCH, eTag).exchange().expectStatus().isNotModified();
+	}
+}
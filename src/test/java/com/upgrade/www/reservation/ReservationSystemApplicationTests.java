@@ -2,19 +2,36 @@ package com.upgrade.www.reservation;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.upgrade.www.reservation.models.input.CancellationRequest;
+import com.upgrade.www.reservation.models.input.HoldRequest;
 import com.upgrade.www.reservation.models.input.ReservationRequest;
 import com.upgrade.www.reservation.models.input.ReservationUpdateRequest;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.models.output.BatchReservationResponse;
+import com.upgrade.www.reservation.models.output.ReservationPageResponse;
 import com.upgrade.www.reservation.models.output.ReservationResponse;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -93,4 +110,194 @@ class ReservationSystemApplicationTests {
 		}
 	}
 
+	@Test
+	void testMultipleCampsiteBookingRequests() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		ReservationRequest campsite2Request = new ReservationRequest("f1", "l1", "f1@l1.com", tomorrow.plusDays(25).toString(), tomorrow.plusDays(27).toString());
+		campsite2Request.setCampsiteId(2);
+		ReservationRequest campsite3Request = new ReservationRequest("f2", "l2", "f2@l2.com", tomorrow.plusDays(25).toString(), tomorrow.plusDays(27).toString());
+		campsite3Request.setCampsiteId(3);
+		ReservationRequest unknownCampsiteRequest = new ReservationRequest("f3", "l3", "f3@l3.com", tomorrow.plusDays(25).toString(), tomorrow.plusDays(27).toString());
+		unknownCampsiteRequest.setCampsiteId(-1);
+
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(campsite2Request))).andExpect(status().isOk());
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(campsite3Request))).andExpect(status().isOk());
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(campsite2Request))).andExpect(status().is5xxServerError());
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(unknownCampsiteRequest))).andExpect(status().is4xxClientError());
+		mockMvc.perform(get("/getCampsitesAvailability").param("campsiteIds", "2,3,4")).andExpect(status().isOk());
+	}
+
+	@Test
+	void testHotPathMetricsAreExposed() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		ReservationRequest request = new ReservationRequest("f1", "l1", "f1@l1.com", tomorrow.plusDays(22).toString(), tomorrow.plusDays(23).toString());
+		request.setCampsiteId(4);
+
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))).andExpect(status().isOk());
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))).andExpect(status().is5xxServerError());
+
+		mockMvc.perform(get("/actuator/metrics/reservation.commit.lock.wait")).andExpect(status().isOk());
+		mockMvc.perform(get("/actuator/metrics/reservation.commit.lock.hold")).andExpect(status().isOk());
+		mockMvc.perform(get("/actuator/metrics/reservation.bookings.rejected").param("tag", "reason:unavailable")).andExpect(status().isOk());
+		mockMvc.perform(get("/actuator/metrics/reservation.cache.pending.updates")).andExpect(status().isOk());
+		mockMvc.perform(get("/actuator/metrics/http.server.requests").param("tag", "uri:/makeReservation")).andExpect(status().isOk());
+	}
+
+	@Test
+	void testBatchBookingRequests() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		ReservationRequest request1 = new ReservationRequest("f1", "l1", "f1@l1.com", tomorrow.plusDays(5).toString(), tomorrow.plusDays(7).toString());
+		request1.setCampsiteId(5);
+		ReservationRequest overlapReservation = new ReservationRequest("f2", "l2", "f2@l2.com", tomorrow.plusDays(6).toString(), tomorrow.plusDays(7).toString());
+		overlapReservation.setCampsiteId(5);
+		ReservationRequest missingNameRequest = new ReservationRequest("f3", "", "f3@l3.com", tomorrow.plusDays(8).toString(), tomorrow.plusDays(9).toString());
+		ReservationRequest request4 = new ReservationRequest("f4", "l4", "f4@l4.com", tomorrow.plusDays(5).toString(), tomorrow.plusDays(7).toString());
+		request4.setCampsiteId(6);
+
+		MvcResult mvcResult = mockMvc.perform(post("/makeReservations").contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(List.of(request1, overlapReservation, missingNameRequest, request4)))).andExpect(status().isOk()).andReturn();
+		BatchReservationResponse batchResponse = objectMapper.readerFor(BatchReservationResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+
+		assertEquals(4, batchResponse.getReservations().size());
+		assertEquals(1, batchResponse.getReservations().get(0).getReservationDetails().size());
+		assertEquals(1, batchResponse.getReservations().get(1).getErrors().size());
+		assertEquals(1, batchResponse.getReservations().get(2).getErrors().size());
+		assertEquals(1, batchResponse.getReservations().get(3).getReservationDetails().size());
+		mockMvc.perform(post("/makeReservations").contentType(MediaType.APPLICATION_JSON).content("[]")).andExpect(status().is4xxClientError());
+	}
+
+	@Test
+	void testGuestReservationsArePaged() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		String email = "pages@test.com";
+		String firstBookingId = null;
+		for (int i = 0; i < 3; i++) {
+			ReservationRequest request = new ReservationRequest("f1", "l1", email, tomorrow.plusDays(i * 2 + 1).toString(), tomorrow.plusDays(i * 2 + 2).toString());
+			request.setCampsiteId(8);
+			MvcResult mvcResult = mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))).andReturn();
+			ReservationResponse reservationResponse = objectMapper.readerFor(ReservationResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+			if (firstBookingId == null) {
+				firstBookingId = reservationResponse.getReservationDetails().get(0).getId();
+			}
+		}
+		mockMvc.perform(put("/cancelReservation").contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(new CancellationRequest(firstBookingId, email)))).andExpect(status().isOk());
+
+		MvcResult mvcResult = mockMvc.perform(get("/getReservations").param("email", email).param("size", "2")).andExpect(status().isOk()).andReturn();
+		ReservationPageResponse pageResponse = objectMapper.readerFor(ReservationPageResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		assertEquals(3, pageResponse.getTotalReservations());
+		assertEquals(2, pageResponse.getReservationDetails().size());
+		assertEquals(firstBookingId, pageResponse.getReservationDetails().get(0).getId());
+
+		mvcResult = mockMvc.perform(get("/getReservations").param("email", email).param("status", "confirmed")
+				.param("startDate", tomorrow.plusDays(4).toString()).param("endDate", tomorrow.plusDays(10).toString())).andExpect(status().isOk()).andReturn();
+		pageResponse = objectMapper.readerFor(ReservationPageResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		assertEquals(1, pageResponse.getTotalReservations());
+		assertEquals(tomorrow.plusDays(5), pageResponse.getReservationDetails().get(0).getStartDate());
+
+		mockMvc.perform(get("/getReservations").param("email", email).param("status", "unknown")).andExpect(status().is4xxClientError());
+		mockMvc.perform(get("/getReservations").param("email", email).param("size", "0")).andExpect(status().is4xxClientError());
+	}
+
+	@Test
+	void testAvailabilityIsRevalidatedWithETags() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		MvcResult mvcResult = mockMvc.perform(get("/getAvailability").param("campsiteId", "9")).andExpect(status().isOk()).andReturn();
+		String eTag = mvcResult.getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotNull(eTag);
+
+		mockMvc.perform(get("/getAvailability").param("campsiteId", "9").header(HttpHeaders.IF_NONE_MATCH, eTag)).andExpect(status().isNotModified());
+		mockMvc.perform(get("/getAvailability").param("campsiteId", "10").header(HttpHeaders.IF_NONE_MATCH, eTag)).andExpect(status().isOk());
+
+		ReservationRequest request = new ReservationRequest("f1", "l1", "f1@l1.com", tomorrow.plusDays(12).toString(), tomorrow.plusDays(13).toString());
+		request.setCampsiteId(9);
+		mvcResult = mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))).andReturn();
+		ReservationResponse reservationResponse = objectMapper.readerFor(ReservationResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		long version = reservationResponse.getReservationDetails().get(0).getVersion();
+
+		// The booking moves the calendar version so the held availability is stale
+		mvcResult = mockMvc.perform(get("/getAvailability").param("campsiteId", "9").param("minVersion", String.valueOf(version))
+				.header(HttpHeaders.IF_NONE_MATCH, eTag)).andExpect(status().isOk()).andReturn();
+		assertNotEquals(eTag, mvcResult.getResponse().getHeader(HttpHeaders.ETAG));
+		AvailabilityDetailsResponse availabilityResponse = objectMapper.readerFor(AvailabilityDetailsResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		assertFalse(availabilityResponse.getAvailableDates().contains(tomorrow.plusDays(12)));
+	}
+
+	@Test
+	void testAvailabilityIsAsFreshAsTheRequestedVersion() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		ReservationRequest request = new ReservationRequest("f1", "l1", "f1@l1.com", tomorrow.plusDays(2).toString(), tomorrow.plusDays(4).toString());
+		request.setCampsiteId(7);
+
+		MvcResult mvcResult = mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))).andReturn();
+		ReservationResponse reservationResponse = objectMapper.readerFor(ReservationResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		long version = reservationResponse.getReservationDetails().get(0).getVersion();
+
+		mvcResult = mockMvc.perform(get("/getAvailability").param("campsiteId", "7").param("startDate", tomorrow.toString())
+				.param("endDate", tomorrow.plusDays(5).toString()).param("minVersion", String.valueOf(version))).andExpect(status().isOk()).andReturn();
+		AvailabilityDetailsResponse availabilityResponse = objectMapper.readerFor(AvailabilityDetailsResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		assertEquals(List.of(tomorrow, tomorrow.plusDays(1), tomorrow.plusDays(4)), availabilityResponse.getAvailableDates());
+
+		mockMvc.perform(get("/getAvailability").param("campsiteId", "7").param("minVersion", String.valueOf(Long.MAX_VALUE))).andExpect(status().is4xxClientError());
+	}
+
+	@Test
+	void testRetriesWithAnIdempotencyKeyAreNotBookedAgain() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		ReservationRequest request = new ReservationRequest("f1", "l1", "retry@test.com", tomorrow.plusDays(20).toString(), tomorrow.plusDays(22).toString());
+		request.setCampsiteId(10);
+		String content = objectMapper.writeValueAsString(request);
+
+		// Duplicates in flight wait for the first request instead of being rejected as not available
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<MvcResult>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(executor.submit(() -> mockMvc.perform(post("/makeReservation").header("Idempotency-Key", "retry-key")
+					.contentType(MediaType.APPLICATION_JSON).content(content)).andExpect(status().isOk()).andReturn()));
+		}
+		Set<String> bookingIds = new HashSet<>();
+		for (Future<MvcResult> future : futures) {
+			ReservationResponse reservationResponse = objectMapper.readerFor(ReservationResponse.class).readValue(future.get().getResponse().getContentAsString());
+			bookingIds.add(reservationResponse.getReservationDetails().get(0).getId());
+		}
+		executor.shutdown();
+		assertEquals(1, bookingIds.size());
+
+		MvcResult mvcResult = mockMvc.perform(get("/getReservations").param("email", "retry@test.com")).andExpect(status().isOk()).andReturn();
+		ReservationPageResponse pageResponse = objectMapper.readerFor(ReservationPageResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		assertEquals(1, pageResponse.getTotalReservations());
+
+		request.setCampsiteId(9);
+		mockMvc.perform(post("/makeReservation").header("Idempotency-Key", "retry-key").contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(request))).andExpect(status().is4xxClientError());
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(content)).andExpect(status().is5xxServerError());
+
+		CancellationRequest cancellationRequest = new CancellationRequest(bookingIds.iterator().next(), "retry@test.com");
+		for (int i = 0; i < 2; i++) {
+			mockMvc.perform(put("/cancelReservation").header("Idempotency-Key", "retry-key").contentType(MediaType.APPLICATION_JSON)
+					.content(objectMapper.writeValueAsString(cancellationRequest))).andExpect(status().isOk());
+		}
+	}
+
+	@Test
+	void testHeldNightsAreBookedOnceTheHoldIsConfirmed() throws Exception {
+		LocalDate tomorrow = LocalDate.now().plusDays(1);
+		ReservationRequest request = new ReservationRequest("f1", "l1", "hold@test.com", tomorrow.plusDays(24).toString(), tomorrow.plusDays(26).toString());
+		request.setCampsiteId(8);
+		String content = objectMapper.writeValueAsString(request);
+
+		MvcResult mvcResult = mockMvc.perform(post("/holdReservation").contentType(MediaType.APPLICATION_JSON).content(content)).andExpect(status().isOk()).andReturn();
+		ReservationResponse reservationResponse = objectMapper.readerFor(ReservationResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		assertEquals("HELD", reservationResponse.getReservationDetails().get(0).getStatus());
+		mockMvc.perform(post("/makeReservation").contentType(MediaType.APPLICATION_JSON).content(content)).andExpect(status().is5xxServerError());
+
+		HoldRequest holdRequest = new HoldRequest(reservationResponse.getReservationDetails().get(0).getId(), "hold@test.com");
+		mvcResult = mockMvc.perform(put("/confirmHold").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(holdRequest)))
+				.andExpect(status().isOk()).andReturn();
+		reservationResponse = objectMapper.readerFor(ReservationResponse.class).readValue(mvcResult.getResponse().getContentAsString());
+		assertEquals("CONFIRMED", reservationResponse.getReservationDetails().get(0).getStatus());
+		mockMvc.perform(put("/releaseHold").contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(holdRequest)))
+				.andExpect(status().is4xxClientError());
+	}
+
 }
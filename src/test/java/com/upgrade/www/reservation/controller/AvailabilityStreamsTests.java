@@ -0,0 +1,115 @@
+package com.upgrade.www.reservation.controller;
+
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.InProcessBookingCacheProvider;
+import com.upgrade.www.reservation.service.AvailabilityFeed;
+import com.upgrade.www.reservation.service.AvailabilityService;
+import com.upgrade.www.reservation.validators.BookableWindow;
+import com.upgrade.www.reservation.validators.CampsiteValidator;
+import com.upgrade.www.reservation.validators.DateValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvailabilityStreamsTests {
+
+	private static final int CAMPSITE_ID = 1;
+
+	private final BookableWindow bookableWindow = new BookableWindow();
+	private final LocalDate firstNight = bookableWindow.getToday().plusDays(1);
+	private final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+	private final BookingChangeApplier bookingChangeApplier = new BookingChangeApplier(bookingCache, new ReservationMetrics(new SimpleMeterRegistry()));
+	private final AvailabilityFeed availabilityFeed = new AvailabilityFeed(bookingChangeApplier);
+	private final AvailabilityService availabilityService = new AvailabilityService(bookingCache, bookingChangeApplier,
+			new DateValidator(bookableWindow), new CampsiteValidator(List.of(CAMPSITE_ID)), bookableWindow);
+	// A single sender thread, which a stalled client would keep from every other stream
+	private final AvailabilityStreams availabilityStreams = new AvailabilityStreams(availabilityService, availabilityFeed, 60_000, 1, 100);
+
+	@AfterEach
+	void closeStreams() {
+		availabilityStreams.close();
+		bookingChangeApplier.close();
+	}
+
+	@Test
+	void testClientWhichStopsReadingIsClosedWithoutHoldingUpTheOthers() throws Exception {
+		final RecordingEmitter stalledEmitter = new RecordingEmitter(1);
+		availabilityStreams.open(window(), stalledEmitter);
+		availabilityFeed.changeApplied(1, emptyList(), List.of(booking(0, 1)));
+		assertTrue(stalledEmitter.stalled.await(5, TimeUnit.SECONDS));
+
+		// The change for the second stream needs the sender thread the stalled stream is blocked on
+		final RecordingEmitter emitter = new RecordingEmitter(Integer.MAX_VALUE);
+		availabilityStreams.open(window(), emitter);
+		availabilityFeed.changeApplied(2, emptyList(), List.of(booking(1, 2)));
+
+		assertTrue(emitter.changeSent.await(5, TimeUnit.SECONDS));
+		assertTrue(stalledEmitter.failed.await(5, TimeUnit.SECONDS));
+		// The closed stream hears no more changes
+		availabilityFeed.changeApplied(3, emptyList(), List.of(booking(2, 3)));
+		assertEquals(2, stalledEmitter.sends.get());
+	}
+
+	private AvailabilityWindow window() {
+		return new AvailabilityWindow(CAMPSITE_ID, new DateRange(firstNight, firstNight.plusDays(10)), 0);
+	}
+
+	private BookingDetail booking(int firstNightOffset, int checkoutOffset) {
+		return new BookingDetail("id", CAMPSITE_ID, "guest@test.com",
+				new DateRange(firstNight.plusDays(firstNightOffset), firstNight.plusDays(checkoutOffset)), BookingStatus.CONFIRMED);
+	}
+
+	// Takes the first events, then blocks every send as a write to a client which stopped reading does
+	private static class RecordingEmitter extends SseEmitter {
+
+		private final int eventsRead;
+		private final AtomicInteger sends = new AtomicInteger();
+		private final CountDownLatch stalled = new CountDownLatch(1);
+		private final CountDownLatch changeSent = new CountDownLatch(1);
+		private final CountDownLatch failed = new CountDownLatch(1);
+
+		RecordingEmitter(int eventsRead) {
+			this.eventsRead = eventsRead;
+		}
+
+		@Override
+		public void send(SseEventBuilder event) throws IOException {
+			if (sends.incrementAndGet() <= eventsRead) {
+				if (sends.get() > 1) {
+					changeSent.countDown();
+				}
+				return;
+			}
+			stalled.countDown();
+			try {
+				new CountDownLatch(1).await();
+			} catch (InterruptedException exception) {
+				throw new InterruptedIOException("Write interrupted");
+			}
+		}
+
+		@Override
+		public void completeWithError(Throwable exception) {
+			failed.countDown();
+		}
+	}
+}
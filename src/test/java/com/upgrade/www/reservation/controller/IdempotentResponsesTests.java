@@ -0,0 +1,76 @@
+package com.upgrade.www.reservation.controller;
+
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IdempotentResponsesTests {
+
+	private final IdempotentResponses idempotentResponses = new IdempotentResponses(100, 60);
+	private final AtomicInteger writes = new AtomicInteger();
+
+	@Test
+	void testRetryOfAWriteCancelledByItsClientGetsItsResponse() {
+		final CompletableFuture<ResponseEntity<ReservationResponse>> commit = new CompletableFuture<>();
+		final ReservationResponse body = new ReservationResponse(emptyList(), emptyList());
+
+		final Disposable firstAttempt = idempotentResponses.execute("book", "key", "fingerprint", write(commit)).subscribe();
+		// The client goes away before the write commits
+		firstAttempt.dispose();
+		commit.complete(ResponseEntity.status(HttpStatus.CREATED).body(body));
+
+		final ResponseEntity<ReservationResponse> retry = idempotentResponses.execute("book", "key", "fingerprint", write(commit)).block();
+		assertEquals(HttpStatus.CREATED.value(), retry.getStatusCodeValue());
+		assertSame(body, retry.getBody());
+		assertEquals(1, writes.get());
+	}
+
+	@Test
+	void testRetryWhileACancelledWriteIsInFlightWaitsForItsResponse() throws Exception {
+		final CompletableFuture<ResponseEntity<ReservationResponse>> commit = new CompletableFuture<>();
+		final ReservationResponse body = new ReservationResponse(emptyList(), emptyList());
+
+		idempotentResponses.execute("book", "key", "fingerprint", write(commit)).subscribe().dispose();
+		// The retry arrives before the write of the first attempt commits
+		final CompletableFuture<ResponseEntity<ReservationResponse>> retry = idempotentResponses.execute("book", "key", "fingerprint", write(commit)).toFuture();
+		assertFalse(retry.isDone());
+		commit.complete(ResponseEntity.status(HttpStatus.CREATED).body(body));
+
+		assertEquals(HttpStatus.CREATED.value(), retry.get(5, TimeUnit.SECONDS).getStatusCodeValue());
+		assertSame(body, retry.get().getBody());
+		assertEquals(1, writes.get());
+	}
+
+	@Test
+	void testRetryOfAFailedWriteRunsItAgain() {
+		final CompletableFuture<ResponseEntity<ReservationResponse>> failedCommit = CompletableFuture.failedFuture(new IllegalStateException("Lost"));
+		assertThrows(IllegalStateException.class, () -> idempotentResponses.execute("book", "key", "fingerprint", write(failedCommit)).block());
+
+		final ResponseEntity<ReservationResponse> retry = idempotentResponses.execute("book", "key", "fingerprint",
+				write(CompletableFuture.completedFuture(ResponseEntity.ok(new ReservationResponse(emptyList(), List.of()))))).block();
+		assertEquals(HttpStatus.OK.value(), retry.getStatusCodeValue());
+		assertEquals(2, writes.get());
+	}
+
+	private Supplier<Mono<ResponseEntity<ReservationResponse>>> write(CompletableFuture<ResponseEntity<ReservationResponse>> commit) {
+		return () -> {
+			writes.incrementAndGet();
+			return Mono.fromFuture(commit);
+		};
+	}
+}
@@ -0,0 +1,56 @@
+package com.upgrade.www.reservation.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.www.reservation.models.output.AvailabilityDetailsResponse;
+import com.upgrade.www.reservation.models.output.ReservationDetail;
+import com.upgrade.www.reservation.models.output.ReservationPageResponse;
+import com.upgrade.www.reservation.models.output.ReservationResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseSerializationModuleTests {
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private final ObjectMapper beanMapper = Jackson2ObjectMapperBuilder.json().build();
+	private final ObjectMapper moduleMapper = Jackson2ObjectMapperBuilder.json().modulesToInstall(new ResponseSerializationModule()).build();
+
+	@Test
+	void testAvailabilityIsWrittenAsTheBeanSerializerWritesIt() throws Exception {
+		final List<LocalDate> availableDates = new ArrayList<>();
+		for (int night = 0; night < 30; night++) {
+			availableDates.add(firstNight.plusDays(night));
+		}
+		// Days outside of the cached text are formatted as they are written
+		availableDates.add(LocalDate.of(1999, 12, 31));
+		availableDates.add(LocalDate.of(2400, 2, 29));
+
+		assertSameJson(new AvailabilityDetailsResponse(availableDates, emptyList()));
+		assertSameJson(new AvailabilityDetailsResponse(emptyList(), List.of("Start date should be before end date", "\"quoted\" \u00e9")));
+		assertSameJson(new AvailabilityDetailsResponse(null, null));
+	}
+
+	@Test
+	void testReservationsAreWrittenAsTheBeanSerializerWritesThem() throws Exception {
+		final ReservationDetail reservation = new ReservationDetail("1234", 2, "guest@test.com", "CONFIRMED", firstNight, firstNight.plusDays(3), 42L);
+		final ReservationDetail emptyReservation = new ReservationDetail(null, 0, null, null, null, null, 0L);
+
+		assertSameJson(new ReservationResponse(Arrays.asList(reservation, emptyReservation, null), emptyList()));
+		assertSameJson(new ReservationResponse(emptyList(), List.of("No reservation details found")));
+		assertSameJson(new ReservationResponse(null, null));
+		// Responses still serialized as beans write their reservations with the module
+		assertSameJson(new ReservationPageResponse(List.of(reservation), 0, 20, 1, emptyList()));
+		assertSameJson(reservation);
+	}
+
+	private void assertSameJson(Object response) throws Exception {
+		assertEquals(beanMapper.writeValueAsString(response), moduleMapper.writeValueAsString(response));
+	}
+}
@@ -0,0 +1,296 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingJournal;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingSnapshotStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookingRepositoryConcurrencyTests {
+
+	private static final int THREADS = 16;
+	private static final int OPERATIONS_PER_THREAD = 2_000;
+	private static final int NIGHTS = 40;
+	private static final int MAX_STAY = 3;
+	private static final int CAMPSITE_ID = 1;
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+	private final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(10, 64);
+	private BookingChangeApplier bookingChangeApplier;
+
+	@AfterEach
+	void closeApplier() {
+		holdExpiryWheel.close();
+		if (bookingChangeApplier != null) {
+			bookingChangeApplier.close();
+		}
+	}
+
+	@Test
+	void testNoNightIsEverDoubleBooked() throws Exception {
+		final BookingRepository bookingRepository = openRepository(new ReservationMetrics(new SimpleMeterRegistry()));
+		final List<BookingDetail> bookings = new CopyOnWriteArrayList<>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+		try {
+			final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+						runRandomOperation(bookingRepository, bookings);
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final boolean[] confirmedNights = new boolean[NIGHTS + MAX_STAY];
+		for (BookingDetail booking : bookings) {
+			if (booking.getStatus() != BookingStatus.CONFIRMED) {
+				continue;
+			}
+			for (LocalDate night = booking.getStartDate(); night.isBefore(booking.getEndDate()); night = night.plusDays(1)) {
+				final int index = (int) (night.toEpochDay() - firstNight.toEpochDay());
+				assertFalse(confirmedNights[index], "Night " + night + " is booked by more than one confirmed booking");
+				confirmedNights[index] = true;
+			}
+		}
+
+		// Once caught up the cache must agree with the records, changes to the same nights are applied in commit order
+		bookingChangeApplier.awaitVersion(bookingChangeApplier.getPublishedVersion()).get(10, TimeUnit.SECONDS);
+		final List<LocalDate> availableNights = bookingCache.getAvailableDates(CAMPSITE_ID, new DateRange(firstNight, firstNight.plusDays(confirmedNights.length)));
+		for (int i = 0; i < confirmedNights.length; i++) {
+			assertEquals(!confirmedNights[i], availableNights.contains(firstNight.plusDays(i)), "Cache disagrees on night " + firstNight.plusDays(i));
+		}
+
+		// Every night without a confirmed booking must have been released, every other night must still be taken
+		for (int i = 0; i < confirmedNights.length; i++) {
+			final DateRange night = new DateRange(firstNight.plusDays(i), firstNight.plusDays(i + 1));
+			if (confirmedNights[i]) {
+				assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "check@test.com", night));
+			} else {
+				assertTrue(bookingRepository.completeBooking(CAMPSITE_ID, "check@test.com", night) != null);
+			}
+		}
+	}
+
+	@Test
+	void testBatchConflictsAreWonByTheEarlierBooking() throws Exception {
+		final BookingRepository bookingRepository = openRepository(new ReservationMetrics(new SimpleMeterRegistry()));
+		final List<BatchBooking> batch = List.of(
+				new BatchBooking(CAMPSITE_ID, "first@test.com", new DateRange(firstNight, firstNight.plusDays(2))),
+				new BatchBooking(2, "second@test.com", new DateRange(firstNight, firstNight.plusDays(2))),
+				new BatchBooking(CAMPSITE_ID, "third@test.com", new DateRange(firstNight.plusDays(1), firstNight.plusDays(3))),
+				new BatchBooking(CAMPSITE_ID, "fourth@test.com", new DateRange(firstNight.plusDays(2), firstNight.plusDays(3))),
+				BatchBooking.rejected("Need a valid booking id and email")
+		);
+
+		bookingRepository.completeBookings(batch);
+
+		assertNotNull(batch.get(0).getBooking());
+		assertNotNull(batch.get(1).getBooking());
+		assertNull(batch.get(2).getBooking());
+		assertEquals("Camp site not available for the selected dates", batch.get(2).getError());
+		assertNotNull(batch.get(3).getBooking());
+		assertEquals("Need a valid booking id and email", batch.get(4).getError());
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", new DateRange(firstNight.plusDays(1), firstNight.plusDays(2))));
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(2, "other@test.com", new DateRange(firstNight, firstNight.plusDays(1))));
+	}
+
+	@Test
+	void testConcurrentBatchesAcrossCampsitesNeverDoubleBook() throws Exception {
+		final BookingRepository bookingRepository = openRepository(new ReservationMetrics(new SimpleMeterRegistry()));
+		final List<BookingDetail> bookings = new CopyOnWriteArrayList<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(() -> {
+					final ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int j = 0; j < OPERATIONS_PER_THREAD / 10; j++) {
+						final List<BatchBooking> batch = new ArrayList<>();
+						for (int k = 0; k < 5; k++) {
+							batch.add(new BatchBooking(1 + random.nextInt(3), "guest@test.com", randomDateRange(random)));
+						}
+						for (BatchBooking item : bookingRepository.completeBookings(batch)) {
+							if (item.getBooking() != null) {
+								bookings.add(item.getBooking());
+							}
+						}
+						// Single bookings interleave with the batches on the same shards
+						try {
+							bookings.add(bookingRepository.completeBooking(1 + random.nextInt(3), "guest@test.com", randomDateRange(random)));
+						} catch (ReservationException exception) {
+							// Expected when the nights are taken
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final boolean[][] confirmedNights = new boolean[4][NIGHTS + MAX_STAY];
+		for (BookingDetail booking : bookings) {
+			for (LocalDate night = booking.getStartDate(); night.isBefore(booking.getEndDate()); night = night.plusDays(1)) {
+				final int index = (int) (night.toEpochDay() - firstNight.toEpochDay());
+				assertFalse(confirmedNights[booking.getCampsiteId()][index], "Night " + night + " of campsite " + booking.getCampsiteId() + " is double booked");
+				confirmedNights[booking.getCampsiteId()][index] = true;
+			}
+		}
+	}
+
+	@Test
+	void testCommitMetricsAreRecorded() throws Exception {
+		final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		final BookingRepository bookingRepository = openRepository(new ReservationMetrics(meterRegistry));
+		final long initialVersion = bookingChangeApplier.getPublishedVersion();
+		final DateRange nights = new DateRange(firstNight, firstNight.plusDays(2));
+
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nights);
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", nights));
+		bookingRepository.modifyBooking(booking, new DateRange(firstNight.plusDays(1), firstNight.plusDays(3)));
+		assertThrows(ReservationException.class, () -> bookingRepository.modifyBooking(booking, nights));
+
+		assertEquals(1, meterRegistry.counter("reservation.bookings.rejected", "reason", ReservationMetrics.REJECTED_UNAVAILABLE).count());
+		assertEquals(1, meterRegistry.counter("reservation.bookings.rejected", "reason", ReservationMetrics.REJECTED_ALREADY_CANCELLED).count());
+		assertEquals(4, meterRegistry.timer("reservation.commit.lock.wait").count());
+		assertEquals(4, meterRegistry.timer("reservation.commit.lock.hold").count());
+		// Only the successful commits update the cache
+		bookingChangeApplier.awaitVersion(bookingChangeApplier.getPublishedVersion()).get(10, TimeUnit.SECONDS);
+		assertEquals(initialVersion + 2, bookingChangeApplier.getPublishedVersion());
+		assertEquals(2, meterRegistry.timer("reservation.cache.lag").count());
+		assertEquals(0, meterRegistry.get("reservation.cache.pending.updates").gauge().value());
+	}
+
+	@Test
+	void testOverlappingModificationKeepsSharedNightsBookedInCache() throws Exception {
+		final BookingRepository bookingRepository = openRepository(new ReservationMetrics(new SimpleMeterRegistry()));
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", new DateRange(firstNight, firstNight.plusDays(3)));
+		final BookingDetail modifiedBooking = bookingRepository.modifyBooking(booking, new DateRange(firstNight.plusDays(1), firstNight.plusDays(4)));
+
+		assertTrue(booking.getVersion() > 0);
+		assertEquals(booking.getVersion(), modifiedBooking.getVersion());
+		bookingChangeApplier.awaitVersion(modifiedBooking.getVersion()).get(10, TimeUnit.SECONDS);
+		assertTrue(bookingChangeApplier.getAppliedVersion() >= modifiedBooking.getVersion());
+		assertEquals(List.of(firstNight, firstNight.plusDays(4)),
+				new ArrayList<>(bookingCache.getAvailableDates(CAMPSITE_ID, new DateRange(firstNight, firstNight.plusDays(5)))));
+
+		final BookingDetail cancelledBooking = bookingRepository.cancelBooking(modifiedBooking);
+		bookingChangeApplier.awaitVersion(cancelledBooking.getVersion()).get(10, TimeUnit.SECONDS);
+		assertEquals(5, bookingCache.getAvailableDates(CAMPSITE_ID, new DateRange(firstNight, firstNight.plusDays(5))).size());
+	}
+
+	@Test
+	void testEvictingPastNightsKeepsTheBookableWindow() throws Exception {
+		final BookingRepository bookingRepository = openRepository(new ReservationMetrics(new SimpleMeterRegistry()));
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", new DateRange(firstNight, firstNight.plusDays(3)));
+		bookingChangeApplier.awaitVersion(booking.getVersion()).get(10, TimeUnit.SECONDS);
+
+		// As if two midnights passed since the booking
+		final LocalDate today = firstNight.plusDays(2);
+		bookingRepository.evictNightsBefore(today);
+		bookingCache.evictNightsBefore(today);
+
+		assertEquals(List.of(firstNight, firstNight.plusDays(1)),
+				new ArrayList<>(bookingCache.getAvailableDates(CAMPSITE_ID, new DateRange(firstNight, firstNight.plusDays(3)))));
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", new DateRange(firstNight, today)));
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", new DateRange(today, today.plusDays(1))));
+		assertEquals(BookingStatus.CONFIRMED, bookingRepository.getBookingDetails(booking.getId(), "guest@test.com").getStatus());
+	}
+
+	@Test
+	void testHeldNightsAreUnavailableUntilTheHoldExpires() throws Exception {
+		final BookingRepository bookingRepository = openRepository(new ReservationMetrics(new SimpleMeterRegistry()));
+		final DateRange stay = new DateRange(firstNight, firstNight.plusDays(2));
+		final BookingDetail expiringHold = bookingRepository.holdBooking(CAMPSITE_ID, "guest@test.com", stay, 50);
+		bookingChangeApplier.awaitVersion(expiringHold.getVersion()).get(10, TimeUnit.SECONDS);
+
+		assertTrue(bookingCache.getAvailableDates(CAMPSITE_ID, stay).isEmpty());
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay));
+
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (expiringHold.getStatus() == BookingStatus.HELD && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(BookingStatus.CANCELLED, expiringHold.getStatus());
+		assertThrows(ReservationException.class, () -> bookingRepository.confirmHold(expiringHold));
+		bookingChangeApplier.awaitVersion(expiringHold.getVersion()).get(10, TimeUnit.SECONDS);
+		assertEquals(2, bookingCache.getAvailableDates(CAMPSITE_ID, stay).size());
+
+		// A confirmed hold keeps its nights past the ttl
+		final BookingDetail confirmedHold = bookingRepository.confirmHold(bookingRepository.holdBooking(CAMPSITE_ID, "other@test.com", stay, 50));
+		Thread.sleep(200);
+		assertEquals(BookingStatus.CONFIRMED, confirmedHold.getStatus());
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", stay));
+		assertEquals(BookingStatus.CONFIRMED, bookingRepository.releaseHold(confirmedHold).getStatus());
+	}
+
+	private BookingRepository openRepository(ReservationMetrics reservationMetrics) {
+		bookingChangeApplier = new BookingChangeApplier(bookingCache, reservationMetrics);
+		return new InMemoryBookingRepository(bookingCache, bookingChangeApplier, holdExpiryWheel, new SnowflakeBookingIdGenerator(0),
+				new NoOpBookingJournal(), new NoOpBookingSnapshotStore(), reservationMetrics);
+	}
+
+	private void runRandomOperation(BookingRepository bookingRepository, List<BookingDetail> bookings) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int operation = random.nextInt(10);
+
+		try {
+			if (operation < 6 || bookings.isEmpty()) {
+				bookings.add(bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", randomDateRange(random)));
+			} else if (operation < 8) {
+				final BookingDetail booking = bookings.get(random.nextInt(bookings.size()));
+				bookings.add(bookingRepository.modifyBooking(booking, randomDateRange(random)));
+			} else {
+				bookingRepository.cancelBooking(bookings.get(random.nextInt(bookings.size())));
+			}
+		} catch (ReservationException exception) {
+			// Expected when the nights are taken or the booking was already released
+		}
+	}
+
+	private DateRange randomDateRange(ThreadLocalRandom random) {
+		final LocalDate startDate = firstNight.plusDays(random.nextInt(NIGHTS));
+		return new DateRange(startDate, startDate.plusDays(1 + random.nextInt(MAX_STAY)));
+	}
+}
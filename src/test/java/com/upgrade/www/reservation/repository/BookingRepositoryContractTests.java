@@ -0,0 +1,216 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Behaviour every storage backend of the bookings has to share, run once per backend by its subclass
+ */
+abstract class BookingRepositoryContractTests {
+
+	private static final int CAMPSITE_ID = 1;
+	private static final String EMAIL = "guest@test.com";
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+	private final ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+	private final BookingChangeApplier bookingChangeApplier = new BookingChangeApplier(bookingCache, reservationMetrics);
+	private final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(10, 64);
+	private BookingRepository bookingRepository;
+
+	abstract BookingRepository openRepository(BookingCache bookingCache, BookingChangeApplier bookingChangeApplier,
+			HoldExpiryWheel holdExpiryWheel, ReservationMetrics reservationMetrics);
+
+	@BeforeEach
+	void openBookingRepository() {
+		bookingRepository = openRepository(bookingCache, bookingChangeApplier, holdExpiryWheel, reservationMetrics);
+	}
+
+	@AfterEach
+	void closeBookingRepository() {
+		holdExpiryWheel.close();
+		bookingChangeApplier.close();
+	}
+
+	@Test
+	void testTakenNightsAreRejected() throws Exception {
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+
+		assertEquals(BookingStatus.CONFIRMED, booking.getStatus());
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(2, 4)));
+		// The checkout day is free for the next guest, as are the same nights of another campsite
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(3, 5)));
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID + 1, "other@test.com", stay(0, 3)));
+	}
+
+	@Test
+	void testModifiedBookingKeepsTheNightsSharedWithTheOldStay() throws Exception {
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+		final BookingDetail modifiedBooking = bookingRepository.modifyBooking(booking, stay(1, 4));
+
+		assertEquals(BookingStatus.CANCELLED, booking.getStatus());
+		assertEquals(BookingStatus.CONFIRMED, modifiedBooking.getStatus());
+		assertEquals(BookingStatus.CANCELLED, bookingRepository.getBookingDetails(booking.getId(), EMAIL).getStatus());
+		// The first night was freed, the others are still taken
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(0, 1)));
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(3, 4)));
+		assertThrows(ReservationException.class, () -> bookingRepository.modifyBooking(booking, stay(5, 6)));
+	}
+
+	@Test
+	void testCancelledNightsCanBeBookedAgain() throws Exception {
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+
+		assertEquals(BookingStatus.CANCELLED, bookingRepository.cancelBooking(booking).getStatus());
+		assertEquals(BookingStatus.CANCELLED, bookingRepository.cancelBooking(booking).getStatus());
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(0, 3)));
+		assertEquals(BookingStatus.CANCELLED, bookingRepository.getBookingDetails(booking.getId(), EMAIL).getStatus());
+	}
+
+	@Test
+	void testEarlierItemOfABatchWinsAConflict() throws Exception {
+		bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(10, 12));
+		final List<BatchBooking> batch = List.of(
+				new BatchBooking(CAMPSITE_ID, "first@test.com", stay(0, 2)),
+				new BatchBooking(CAMPSITE_ID, "second@test.com", stay(1, 3)),
+				new BatchBooking(CAMPSITE_ID, "third@test.com", stay(11, 13)),
+				new BatchBooking(CAMPSITE_ID + 1, "fourth@test.com", stay(1, 3)));
+
+		bookingRepository.completeBookings(batch);
+
+		assertNotNull(batch.get(0).getBooking());
+		assertNull(batch.get(1).getBooking());
+		assertNotNull(batch.get(1).getError());
+		assertNull(batch.get(2).getBooking());
+		assertNotNull(batch.get(3).getBooking());
+		assertEquals(BookingStatus.CONFIRMED, bookingRepository.getBookingDetails(batch.get(0).getBooking().getId(), "first@test.com").getStatus());
+	}
+
+	@Test
+	void testHeldNightsAreTakenUntilTheHoldIsReleased() throws Exception {
+		final BookingDetail confirmedHold = bookingRepository.holdBooking(CAMPSITE_ID, EMAIL, stay(0, 2), TimeUnit.MINUTES.toMillis(10));
+		final BookingDetail releasedHold = bookingRepository.holdBooking(CAMPSITE_ID, EMAIL, stay(2, 4), TimeUnit.MINUTES.toMillis(10));
+		final BookingDetail expiredHold = bookingRepository.holdBooking(CAMPSITE_ID, EMAIL, stay(4, 6), 50);
+
+		assertEquals(BookingStatus.HELD, confirmedHold.getStatus());
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(1, 3)));
+		assertEquals(BookingStatus.CONFIRMED, bookingRepository.confirmHold(confirmedHold).getStatus());
+		assertEquals(BookingStatus.CANCELLED, bookingRepository.releaseHold(releasedHold).getStatus());
+		assertThrows(ReservationException.class, () -> bookingRepository.confirmHold(releasedHold));
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(2, 4)));
+
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (bookingRepository.getBookingDetails(expiredHold.getId(), EMAIL).getStatus() == BookingStatus.HELD && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(BookingStatus.CANCELLED, bookingRepository.getBookingDetails(expiredHold.getId(), EMAIL).getStatus());
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(4, 6)));
+	}
+
+	@Test
+	void testGuestBookingsAreOrderedByStartDate() throws Exception {
+		final BookingDetail laterBooking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(5, 6));
+		final BookingDetail earlierBooking = bookingRepository.completeBooking(CAMPSITE_ID + 1, EMAIL, stay(0, 1));
+		bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(0, 1));
+
+		final List<BookingDetail> bookings = bookingRepository.getGuestBookings(EMAIL);
+		assertEquals(2, bookings.size());
+		assertEquals(earlierBooking.getId(), bookings.get(0).getId());
+		assertEquals(laterBooking.getId(), bookings.get(1).getId());
+		assertTrue(bookingRepository.getGuestBookings("nobody@test.com").isEmpty());
+		assertNull(bookingRepository.getBookingDetails(laterBooking.getId(), "other@test.com"));
+	}
+
+	@Test
+	void testEvictedNightsAreNoLongerTaken() throws Exception {
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+
+		bookingRepository.evictNightsBefore(firstNight.plusDays(2));
+
+		assertNotNull(bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(0, 2)));
+		assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, "other@test.com", stay(2, 3)));
+		assertEquals(BookingStatus.CONFIRMED, bookingRepository.getBookingDetails(booking.getId(), EMAIL).getStatus());
+	}
+
+	@Test
+	void testExportReadsTheRecordsAsOfItsVersion() throws Exception {
+		final BookingDetail cancelledBooking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 2));
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(2, 4));
+
+		final List<BookingDetail> exported;
+		try (BookingExport export = bookingRepository.exportBookings(null, 0)) {
+			bookingRepository.cancelBooking(cancelledBooking);
+			bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(4, 6));
+			exported = readAll(export);
+		}
+
+		// The cancellation and the booking made after the export opened are not part of it
+		assertEquals(2, exported.size());
+		assertTrue(exported.get(0).getId().compareTo(exported.get(1).getId()) < 0);
+		for (BookingDetail record : exported) {
+			assertEquals(BookingStatus.CONFIRMED, record.getStatus());
+			assertTrue(record.getId().equals(cancelledBooking.getId()) || record.getId().equals(booking.getId()));
+		}
+		try (BookingExport export = bookingRepository.exportBookings(null, 0)) {
+			assertEquals(3, readAll(export).size());
+		}
+	}
+
+	@Test
+	void testExportResumesAfterTheLastRecordReadAndFromItsVersion() throws Exception {
+		bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 2));
+		final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(2, 4));
+		bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(4, 6));
+		bookingChangeApplier.awaitVersion(bookingChangeApplier.getPublishedVersion()).get(10, TimeUnit.SECONDS);
+
+		final String firstId;
+		final long exportVersion;
+		try (BookingExport export = bookingRepository.exportBookings(null, 0)) {
+			firstId = export.next().getId();
+			exportVersion = export.getVersion();
+		}
+		try (BookingExport export = bookingRepository.exportBookings(firstId, 0)) {
+			final List<BookingDetail> remaining = readAll(export);
+			assertEquals(2, remaining.size());
+			assertTrue(firstId.compareTo(remaining.get(0).getId()) < 0);
+		}
+
+		bookingRepository.cancelBooking(booking);
+		bookingChangeApplier.awaitVersion(bookingChangeApplier.getPublishedVersion()).get(10, TimeUnit.SECONDS);
+		try (BookingExport export = bookingRepository.exportBookings(null, exportVersion)) {
+			final List<BookingDetail> changed = readAll(export);
+			assertEquals(1, changed.size());
+			assertEquals(booking.getId(), changed.get(0).getId());
+			assertEquals(BookingStatus.CANCELLED, changed.get(0).getStatus());
+		}
+	}
+
+	private static List<BookingDetail> readAll(BookingExport export) {
+		final List<BookingDetail> records = new ArrayList<>();
+		export.forEachRemaining(records::add);
+		return records;
+	}
+
+	private DateRange stay(int startOffset, int endOffset) {
+		return new DateRange(firstNight.plusDays(startOffset), firstNight.plusDays(endOffset));
+	}
+}
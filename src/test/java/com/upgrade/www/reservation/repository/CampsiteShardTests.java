@@ -0,0 +1,90 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.models.common.DateRange;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CampsiteShardTests {
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private final CampsiteShard campsiteShard = new CampsiteShard(1);
+
+	@Test
+	void testRangesOverlappingAStayAreUnavailable() {
+		campsiteShard.addBookedStay(stay(10, 20));
+		campsiteShard.addBookedStay(stay(30, 31));
+
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(5, 11)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(19, 25)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(12, 14)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(0, 40)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(25, 31)));
+		// The checkout day of a stay is free, as is the night before its first night
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(20, 30)));
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(5, 10)));
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(31, 32)));
+	}
+
+	@Test
+	void testRemovedStayFreesItsNights() {
+		campsiteShard.addBookedStay(stay(0, 3));
+		campsiteShard.addBookedStay(stay(3, 5));
+
+		campsiteShard.removeBookedStay(stay(0, 3));
+		// Only the exact stay is removed, a range which is not a stay frees nothing
+		campsiteShard.removeBookedStay(stay(3, 4));
+
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(0, 3)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(2, 4)));
+	}
+
+	@Test
+	void testEvictionDropsThePastNightsOfTheStays() {
+		campsiteShard.addBookedStay(stay(0, 2));
+		campsiteShard.addBookedStay(stay(2, 5));
+
+		campsiteShard.removeBookedStaysBefore(night(3));
+
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(0, 3)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(3, 4)));
+		// Removing a stay after eviction removes what is left of it
+		campsiteShard.removeBookedStay(stay(0, 2));
+		campsiteShard.removeBookedStay(stay(2, 5));
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(0, 6)));
+	}
+
+	@Test
+	void testRestoredStayKeepsItsEvictedNightsFree() {
+		campsiteShard.addBookedStay(stay(0, 5));
+		campsiteShard.removeBookedStaysBefore(night(2));
+
+		final Map.Entry<Long, Long> removedStay = campsiteShard.removeBookedStay(stay(0, 5));
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(0, 5)));
+		campsiteShard.restoreBookedStay(removedStay);
+
+		// Only what was left of the stay is booked again
+		assertEquals(Map.entry(night(2).toEpochDay(), night(5).toEpochDay()), removedStay);
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(0, 2)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(1, 3)));
+		assertFalse(campsiteShard.isDateRangeAvailable(stay(4, 6)));
+		// Nothing is removed for a range which is not a stay, nor restored from it
+		assertNull(campsiteShard.removeBookedStay(stay(6, 8)));
+		campsiteShard.restoreBookedStay(null);
+		assertTrue(campsiteShard.isDateRangeAvailable(stay(5, 8)));
+	}
+
+	private DateRange stay(int startOffset, int endOffset) {
+		return new DateRange(night(startOffset), night(endOffset));
+	}
+
+	private LocalDate night(int offset) {
+		return firstNight.plusDays(offset);
+	}
+}
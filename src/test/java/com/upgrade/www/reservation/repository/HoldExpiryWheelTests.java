@@ -0,0 +1,66 @@
+package com.upgrade.www.reservation.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HoldExpiryWheelTests {
+
+	private static final int TIMEOUTS = 10_000;
+
+	// A small wheel so most timeouts are due several turns after they are scheduled
+	private final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(5, 8);
+
+	@AfterEach
+	void closeWheel() {
+		holdExpiryWheel.close();
+	}
+
+	@Test
+	void testOnlyTimeoutsWhichAreNotCancelledFire() throws Exception {
+		final AtomicIntegerArray fired = new AtomicIntegerArray(TIMEOUTS);
+		final CountDownLatch expired = new CountDownLatch(TIMEOUTS / 2);
+		final List<HoldExpiryWheel.Timeout> timeouts = new ArrayList<>(TIMEOUTS);
+
+		for (int i = 0; i < TIMEOUTS; i++) {
+			final int index = i;
+			timeouts.add(holdExpiryWheel.schedule(() -> {
+				fired.incrementAndGet(index);
+				expired.countDown();
+			}, 200 + i % 200, TimeUnit.MILLISECONDS));
+		}
+		// Cancelled well before the shortest deadline
+		for (int i = 1; i < TIMEOUTS; i += 2) {
+			timeouts.get(i).cancel();
+		}
+
+		assertTrue(expired.await(10, TimeUnit.SECONDS));
+		// Leave time for a cancelled timeout to fire by mistake
+		Thread.sleep(300);
+		for (int i = 0; i < TIMEOUTS; i++) {
+			assertEquals(i % 2 == 0 ? 1 : 0, fired.get(i), "timeout " + i);
+		}
+	}
+
+	@Test
+	void testTimeoutsDoNotFireBeforeTheirDeadline() throws Exception {
+		final long scheduledAt = System.nanoTime();
+		final CountDownLatch expired = new CountDownLatch(1);
+		final long[] firedAt = new long[1];
+		holdExpiryWheel.schedule(() -> {
+			firedAt[0] = System.nanoTime();
+			expired.countDown();
+		}, 120, TimeUnit.MILLISECONDS);
+
+		assertTrue(expired.await(10, TimeUnit.SECONDS));
+		assertTrue(firedAt[0] - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(120));
+	}
+}
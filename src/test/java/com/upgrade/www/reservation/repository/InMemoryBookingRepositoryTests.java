@@ -0,0 +1,97 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BatchBooking;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingJournal;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingSnapshotStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryBookingRepositoryTests extends BookingRepositoryContractTests {
+
+	private static final int CAMPSITE_ID = 1;
+	private static final String EMAIL = "guest@test.com";
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+
+	@Override
+	BookingRepository openRepository(BookingCache bookingCache, BookingChangeApplier bookingChangeApplier,
+			HoldExpiryWheel holdExpiryWheel, ReservationMetrics reservationMetrics) {
+		return new InMemoryBookingRepository(bookingCache, bookingChangeApplier, holdExpiryWheel, new SnowflakeBookingIdGenerator(0),
+				new NoOpBookingJournal(), new NoOpBookingSnapshotStore(), reservationMetrics);
+	}
+
+	@Test
+	void testCommitsWhichFailToBeLoggedAreRolledBack() throws Exception {
+		final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+		final ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+		final BookingChangeApplier bookingChangeApplier = new BookingChangeApplier(bookingCache, reservationMetrics);
+		final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(10, 64);
+		final FailingBookingJournal bookingJournal = new FailingBookingJournal();
+		final InMemoryBookingRepository bookingRepository = new InMemoryBookingRepository(bookingCache, bookingChangeApplier, holdExpiryWheel,
+				new SnowflakeBookingIdGenerator(0), bookingJournal, new NoOpBookingSnapshotStore(), reservationMetrics);
+		try {
+			final BookingDetail booking = bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+			final BookingDetail heldBooking = bookingRepository.holdBooking(CAMPSITE_ID, EMAIL, stay(10, 12), 60_000);
+			bookingJournal.failing = true;
+
+			assertThrows(ReservationException.class, () -> bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(4, 6)));
+			assertThrows(ReservationException.class, () -> bookingRepository.modifyBooking(booking, stay(1, 5)));
+			assertThrows(ReservationException.class, () -> bookingRepository.cancelBooking(booking));
+			assertThrows(ReservationException.class, () -> bookingRepository.confirmHold(heldBooking));
+			final CompletionException asyncFailure = assertThrows(CompletionException.class,
+					() -> bookingRepository.completeBookingAsync(CAMPSITE_ID, EMAIL, stay(6, 8)).join());
+			assertTrue(asyncFailure.getCause() instanceof ReservationException);
+			final List<BatchBooking> batch = bookingRepository.completeBookings(List.of(new BatchBooking(CAMPSITE_ID, EMAIL, stay(8, 10))));
+			assertFalse(batch.get(0).isPending());
+			assertEquals("Unable to save the booking please try again", batch.get(0).getError());
+
+			// Only the logged booking is left, with its nights and version, the confirmed hold is released
+			final BookingDetail storedBooking = bookingRepository.getBookingDetails(booking.getId(), EMAIL);
+			assertEquals(BookingStatus.CONFIRMED, storedBooking.getStatus());
+			assertEquals(stay(0, 3).getStartDate(), storedBooking.getStartDate());
+			assertEquals(booking.getVersion(), storedBooking.getVersion());
+			assertEquals(BookingStatus.CANCELLED, heldBooking.getStatus());
+			final List<BookingDetail> guestBookings = bookingRepository.getGuestBookings(EMAIL);
+			assertEquals(2, guestBookings.size());
+			assertEquals(booking.getId(), guestBookings.get(0).getId());
+			assertEquals(heldBooking.getId(), guestBookings.get(1).getId());
+			assertThrows(ReservationException.class, () -> bookingRepository.holdBooking(CAMPSITE_ID, "other@test.com", stay(2, 4), 60_000));
+			assertNotNull(bookingRepository.holdBooking(CAMPSITE_ID, "other@test.com", stay(3, 12), 60_000));
+		} finally {
+			holdExpiryWheel.close();
+			bookingChangeApplier.close();
+		}
+	}
+
+	private DateRange stay(int startOffset, int endOffset) {
+		return new DateRange(firstNight.plusDays(startOffset), firstNight.plusDays(endOffset));
+	}
+
+	// Journal which fails every append once it starts failing, as a journal which can no longer write does
+	private static class FailingBookingJournal extends NoOpBookingJournal {
+		private volatile boolean failing;
+
+		@Override
+		public CompletableFuture<Void> append(List<BookingDetail> bookings) {
+			return failing ? CompletableFuture.failedFuture(new IOException("No space left on device")) : super.append(bookings);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import org.junit.jupiter.api.AfterEach;
+
+import java.util.UUID;
+
+class JdbcBookingRepositoryTests extends BookingRepositoryContractTests {
+
+	private JdbcBookingRepository jdbcBookingRepository;
+
+	@Override
+	BookingRepository openRepository(BookingCache bookingCache, BookingChangeApplier bookingChangeApplier,
+			HoldExpiryWheel holdExpiryWheel, ReservationMetrics reservationMetrics) {
+		// A database of its own for every test
+		jdbcBookingRepository = new JdbcBookingRepository("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "", 4,
+				bookingCache, bookingChangeApplier, holdExpiryWheel, new SnowflakeBookingIdGenerator(0), reservationMetrics);
+		return jdbcBookingRepository;
+	}
+
+	@AfterEach
+	void closeDatabase() {
+		jdbcBookingRepository.close();
+	}
+}
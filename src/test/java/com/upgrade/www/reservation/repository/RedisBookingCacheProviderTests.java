@@ -0,0 +1,92 @@
+package com.upgrade.www.reservation.repository;
+
+import com.upgrade.www.reservation.models.common.DateRange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RedisBookingCacheProviderTests {
+
+	private static final int CAMPSITES = 3;
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private final RespStandInServer server = new RespStandInServer();
+	private final RedisBookingCacheProvider redisProvider = openProvider();
+
+	RedisBookingCacheProviderTests() throws Exception {
+	}
+
+	@AfterEach
+	void closeServer() throws Exception {
+		redisProvider.close();
+		server.close();
+	}
+
+	@Test
+	void testAvailabilityMatchesTheInProcessCache() {
+		final BookingCache redisCache = new BookingCache(redisProvider);
+		final BookingCache inProcessCache = new BookingCache(new InProcessBookingCacheProvider());
+		final Random random = new Random(42);
+
+		for (int burst = 0; burst < 200; burst++) {
+			final Map<Integer, Map<Integer, long[]>> campsiteWordMasks = new HashMap<>();
+			for (int change = 0; change < 5; change++) {
+				final long startDay = firstNight.toEpochDay() + random.nextInt(200);
+				final long endDay = startDay + 1 + random.nextInt(3);
+				final boolean booked = random.nextBoolean();
+				final Map<Integer, long[]> wordMasks = campsiteWordMasks.computeIfAbsent(random.nextInt(CAMPSITES), id -> new HashMap<>());
+				for (long day = startDay; day < endDay; day++) {
+					final long[] masks = wordMasks.computeIfAbsent((int) (day >>> EpochDayBitmap.WORD_SHIFT), word -> new long[2]);
+					masks[booked ? 0 : 1] |= 1L << day;
+					masks[booked ? 1 : 0] &= ~(1L << day);
+				}
+			}
+			redisCache.applyWords(campsiteWordMasks);
+			inProcessCache.applyWords(campsiteWordMasks);
+		}
+
+		for (int campsiteId = 0; campsiteId < CAMPSITES; campsiteId++) {
+			for (int start = 0; start < 200; start += 7) {
+				final DateRange dateRange = new DateRange(firstNight.plusDays(start), firstNight.plusDays(start + 1 + start % 90));
+				assertEquals(inProcessCache.getAvailableDates(campsiteId, dateRange), redisCache.getAvailableDates(campsiteId, dateRange));
+			}
+		}
+	}
+
+	@Test
+	void testRangeIsFetchedWithOneMultiGetOverAPooledConnection() {
+		final BookingCache bookingCache = new BookingCache(redisProvider);
+		bookingCache.restoreBookedDates(1, new DateRange(firstNight, firstNight.plusDays(200)));
+		bookingCache.restoreCancelledDates(1, new DateRange(firstNight.plusDays(10), firstNight.plusDays(12)));
+
+		final DateRange year = new DateRange(firstNight, firstNight.plusDays(365));
+		final int lookups = server.getCommandCount("MGET");
+		assertEquals(165 + 2, bookingCache.getAvailableDates(1, year).size());
+		assertEquals(lookups + 1, server.getCommandCount("MGET"));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	void testNightsBookedThroughOneInstanceAreSeenByAnother() throws Exception {
+		final RedisBookingCacheProvider otherProvider = openProvider();
+		try {
+			new BookingCache(redisProvider).restoreBookedDates(1, new DateRange(firstNight, firstNight.plusDays(2)));
+
+			final DateRange dateRange = new DateRange(firstNight, firstNight.plusDays(3));
+			assertEquals(List.of(firstNight.plusDays(2)), new BookingCache(otherProvider).getAvailableDates(1, dateRange));
+		} finally {
+			otherProvider.close();
+		}
+	}
+
+	private RedisBookingCacheProvider openProvider() {
+		return new RedisBookingCacheProvider("localhost", server.getPort(), 2, 1000, "test:booked");
+	}
+}
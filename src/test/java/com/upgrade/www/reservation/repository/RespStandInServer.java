@@ -0,0 +1,159 @@
+package com.upgrade.www.reservation.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In process stand-in for a Redis server speaking just enough RESP for the cache provider: MGET, SETBIT and PEXPIREAT
+ */
+class RespStandInServer implements AutoCloseable {
+
+	private final ServerSocket serverSocket = new ServerSocket(0);
+	private final Map<String, byte[]> values = new HashMap<>();
+	private final Map<String, AtomicInteger> commandCounts = new ConcurrentHashMap<>();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	RespStandInServer() throws IOException {
+		final Thread acceptor = new Thread(this::accept, "resp-stand-in");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	int getCommandCount(String command) {
+		final AtomicInteger count = commandCounts.get(command);
+		return count == null ? 0 : count.get();
+	}
+
+	int getConnectionCount() {
+		return connections.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				connections.incrementAndGet();
+				final Thread handler = new Thread(() -> serve(socket), "resp-stand-in-connection");
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException exception) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket) {
+			final InputStream input = new BufferedInputStream(socket.getInputStream());
+			final OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+			byte[][] command;
+			while ((command = readCommand(input)) != null) {
+				execute(command, output);
+				// Replies of a pipeline are flushed together once its commands are all read
+				if (input.available() == 0) {
+					output.flush();
+				}
+			}
+		} catch (IOException exception) {
+			// Connection closed by the client
+		}
+	}
+
+	private void execute(byte[][] command, OutputStream output) throws IOException {
+		final String name = new String(command[0], StandardCharsets.US_ASCII).toUpperCase();
+		commandCounts.computeIfAbsent(name, key -> new AtomicInteger()).incrementAndGet();
+		synchronized (values) {
+			switch (name) {
+				case "MGET":
+					output.write(("*" + (command.length - 1) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+					for (int i = 1; i < command.length; i++) {
+						final byte[] value = values.get(new String(command[i], StandardCharsets.UTF_8));
+						if (value == null) {
+							output.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+						} else {
+							output.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+							output.write(value);
+							output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+						}
+					}
+					return;
+				case "SETBIT": {
+					final String key = new String(command[1], StandardCharsets.UTF_8);
+					final int offset = Integer.parseInt(new String(command[2], StandardCharsets.US_ASCII));
+					byte[] value = values.getOrDefault(key, new byte[0]);
+					if (value.length <= offset >>> 3) {
+						value = Arrays.copyOf(value, (offset >>> 3) + 1);
+					}
+					final int bit = 0x80 >>> (offset & 7);
+					final int previous = (value[offset >>> 3] & bit) != 0 ? 1 : 0;
+					if (command[3][0] == '1') {
+						value[offset >>> 3] |= bit;
+					} else {
+						value[offset >>> 3] &= ~bit;
+					}
+					values.put(key, value);
+					output.write((":" + previous + "\r\n").getBytes(StandardCharsets.US_ASCII));
+					return;
+				}
+				case "PEXPIREAT":
+					// Expiry is not simulated
+					output.write((values.containsKey(new String(command[1], StandardCharsets.UTF_8)) ? ":1\r\n" : ":0\r\n").getBytes(StandardCharsets.US_ASCII));
+					return;
+				default:
+					output.write(("-ERR unknown command '" + name + "'\r\n").getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+	}
+
+	private static byte[][] readCommand(InputStream input) throws IOException {
+		final int type = input.read();
+		if (type == -1) {
+			return null;
+		}
+		if (type != '*') {
+			throw new IOException("Commands must be arrays of bulk strings");
+		}
+		final byte[][] command = new byte[Integer.parseInt(readLine(input))][];
+		for (int i = 0; i < command.length; i++) {
+			if (input.read() != '$') {
+				throw new IOException("Commands must be arrays of bulk strings");
+			}
+			command[i] = input.readNBytes(Integer.parseInt(readLine(input)));
+			readLine(input);
+		}
+		return command;
+	}
+
+	private static String readLine(InputStream input) throws IOException {
+		final StringBuilder line = new StringBuilder();
+		int current;
+		while ((current = input.read()) != '\r') {
+			if (current == -1) {
+				throw new IOException("Connection closed");
+			}
+			line.append((char) current);
+		}
+		input.read();
+		return line.toString();
+	}
+}
@@ -0,0 +1,111 @@
+package com.upgrade.www.reservation.repository.id;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeBookingIdGeneratorTests {
+
+	private static final int THREADS = 8;
+	private static final int IDS_PER_THREAD = 20_000;
+
+	@Test
+	void testIdsAreUniqueAndTimeOrderedAcrossThreads() throws Exception {
+		final SnowflakeBookingIdGenerator idGenerator = new SnowflakeBookingIdGenerator(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final Set<String> ids = new HashSet<>();
+
+		try {
+			final List<Future<List<String>>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(() -> {
+					final List<String> threadIds = new ArrayList<>(IDS_PER_THREAD);
+					for (int j = 0; j < IDS_PER_THREAD; j++) {
+						threadIds.add(idGenerator.nextId());
+					}
+					return threadIds;
+				}));
+			}
+			for (Future<List<String>> future : futures) {
+				final List<String> threadIds = future.get();
+				for (int j = 1; j < threadIds.size(); j++) {
+					assertTrue(threadIds.get(j - 1).compareTo(threadIds.get(j)) < 0, "Ids of a thread should be in the order they were taken");
+				}
+				ids.addAll(threadIds);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+		for (String id : ids) {
+			assertEquals(SnowflakeBookingIdGenerator.ID_LENGTH, id.length());
+			assertTrue(id.matches("[0-9A-HJKMNP-TV-Z]+"), "Id should be Crockford base32: " + id);
+		}
+	}
+
+	@Test
+	void testBurstsAndClockStepsNeverRepeatASnowflake() {
+		final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+		final SnowflakeBookingIdGenerator idGenerator = new SnowflakeBookingIdGenerator(1, clock);
+
+		long previous = -1;
+		// More ids than the sequence holds in a millisecond carry into the following milliseconds
+		for (int i = 0; i < 10_000; i++) {
+			final long snowflake = idGenerator.nextSnowflake();
+			assertTrue(snowflake > previous);
+			previous = snowflake;
+		}
+		clock.instant = clock.instant.minusSeconds(1);
+		assertTrue(idGenerator.nextSnowflake() > previous);
+	}
+
+	@Test
+	void testNodesAndRestartsDoNotShareIds() {
+		final Clock clock = Clock.fixed(Instant.parse("2026-01-01T00:00:00Z"), ZoneOffset.UTC);
+
+		assertNotEquals(new SnowflakeBookingIdGenerator(1, clock).nextSnowflake(), new SnowflakeBookingIdGenerator(2, clock).nextSnowflake());
+		// The same snowflake from a restarted node gets a different tag
+		assertNotEquals(new SnowflakeBookingIdGenerator(1, clock).nextId(), new SnowflakeBookingIdGenerator(1, clock).nextId());
+		assertThrows(IllegalArgumentException.class, () -> new SnowflakeBookingIdGenerator(SnowflakeBookingIdGenerator.MAX_NODE_ID + 1));
+	}
+
+	private static class MutableClock extends Clock {
+
+		private Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		@Override
+		public ZoneOffset getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+}
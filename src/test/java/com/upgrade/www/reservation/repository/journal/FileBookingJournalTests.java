@@ -0,0 +1,297 @@
+package com.upgrade.www.reservation.repository.journal;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.BookingExport;
+import com.upgrade.www.reservation.repository.BookingRepository;
+import com.upgrade.www.reservation.repository.HoldExpiryWheel;
+import com.upgrade.www.reservation.repository.InProcessBookingCacheProvider;
+import com.upgrade.www.reservation.repository.InMemoryBookingRepository;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileBookingJournalTests {
+
+	private static final int CAMPSITE_ID = 1;
+	private static final int CAMPSITES = 10;
+	private static final int RECORDS_PER_CAMPSITE = 200;
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+
+	@TempDir
+	Path journalDirectory;
+
+	private final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(100, 512);
+	private FileBookingJournal bookingJournal;
+
+	@AfterEach
+	void closeJournal() throws IOException {
+		holdExpiryWheel.close();
+		if (bookingJournal != null) {
+			bookingJournal.close();
+		}
+	}
+
+	@Test
+	void testBookingsAreRecoveredAfterRestart() throws Exception {
+		final List<BookingDetail> bookings = new ArrayList<>();
+		final BookingRepository bookingRepository = openRepository(journalDirectory);
+
+		// Concurrent commits for different nights share group commits
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<BookingDetail>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				final DateRange night = nightRange(i);
+				futures.add(executor.submit(() -> bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", night)));
+			}
+			for (Future<BookingDetail> future : futures) {
+				bookings.add(future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		final BookingDetail modifiedBooking = bookingRepository.modifyBooking(bookings.get(0), nightRange(25));
+		bookingRepository.cancelBooking(bookings.get(1));
+
+		final BookingRepository recoveredRepository = openRepository(journalDirectory);
+
+		assertEquals(BookingStatus.CANCELLED, recoveredRepository.getBookingDetails(bookings.get(0).getId(), "guest@test.com").getStatus());
+		assertEquals(BookingStatus.CANCELLED, recoveredRepository.getBookingDetails(bookings.get(1).getId(), "guest@test.com").getStatus());
+		assertEquals(BookingStatus.CONFIRMED, recoveredRepository.getBookingDetails(modifiedBooking.getId(), "guest@test.com").getStatus());
+		assertThrows(ReservationException.class, () -> recoveredRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(25)));
+		assertThrows(ReservationException.class, () -> recoveredRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(2)));
+		assertNotNull(recoveredRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(0)));
+		// The email index is rebuilt from the recovered records
+		assertEquals(21, recoveredRepository.getGuestBookings("guest@test.com").size());
+		assertEquals(1, recoveredRepository.getGuestBookings("other@test.com").size());
+	}
+
+	@Test
+	void testTornEntryIsDiscarded() throws Exception {
+		final BookingDetail booking = openRepository(journalDirectory).completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(0));
+		bookingJournal.close();
+
+		// Simulate a crash in the middle of writing the next entry
+		final ByteBuffer tornEntry = JournalEntryCodec.encode(List.of(new BookingDetail("torn-booking", CAMPSITE_ID, "torn@test.com", nightRange(1), BookingStatus.CONFIRMED)));
+		tornEntry.limit(tornEntry.limit() - 3);
+		try (FileChannel channel = FileChannel.open(bookingJournal.segmentPath(0), StandardOpenOption.APPEND)) {
+			channel.write(tornEntry);
+		}
+		bookingJournal = null;
+
+		final BookingRepository recoveredRepository = openRepository(journalDirectory);
+		assertNotNull(recoveredRepository.getBookingDetails(booking.getId(), "guest@test.com"));
+		assertNotNull(recoveredRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(1)));
+
+		// Entries appended after the truncated tail are readable on the next restart
+		final BookingRepository restartedRepository = openRepository(journalDirectory);
+		assertThrows(ReservationException.class, () -> restartedRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(1)));
+	}
+
+	@Test
+	void testEmptyLastSegmentIsStartedOver() throws Exception {
+		assertSegmentWithTornHeaderIsStartedOver(0);
+	}
+
+	@Test
+	void testLastSegmentWithTornHeaderIsStartedOver() throws Exception {
+		assertSegmentWithTornHeaderIsStartedOver(3);
+	}
+
+	@Test
+	void testRecoveryFromSnapshotAndJournalTail() throws Exception {
+		final BookingRepository bookingRepository = openRepository(journalDirectory);
+		final BookingDetail cancelledBooking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(0));
+		final BookingDetail snapshotBooking = bookingRepository.completeBooking(2, "guest@test.com", nightRange(1));
+		bookingRepository.cancelBooking(cancelledBooking);
+		bookingRepository.checkpoint();
+
+		// Only the tail written after the snapshot is left in the journal
+		assertFalse(Files.exists(bookingJournal.segmentPath(0)));
+		final BookingDetail tailBooking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(3));
+		bookingRepository.cancelBooking(snapshotBooking);
+
+		final BookingRepository recoveredRepository = openRepository(journalDirectory);
+		assertEquals(BookingStatus.CANCELLED, recoveredRepository.getBookingDetails(cancelledBooking.getId(), "guest@test.com").getStatus());
+		assertEquals(BookingStatus.CANCELLED, recoveredRepository.getBookingDetails(snapshotBooking.getId(), "guest@test.com").getStatus());
+		assertEquals(BookingStatus.CONFIRMED, recoveredRepository.getBookingDetails(tailBooking.getId(), "guest@test.com").getStatus());
+		assertNotNull(recoveredRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(0)));
+		assertNotNull(recoveredRepository.completeBooking(2, "other@test.com", nightRange(1)));
+		assertThrows(ReservationException.class, () -> recoveredRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(3)));
+	}
+
+	@Test
+	void testManyRecordsAreRecoveredFromTheJournalAndFromTheSnapshot() throws Exception {
+		final BookingRepository bookingRepository = openRepository(journalDirectory);
+		final List<Future<List<BookingDetail>>> futures = new ArrayList<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(CAMPSITES);
+		try {
+			// One writer per campsite so the commits share group commits, each booking gets its own night
+			for (int campsiteId = 0; campsiteId < CAMPSITES; campsiteId++) {
+				final int writerCampsiteId = campsiteId;
+				futures.add(executor.submit(() -> {
+					final List<BookingDetail> campsiteBookings = new ArrayList<>();
+					for (int i = 0; i < RECORDS_PER_CAMPSITE; i++) {
+						campsiteBookings.add(bookingRepository.completeBooking(writerCampsiteId, "guest" + i + "@test.com", nightRange(i)));
+					}
+					return campsiteBookings;
+				}));
+			}
+		} finally {
+			executor.shutdown();
+		}
+		final List<BookingDetail> bookings = new ArrayList<>();
+		for (Future<List<BookingDetail>> future : futures) {
+			bookings.addAll(future.get());
+		}
+
+		// Full journal replay
+		assertRecovered(openRepository(journalDirectory), bookings);
+		// Snapshot load, with a booking logged after the checkpoint replayed on top of it
+		final BookingRepository checkpointedRepository = openRepository(journalDirectory);
+		checkpointedRepository.checkpoint();
+		bookings.add(checkpointedRepository.completeBooking(CAMPSITE_ID, "late@test.com", nightRange(RECORDS_PER_CAMPSITE)));
+		assertRecovered(openRepository(journalDirectory), bookings);
+	}
+
+	@Test
+	void testIncrementalExportResumesAcrossACheckpointAndARestart() throws Exception {
+		final BookingRepository bookingRepository = openRepository(journalDirectory);
+		final BookingDetail unchangedBooking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(0));
+		final BookingDetail cancelledBooking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(1));
+		final long exportVersion;
+		try (BookingExport export = bookingRepository.exportBookings(null, 0)) {
+			assertEquals(2, readAll(export).size());
+			exportVersion = export.getVersion();
+		}
+
+		// Changed after the export, before and after the checkpoint
+		bookingRepository.cancelBooking(cancelledBooking);
+		final BookingDetail snapshotBooking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(2));
+		bookingRepository.checkpoint();
+		final BookingDetail journalBooking = bookingRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(3));
+
+		final BookingRepository recoveredRepository = openRepository(journalDirectory);
+		assertEquals(journalBooking.getVersion(), recoveredRepository.getBookingDetails(journalBooking.getId(), "guest@test.com").getVersion());
+		final BookingDetail bookingAfterRestart = recoveredRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(4));
+		assertTrue(bookingAfterRestart.getVersion() > journalBooking.getVersion());
+		try (BookingExport export = recoveredRepository.exportBookings(null, exportVersion)) {
+			final Set<String> changedIds = new HashSet<>();
+			for (BookingDetail record : readAll(export)) {
+				changedIds.add(record.getId());
+				if (record.getId().equals(cancelledBooking.getId())) {
+					assertEquals(BookingStatus.CANCELLED, record.getStatus());
+				}
+			}
+			assertEquals(Set.of(cancelledBooking.getId(), snapshotBooking.getId(), journalBooking.getId(), bookingAfterRestart.getId()), changedIds);
+			assertFalse(changedIds.contains(unchangedBooking.getId()));
+		}
+	}
+
+	@Test
+	void testOnlyConfirmedHoldsAreRecoveredAfterRestart() throws Exception {
+		final BookingRepository bookingRepository = openRepository(journalDirectory);
+		final BookingDetail confirmedHold = bookingRepository.confirmHold(
+				bookingRepository.holdBooking(CAMPSITE_ID, "guest@test.com", nightRange(0), 60_000));
+		final BookingDetail openHold = bookingRepository.holdBooking(CAMPSITE_ID, "other@test.com", nightRange(1), 60_000);
+		bookingRepository.checkpoint();
+		final BookingDetail heldAfterCheckpoint = bookingRepository.holdBooking(CAMPSITE_ID, "other@test.com", nightRange(2), 60_000);
+
+		final BookingRepository recoveredRepository = openRepository(journalDirectory);
+		assertEquals(BookingStatus.CONFIRMED, recoveredRepository.getBookingDetails(confirmedHold.getId(), "guest@test.com").getStatus());
+		assertNull(recoveredRepository.getBookingDetails(openHold.getId(), "other@test.com"));
+		assertNull(recoveredRepository.getBookingDetails(heldAfterCheckpoint.getId(), "other@test.com"));
+		assertNotNull(recoveredRepository.completeBooking(CAMPSITE_ID, "other@test.com", new DateRange(nightRange(1).getStartDate(), nightRange(2).getEndDate())));
+		assertThrows(ReservationException.class, () -> recoveredRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(0)));
+	}
+
+	private void assertRecovered(BookingRepository recoveredRepository, List<BookingDetail> bookings) {
+		for (BookingDetail booking : bookings) {
+			final BookingDetail recoveredBooking = recoveredRepository.getBookingDetails(booking.getId(), booking.getEmail());
+			assertNotNull(recoveredBooking);
+			assertEquals(booking.getCampsiteId(), recoveredBooking.getCampsiteId());
+			assertEquals(booking.getStartDate(), recoveredBooking.getStartDate());
+		}
+		// The recovered nights are taken again
+		for (int campsiteId = 0; campsiteId < CAMPSITES; campsiteId++) {
+			final int bookedCampsiteId = campsiteId;
+			assertThrows(ReservationException.class,
+					() -> recoveredRepository.completeBooking(bookedCampsiteId, "other@test.com", nightRange(RECORDS_PER_CAMPSITE - 1)));
+		}
+	}
+
+	// Simulates a crash while rolling to the next segment, after creating it and before its header is durable
+	private void assertSegmentWithTornHeaderIsStartedOver(int headerBytesWritten) throws Exception {
+		final BookingDetail booking = openRepository(journalDirectory).completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(0));
+		bookingJournal.close();
+		final Path nextSegment = bookingJournal.segmentPath(1);
+		final ByteBuffer header = ByteBuffer.allocate(FileBookingJournal.FILE_HEADER_BYTES).putInt(FileBookingJournal.MAGIC)
+				.putShort(FileBookingJournal.VERSION).flip().limit(headerBytesWritten);
+		try (FileChannel channel = FileChannel.open(nextSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			channel.write(header);
+		}
+		bookingJournal = null;
+
+		final BookingRepository recoveredRepository = openRepository(journalDirectory);
+		assertNotNull(recoveredRepository.getBookingDetails(booking.getId(), "guest@test.com"));
+		assertEquals(FileBookingJournal.FILE_HEADER_BYTES, Files.size(nextSegment));
+		final BookingDetail nextBooking = recoveredRepository.completeBooking(CAMPSITE_ID, "guest@test.com", nightRange(1));
+
+		// Entries appended to the segment started over are readable on the next restart
+		final BookingRepository restartedRepository = openRepository(journalDirectory);
+		assertNotNull(restartedRepository.getBookingDetails(nextBooking.getId(), "guest@test.com"));
+		assertThrows(ReservationException.class, () -> restartedRepository.completeBooking(CAMPSITE_ID, "other@test.com", nightRange(0)));
+	}
+
+	private static List<BookingDetail> readAll(BookingExport export) {
+		final List<BookingDetail> records = new ArrayList<>();
+		export.forEachRemaining(records::add);
+		return records;
+	}
+
+	private BookingRepository openRepository(Path directory) throws IOException {
+		if (bookingJournal != null) {
+			bookingJournal.close();
+		}
+		bookingJournal = new FileBookingJournal(directory.toString());
+		final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+		final ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+		return new InMemoryBookingRepository(bookingCache, new BookingChangeApplier(bookingCache, reservationMetrics), holdExpiryWheel,
+				new SnowflakeBookingIdGenerator(0), bookingJournal, new FileBookingSnapshotStore(directory.toString()), reservationMetrics);
+	}
+
+	private DateRange nightRange(int offset) {
+		return new DateRange(firstNight.plusDays(offset), firstNight.plusDays(offset + 1));
+	}
+}
@@ -0,0 +1,226 @@
+package com.upgrade.www.reservation.repository.replication;
+
+import com.upgrade.www.reservation.exceptions.ReservationException;
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.HoldExpiryWheel;
+import com.upgrade.www.reservation.repository.InMemoryBookingRepository;
+import com.upgrade.www.reservation.repository.InProcessBookingCacheProvider;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingJournal;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingSnapshotStore;
+import com.upgrade.www.reservation.service.WriteAdmission;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A leader and its followers each run their own repository stack in this JVM and talk over localhost TCP
+ */
+class ReplicationTests {
+
+	private static final int CAMPSITE_ID = 1;
+	private static final String EMAIL = "guest@test.com";
+	private static final String SECRET = "replication-secret";
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private final List<Runnable> closers = new ArrayList<>();
+	private Instance leader;
+	private WriteAdmission writeAdmission;
+	private ReplicationLeader replicationLeader;
+
+	@BeforeEach
+	void startLeader() throws Exception {
+		leader = new Instance(0);
+		// A single write at a time and none waiting, the tests forward one write after the other
+		writeAdmission = new WriteAdmission(1, 1, 0, 0, 50, 1, leader.reservationMetrics);
+		replicationLeader = new ReplicationLeader("127.0.0.1", 0, SECRET, 1000, leader.bookingRepository, leader.bookingChangeApplier, writeAdmission);
+		closers.add(replicationLeader::close);
+	}
+
+	@AfterEach
+	void stopInstances() {
+		for (int i = closers.size() - 1; i >= 0; i--) {
+			closers.get(i).run();
+		}
+	}
+
+	@Test
+	void testFollowerTakesASnapshotOfTheExistingBookings() throws Exception {
+		final BookingDetail booking = leader.bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+
+		final Follower follower = startFollower(1);
+		awaitCondition(() -> follower.replica.getBookingDetails(booking.getId(), EMAIL) != null);
+
+		assertEquals(BookingStatus.CONFIRMED, follower.repository.getBookingDetails(booking.getId(), EMAIL).getStatus());
+		assertEquals(1, follower.repository.getGuestBookings(EMAIL).size());
+	}
+
+	@Test
+	void testFollowerReadsItsOwnWrites() throws Exception {
+		final Follower follower = startFollower(1);
+
+		final BookingDetail booking = follower.repository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+		assertNotNull(follower.repository.getBookingDetails(booking.getId(), EMAIL));
+		assertNotNull(leader.bookingRepository.getBookingDetails(booking.getId(), EMAIL));
+
+		final BookingDetail modifiedBooking = follower.repository.modifyBooking(booking, stay(1, 4));
+		assertEquals(BookingStatus.CANCELLED, follower.repository.getBookingDetails(booking.getId(), EMAIL).getStatus());
+		assertEquals(BookingStatus.CONFIRMED, follower.repository.getBookingDetails(modifiedBooking.getId(), EMAIL).getStatus());
+
+		follower.repository.cancelBooking(modifiedBooking);
+		assertEquals(BookingStatus.CANCELLED, follower.repository.getBookingDetails(modifiedBooking.getId(), EMAIL).getStatus());
+	}
+
+	@Test
+	void testLeaderRejectsConflictingWritesOfFollowers() throws Exception {
+		final Follower follower = startFollower(1);
+		final Follower otherFollower = startFollower(2);
+
+		follower.repository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+
+		final ReservationException exception = assertThrows(ReservationException.class,
+				() -> otherFollower.repository.completeBooking(CAMPSITE_ID, "other@test.com", stay(2, 4)));
+		assertEquals("Camp site not available for the selected dates", exception.getMessage());
+		assertNotNull(otherFollower.repository.completeBooking(CAMPSITE_ID, "other@test.com", stay(3, 5)));
+	}
+
+	@Test
+	void testLeaderWritesReachEveryFollower() throws Exception {
+		final Follower follower = startFollower(1);
+		final Follower otherFollower = startFollower(2);
+
+		final BookingDetail booking = leader.bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+		leader.bookingRepository.cancelBooking(booking);
+
+		for (Follower instance : List.of(follower, otherFollower)) {
+			awaitCondition(() -> {
+				final BookingDetail replicatedBooking = instance.replica.getBookingDetails(booking.getId(), EMAIL);
+				return replicatedBooking != null && replicatedBooking.getStatus() == BookingStatus.CANCELLED;
+			});
+		}
+		// The cancelled nights are free in the availability cache of the follower
+		awaitCondition(() -> follower.instance.bookingCache.getAvailableDates(CAMPSITE_ID, stay(0, 3)).size() == 3);
+	}
+
+	@Test
+	void testFollowerReportsNoLagOnceCaughtUp() throws Exception {
+		final Follower follower = startFollower(1);
+		for (int night = 0; night < 10; night++) {
+			leader.bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(night, night + 1));
+		}
+
+		awaitCondition(() -> follower.replicationFollower.getLastVersion() == leader.bookingChangeApplier.getAppliedVersion());
+		// The next heartbeat of the idle leader finds the follower caught up
+		awaitCondition(() -> follower.instance.meterRegistry.get("reservation.replication.lag").gauge().value() == 0.0);
+		assertEquals(0.0, follower.instance.meterRegistry.get("reservation.replication.behind").gauge().value());
+	}
+
+	@Test
+	void testConnectionsWhichDoNotKnowTheSecretAreRefused() throws Exception {
+		leader.bookingRepository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3));
+
+		try (Socket socket = new Socket("127.0.0.1", replicationLeader.getPort())) {
+			final DataInputStream input = new DataInputStream(socket.getInputStream());
+			socket.getOutputStream().write(ReplicationProtocol.SUBSCRIBE);
+			final byte[] challenge = ReplicationProtocol.readChallenge(input);
+			socket.getOutputStream().write(ReplicationProtocol.answer("wrong-secret", challenge));
+			// Closed without a snapshot
+			assertEquals(-1, input.read());
+		}
+
+		final FollowerBookingRepository repository = new FollowerBookingRepository("127.0.0.1", replicationLeader.getPort(), 5000,
+				"wrong-secret", new Instance(1).bookingRepository, leader.bookingChangeApplier);
+		closers.add(repository::close);
+		assertThrows(ReservationException.class, () -> repository.completeBooking(CAMPSITE_ID, EMAIL, stay(4, 5)));
+		assertEquals(1, leader.bookingRepository.getGuestBookings(EMAIL).size());
+	}
+
+	@Test
+	void testForwardedWritesPassTheAdmissionOfTheLeader() throws Exception {
+		final Follower follower = startFollower(1);
+
+		try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+			final TooManyRequestsException exception = assertThrows(TooManyRequestsException.class,
+					() -> follower.repository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3)));
+			assertEquals(1, exception.getRetryAfterSeconds());
+		}
+		assertNotNull(follower.repository.completeBooking(CAMPSITE_ID, EMAIL, stay(0, 3)));
+	}
+
+	private Follower startFollower(int nodeId) throws Exception {
+		final Follower follower = new Follower(new Instance(nodeId), replicationLeader.getPort());
+		closers.add(follower::close);
+		// Writes forwarded before the snapshot landed would wait on versions the follower has not caught up to yet
+		awaitCondition(() -> follower.replicationFollower.getLastVersion() != 0L);
+		return follower;
+	}
+
+	private DateRange stay(int firstNightOffset, int checkoutOffset) {
+		return new DateRange(firstNight.plusDays(firstNightOffset), firstNight.plusDays(checkoutOffset));
+	}
+
+	private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+			Thread.sleep(10);
+		}
+	}
+
+	private class Instance {
+		private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		private final ReservationMetrics reservationMetrics = new ReservationMetrics(meterRegistry);
+		private final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+		private final BookingChangeApplier bookingChangeApplier = new BookingChangeApplier(bookingCache, reservationMetrics);
+		private final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(10, 64);
+		private final InMemoryBookingRepository bookingRepository;
+
+		Instance(int nodeId) {
+			bookingRepository = new InMemoryBookingRepository(bookingCache, bookingChangeApplier, holdExpiryWheel,
+					new SnowflakeBookingIdGenerator(nodeId), new NoOpBookingJournal(), new NoOpBookingSnapshotStore(), reservationMetrics);
+			closers.add(() -> {
+				holdExpiryWheel.close();
+				bookingChangeApplier.close();
+			});
+		}
+	}
+
+	private static class Follower {
+		private final Instance instance;
+		private final InMemoryBookingRepository replica;
+		private final ReplicationFollower replicationFollower;
+		private final FollowerBookingRepository repository;
+
+		Follower(Instance instance, int leaderPort) {
+			this.instance = instance;
+			this.replica = instance.bookingRepository;
+			this.replicationFollower = new ReplicationFollower("localhost", leaderPort, SECRET, replica, instance.reservationMetrics);
+			this.repository = new FollowerBookingRepository("localhost", leaderPort, 5000, SECRET, replica, instance.bookingChangeApplier);
+		}
+
+		void close() {
+			repository.close();
+			replicationFollower.close();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.upgrade.www.reservation.service;
+
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.AvailabilityWindow;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.models.dbo.BookingDetail;
+import com.upgrade.www.reservation.models.output.AvailabilityChangeResponse;
+import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.InProcessBookingCacheProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AvailabilityFeedTests {
+
+	private static final int CAMPSITE_ID = 1;
+
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private final BookingChangeApplier bookingChangeApplier = new BookingChangeApplier(new BookingCache(new InProcessBookingCacheProvider()),
+			new ReservationMetrics(new SimpleMeterRegistry()));
+	private final AvailabilityFeed availabilityFeed = new AvailabilityFeed(bookingChangeApplier);
+
+	@AfterEach
+	void closeApplier() {
+		bookingChangeApplier.close();
+	}
+
+	@Test
+	void testChangesAreClippedToTheWindowOfTheSubscription() {
+		final AvailabilityFeed.Subscription subscription = availabilityFeed.subscribe(window(CAMPSITE_ID, 2, 5));
+		subscription.start(() -> { });
+
+		availabilityFeed.changeApplied(1, emptyList(), List.of(booking(CAMPSITE_ID, 0, 3), booking(CAMPSITE_ID + 1, 2, 5)));
+
+		final AvailabilityChangeResponse change = subscription.poll();
+		assertEquals(List.of(night(2)), change.getBookedDates());
+		assertEquals(emptyList(), change.getFreedDates());
+		assertEquals(1, change.getVersion());
+		assertNull(subscription.poll());
+	}
+
+	@Test
+	void testChangesWaitingForTheConsumerAreFoldedPerNight() {
+		final AtomicInteger signals = new AtomicInteger();
+		final AvailabilityFeed.Subscription subscription = availabilityFeed.subscribe(window(CAMPSITE_ID, 0, 10));
+		subscription.start(signals::incrementAndGet);
+
+		final BookingDetail booking = booking(CAMPSITE_ID, 0, 3);
+		availabilityFeed.changeApplied(1, emptyList(), List.of(booking));
+		availabilityFeed.changeApplied(2, List.of(booking), List.of(booking(CAMPSITE_ID, 1, 4)));
+
+		// The consumer was signalled once and reads the latest state of every night touched by both changes
+		assertEquals(1, signals.get());
+		final AvailabilityChangeResponse change = subscription.poll();
+		assertEquals(List.of(night(1), night(2), night(3)), change.getBookedDates());
+		assertEquals(List.of(night(0)), change.getFreedDates());
+		assertEquals(2, change.getVersion());
+
+		availabilityFeed.changeApplied(3, List.of(booking(CAMPSITE_ID, 1, 4)), emptyList());
+		assertEquals(2, signals.get());
+	}
+
+	@Test
+	void testChangesBeforeStartAreSignalledOnStart() {
+		final AtomicInteger signals = new AtomicInteger();
+		final AvailabilityFeed.Subscription subscription = availabilityFeed.subscribe(window(CAMPSITE_ID, 0, 10));
+
+		availabilityFeed.changeApplied(1, emptyList(), List.of(booking(CAMPSITE_ID, 0, 3)));
+		assertEquals(0, signals.get());
+
+		subscription.start(signals::incrementAndGet);
+		assertEquals(1, signals.get());
+		assertEquals(3, subscription.poll().getBookedDates().size());
+	}
+
+	@Test
+	void testCancelledSubscriptionHearsNoMoreChanges() {
+		final AtomicInteger signals = new AtomicInteger();
+		final AvailabilityFeed.Subscription subscription = availabilityFeed.subscribe(window(CAMPSITE_ID, 0, 10));
+		subscription.start(signals::incrementAndGet);
+		subscription.cancel();
+
+		availabilityFeed.changeApplied(1, emptyList(), List.of(booking(CAMPSITE_ID, 0, 3)));
+
+		assertEquals(0, signals.get());
+		assertNull(subscription.poll());
+	}
+
+	@Test
+	void testCancelDropsTheChangesWaitingToBePolled() {
+		final AvailabilityFeed.Subscription subscription = availabilityFeed.subscribe(window(CAMPSITE_ID, 0, 10));
+		subscription.start(() -> { });
+		availabilityFeed.changeApplied(1, emptyList(), List.of(booking(CAMPSITE_ID, 0, 3)));
+
+		subscription.cancel();
+
+		assertNull(subscription.poll());
+	}
+
+	private AvailabilityWindow window(int campsiteId, int firstNightOffset, int endOffset) {
+		return new AvailabilityWindow(campsiteId, new DateRange(night(firstNightOffset), night(endOffset)), 0);
+	}
+
+	private BookingDetail booking(int campsiteId, int firstNightOffset, int checkoutOffset) {
+		return new BookingDetail("id", campsiteId, "guest@test.com", new DateRange(night(firstNightOffset), night(checkoutOffset)),
+				BookingStatus.CONFIRMED);
+	}
+
+	private LocalDate night(int offset) {
+		return firstNight.plusDays(offset);
+	}
+}
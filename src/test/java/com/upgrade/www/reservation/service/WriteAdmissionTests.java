@@ -0,0 +1,87 @@
+package com.upgrade.www.reservation.service;
+
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAdmissionTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void testWritesBeyondTheQueueAreRejectedAndQueuedWritesAreAdmittedInTurn() throws Exception {
+		final WriteAdmission writeAdmission = new WriteAdmission(1, 1, 1, 5_000, 1_000, 2, new ReservationMetrics(meterRegistry));
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			final WriteAdmission.Permit permit = writeAdmission.acquire();
+			final CountDownLatch admitted = new CountDownLatch(1);
+			final Future<?> queuedWrite = executor.submit(() -> {
+				try (WriteAdmission.Permit queuedPermit = writeAdmission.acquire()) {
+					admitted.countDown();
+				}
+				return null;
+			});
+
+			while (meterRegistry.get("reservation.admission.queued").gauge().value() < 1) {
+				Thread.sleep(1);
+			}
+			final TooManyRequestsException exception = assertThrows(TooManyRequestsException.class, writeAdmission::acquire);
+			assertEquals(2, exception.getRetryAfterSeconds());
+			assertFalse(admitted.await(50, TimeUnit.MILLISECONDS));
+
+			permit.close();
+			// Closing again must not free a second slot
+			permit.close();
+			queuedWrite.get(10, TimeUnit.SECONDS);
+			assertTrue(admitted.await(0, TimeUnit.MILLISECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, meterRegistry.get("reservation.bookings.rejected").tag("reason", ReservationMetrics.REJECTED_OVERLOADED).counter().count());
+	}
+
+	@Test
+	void testQueuedWritesGiveUpAfterTheMaxWait() throws Exception {
+		final WriteAdmission writeAdmission = new WriteAdmission(1, 1, 8, 20, 1_000, 1, new ReservationMetrics(meterRegistry));
+
+		try (WriteAdmission.Permit permit = writeAdmission.acquire()) {
+			assertThrows(TooManyRequestsException.class, writeAdmission::acquire);
+		}
+		writeAdmission.acquire().close();
+	}
+
+	@Test
+	void testLimitGrowsWithFastWritesAndBacksOffOnSlowWrites() throws Exception {
+		final WriteAdmission writeAdmission = new WriteAdmission(2, 4, 8, 1_000, 20, 1, new ReservationMetrics(meterRegistry));
+
+		// Fast writes which use up the whole limit raise it
+		for (int i = 0; i < 20; i++) {
+			final WriteAdmission.Permit first = writeAdmission.acquire();
+			final WriteAdmission.Permit second = writeAdmission.acquire();
+			second.close();
+			first.close();
+		}
+		assertTrue(writeAdmission.getLimit() > 2);
+
+		final int limit = writeAdmission.getLimit();
+		final WriteAdmission.Permit slowWrite = writeAdmission.acquire();
+		Thread.sleep(40);
+		slowWrite.close();
+		assertTrue(writeAdmission.getLimit() < limit);
+		assertEquals(writeAdmission.getLimit(), meterRegistry.get("reservation.admission.limit").gauge().value());
+	}
+}
@@ -0,0 +1,153 @@
+package com.upgrade.www.reservation.service.allocation;
+
+import com.upgrade.www.reservation.exceptions.TooManyRequestsException;
+import com.upgrade.www.reservation.metrics.ReservationMetrics;
+import com.upgrade.www.reservation.models.common.BookingStatus;
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.repository.BookingCache;
+import com.upgrade.www.reservation.repository.BookingChangeApplier;
+import com.upgrade.www.reservation.repository.BookingRepository;
+import com.upgrade.www.reservation.repository.HoldExpiryWheel;
+import com.upgrade.www.reservation.repository.InProcessBookingCacheProvider;
+import com.upgrade.www.reservation.repository.InMemoryBookingRepository;
+import com.upgrade.www.reservation.repository.id.SnowflakeBookingIdGenerator;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingJournal;
+import com.upgrade.www.reservation.repository.journal.NoOpBookingSnapshotStore;
+import com.upgrade.www.reservation.validators.BookableWindow;
+import com.upgrade.www.reservation.validators.DateValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReleaseAllocatorTests {
+
+	private static final int CAMPSITE_ID = 1;
+
+	private final LocalDate today = LocalDate.now(BookableWindow.CAMPSITE_TIMEZONE).plusDays(1);
+	// Start date released at the next midnight
+	private final LocalDate releasedNight = today.plusDays(31);
+	private final MutableClock clock = new MutableClock(today.atTime(23, 58).atZone(BookableWindow.CAMPSITE_TIMEZONE).toInstant());
+	private final BookableWindow bookableWindow = new BookableWindow(clock);
+	private final DateValidator dateValidator = new DateValidator(bookableWindow);
+	private final ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+	private final BookingCache bookingCache = new BookingCache(new InProcessBookingCacheProvider());
+	private final BookingChangeApplier bookingChangeApplier = new BookingChangeApplier(bookingCache, reservationMetrics);
+	private final HoldExpiryWheel holdExpiryWheel = new HoldExpiryWheel(100, 64);
+	private final BookingRepository bookingRepository = new InMemoryBookingRepository(bookingCache, bookingChangeApplier, holdExpiryWheel,
+			new SnowflakeBookingIdGenerator(0), new NoOpBookingJournal(), new NoOpBookingSnapshotStore(), reservationMetrics);
+
+	@AfterEach
+	void closeRepository() {
+		holdExpiryWheel.close();
+		bookingChangeApplier.close();
+	}
+
+	@Test
+	void testOnlyRequestsForTheNextReleaseAreCollectedWithinTheWindow() throws Exception {
+		final ReleaseAllocator releaseAllocator = openAllocator(true, 100, new FifoAllocationPolicy());
+
+		assertNotNull(releaseAllocator.collect(CAMPSITE_ID, "guest@test.com", stay(0, 2)));
+		assertNull(releaseAllocator.collect(CAMPSITE_ID, "guest@test.com", new DateRange(releasedNight.minusDays(1), releasedNight)));
+		assertNull(releaseAllocator.collect(CAMPSITE_ID, "guest@test.com", stay(0, 4)));
+		assertNull(openAllocator(false, 100, new FifoAllocationPolicy()).collect(CAMPSITE_ID, "guest@test.com", stay(0, 2)));
+
+		clock.instant = today.atTime(23, 50).atZone(BookableWindow.CAMPSITE_TIMEZONE).toInstant();
+		assertNull(releaseAllocator.collect(CAMPSITE_ID, "guest@test.com", stay(0, 2)));
+
+		clock.instant = today.atTime(23, 59).atZone(BookableWindow.CAMPSITE_TIMEZONE).toInstant();
+		final ReleaseAllocator fullAllocator = openAllocator(true, 1, new FifoAllocationPolicy());
+		fullAllocator.collect(CAMPSITE_ID, "guest@test.com", stay(0, 2));
+		assertThrows(TooManyRequestsException.class, () -> fullAllocator.collect(CAMPSITE_ID, "other@test.com", stay(0, 2)));
+	}
+
+	@Test
+	void testCollectedRequestsAreAllocatedInArrivalOrderAfterMidnight() throws Exception {
+		final ReleaseAllocator releaseAllocator = openAllocator(true, 100, new FifoAllocationPolicy());
+		final ReleaseTicket first = releaseAllocator.collect(CAMPSITE_ID, "first@test.com", stay(0, 2));
+		final ReleaseTicket conflicting = releaseAllocator.collect(CAMPSITE_ID, "second@test.com", stay(0, 1));
+		final ReleaseTicket otherCampsite = releaseAllocator.collect(CAMPSITE_ID + 1, "third@test.com", stay(0, 3));
+
+		// Nothing is allocated before the nights are released
+		releaseAllocator.allocate();
+		assertFalse(first.isAllocated());
+
+		clock.instant = today.plusDays(1).atStartOfDay(BookableWindow.CAMPSITE_TIMEZONE).toInstant();
+		// Requests for the released start date keep being collected until it is allocated
+		final ReleaseTicket late = releaseAllocator.collect(CAMPSITE_ID, "late@test.com", stay(0, 1));
+		assertNotNull(late);
+		releaseAllocator.allocate();
+
+		assertEquals(BookingStatus.CONFIRMED, first.getBooking().getStatus());
+		assertNull(conflicting.getBooking());
+		assertNotNull(conflicting.getError());
+		assertEquals(BookingStatus.CONFIRMED, otherCampsite.getBooking().getStatus());
+		assertNull(late.getBooking());
+		assertEquals(first.getBooking(), bookingRepository.getBookingDetails(first.getBooking().getId(), "first@test.com"));
+		assertEquals(first, releaseAllocator.getTicket(first.getId(), "first@test.com"));
+		assertNull(releaseAllocator.getTicket(first.getId(), "second@test.com"));
+		// Once allocated the start date is booked as usual
+		assertNull(releaseAllocator.collect(CAMPSITE_ID, "late@test.com", stay(0, 1)));
+	}
+
+	@Test
+	void testLotteryBooksOneOfTheConflictingRequests() throws Exception {
+		final ReleaseAllocator releaseAllocator = openAllocator(true, 100, new LotteryAllocationPolicy());
+		final List<ReleaseTicket> tickets = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			tickets.add(releaseAllocator.collect(CAMPSITE_ID, "guest" + i + "@test.com", stay(0, 3)));
+		}
+
+		clock.instant = today.plusDays(1).atTime(0, 0, 1).atZone(BookableWindow.CAMPSITE_TIMEZONE).toInstant();
+		releaseAllocator.allocate();
+
+		assertTrue(tickets.stream().allMatch(ReleaseTicket::isAllocated));
+		assertEquals(1, tickets.stream().filter(ticket -> ticket.getBooking() != null).count());
+	}
+
+	private ReleaseAllocator openAllocator(boolean enabled, int maxRequests, AllocationPolicy allocationPolicy) {
+		return new ReleaseAllocator(enabled, 300, maxRequests, bookableWindow, dateValidator, bookingRepository,
+				new SnowflakeBookingIdGenerator(0), allocationPolicy);
+	}
+
+	private DateRange stay(int startOffset, int endOffset) {
+		return new DateRange(releasedNight.plusDays(startOffset), releasedNight.plusDays(endOffset));
+	}
+
+	private static class MutableClock extends Clock {
+
+		private Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return BookableWindow.CAMPSITE_TIMEZONE;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.upgrade.www.reservation.validators;
+
+import com.upgrade.www.reservation.models.common.DateRange;
+import com.upgrade.www.reservation.repository.BookingCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookableWindowTests {
+
+	private static final LocalDate TODAY = LocalDate.of(2026, 3, 10);
+
+	@Test
+	void testWindowAdvancesAtMidnightOfTheCampsiteTimezone() {
+		final MutableClock clock = new MutableClock(TODAY.atTime(23, 59, 59).atZone(BookableWindow.CAMPSITE_TIMEZONE).toInstant());
+		final BookableWindow bookableWindow = new BookableWindow(clock);
+
+		final DateRange defaultRange = bookableWindow.getDefaultAvailabilityRange();
+		assertEquals(TODAY, bookableWindow.getToday());
+		assertEquals(TODAY.plusDays(1), defaultRange.getStartDate());
+		assertEquals(TODAY.plusDays(30), defaultRange.getEndDate());
+		assertSame(defaultRange, bookableWindow.getDefaultAvailabilityRange());
+		assertFalse(bookableWindow.roll());
+
+		// Readers advance the window themselves when the roll-over runs late
+		clock.instant = TODAY.plusDays(1).atStartOfDay(BookableWindow.CAMPSITE_TIMEZONE).toInstant();
+		assertEquals(TODAY.plusDays(1), bookableWindow.getToday());
+		assertEquals(TODAY.plusDays(2), bookableWindow.getDefaultAvailabilityRange().getStartDate());
+		assertFalse(bookableWindow.roll());
+
+		clock.instant = clock.instant.plusSeconds(24 * 60 * 60);
+		assertTrue(bookableWindow.roll());
+		assertEquals(TODAY.plusDays(2), bookableWindow.getToday());
+	}
+
+	@Test
+	void testDatesAreValidatedAgainstTheCachedToday() {
+		final ZonedDateTime now = TODAY.atTime(12, 0).atZone(BookableWindow.CAMPSITE_TIMEZONE);
+		final DateValidator dateValidator = new DateValidator(new BookableWindow(Clock.fixed(now.toInstant(), BookableWindow.CAMPSITE_TIMEZONE)));
+
+		assertFalse(dateValidator.validateBookingDates(new DateRange(TODAY, TODAY.plusDays(1))));
+		assertTrue(dateValidator.validateBookingDates(new DateRange(TODAY.plusDays(1), TODAY.plusDays(4))));
+		assertFalse(dateValidator.validateBookingDates(new DateRange(TODAY.plusDays(1), TODAY.plusDays(5))));
+		assertTrue(dateValidator.validateAvailabilityDataRange(new DateRange(TODAY.plusDays(30), TODAY.plusDays(33))));
+		assertFalse(dateValidator.validateAvailabilityDataRange(new DateRange(TODAY.plusDays(31), TODAY.plusDays(33))));
+		// Ranges ending before they start or past the booking calendar are rejected rather than failing the lookup
+		assertFalse(dateValidator.validateAvailabilityDataRange(new DateRange(TODAY.plusDays(5), TODAY.plusDays(4))));
+		assertTrue(dateValidator.validateAvailabilityDataRange(new DateRange(TODAY.plusDays(5), BookingCache.CALENDAR_END)));
+		assertFalse(dateValidator.validateAvailabilityDataRange(new DateRange(TODAY.plusDays(5), BookingCache.CALENDAR_END.plusDays(1))));
+		assertFalse(dateValidator.validateAvailabilityDataRange(new DateRange(TODAY.plusDays(5), LocalDate.of(3000, 1, 1))));
+	}
+
+	private static class MutableClock extends Clock {
+
+		private Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return BookableWindow.CAMPSITE_TIMEZONE;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+}